@@ -0,0 +1,122 @@
+/**
+ * Throughput of the SimpleBeauty stages on the synthetic portrait, in megapixels
+ * per second, best of a few rounds:
+ *   BeautyBenchmark [--rounds n] [megapixels...]    (default 2 12 48)
+ * Every line is "size stage MP/s" so a CI job can compare it with earlier runs.
+ */
+#include <chrono>
+#include <functional>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+#include "TestImage.h"
+#include "../../main/cpp/beauty/SimpleBeauty.h"
+#include "../../main/cpp/simd/PixelKernels.h"
+
+static int rounds = 3;
+
+static double bestSeconds(const std::function<void()> &run) {
+    double best = 1e30;
+    for (int i = 0; i < rounds; i++) {
+        auto start = std::chrono::steady_clock::now();
+        run();
+        double seconds = std::chrono::duration<double>(
+                std::chrono::steady_clock::now() - start).count();
+        if (seconds < best)
+            best = seconds;
+    }
+    return best;
+}
+
+/** 4:3 image of about megapixels */
+static void sizeOf(int megapixels, int *width, int *height) {
+    switch (megapixels) {
+        case 2:
+            *width = 1632;
+            *height = 1224;
+            return;
+        case 12:
+            *width = 4000;
+            *height = 3000;
+            return;
+        case 48:
+            *width = 8000;
+            *height = 6000;
+            return;
+        default:
+            *height = 1;
+            while ((int64_t) *height * *height * 4 / 3 < megapixels * 1000000LL)
+                (*height)++;
+            *width = *height * 4 / 3;
+    }
+}
+
+static void report(int width, int height, const char *stage, double seconds) {
+    printf("%dx%d %-12s %8.1f MP/s\n", width, height, stage,
+           (double) width * height / 1e6 / seconds);
+}
+
+static void benchmark(int megapixels) {
+    int width, height;
+    sizeOf(megapixels, &width, &height);
+    std::vector<uint32_t> pixels = makeTestImage(width, height);
+    std::vector<uint32_t> original = pixels;
+    size_t count = pixels.size();
+    JniBitmap bitmap;
+    bitmap._storedBitmapPixels = pixels.data();
+    bitmap._bitmapInfo.width = (uint32_t) width;
+    bitmap._bitmapInfo.height = (uint32_t) height;
+    bitmap._bitmapInfo.stride = (uint32_t) width * 4;
+    bitmap._bitmapInfo.format = ANDROID_BITMAP_FORMAT_RGBA_8888;
+    bitmap._bitmapInfo.flags = 0;
+
+    SimpleBeauty session;
+    SimpleBeauty *beauty = &session;
+    report(width, height, "init", bestSeconds([&] {
+        beauty->initMagicBeauty(&bitmap);
+    }));
+    // whitening alone first, smoothing is still off
+    report(width, height, "whitening", bestSeconds([&] {
+        beauty->startSkinWhite(3);
+    }));
+    // white level 1 is the identity, so this is smoothing alone
+    report(width, height, "smoothing", bestSeconds([&] {
+        beauty->startBeauty(10 + 5 * 5 * 5, 1);
+    }));
+    report(width, height, "beauty", bestSeconds([&] {
+        beauty->startBeauty(10 + 7 * 7 * 5, 4);
+    }));
+
+    const PixelKernels &kernels = PixelKernels::get();
+    std::vector<uint8_t> ycbcr(count * 3);
+    report(width, height, "rgbToYCbCr", bestSeconds([&] {
+        kernels.rgbToYCbCr((const uint8_t *) original.data(), ycbcr.data(), (int) count);
+    }));
+    report(width, height, "yCbCrToRgb", bestSeconds([&] {
+        kernels.yCbCrToRgb(ycbcr.data(), (uint8_t *) pixels.data(), (int) count);
+    }));
+    printf("%dx%d %s mode, %d threads, %s kernels\n", width, height,
+           beauty->isLeanMode() ? "lean" : "full", beauty->getThreadCount(), kernels.name);
+}
+
+int main(int argc, char **argv) {
+    std::vector<int> sizes;
+    for (int i = 1; i < argc; i++) {
+        if (strcmp(argv[i], "--rounds") == 0 && i + 1 < argc) {
+            rounds = atoi(argv[++i]);
+        } else {
+            sizes.push_back(atoi(argv[i]));
+        }
+    }
+    if (sizes.empty()) {
+        sizes.push_back(2);
+        sizes.push_back(12);
+        sizes.push_back(48);
+    }
+    for (int megapixels : sizes) {
+        if (megapixels > 0)
+            benchmark(megapixels);
+    }
+    return 0;
+}
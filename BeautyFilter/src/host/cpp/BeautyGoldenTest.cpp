@@ -0,0 +1,117 @@
+/**
+ * Golden image regression test of SimpleBeauty: renders a fixed sequence of levels
+ * on the synthetic portrait and compares a hash of every result with the recorded one.
+ * Lean mode has to reproduce the full mode images exactly.
+ * Run with --print to record new hashes after an intended change of the output.
+ */
+#include <inttypes.h>
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+#include "TestImage.h"
+#include "../../main/cpp/beauty/SimpleBeauty.h"
+
+/** the level the JNI layer hands to SimpleBeauty for a smooth level in [0, 10] */
+static float smoothSigma(float level) {
+    return 10 + level * level * 5;
+}
+
+#define STEP_COUNT 8
+
+struct GoldenCase {
+    const char *name;
+    int width;
+    int height;
+    int64_t memoryBudget;
+    // one hash per step of runSteps()
+    uint64_t hashes[STEP_COUNT];
+};
+
+static const char *STEP_NAMES[STEP_COUNT] = {
+        "smooth 3", "smooth 7.5", "smooth 10", "white 2.5",
+        "smooth 0", "beauty 5/4", "white 1", "preview 5/4",
+};
+
+// lean mode renders the same images, only its proxy works out its own statistics
+static const GoldenCase CASES[] = {
+        {"640x480", 640, 480, 0,
+         {0x2456f7a3a6191d42ULL, 0xeeda4315fc489c19ULL, 0x1cb0569c13f5e088ULL, 0x165fd97d89af585cULL,
+          0x6c744cf6faaed422ULL, 0x0a09ecd6f64c11deULL, 0x2107185558150be7ULL, 0xd476ea3186c3ef34ULL}},
+        {"640x480 lean", 640, 480, 1,
+         {0x2456f7a3a6191d42ULL, 0xeeda4315fc489c19ULL, 0x1cb0569c13f5e088ULL, 0x165fd97d89af585cULL,
+          0x6c744cf6faaed422ULL, 0x0a09ecd6f64c11deULL, 0x2107185558150be7ULL, 0xb0fe35390ade8010ULL}},
+        {"333x517", 333, 517, 0,
+         {0x2ef7060f93d03b94ULL, 0x4bf0a423dd38ca30ULL, 0xea5ae32669ea2106ULL, 0x6c425c7ac65df96eULL,
+          0x7be29c83d1cf2450ULL, 0x8000aeab9fddfa82ULL, 0x2b177713e8396dccULL, 0x2e4329da9bb24ff1ULL}},
+};
+
+static void runSteps(const GoldenCase &golden, uint64_t *hashes) {
+    std::vector<uint32_t> pixels = makeTestImage(golden.width, golden.height);
+    JniBitmap bitmap;
+    bitmap._storedBitmapPixels = pixels.data();
+    bitmap._bitmapInfo.width = (uint32_t) golden.width;
+    bitmap._bitmapInfo.height = (uint32_t) golden.height;
+    bitmap._bitmapInfo.stride = (uint32_t) golden.width * 4;
+    bitmap._bitmapInfo.format = ANDROID_BITMAP_FORMAT_RGBA_8888;
+    bitmap._bitmapInfo.flags = 0;
+    size_t count = pixels.size();
+
+    SimpleBeauty session;
+    SimpleBeauty *beauty = &session;
+    beauty->setMemoryBudget(golden.memoryBudget);
+    beauty->initMagicBeauty(&bitmap);
+    int step = 0;
+    const float smoothLevels[] = {3, 7.5f, 10};
+    for (float level : smoothLevels) {
+        beauty->startSkinSmooth(smoothSigma(level));
+        hashes[step++] = hashPixels(pixels.data(), count);
+    }
+    beauty->startSkinWhite(2.5f);
+    hashes[step++] = hashPixels(pixels.data(), count);
+    beauty->startSkinSmooth(smoothSigma(0));
+    hashes[step++] = hashPixels(pixels.data(), count);
+    beauty->startBeauty(smoothSigma(5), 4);
+    hashes[step++] = hashPixels(pixels.data(), count);
+    beauty->startSkinWhite(1);
+    hashes[step++] = hashPixels(pixels.data(), count);
+    JniBitmap *preview = nullptr;
+    if (beauty->initPreview(golden.width / 3, golden.height / 3)
+        && beauty->startPreview(smoothSigma(5), 4)) {
+        preview = beauty->getPreviewBitmap();
+    }
+    hashes[step++] = preview == nullptr ? 0 : hashPixels(preview->_storedBitmapPixels,
+            (size_t) preview->_bitmapInfo.width * preview->_bitmapInfo.height);
+}
+
+int main(int argc, char **argv) {
+    bool print = argc > 1 && strcmp(argv[1], "--print") == 0;
+    int failures = 0;
+    for (const GoldenCase &golden : CASES) {
+        uint64_t hashes[STEP_COUNT];
+        runSteps(golden, hashes);
+        if (print) {
+            printf("        {\"%s\", %d, %d, %" PRId64 ",\n         {", golden.name, golden.width,
+                   golden.height, golden.memoryBudget);
+            for (int i = 0; i < STEP_COUNT; i++) {
+                printf("0x%016" PRIx64 "ULL%s", hashes[i], i == STEP_COUNT - 1 ? "}},\n"
+                        : i == 3 ? ",\n          " : ", ");
+            }
+            continue;
+        }
+        for (int i = 0; i < STEP_COUNT; i++) {
+            if (hashes[i] != golden.hashes[i]) {
+                printf("FAIL %s, %s: hash 0x%016" PRIx64 ", expected 0x%016" PRIx64 "\n",
+                       golden.name, STEP_NAMES[i], hashes[i], golden.hashes[i]);
+                failures++;
+            }
+        }
+    }
+    if (print)
+        return 0;
+    if (failures > 0) {
+        printf("%d mismatches\n", failures);
+        return 1;
+    }
+    printf("all %d cases match their golden images\n", (int) (sizeof(CASES) / sizeof(CASES[0])));
+    return 0;
+}
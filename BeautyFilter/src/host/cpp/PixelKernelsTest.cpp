@@ -0,0 +1,146 @@
+/**
+ * Checks that every vector variant of PixelKernels produces exactly the bytes of
+ * the scalar reference, then prints the throughput of each variant.
+ * Exits with 1 on the first mismatch.
+ */
+#include <chrono>
+#include <random>
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+#include "../../main/cpp/simd/PixelKernels.h"
+
+#define ALL_COLORS (1 << 24)
+#define BENCH_PIXELS (12 * 1000 * 1000)
+#define BENCH_ROUNDS 5
+
+static int failures = 0;
+
+static void expectEqual(const char *kernel, const char *variant, int length,
+                        const uint8_t *expected, const uint8_t *actual, size_t size) {
+    if (memcmp(expected, actual, size) == 0)
+        return;
+    size_t at = 0;
+    while (expected[at] == actual[at])
+        at++;
+    printf("FAIL %s/%s length=%d: byte %zu is %d, expected %d\n",
+           kernel, variant, length, at, actual[at], expected[at]);
+    failures++;
+}
+
+/** every color once, then short runs at odd offsets for the tails */
+static void checkVariant(const PixelKernels &kernels, const std::vector<uint32_t> &colors,
+                         const std::vector<uint8_t> &ycbcrs) {
+    const PixelKernels &reference = PixelKernels::scalar();
+    std::vector<uint8_t> expected(ALL_COLORS * 4 + 64);
+    std::vector<uint8_t> actual(ALL_COLORS * 4 + 64);
+    std::mt19937 random(7);
+    uint8_t lut[256 + 3] = {0};
+    for (int c = 0; c < 256; c++) {
+        lut[c] = (uint8_t) random();
+    }
+
+    std::vector<int> lengths;
+    lengths.push_back(ALL_COLORS);
+    for (int i = 0; i < 64; i++) {
+        lengths.push_back((int) (random() % 41));
+    }
+    for (int length : lengths) {
+        int start = length == ALL_COLORS ? 0 : (int) (random() % 1000);
+        const uint8_t *rgb = (const uint8_t *) (colors.data() + start);
+        const uint8_t *ycbcr = ycbcrs.data() + start * 3;
+
+        reference.rgbToYCbCr(rgb, expected.data(), length);
+        kernels.rgbToYCbCr(rgb, actual.data(), length);
+        expectEqual("rgbToYCbCr", kernels.name, length, expected.data(), actual.data(),
+                    (size_t) length * 3);
+
+        reference.yCbCrToRgb(ycbcr, expected.data(), length);
+        kernels.yCbCrToRgb(ycbcr, actual.data(), length);
+        expectEqual("yCbCrToRgb", kernels.name, length, expected.data(), actual.data(),
+                    (size_t) length * 4);
+
+        reference.buildSkinMask(colors.data() + start, expected.data(), length);
+        kernels.buildSkinMask(colors.data() + start, actual.data(), length);
+        expectEqual("buildSkinMask", kernels.name, length, expected.data(), actual.data(),
+                    (size_t) length);
+
+        reference.applyChannelLut(colors.data() + start, (uint32_t *) expected.data(), length, lut);
+        kernels.applyChannelLut(colors.data() + start, (uint32_t *) actual.data(), length, lut);
+        expectEqual("applyChannelLut", kernels.name, length, expected.data(), actual.data(),
+                    (size_t) length * 4);
+    }
+}
+
+template<typename Kernel>
+static double megapixelsPerSecond(Kernel kernel) {
+    double best = 0;
+    for (int round = 0; round < BENCH_ROUNDS; round++) {
+        auto start = std::chrono::steady_clock::now();
+        kernel();
+        double seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - start).count();
+        double rate = BENCH_PIXELS / seconds / 1e6;
+        if (rate > best)
+            best = rate;
+    }
+    return best;
+}
+
+static void benchmark(const PixelKernels &kernels) {
+    std::vector<uint32_t> pixels(BENCH_PIXELS);
+    std::vector<uint8_t> ycbcr(BENCH_PIXELS * 3);
+    std::vector<uint32_t> out(BENCH_PIXELS);
+    std::vector<uint8_t> mask(BENCH_PIXELS);
+    std::mt19937 random(11);
+    for (uint32_t &pixel : pixels) {
+        pixel = random() | 0xff000000;
+    }
+    double toYCbCr = megapixelsPerSecond([&] {
+        kernels.rgbToYCbCr((const uint8_t *) pixels.data(), ycbcr.data(), BENCH_PIXELS);
+    });
+    double toRgb = megapixelsPerSecond([&] {
+        kernels.yCbCrToRgb(ycbcr.data(), (uint8_t *) out.data(), BENCH_PIXELS);
+    });
+    double skin = megapixelsPerSecond([&] {
+        kernels.buildSkinMask(pixels.data(), mask.data(), BENCH_PIXELS);
+    });
+    uint8_t lut[256 + 3] = {0};
+    for (int c = 0; c < 256; c++) {
+        lut[c] = (uint8_t) (255 - c);
+    }
+    double channelLut = megapixelsPerSecond([&] {
+        kernels.applyChannelLut(pixels.data(), out.data(), BENCH_PIXELS, lut);
+    });
+    printf("%-8s rgbToYCbCr %7.1f  yCbCrToRgb %7.1f  buildSkinMask %7.1f  applyChannelLut %7.1f MP/s\n",
+           kernels.name, toYCbCr, toRgb, skin, channelLut);
+}
+
+int main() {
+    // every RGB color with a random alpha, and every Y, Cb, Cr triple
+    std::vector<uint32_t> colors(ALL_COLORS + 1024);
+    std::vector<uint8_t> ycbcrs((ALL_COLORS + 1024) * 3);
+    std::mt19937 random(3);
+    for (uint32_t i = 0; i < colors.size(); i++) {
+        uint32_t color = i & 0xffffff;
+        colors[i] = color | (random() << 24);
+        ycbcrs[i * 3] = (uint8_t) color;
+        ycbcrs[i * 3 + 1] = (uint8_t) (color >> 8);
+        ycbcrs[i * 3 + 2] = (uint8_t) (color >> 16);
+    }
+
+    std::vector<const PixelKernels *> variants = PixelKernels::available();
+    for (const PixelKernels *kernels : variants) {
+        if (kernels != &PixelKernels::scalar())
+            checkVariant(*kernels, colors, ycbcrs);
+    }
+    if (failures > 0) {
+        printf("%d mismatches\n", failures);
+        return 1;
+    }
+    printf("all variants match the scalar reference, dispatch picks %s\n",
+           PixelKernels::get().name);
+    for (const PixelKernels *kernels : variants) {
+        benchmark(*kernels);
+    }
+    return 0;
+}
@@ -0,0 +1,53 @@
+#ifndef _TEST_IMAGE_H_
+#define _TEST_IMAGE_H_
+
+#include <stdint.h>
+#include <vector>
+
+/**
+ * Deterministic stand-in for a portrait: a shaded background with a skin toned
+ * ellipse in the middle and some grain, so the skin matrix and the smoothing both
+ * have work to do. Pixels are RGBA_8888 bytes, like an Android bitmap.
+ */
+inline std::vector<uint32_t> makeTestImage(int width, int height) {
+    std::vector<uint32_t> pixels((size_t) width * height);
+    uint32_t seed = 12345;
+    double cx = width / 2.0, cy = height / 2.0;
+    double rx = width * 0.3, ry = height * 0.4;
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            seed = seed * 1103515245u + 12345u;
+            int grain = (int) ((seed >> 24) % 24) - 12;
+            double dx = (x - cx) / rx, dy = (y - cy) / ry;
+            int r, g, b;
+            if (dx * dx + dy * dy < 1.0) {
+                r = 205 + (x * 20 / width) + grain;
+                g = 150 + (y * 30 / height) + grain;
+                b = 120 + grain / 2;
+            } else {
+                r = 40 + (x * 90 / width) + grain;
+                g = 70 + (y * 60 / height) + grain;
+                b = 110 + ((x ^ y) & 63) + grain;
+            }
+            uint8_t *out = (uint8_t *) &pixels[(size_t) y * width + x];
+            out[0] = (uint8_t) (r < 0 ? 0 : r > 255 ? 255 : r);
+            out[1] = (uint8_t) (g < 0 ? 0 : g > 255 ? 255 : g);
+            out[2] = (uint8_t) (b < 0 ? 0 : b > 255 ? 255 : b);
+            out[3] = 255;
+        }
+    }
+    return pixels;
+}
+
+/** FNV-1a of the pixels, what the golden tests compare */
+inline uint64_t hashPixels(const uint32_t *pixels, size_t count) {
+    uint64_t hash = 14695981039346656037ULL;
+    const uint8_t *bytes = (const uint8_t *) pixels;
+    for (size_t i = 0; i < count * 4; i++) {
+        hash ^= bytes[i];
+        hash *= 1099511628211ULL;
+    }
+    return hash;
+}
+
+#endif
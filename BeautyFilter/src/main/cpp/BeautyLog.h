@@ -0,0 +1,18 @@
+#ifndef _BEAUTY_LOG_H_
+#define _BEAUTY_LOG_H_
+
+/**
+ * LOGD/LOGE of the native core: the android log on a device, stderr in the
+ * host build. Define LOG_TAG before including it.
+ */
+#ifdef __ANDROID__
+#include <android/log.h>
+#define  LOGD(...)  __android_log_print(ANDROID_LOG_DEBUG,LOG_TAG,__VA_ARGS__)
+#define  LOGE(...)  __android_log_print(ANDROID_LOG_ERROR,LOG_TAG,__VA_ARGS__)
+#else
+#include <stdio.h>
+#define  LOGD(...)  (fprintf(stderr, "D/" LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#define  LOGE(...)  (fprintf(stderr, "E/" LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#endif
+
+#endif
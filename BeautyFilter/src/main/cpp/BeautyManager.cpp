@@ -15,46 +15,163 @@
 extern "C" {
 #endif
 
-JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeInitBeauty(
-	JNIEnv * env, jobject obj, jobject handle) {
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
+	JNIEnv* env;
+	if (vm->GetEnv((void**) &env, JNI_VERSION_1_6) != JNI_OK)
+		return JNI_ERR;
+	BitmapOperation::initJniCache(env);
+	return JNI_VERSION_1_6;
+}
+
+// every session owns one SimpleBeauty, its address is the jlong handed to Java
+static inline SimpleBeauty* toBeauty(jlong beauty) {
+	return reinterpret_cast<SimpleBeauty*>(beauty);
+}
+
+JNIEXPORT jlong JNICALL Java_com_frank_beautyfilter_BeautySession_nativeCreate(
+	JNIEnv * env, jobject obj) {
+	return reinterpret_cast<jlong>(new SimpleBeauty());
+}
+
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeDestroy(
+	JNIEnv * env, jobject obj, jlong beauty) {
+	delete toBeauty(beauty);
+}
+
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeInitBeauty(
+	JNIEnv * env, jobject obj, jlong beauty, jobject handle) {
 	auto* jniBitmap = (JniBitmap*) env->GetDirectBufferAddress(handle);
-	if (jniBitmap->_storedBitmapPixels == nullptr) {
+	PixelLock lock(env, jniBitmap);
+	if (!lock.isLocked()) {
 		LOGE("no bitmap data was stored. returning null...");
 		return;
 	}
-	SimpleBeauty::getInstance()->initMagicBeauty(jniBitmap);
+	toBeauty(beauty)->initMagicBeauty(jniBitmap);
 }
 
-JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeStartSkinWhite(
-	JNIEnv * env, jobject obj, jfloat whiteLevel) {
-	SimpleBeauty::getInstance()->startSkinWhite(whiteLevel);
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeSetMemoryBudget(
+	JNIEnv * env, jobject obj, jlong beauty, jlong bytes) {
+	toBeauty(beauty)->setMemoryBudget(bytes);
 }
 
-JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeStartSkinSmooth(
-	JNIEnv * env, jobject obj, jfloat DenoiseLevel) {
+JNIEXPORT jboolean JNICALL Java_com_frank_beautyfilter_BeautySession_nativeIsLeanMode(
+	JNIEnv * env, jobject obj, jlong beauty) {
+	return (jboolean) toBeauty(beauty)->isLeanMode();
+}
+
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeStartSkinWhite(
+	JNIEnv * env, jobject obj, jlong beauty, jobject handle, jfloat whiteLevel) {
+	PixelLock lock(env, (JniBitmap*) env->GetDirectBufferAddress(handle));
+	if (lock.isLocked())
+		toBeauty(beauty)->startSkinWhite(whiteLevel);
+}
+
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeStartSkinSmooth(
+	JNIEnv * env, jobject obj, jlong beauty, jobject handle, jfloat DenoiseLevel) {
 	float sigema = 10 + DenoiseLevel * DenoiseLevel * 5;
-	SimpleBeauty::getInstance()->startSkinSmooth(sigema);
+	PixelLock lock(env, (JniBitmap*) env->GetDirectBufferAddress(handle));
+	if (lock.isLocked())
+		toBeauty(beauty)->startSkinSmooth(sigema);
 }
 
-JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeUnInitBeauty(
-	JNIEnv * env, jobject obj) {
-	SimpleBeauty::getInstance()->unInitMagicBeauty();
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeStartBeauty(
+	JNIEnv * env, jobject obj, jlong beauty, jobject handle, jfloat DenoiseLevel, jfloat whiteLevel) {
+	float sigema = 10 + DenoiseLevel * DenoiseLevel * 5;
+	PixelLock lock(env, (JniBitmap*) env->GetDirectBufferAddress(handle));
+	if (lock.isLocked())
+		toBeauty(beauty)->startBeauty(sigema, whiteLevel);
+}
+
+// a NaN level is left as it was
+JNIEXPORT jboolean JNICALL Java_com_frank_beautyfilter_BeautySession_nativeRunBeautyJob(
+	JNIEnv * env, jobject obj, jlong beauty, jobject handle, jfloat DenoiseLevel, jfloat whiteLevel, jlong ticket) {
+	float sigema = 10 + DenoiseLevel * DenoiseLevel * 5;
+	PixelLock lock(env, (JniBitmap*) env->GetDirectBufferAddress(handle));
+	if (!lock.isLocked())
+		return JNI_FALSE;
+	return (jboolean) toBeauty(beauty)->startBeauty(sigema, whiteLevel, ticket);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_frank_beautyfilter_BeautySession_nativeRestoreBeautyJob(
+	JNIEnv * env, jobject obj, jlong beauty, jobject handle, jlong ticket) {
+	PixelLock lock(env, (JniBitmap*) env->GetDirectBufferAddress(handle));
+	if (!lock.isLocked())
+		return JNI_FALSE;
+	return (jboolean) toBeauty(beauty)->restoreBeauty(ticket);
 }
 
-JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeSetBitmap(
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeCancelJob(
+	JNIEnv * env, jobject obj, jlong beauty, jlong ticket) {
+	toBeauty(beauty)->cancel(ticket);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_frank_beautyfilter_BeautySession_nativeInitPreview(
+	JNIEnv * env, jobject obj, jlong beauty, jint maxWidth, jint maxHeight) {
+	return (jboolean) toBeauty(beauty)->initPreview(maxWidth, maxHeight);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_frank_beautyfilter_BeautySession_nativeRunPreviewJob(
+	JNIEnv * env, jobject obj, jlong beauty, jfloat DenoiseLevel, jfloat whiteLevel, jlong ticket) {
+	float sigema = 10 + DenoiseLevel * DenoiseLevel * 5;
+	return (jboolean) toBeauty(beauty)->startPreview(sigema, whiteLevel, ticket);
+}
+
+JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautySession_nativeGetPreviewBitmap(
+	JNIEnv * env, jobject obj, jlong beauty, jobject reuse) {
+	JniBitmap* preview = toBeauty(beauty)->getPreviewBitmap();
+	if (preview == nullptr)
+		return nullptr;
+	if (reuse != nullptr && BitmapOperation::copyIntoBitmap(env, preview, reuse))
+		return reuse;
+	return BitmapOperation::newBitmapFrom(env, preview);
+}
+
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeUnInitBeauty(
+	JNIEnv * env, jobject obj, jlong beauty) {
+	toBeauty(beauty)->unInitMagicBeauty();
+}
+
+JNIEXPORT jlongArray JNICALL Java_com_frank_beautyfilter_BeautySession_nativeGetStageTimings(
+	JNIEnv * env, jobject obj, jlong beauty) {
+	jlong timings[STAGE_COUNT + 1];
+	for (int i = 0; i < STAGE_COUNT; i++) {
+		timings[i] = toBeauty(beauty)->getStageTimings()[i];
+	}
+	timings[STAGE_COUNT] = toBeauty(beauty)->getThreadCount();
+	jlongArray result = env->NewLongArray(STAGE_COUNT + 1);
+	env->SetLongArrayRegion(result, 0, STAGE_COUNT + 1, timings);
+	return result;
+}
+
+JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautySession_nativeSetBitmap(
 	JNIEnv * env, jobject obj, jobject bitmap) {
 	return BitmapOperation::jniStoreBitmapData(env, obj, bitmap);
 }
 
-JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeFreeBitmap(
+JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautySession_nativeWrapBitmap(
+	JNIEnv * env, jobject obj, jobject bitmap) {
+	return BitmapOperation::jniWrapBitmapData(env, obj, bitmap);
+}
+
+JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautySession_nativeWrapHardwareBuffer(
+	JNIEnv * env, jobject obj, jobject hardwareBuffer) {
+	return BitmapOperation::jniWrapHardwareBuffer(env, obj, hardwareBuffer);
+}
+
+JNIEXPORT void JNICALL Java_com_frank_beautyfilter_BeautySession_nativeFreeBitmap(
 	JNIEnv * env, jobject obj, jobject handle) {
 	BitmapOperation::jniFreeBitmapData(env, obj, handle);
 }
 
-JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautyManager_nativeGetBitmap(
+JNIEXPORT jobject JNICALL Java_com_frank_beautyfilter_BeautySession_nativeGetBitmap(
 	JNIEnv * env, jobject obj, jobject handle) {
 	return BitmapOperation::jniGetBitmapFromStoredBitmapData(env, obj, handle);
 }
+
+JNIEXPORT jboolean JNICALL Java_com_frank_beautyfilter_BeautySession_nativeCopyBitmap(
+	JNIEnv * env, jobject obj, jobject handle, jobject bitmap) {
+	return BitmapOperation::jniCopyStoredBitmapData(env, obj, handle, bitmap);
+}
 #ifdef __cplusplus
 }
 #endif
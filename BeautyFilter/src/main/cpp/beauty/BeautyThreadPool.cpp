@@ -0,0 +1,101 @@
+#include "BeautyThreadPool.h"
+
+#define MAX_WORKER_COUNT 8
+
+BeautyThreadPool *BeautyThreadPool::getInstance() {
+    static BeautyThreadPool pool([] {
+        int cores = (int) std::thread::hardware_concurrency();
+        if (cores < 1)
+            cores = 1;
+        if (cores > MAX_WORKER_COUNT)
+            cores = MAX_WORKER_COUNT;
+        // the caller of parallelFor() works too, so one thread less
+        return cores - 1;
+    }());
+    return &pool;
+}
+
+BeautyThreadPool::BeautyThreadPool(int workerCount) {
+    mQuit = false;
+    for (int i = 0; i < workerCount; i++) {
+        mWorkers.emplace_back(&BeautyThreadPool::workerLoop, this);
+    }
+}
+
+BeautyThreadPool::~BeautyThreadPool() {
+    {
+        std::lock_guard<std::mutex> lock(mLock);
+        mQuit = true;
+    }
+    mCond.notify_all();
+    for (auto &worker : mWorkers) {
+        worker.join();
+    }
+}
+
+int BeautyThreadPool::getThreadCount() const {
+    return (int) mWorkers.size() + 1;
+}
+
+void BeautyThreadPool::runJob(Job *job) {
+    int index;
+    while ((index = job->next.fetch_add(1)) < job->count) {
+        (*job->task)(index);
+        if (job->done.fetch_add(1) + 1 == job->count) {
+            std::lock_guard<std::mutex> lock(job->doneLock);
+            job->doneCond.notify_all();
+        }
+    }
+}
+
+void BeautyThreadPool::workerLoop() {
+    while (true) {
+        std::shared_ptr<Job> job;
+        {
+            std::unique_lock<std::mutex> lock(mLock);
+            mCond.wait(lock, [this] { return mQuit || !mJobs.empty(); });
+            if (mQuit)
+                return;
+            job = mJobs.front();
+            // every index of this job is claimed, let the workers move on
+            if (job->next.load() >= job->count - 1)
+                mJobs.pop_front();
+        }
+        runJob(job.get());
+    }
+}
+
+void BeautyThreadPool::parallelFor(int count, const std::function<void(int)> &task) {
+    if (count <= 0)
+        return;
+    if (count == 1 || mWorkers.empty()) {
+        for (int i = 0; i < count; i++) {
+            task(i);
+        }
+        return;
+    }
+    std::shared_ptr<Job> job = std::make_shared<Job>();
+    job->task = &task;
+    job->count = count;
+    job->next = 0;
+    job->done = 0;
+    {
+        std::lock_guard<std::mutex> lock(mLock);
+        mJobs.push_back(job);
+    }
+    mCond.notify_all();
+
+    runJob(job.get());
+
+    {
+        std::lock_guard<std::mutex> lock(mLock);
+        for (auto it = mJobs.begin(); it != mJobs.end(); ++it) {
+            if (*it == job) {
+                mJobs.erase(it);
+                break;
+            }
+        }
+    }
+    std::unique_lock<std::mutex> lock(job->doneLock);
+    job->doneCond.wait(lock, [&job] { return job->done.load() >= job->count; });
+}
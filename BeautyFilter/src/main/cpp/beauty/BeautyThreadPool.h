@@ -0,0 +1,51 @@
+#ifndef BEAUTY_THREAD_POOL_H_
+#define BEAUTY_THREAD_POOL_H_
+
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+/**
+ * Fixed-size pool of native workers shared by every SimpleBeauty.
+ * parallelFor() may be called from several threads at once, the calling
+ * thread always takes part in its own job so a job never waits for a free worker.
+ */
+class BeautyThreadPool
+{
+public:
+    static BeautyThreadPool* getInstance();
+
+    int getThreadCount() const;
+
+    /** run task(index) for every index in [0, count) and return when all are done */
+    void parallelFor(int count, const std::function<void(int)>& task);
+
+    ~BeautyThreadPool();
+
+private:
+    struct Job {
+        const std::function<void(int)>* task;
+        int count;
+        std::atomic<int> next;
+        std::atomic<int> done;
+        std::mutex doneLock;
+        std::condition_variable doneCond;
+    };
+
+    explicit BeautyThreadPool(int workerCount);
+
+    void workerLoop();
+    static void runJob(Job* job);
+
+    std::vector<std::thread> mWorkers;
+    std::deque<std::shared_ptr<Job>> mJobs;
+    std::mutex mLock;
+    std::condition_variable mCond;
+    bool mQuit;
+};
+#endif
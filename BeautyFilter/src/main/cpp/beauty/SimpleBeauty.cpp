@@ -1,66 +1,181 @@
 #include "SimpleBeauty.h"
+#include <chrono>
 #include <cmath>
-#include "../bitmap/BitmapOperation.h"
-#include "../bitmap/Conversion.h"
+#include <cstring>
+#include <memory>
+#include "BeautyThreadPool.h"
+#include "SlidingWindowSums.h"
+#include "WhiteningLut.h"
+#include "../simd/PixelKernels.h"
 
 #define  LOG_TAG    "SimpleBeauty"
-#define  LOGD(...)  __android_log_print(ANDROID_LOG_DEBUG,LOG_TAG,__VA_ARGS__)
-#define  LOGE(...)  __android_log_print(ANDROID_LOG_ERROR,LOG_TAG,__VA_ARGS__)
-
-#define div255(x) (x * 0.003921F)
-#define abs(x) (x>=0 ? x:(-x))
-
-SimpleBeauty *SimpleBeauty::instance;
+#include "../BeautyLog.h"
+
+
+// keep bands big enough that a task is worth scheduling
+#define MIN_BAND_ROWS 16
+#define BANDS_PER_THREAD 4
+
+// working set besides the bitmap itself: RGB copy, YCbCr, skin matrix,
+// the two 64-bit integrals and the float mean and variance
+#define FULL_BYTES_PER_PIXEL (4 + 3 + 1 + 16 + 8)
+// RGB copy and Y plane
+#define LEAN_BYTES_PER_PIXEL (4 + 1)
+#define DEFAULT_MEMORY_BUDGET (512LL * 1024 * 1024)
+// rows between two looks at the cancel ticket
+#define CANCEL_CHECK_ROWS 16
+
+class StageTimer {
+public:
+    explicit StageTimer(int64_t *timing) : mTiming(timing),
+            mStart(std::chrono::steady_clock::now()) {}
+
+    ~StageTimer() {
+        *mTiming = std::chrono::duration_cast<std::chrono::microseconds>(
+                std::chrono::steady_clock::now() - mStart).count();
+    }
 
-SimpleBeauty *SimpleBeauty::getInstance() {
-    if (instance == nullptr)
-        instance = new SimpleBeauty();
-    return instance;
-}
+private:
+    int64_t *mTiming;
+    std::chrono::steady_clock::time_point mStart;
+};
 
 SimpleBeauty::SimpleBeauty() {
     mIntegralMatrix = nullptr;
     mIntegralMatrixSqr = nullptr;
+    mMean = nullptr;
+    mVariance = nullptr;
     mImageData_yuv = nullptr;
     mSkinMatrix = nullptr;
     mImageData_rgb = nullptr;
+    mImageData_luma = nullptr;
+    mBitmap = nullptr;
+    mLeanMode = false;
+    mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+    mTicket = 0;
+    mCancelTicket = 0;
+    mPreview = nullptr;
+    mPreviewBitmap = nullptr;
     mSmoothLevel = 0.0;
     mWhitenLevel = 0.0;
+    mHalfDone = false;
+    memset(mStageTimings, 0, sizeof(mStageTimings));
 }
 
 SimpleBeauty::~SimpleBeauty() {
-    if (mIntegralMatrix != nullptr)
-        delete[] mIntegralMatrix;
-    if (mIntegralMatrixSqr != nullptr)
-        delete[] mIntegralMatrixSqr;
-    if (mImageData_yuv != nullptr)
-        delete[] mImageData_yuv;
-    if (mSkinMatrix != nullptr)
-        delete[] mSkinMatrix;
-    if (mImageData_rgb != nullptr)
-        delete[] mImageData_rgb;
+    releaseBuffers();
+}
+
+void SimpleBeauty::releaseBuffers() {
+    releasePreview();
+    delete[] mIntegralMatrix;
+    delete[] mIntegralMatrixSqr;
+    delete[] mMean;
+    delete[] mVariance;
+    delete[] mImageData_yuv;
+    delete[] mSkinMatrix;
+    delete[] mImageData_rgb;
+    delete[] mImageData_luma;
+    mIntegralMatrix = nullptr;
+    mIntegralMatrixSqr = nullptr;
+    mMean = nullptr;
+    mVariance = nullptr;
+    mImageData_yuv = nullptr;
+    mSkinMatrix = nullptr;
+    mImageData_rgb = nullptr;
+    mImageData_luma = nullptr;
+}
+
+void SimpleBeauty::releasePreview() {
+    {
+        std::lock_guard<std::mutex> lock(mPreviewMutex);
+        delete mPreview;
+        mPreview = nullptr;
+    }
+    if (mPreviewBitmap != nullptr)
+        delete[] mPreviewBitmap->_storedBitmapPixels;
+    delete mPreviewBitmap;
+    mPreviewBitmap = nullptr;
+}
+
+void SimpleBeauty::setMemoryBudget(int64_t bytes) {
+    mMemoryBudget = bytes;
+}
+
+bool SimpleBeauty::isLeanMode() const {
+    return mLeanMode;
+}
+
+const int64_t *SimpleBeauty::getStageTimings() const {
+    return mStageTimings;
+}
+
+int SimpleBeauty::getThreadCount() const {
+    return BeautyThreadPool::getInstance()->getThreadCount();
 }
 
 void SimpleBeauty::initMagicBeauty(JniBitmap *jniBitmap) {
-    storedBitmapPixels = jniBitmap->_storedBitmapPixels;
+    // the previous bitmap may differ in size and mode, start from scratch
+    releaseBuffers();
+    memset(mStageTimings, 0, sizeof(mStageTimings));
+    mBitmap = jniBitmap;
+    mHalfDone = false;
     mImageWidth = jniBitmap->_bitmapInfo.width;
     mImageHeight = jniBitmap->_bitmapInfo.height;
-
-    if (mImageData_rgb == nullptr)
-        mImageData_rgb = new uint32_t[mImageWidth * mImageHeight];
+    mRadius = mImageWidth > mImageHeight ? mImageWidth * 0.02 : mImageHeight * 0.02;
+    int64_t pixels = (int64_t) mImageWidth * mImageHeight;
+    mLeanMode = mMemoryBudget > 0 && pixels * FULL_BYTES_PER_PIXEL > mMemoryBudget;
+    if (mLeanMode)
+        LOGD("%dx%d needs %lld bytes, over the budget of %lld: lean mode with %lld bytes",
+             mImageWidth, mImageHeight, (long long) (pixels * FULL_BYTES_PER_PIXEL),
+             (long long) mMemoryBudget, (long long) (pixels * LEAN_BYTES_PER_PIXEL));
+    initBands();
+
+    mImageData_rgb = new uint32_t[mImageWidth * mImageHeight];
     memcpy(mImageData_rgb, jniBitmap->_storedBitmapPixels,
            sizeof(uint32_t) * mImageWidth * mImageHeight);
-    if (mImageData_yuv == nullptr)
-        mImageData_yuv = new uint8_t[mImageWidth * mImageHeight * 3];
-    Conversion::RGBToYCbCr((uint8_t *) mImageData_rgb, mImageData_yuv, mImageWidth * mImageHeight);
+    if (mLeanMode) {
+        initLuma();
+        return;
+    }
+    mImageData_yuv = new uint8_t[mImageWidth * mImageHeight * 3];
+    _convertToYCbCr();
     initSkinMatrix();
     initIntegral();
+    initStatistics();
 }
 
 void SimpleBeauty::unInitMagicBeauty() {
-    if (instance != nullptr)
-        delete instance;
-    instance = nullptr;
+    releaseBuffers();
+    mBitmap = nullptr;
+    mLeanMode = false;
+    mHalfDone = false;
+    mSmoothLevel = 0.0;
+    mWhitenLevel = 0.0;
+    memset(mStageTimings, 0, sizeof(mStageTimings));
+}
+
+void SimpleBeauty::initBands() {
+    int bandCount = BeautyThreadPool::getInstance()->getThreadCount() * BANDS_PER_THREAD;
+    int minRows = MIN_BAND_ROWS;
+    if (mLeanMode) {
+        // every lean band sums its window rows again, keep that halo below the band itself
+        bandCount = BeautyThreadPool::getInstance()->getThreadCount();
+        if (minRows < 2 * mRadius + 1)
+            minRows = 2 * mRadius + 1;
+    }
+    if (bandCount > mImageHeight / minRows)
+        bandCount = mImageHeight / minRows;
+    if (bandCount < 1)
+        bandCount = 1;
+    int rows = (mImageHeight + bandCount - 1) / bandCount;
+    mBands.clear();
+    for (int start = 0; start < mImageHeight; start += rows) {
+        Band band;
+        band.start = start;
+        band.end = start + rows < mImageHeight ? start + rows : mImageHeight;
+        mBands.push_back(band);
+    }
 }
 
 void SimpleBeauty::startSkinSmooth(float smoothLevel) {
@@ -71,139 +186,429 @@ void SimpleBeauty::startSkinWhite(float whiteLevel) {
     _startBeauty(mSmoothLevel, whiteLevel);
 }
 
-void SimpleBeauty::_startBeauty(float smoothLevel, float whiteLevel) {
-    if (smoothLevel >= 10.0 && smoothLevel <= 510.0) {
-        mSmoothLevel = smoothLevel;
-        _startSkinSmooth(mSmoothLevel);
+bool SimpleBeauty::startBeauty(float smoothLevel, float whiteLevel, int64_t ticket) {
+    mTicket = ticket;
+    bool done = _startBeauty(smoothLevel, whiteLevel);
+    mTicket = 0;
+    return done;
+}
+
+void SimpleBeauty::cancel(int64_t ticket) {
+    mCancelTicket = ticket;
+    // called from any thread, the proxy may be released meanwhile
+    std::lock_guard<std::mutex> lock(mPreviewMutex);
+    if (mPreview != nullptr)
+        mPreview->cancel(ticket);
+}
+
+bool SimpleBeauty::restoreBeauty(int64_t ticket) {
+    if (!mHalfDone)
+        return true;
+    mTicket = ticket;
+    bool done = _applyBeauty();
+    mTicket = 0;
+    if (done)
+        mHalfDone = false;
+    return done;
+}
+
+bool SimpleBeauty::initPreview(int maxWidth, int maxHeight) {
+    releasePreview();
+    if (mImageData_rgb == nullptr || maxWidth <= 0 || maxHeight <= 0)
+        return false;
+    int factor = (mImageWidth + maxWidth - 1) / maxWidth;
+    int factorHeight = (mImageHeight + maxHeight - 1) / maxHeight;
+    if (factor < factorHeight)
+        factor = factorHeight;
+    if (factor < 2)
+        return false;
+
+    mPreviewBitmap = new JniBitmap();
+    mPreviewBitmap->_bitmapInfo = mBitmap->_bitmapInfo;
+    mPreviewBitmap->_bitmapInfo.width = (uint32_t) (mImageWidth / factor);
+    mPreviewBitmap->_bitmapInfo.height = (uint32_t) (mImageHeight / factor);
+    mPreviewBitmap->_bitmapInfo.stride = mPreviewBitmap->_bitmapInfo.width * 4;
+    mPreviewBitmap->_storedBitmapPixels =
+            new uint32_t[mPreviewBitmap->_bitmapInfo.width * mPreviewBitmap->_bitmapInfo.height];
+    SimpleBeauty *preview = new SimpleBeauty();
+    preview->initFromSource(*this, factor, mPreviewBitmap);
+    std::lock_guard<std::mutex> lock(mPreviewMutex);
+    mPreview = preview;
+    return true;
+}
+
+bool SimpleBeauty::startPreview(float smoothLevel, float whiteLevel, int64_t ticket) {
+    if (mPreview == nullptr)
+        return false;
+    return mPreview->startBeauty(smoothLevel, whiteLevel, ticket);
+}
+
+JniBitmap *SimpleBeauty::getPreviewBitmap() const {
+    return mPreviewBitmap;
+}
+
+void SimpleBeauty::initFromSource(const SimpleBeauty &source, int factor, JniBitmap *bitmap) {
+    releaseBuffers();
+    memset(mStageTimings, 0, sizeof(mStageTimings));
+    mBitmap = bitmap;
+    mImageWidth = bitmap->_bitmapInfo.width;
+    mImageHeight = bitmap->_bitmapInfo.height;
+    // the same window as the source, counted in proxy pixels
+    mRadius = source.mRadius / factor;
+    mLeanMode = false;
+    mSmoothLevel = source.mSmoothLevel;
+    mWhitenLevel = source.mWhitenLevel;
+    initBands();
+
+    // every proxy pixel is the average of a factor x factor block of the source
+    mImageData_rgb = new uint32_t[mImageWidth * mImageHeight];
+    {
+        StageTimer timer(&mStageTimings[STAGE_RGB_TO_YCBCR]);
+        BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [&](int index) {
+            const Band &band = mBands[index];
+            const int area = factor * factor;
+            for (int i = band.start; i < band.end; i++) {
+                for (int j = 0; j < mImageWidth; j++) {
+                    uint32_t channels[4] = {0, 0, 0, 0};
+                    for (int y = i * factor; y < (i + 1) * factor; y++) {
+                        const uint8_t *in = (const uint8_t *)
+                                (source.mImageData_rgb + y * source.mImageWidth + j * factor);
+                        for (int x = 0; x < factor * 4; x += 4) {
+                            channels[0] += in[x];
+                            channels[1] += in[x + 1];
+                            channels[2] += in[x + 2];
+                            channels[3] += in[x + 3];
+                        }
+                    }
+                    uint8_t *out = (uint8_t *) (mImageData_rgb + i * mImageWidth + j);
+                    for (int c = 0; c < 4; c++)
+                        out[c] = (uint8_t) ((channels[c] + area / 2) / area);
+                }
+            }
+        });
     }
-    if (whiteLevel >= 1.0 && whiteLevel <= 5.0) {
-        mWhitenLevel = whiteLevel;
-        _startSkinWhite(mWhitenLevel);
+    memcpy(bitmap->_storedBitmapPixels, mImageData_rgb,
+           sizeof(uint32_t) * mImageWidth * mImageHeight);
+    mImageData_yuv = new uint8_t[mImageWidth * mImageHeight * 3];
+    _convertToYCbCr();
+    if (source.mLeanMode) {
+        // the source keeps no statistics to share, the proxy is small enough for its own
+        initSkinMatrix();
+        initIntegral();
+        initStatistics();
+        return;
     }
-}
 
-void SimpleBeauty::_startSkinWhite(float whiteLevel) {
-    float a = log(whiteLevel);
-    for (int i = 0; i < mImageHeight; i++) {
-        for (int j = 0; j < mImageWidth; j++) {
-            int offset = i * mImageWidth + j;
-            ARGB RGB;
-            BitmapOperation::convertIntToArgb(mImageData_rgb[offset], &RGB);
-            if (a != 0) {
-                RGB.red = 255 * (log(div255(RGB.red) * (whiteLevel - 1) + 1) / a);
-                RGB.green = 255 * (log(div255(RGB.green) * (whiteLevel - 1) + 1) / a);
-                RGB.blue = 255 * (log(div255(RGB.blue) * (whiteLevel - 1) + 1) / a);
+    // the skin matrix and the local statistics of the source, at the centre of every block
+    StageTimer timer(&mStageTimings[STAGE_STATISTICS]);
+    mSkinMatrix = new uint8_t[mImageWidth * mImageHeight];
+    mMean = new float[mImageWidth * mImageHeight];
+    mVariance = new float[mImageWidth * mImageHeight];
+    BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [&](int index) {
+        const Band &band = mBands[index];
+        for (int i = band.start; i < band.end; i++) {
+            int sourceRow = (i * factor + factor / 2) * source.mImageWidth;
+            for (int j = 0; j < mImageWidth; j++) {
+                int offset = i * mImageWidth + j;
+                int sourceOffset = sourceRow + j * factor + factor / 2;
+                mSkinMatrix[offset] = source.mSkinMatrix[sourceOffset];
+                if (mSkinMatrix[offset] != 255)
+                    continue;
+                mMean[offset] = source.mMean[sourceOffset];
+                mVariance[offset] = source.mVariance[sourceOffset];
             }
-            storedBitmapPixels[offset] = BitmapOperation::convertArgbToInt(RGB);
+        }
+    });
+}
+
+bool SimpleBeauty::isCancelled() const {
+    return mTicket != 0 && mCancelTicket.load() == mTicket;
+}
+
+bool SimpleBeauty::_startBeauty(float smoothLevel, float whiteLevel) {
+    bool smooth = smoothLevel >= 10.0 && smoothLevel <= 510.0;
+    bool white = whiteLevel >= 1.0 && whiteLevel <= 5.0;
+    if (!smooth && !white)
+        return false;
+    float lastSmoothLevel = mSmoothLevel;
+    float lastWhitenLevel = mWhitenLevel;
+    if (smooth)
+        mSmoothLevel = smoothLevel;
+    if (white)
+        mWhitenLevel = whiteLevel;
+    if (_applyBeauty()) {
+        mHalfDone = false;
+        return true;
+    }
+    if (isCancelled()) {
+        // the bitmap is left half done until restoreBeauty() or the next run,
+        // the levels of the last full render stay
+        LOGD("cancelled ticket %lld", (long long) mTicket);
+        mSmoothLevel = lastSmoothLevel;
+        mWhitenLevel = lastWhitenLevel;
+        mHalfDone = true;
+        // the proxy may have finished the cancelled levels, the next preview starts from these
+        if (mPreview != nullptr) {
+            mPreview->mSmoothLevel = lastSmoothLevel;
+            mPreview->mWhitenLevel = lastWhitenLevel;
         }
     }
+    return false;
+}
+
+void SimpleBeauty::_convertToYCbCr() {
+    StageTimer timer(&mStageTimings[STAGE_RGB_TO_YCBCR]);
+    BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [this](int index) {
+        const Band &band = mBands[index];
+        int offset = band.start * mImageWidth;
+        PixelKernels::get().rgbToYCbCr((const uint8_t *) (mImageData_rgb + offset),
+                                       mImageData_yuv + offset * 3,
+                                       (band.end - band.start) * mImageWidth);
+    });
 }
 
-void SimpleBeauty::_startSkinSmooth(float smoothLevel) {
-    if (mIntegralMatrix == nullptr || mIntegralMatrixSqr == nullptr || mSkinMatrix == nullptr) {
+bool SimpleBeauty::_applyBeauty() {
+    bool smooth = mSmoothLevel >= 10.0 && mSmoothLevel <= 510.0;
+    bool ready = mLeanMode ? mImageData_luma != nullptr
+                           : mMean != nullptr && mVariance != nullptr && mSkinMatrix != nullptr;
+    if (mBitmap == nullptr || mImageData_rgb == nullptr || (smooth && !ready)) {
         LOGE("not init correctly");
-        return;
+        return false;
+    }
+    int64_t lutTiming = 0;
+    std::shared_ptr<const WhiteningLut> lut;
+    if (mWhitenLevel >= 1.0 && mWhitenLevel <= 5.0) {
+        StageTimer timer(&lutTiming);
+        lut = WhiteningLutCache::getInstance()->get(mWhitenLevel);
+    }
+    const uint8_t *table = lut != nullptr && !lut->identity ? lut->table : nullptr;
+    const PixelKernels &kernels = PixelKernels::get();
+    // bands rendered to their last row, a cancel after the last one stops nothing
+    std::atomic<int> finishedBands(0);
+    // a wrapped bitmap is locked around every operation and may move in between
+    uint32_t *storedBitmapPixels = mBitmap->_storedBitmapPixels;
+    if (storedBitmapPixels == nullptr) {
+        LOGE("bitmap pixels are not locked");
+        return false;
     }
-    Conversion::RGBToYCbCr((uint8_t *) mImageData_rgb, mImageData_yuv, mImageWidth * mImageHeight);
-
-    int radius = mImageWidth > mImageHeight ? mImageWidth * 0.02 : mImageHeight * 0.02;
 
-    for (int i = 1; i < mImageHeight; i++) {
-        for (int j = 1; j < mImageWidth; j++) {
-            int offset = i * mImageWidth + j;
-            if (mSkinMatrix[offset] == 255) {
-                int iMax = i + radius >= mImageHeight - 1 ? mImageHeight - 1 : i + radius;
-                int jMax = j + radius >= mImageWidth - 1 ? mImageWidth - 1 : j + radius;
-                int iMin = i - radius <= 1 ? 1 : i - radius;
-                int jMin = j - radius <= 1 ? 1 : j - radius;
+    {
+        StageTimer timer(&mStageTimings[smooth ? STAGE_SKIN_SMOOTH : STAGE_SKIN_WHITE]);
+        // one pass over every row: smoothing, conversion and whitening run while the row is hot
+        BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [&](int index) {
+            const Band &band = mBands[index];
+            std::vector<uint8_t> row(smooth ? mImageWidth * 3 : 0);
+            std::vector<uint8_t> mask(smooth && mLeanMode ? mImageWidth : 0);
+            std::unique_ptr<SlidingWindowSums> sums;
+            if (smooth && mLeanMode)
+                sums.reset(new SlidingWindowSums(mImageData_luma, mImageWidth));
+            for (int i = band.start; i < band.end; i++) {
+                if ((i - band.start) % CANCEL_CHECK_ROWS == 0 && isCancelled())
+                    return;
+                int offset = i * mImageWidth;
+                uint32_t *out = storedBitmapPixels + offset;
+                if (smooth) {
+                    if (mLeanMode)
+                        _smoothRowLean(i, row.data(), mask.data(), sums.get());
+                    else
+                        _smoothRow(i, row.data());
+                    kernels.yCbCrToRgb(row.data(), (uint8_t *) out, mImageWidth);
+                    if (table != nullptr)
+                        kernels.applyChannelLut(out, out, mImageWidth, table);
+                } else if (table != nullptr) {
+                    kernels.applyChannelLut(mImageData_rgb + offset, out, mImageWidth, table);
+                } else {
+                    memcpy(out, mImageData_rgb + offset, sizeof(uint32_t) * mImageWidth);
+                }
+            }
+            finishedBands++;
+        });
+    }
+    mStageTimings[STAGE_YCBCR_TO_RGB] = 0;
+    if (smooth)
+        mStageTimings[STAGE_SKIN_WHITE] = lutTiming;
+    else
+        mStageTimings[STAGE_SKIN_WHITE] += lutTiming;
+    return finishedBands.load() == (int) mBands.size();
+}
 
-                int squar = (iMax - iMin + 1) * (jMax - jMin + 1);
-                int i4 = iMax * mImageWidth + jMax;
-                int i3 = (iMin - 1) * mImageWidth + (jMin - 1);
-                int i2 = iMax * mImageWidth + (jMin - 1);
-                int i1 = (iMin - 1) * mImageWidth + jMax;
+void SimpleBeauty::_smoothRow(int i, uint8_t *row) {
+    // the pristine YCbCr of the row with the Y of its skin pixels smoothed
+    int offset = i * mImageWidth;
+    memcpy(row, mImageData_yuv + offset * 3, (size_t) mImageWidth * 3);
+    if (i == 0)
+        return;
+    for (int j = 1; j < mImageWidth; j++) {
+        if (mSkinMatrix[offset + j] == 255) {
+            float m = mMean[offset + j];
+            float k = mVariance[offset + j] / (mVariance[offset + j] + mSmoothLevel);
+            row[j * 3] = ceil(m - k * m + k * row[j * 3]);
+        }
+    }
+}
 
-                float m = (float)(mIntegralMatrix[i4]
-                           + mIntegralMatrix[i3]
-                           - mIntegralMatrix[i2]
-                           - mIntegralMatrix[i1]) / squar;
+void SimpleBeauty::_smoothRowLean(int i, uint8_t *row, uint8_t *mask, SlidingWindowSums *sums) {
+    // same values as _smoothRow(), with the YCbCr, the skin matrix and the
+    // window sums of the row worked out on the spot instead of cached
+    const PixelKernels &kernels = PixelKernels::get();
+    int offset = i * mImageWidth;
+    kernels.rgbToYCbCr((const uint8_t *) (mImageData_rgb + offset), row, mImageWidth);
+    if (i == 0)
+        return;
+    kernels.buildSkinMask(mImageData_rgb + offset, mask, mImageWidth);
+    if (memchr(mask + 1, 255, (size_t) mImageWidth - 1) == nullptr)
+        return;
 
-                float v = (float)(mIntegralMatrixSqr[i4]
-                           + mIntegralMatrixSqr[i3]
-                           - mIntegralMatrixSqr[i2]
-                           - mIntegralMatrixSqr[i1]) / squar - m * m;
-                float k = v / (v + smoothLevel);
+    int iMax = i + mRadius >= mImageHeight - 1 ? mImageHeight - 1 : i + mRadius;
+    int iMin = i - mRadius <= 1 ? 1 : i - mRadius;
+    sums->moveTo(iMin, iMax);
+    sums->accumulate();
+    for (int j = 1; j < mImageWidth; j++) {
+        if (mask[j] == 255) {
+            int jMax = j + mRadius >= mImageWidth - 1 ? mImageWidth - 1 : j + mRadius;
+            int jMin = j - mRadius <= 1 ? 1 : j - mRadius;
+            int squar = (iMax - iMin + 1) * (jMax - jMin + 1);
+            uint64_t sum, sumSqr;
+            sums->sum(jMin, jMax, &sum, &sumSqr);
+
+            float m = (float) sum / squar;
+            float v = (float) sumSqr / squar - m * m;
+            float k = v / (v + mSmoothLevel);
+            row[j * 3] = ceil(m - k * m + k * row[j * 3]);
+        }
+    }
+}
 
-                mImageData_yuv[offset * 3] = ceil(m - k * m + k * mImageData_yuv[offset * 3]);
+void SimpleBeauty::initLuma() {
+    StageTimer timer(&mStageTimings[STAGE_RGB_TO_YCBCR]);
+    mImageData_luma = new uint8_t[mImageWidth * mImageHeight];
+    BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [this](int index) {
+        const Band &band = mBands[index];
+        std::vector<uint8_t> row(mImageWidth * 3);
+        for (int i = band.start; i < band.end; i++) {
+            int offset = i * mImageWidth;
+            PixelKernels::get().rgbToYCbCr((const uint8_t *) (mImageData_rgb + offset),
+                                           row.data(), mImageWidth);
+            for (int j = 0; j < mImageWidth; j++) {
+                mImageData_luma[offset + j] = row[j * 3];
             }
         }
-    }
-    Conversion::YCbCrToRGB(mImageData_yuv, (uint8_t *) storedBitmapPixels,
-                           mImageWidth * mImageHeight);
+    });
 }
 
 void SimpleBeauty::initSkinMatrix() {
+    StageTimer timer(&mStageTimings[STAGE_SKIN_MATRIX]);
     if (mSkinMatrix == nullptr)
         mSkinMatrix = new uint8_t[mImageWidth * mImageHeight];
-    for (int i = 0; i < mImageHeight; i++) {
-        for (int j = 0; j < mImageWidth; j++) {
-            int offset = i * mImageWidth + j;
-            ARGB RGB;
-            BitmapOperation::convertIntToArgb(mImageData_rgb[offset], &RGB);
-            if ((RGB.blue > 95 && RGB.green > 40 && RGB.red > 20 &&
-                 RGB.blue - RGB.red > 15 && RGB.blue - RGB.green > 15) ||
-                (RGB.blue > 200 && RGB.green > 210 && RGB.red > 170 &&
-                 abs(RGB.blue - RGB.red) <= 15 && RGB.blue > RGB.red && RGB.green > RGB.red))
-                mSkinMatrix[offset] = 255;
-            else
-                mSkinMatrix[offset] = 0;
-        }
-    }
+    BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [this](int index) {
+        const Band &band = mBands[index];
+        int offset = band.start * mImageWidth;
+        PixelKernels::get().buildSkinMask(mImageData_rgb + offset, mSkinMatrix + offset,
+                                          (band.end - band.start) * mImageWidth);
+    });
 }
 
 void SimpleBeauty::initIntegral() {
+    StageTimer timer(&mStageTimings[STAGE_INTEGRAL]);
     if (mIntegralMatrix == nullptr)
         mIntegralMatrix = new uint64_t[mImageWidth * mImageHeight];
     if (mIntegralMatrixSqr == nullptr)
         mIntegralMatrixSqr = new uint64_t[mImageWidth * mImageHeight];
 
-    auto *columnSum = new uint64_t[mImageWidth];
-    auto *columnSumSqr = new uint64_t[mImageWidth];
-
-    columnSum[0] = mImageData_yuv[0];
-    columnSumSqr[0] = mImageData_yuv[0] * mImageData_yuv[0];
-
-    mIntegralMatrix[0] = columnSum[0];
-    mIntegralMatrixSqr[0] = columnSumSqr[0];
-
-    for (int i = 1; i < mImageWidth; i++) {
-
-        columnSum[i] = mImageData_yuv[3 * i];
-        columnSumSqr[i] = mImageData_yuv[3 * i] * mImageData_yuv[3 * i];
+    BeautyThreadPool *pool = BeautyThreadPool::getInstance();
+    const int bandCount = (int) mBands.size();
+    const int width = mImageWidth;
+
+    // integral of every band on its own, as if the band were the top of the image
+    pool->parallelFor(bandCount, [&](int index) {
+        const Band &band = mBands[index];
+        for (int i = band.start; i < band.end; i++) {
+            int offset = i * width;
+            uint64_t rowSum = 0;
+            uint64_t rowSumSqr = 0;
+            for (int j = 0; j < width; j++) {
+                uint64_t y = mImageData_yuv[3 * (offset + j)];
+                rowSum += y;
+                rowSumSqr += y * y;
+                if (i == band.start) {
+                    mIntegralMatrix[offset + j] = rowSum;
+                    mIntegralMatrixSqr[offset + j] = rowSumSqr;
+                } else {
+                    mIntegralMatrix[offset + j] = mIntegralMatrix[offset - width + j] + rowSum;
+                    mIntegralMatrixSqr[offset + j] = mIntegralMatrixSqr[offset - width + j] + rowSumSqr;
+                }
+            }
+        }
+    });
+    if (bandCount < 2)
+        return;
 
-        mIntegralMatrix[i] = columnSum[i];
-        mIntegralMatrix[i] += mIntegralMatrix[i - 1];
-        mIntegralMatrixSqr[i] = columnSumSqr[i];
-        mIntegralMatrixSqr[i] += mIntegralMatrixSqr[i - 1];
+    // prefix fixup: carry the last row of every band down, top to bottom
+    for (int b = 1; b < bandCount; b++) {
+        int carry = (mBands[b].start - 1) * width;
+        int last = (mBands[b].end - 1) * width;
+        for (int j = 0; j < width; j++) {
+            mIntegralMatrix[last + j] += mIntegralMatrix[carry + j];
+            mIntegralMatrixSqr[last + j] += mIntegralMatrixSqr[carry + j];
+        }
     }
-    for (int i = 1; i < mImageHeight; i++) {
-        int offset = i * mImageWidth;
+    // the remaining rows only need the (already final) last row of the band above
+    pool->parallelFor(bandCount - 1, [&](int index) {
+        const Band &band = mBands[index + 1];
+        int carry = (band.start - 1) * width;
+        for (int i = band.start; i < band.end - 1; i++) {
+            int offset = i * width;
+            for (int j = 0; j < width; j++) {
+                mIntegralMatrix[offset + j] += mIntegralMatrix[carry + j];
+                mIntegralMatrixSqr[offset + j] += mIntegralMatrixSqr[carry + j];
+            }
+        }
+    });
+}
 
-        columnSum[0] += mImageData_yuv[3 * offset];
-        columnSumSqr[0] += mImageData_yuv[3 * offset] * mImageData_yuv[3 * offset];
+void SimpleBeauty::initStatistics() {
+    StageTimer timer(&mStageTimings[STAGE_STATISTICS]);
+    if (mMean == nullptr)
+        mMean = new float[mImageWidth * mImageHeight];
+    if (mVariance == nullptr)
+        mVariance = new float[mImageWidth * mImageHeight];
+
+    int radius = mRadius;
+    BeautyThreadPool::getInstance()->parallelFor((int) mBands.size(), [&](int index) {
+        const Band &band = mBands[index];
+        for (int i = band.start > 1 ? band.start : 1; i < band.end; i++) {
+            for (int j = 1; j < mImageWidth; j++) {
+                int offset = i * mImageWidth + j;
+                if (mSkinMatrix[offset] != 255)
+                    continue;
+                int iMax = i + radius >= mImageHeight - 1 ? mImageHeight - 1 : i + radius;
+                int jMax = j + radius >= mImageWidth - 1 ? mImageWidth - 1 : j + radius;
+                int iMin = i - radius <= 1 ? 1 : i - radius;
+                int jMin = j - radius <= 1 ? 1 : j - radius;
 
-        mIntegralMatrix[offset] = columnSum[0];
-        mIntegralMatrixSqr[offset] = columnSumSqr[0];
+                int squar = (iMax - iMin + 1) * (jMax - jMin + 1);
+                int i4 = iMax * mImageWidth + jMax;
+                int i3 = (iMin - 1) * mImageWidth + (jMin - 1);
+                int i2 = iMax * mImageWidth + (jMin - 1);
+                int i1 = (iMin - 1) * mImageWidth + jMax;
 
-        for (int j = 1; j < mImageWidth; j++) {
-            columnSum[j] += mImageData_yuv[3 * (offset + j)];
-            columnSumSqr[j] += mImageData_yuv[3 * (offset + j)] * mImageData_yuv[3 * (offset + j)];
+                float m = (float)(mIntegralMatrix[i4]
+                           + mIntegralMatrix[i3]
+                           - mIntegralMatrix[i2]
+                           - mIntegralMatrix[i1]) / squar;
 
-            mIntegralMatrix[offset + j] = mIntegralMatrix[offset + j - 1] + columnSum[j];
-            mIntegralMatrixSqr[offset + j] = mIntegralMatrixSqr[offset + j - 1] + columnSumSqr[j];
+                float v = (float)(mIntegralMatrixSqr[i4]
+                           + mIntegralMatrixSqr[i3]
+                           - mIntegralMatrixSqr[i2]
+                           - mIntegralMatrixSqr[i1]) / squar - m * m;
+                mMean[offset] = m;
+                mVariance[offset] = v;
+            }
         }
-    }
-    delete[] columnSum;
-    delete[] columnSumSqr;
+    });
+    // every level is applied from the mean and variance, the integrals are done
+    delete[] mIntegralMatrix;
+    delete[] mIntegralMatrixSqr;
+    mIntegralMatrix = nullptr;
+    mIntegralMatrixSqr = nullptr;
 }
-
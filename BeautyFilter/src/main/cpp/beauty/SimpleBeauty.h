@@ -1,44 +1,148 @@
 #ifndef SIMPLE_BEAUTY_H_
 #define SIMPLE_BEAUTY_H_
 
+#include <atomic>
+#include <mutex>
+#include <vector>
+#include "SlidingWindowSums.h"
 #include "../bitmap/JniBitmap.h"
 
+/**
+ * Stages timed by SimpleBeauty. initMagicBeauty() prepares everything that only
+ * depends on the bitmap (conversion, skin matrix, integrals, statistics), a level
+ * change then runs one fused pass: smoothing, conversion back to RGB and whitening.
+ * With smoothing on the pass is STAGE_SKIN_SMOOTH and STAGE_SKIN_WHITE only the
+ * lookup of the whitening table, STAGE_YCBCR_TO_RGB always stays 0.
+ */
+enum BeautyStage {
+    STAGE_RGB_TO_YCBCR = 0,
+    STAGE_SKIN_MATRIX,
+    STAGE_INTEGRAL,
+    STAGE_SKIN_SMOOTH,
+    STAGE_YCBCR_TO_RGB,
+    STAGE_SKIN_WHITE,
+    STAGE_STATISTICS,
+    STAGE_COUNT
+};
+
+/**
+ * Beauty state of one image. Instances are independent and may run on different
+ * threads at once, the calls on one instance must not overlap, except cancel().
+ */
 class SimpleBeauty
 {
 public:
+    SimpleBeauty();
+    ~SimpleBeauty();
+
 	void initMagicBeauty(JniBitmap* jniBitmap);
+	/** release everything initMagicBeauty() prepared, the instance can be initialized again */
 	void unInitMagicBeauty();
 
     void startSkinSmooth(float smoothLevel);
     void startSkinWhite(float whiteLevel);
+    /**
+     * Set both levels and render them in a single pass, an out of range level is kept as it was.
+     * A non-zero ticket makes the run cancellable through cancel(ticket) from any thread.
+     * @return false when nothing was rendered or the run was cancelled before its last band
+     */
+    bool startBeauty(float smoothLevel, float whiteLevel, int64_t ticket = 0);
+    /** stop the run of ticket at its next check, between two tiles of rows */
+    void cancel(int64_t ticket);
+    /**
+     * Render again the levels of the last full render over what a cancelled run left half done.
+     * @return false when the run was cancelled in its turn
+     */
+    bool restoreBeauty(int64_t ticket = 0);
 
-    static SimpleBeauty* getInstance();
-    ~SimpleBeauty();
+    /**
+     * Build a proxy of the image, downscaled by an integer factor to fit in maxWidth x maxHeight,
+     * to preview levels on before the full resolution pass. Out of lean mode the proxy samples
+     * the skin matrix and local statistics of the full image instead of working out its own.
+     * @return false when the image is not ready or already fits
+     */
+    bool initPreview(int maxWidth, int maxHeight);
+    /** render levels as startBeauty() does, on the proxy only */
+    bool startPreview(float smoothLevel, float whiteLevel, int64_t ticket = 0);
+    /** the rendered proxy, null without one */
+    JniBitmap* getPreviewBitmap() const;
+
+    /**
+     * Bytes initMagicBeauty() may use besides the bitmap, 0 for no limit. A bitmap
+     * over it is processed in lean mode: no cached YCbCr, skin matrix, integrals or
+     * statistics, only a Y plane and band by band sliding window sums.
+     */
+    void setMemoryBudget(int64_t bytes);
+    bool isLeanMode() const;
+
+    /** duration of the last run of every stage, in microseconds */
+    const int64_t* getStageTimings() const;
+    int getThreadCount() const;
 
 private:
-    static SimpleBeauty * instance;
-    SimpleBeauty();
+    /** rows [start, end) of the image processed by one task */
+    struct Band {
+        int start;
+        int end;
+    };
 
     uint64_t *mIntegralMatrix;
 	uint64_t *mIntegralMatrixSqr;
+	// local mean and variance of Y around every skin pixel, cached for all levels
+	float *mMean;
+	float *mVariance;
 
-	uint32_t *storedBitmapPixels;
+	// output, pixels are only valid while the JNI layer holds them locked
+	JniBitmap *mBitmap;
 	uint32_t *mImageData_rgb;
 
 	uint8_t *mImageData_yuv;
 	uint8_t *mSkinMatrix;
+	// lean mode keeps only the Y plane
+	uint8_t *mImageData_luma;
 
 	int mImageWidth;
 	int mImageHeight;
+	int mRadius;
+	bool mLeanMode;
+	int64_t mMemoryBudget;
+	int64_t mTicket;
+	std::atomic<int64_t> mCancelTicket;
 	float mSmoothLevel;
 	float mWhitenLevel;
+	// a cancelled run left the bitmap with bands of two renders
+	bool mHalfDone;
+
+	std::vector<Band> mBands;
+	int64_t mStageTimings[STAGE_COUNT];
+
+	// downscaled proxy of this image and the native owned bitmap it renders into
+	SimpleBeauty *mPreview;
+	JniBitmap *mPreviewBitmap;
+	// held by cancel() while it reaches the proxy, and while the proxy is replaced or deleted
+	std::mutex mPreviewMutex;
+
+	void initBands();
+
+	void releaseBuffers();
+
+	void initLuma();
 
 	void initIntegral();
 
 	void initSkinMatrix();
 
-	void _startBeauty(float smoothLevel, float whiteLevel);
-	void _startSkinSmooth(float smoothLevel);
-	void _startSkinWhite(float whiteLevel);
+	void initStatistics();
+
+	void initFromSource(const SimpleBeauty &source, int factor, JniBitmap *bitmap);
+	void releasePreview();
+
+	bool _startBeauty(float smoothLevel, float whiteLevel);
+	bool _applyBeauty();
+	bool isCancelled() const;
+	void _smoothRow(int i, uint8_t* row);
+	void _smoothRowLean(int i, uint8_t* row, uint8_t* mask, SlidingWindowSums* sums);
+
+	void _convertToYCbCr();
 };
 #endif
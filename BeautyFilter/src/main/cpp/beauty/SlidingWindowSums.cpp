@@ -0,0 +1,51 @@
+#include "SlidingWindowSums.h"
+
+SlidingWindowSums::SlidingWindowSums(const uint8_t *luma, int width)
+        : mLuma(luma), mWidth(width), mTop(0), mBottom(-1),
+          mColumn(width, 0), mColumnSqr(width, 0),
+          mPrefix(width + 1, 0), mPrefixSqr(width + 1, 0) {
+}
+
+void SlidingWindowSums::addRow(int row, int sign) {
+    const uint8_t *y = mLuma + (size_t) row * mWidth;
+    if (sign > 0) {
+        for (int j = 0; j < mWidth; j++) {
+            mColumn[j] += y[j];
+            mColumnSqr[j] += y[j] * y[j];
+        }
+    } else {
+        for (int j = 0; j < mWidth; j++) {
+            mColumn[j] -= y[j];
+            mColumnSqr[j] -= y[j] * y[j];
+        }
+    }
+}
+
+void SlidingWindowSums::moveTo(int top, int bottom) {
+    if (top > mBottom) {
+        // no overlap with the current rows, start over
+        for (int j = 0; j < mWidth; j++) {
+            mColumn[j] = 0;
+            mColumnSqr[j] = 0;
+        }
+        mTop = top;
+        mBottom = top - 1;
+    }
+    for (; mTop < top; mTop++) {
+        addRow(mTop, -1);
+    }
+    for (; mBottom < bottom; mBottom++) {
+        addRow(mBottom + 1, 1);
+    }
+}
+
+void SlidingWindowSums::accumulate() {
+    uint64_t sum = 0;
+    uint64_t sumSqr = 0;
+    for (int j = 0; j < mWidth; j++) {
+        sum += mColumn[j];
+        sumSqr += mColumnSqr[j];
+        mPrefix[j + 1] = sum;
+        mPrefixSqr[j + 1] = sumSqr;
+    }
+}
@@ -0,0 +1,44 @@
+#ifndef SLIDING_WINDOW_SUMS_H_
+#define SLIDING_WINDOW_SUMS_H_
+
+#include <stddef.h>
+#include <stdint.h>
+#include <vector>
+
+/**
+ * Sums of Y and Y*Y over a window of rows, kept per column and slid down one
+ * band of the image, so the memory-lean mode needs no full-size integrals.
+ * A column of Y*Y over at most 2 * radius + 1 rows fits 32 bits for any image
+ * a phone can hold; the prefix sums along the row are 64-bit like the integrals,
+ * which keeps every window sum, and so the smoothing, bit-exact.
+ */
+class SlidingWindowSums
+{
+public:
+    SlidingWindowSums(const uint8_t* luma, int width);
+
+    /** make the column sums cover rows [top, bottom], both only ever move down */
+    void moveTo(int top, int bottom);
+
+    /** prefix sums of the current columns, call before sum() when the window moved */
+    void accumulate();
+
+    /** sums over the current rows and columns [left, right] */
+    void sum(int left, int right, uint64_t* sum, uint64_t* sumSqr) const {
+        *sum = mPrefix[right + 1] - mPrefix[left];
+        *sumSqr = mPrefixSqr[right + 1] - mPrefixSqr[left];
+    }
+
+private:
+    void addRow(int row, int sign);
+
+    const uint8_t* mLuma;
+    int mWidth;
+    int mTop;
+    int mBottom;
+    std::vector<uint32_t> mColumn;
+    std::vector<uint32_t> mColumnSqr;
+    std::vector<uint64_t> mPrefix;
+    std::vector<uint64_t> mPrefixSqr;
+};
+#endif
@@ -0,0 +1,49 @@
+#include "WhiteningLut.h"
+#include <cmath>
+#include <cstring>
+
+#define div255(x) (x * 0.003921F)
+
+// a slider has about a hundred positions, keep the ones around the thumb
+#define MAX_CACHED_TABLES 16
+
+WhiteningLutCache *WhiteningLutCache::getInstance() {
+    static WhiteningLutCache cache;
+    return &cache;
+}
+
+std::shared_ptr<const WhiteningLut> WhiteningLutCache::build(float whiteLevel) {
+    std::shared_ptr<WhiteningLut> lut = std::make_shared<WhiteningLut>();
+    lut->level = whiteLevel;
+    // same float expression the per-pixel whitening used, so tables are bit-exact
+    float a = log(whiteLevel);
+    lut->identity = a == 0;
+    for (int c = 0; c < 256; c++) {
+        if (a != 0)
+            lut->table[c] = 255 * (log(div255(c) * (whiteLevel - 1) + 1) / a);
+        else
+            lut->table[c] = (uint8_t) c;
+    }
+    memset(lut->table + 256, 0, sizeof(lut->table) - 256);
+    return lut;
+}
+
+std::shared_ptr<const WhiteningLut> WhiteningLutCache::get(float whiteLevel) {
+    {
+        std::lock_guard<std::mutex> lock(mLock);
+        for (auto it = mRecent.begin(); it != mRecent.end(); ++it) {
+            if ((*it)->level == whiteLevel) {
+                std::shared_ptr<const WhiteningLut> lut = *it;
+                mRecent.erase(it);
+                mRecent.push_front(lut);
+                return lut;
+            }
+        }
+    }
+    std::shared_ptr<const WhiteningLut> lut = build(whiteLevel);
+    std::lock_guard<std::mutex> lock(mLock);
+    mRecent.push_front(lut);
+    if (mRecent.size() > MAX_CACHED_TABLES)
+        mRecent.pop_back();
+    return lut;
+}
@@ -0,0 +1,39 @@
+#ifndef WHITENING_LUT_H_
+#define WHITENING_LUT_H_
+
+#include <list>
+#include <memory>
+#include <mutex>
+#include <stdint.h>
+
+/**
+ * Whitening curve of one level, 255 * log(c / 255 * (level - 1) + 1) / log(level)
+ * for every 8-bit channel value c.
+ */
+struct WhiteningLut
+{
+    float level;
+    // a log(1) == 0 level leaves every channel as it is
+    bool identity;
+    // 3 bytes of padding so a 32-bit gather at any index stays inside
+    uint8_t table[256 + 3];
+};
+
+/** Keeps the tables of the most recently used levels, safe to use from any thread. */
+class WhiteningLutCache
+{
+public:
+    static WhiteningLutCache* getInstance();
+
+    std::shared_ptr<const WhiteningLut> get(float whiteLevel);
+
+private:
+    WhiteningLutCache() {}
+
+    static std::shared_ptr<const WhiteningLut> build(float whiteLevel);
+
+    // most recently used first
+    std::list<std::shared_ptr<const WhiteningLut>> mRecent;
+    std::mutex mLock;
+};
+#endif
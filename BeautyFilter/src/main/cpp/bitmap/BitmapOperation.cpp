@@ -1,11 +1,6 @@
-
 #include "BitmapOperation.h"
 #include "JniBitmap.h"
 
-#define  LOG_TAG    "BitmapOperation"
-#define  LOGD(...)  __android_log_print(ANDROID_LOG_DEBUG,LOG_TAG,__VA_ARGS__)
-#define  LOGE(...)  __android_log_print(ANDROID_LOG_ERROR,LOG_TAG,__VA_ARGS__)
-
 int32_t BitmapOperation::convertArgbToInt(ARGB argb)
 {
 	return (argb.alpha << 24) | (argb.red << 16) | (argb.green << 8) | argb.blue;
@@ -19,95 +14,28 @@ void BitmapOperation::convertIntToArgb(uint32_t pixel, ARGB* argb)
 	argb->alpha = (pixel >> 24);
 }
 
-/**store java bitmap as JNI data*/
-jobject BitmapOperation::jniStoreBitmapData(
-	JNIEnv * env, jobject obj, jobject bitmap)
+/**owned copy of rows of pixels, packed even if the source rows are padded*/
+JniBitmap* BitmapOperation::storePixels(const void* pixels, AndroidBitmapInfo bitmapInfo)
 {
-    AndroidBitmapInfo bitmapInfo;
-    uint32_t* storedBitmapPixels = nullptr;
-    int ret;
-    if ((ret = AndroidBitmap_getInfo(env, bitmap, &bitmapInfo)) < 0)
-	{
-    	LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
-    	return nullptr;
-	}
-    if (bitmapInfo.format != ANDROID_BITMAP_FORMAT_RGBA_8888)
-	{
-    	LOGE("Bitmap format is not RGBA_8888!");
-    	return nullptr;
-	}
-
-    void* bitmapPixels;
-	if ((ret = AndroidBitmap_lockPixels(env, bitmap, &bitmapPixels)) < 0)
-	{
-		LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
-		return nullptr;
+	uint32_t* storedBitmapPixels = new uint32_t[bitmapInfo.height * bitmapInfo.width];
+	for (uint32_t y = 0; y < bitmapInfo.height; y++) {
+		memcpy(storedBitmapPixels + y * bitmapInfo.width,
+			   (const uint8_t*) pixels + y * bitmapInfo.stride,
+			   sizeof(uint32_t) * bitmapInfo.width);
 	}
-	uint32_t* src = (uint32_t*) bitmapPixels;
-    storedBitmapPixels = new uint32_t[bitmapInfo.height * bitmapInfo.width];
-    int pixelsCount = bitmapInfo.height * bitmapInfo.width;
-    memcpy(storedBitmapPixels, src, sizeof(uint32_t) * pixelsCount);
-    AndroidBitmap_unlockPixels(env, bitmap);
-    JniBitmap *jniBitmap = new JniBitmap();
-    jniBitmap->_bitmapInfo = bitmapInfo;
-    jniBitmap->_storedBitmapPixels = storedBitmapPixels;
-    return env->NewDirectByteBuffer(jniBitmap, 0);
+	bitmapInfo.stride = bitmapInfo.width * sizeof(uint32_t);
+	JniBitmap *jniBitmap = new JniBitmap();
+	jniBitmap->_bitmapInfo = bitmapInfo;
+	jniBitmap->_storedBitmapPixels = storedBitmapPixels;
+	return jniBitmap;
 }
 
-/**free bitmap*/
-void BitmapOperation::jniFreeBitmapData(
-	JNIEnv * env, jobject obj, jobject handle)
+/**copy the stored pixels into rows of stride bytes*/
+void BitmapOperation::copyPixels(const JniBitmap* jniBitmap, void* pixels, uint32_t stride)
 {
-    JniBitmap* jniBitmap = (JniBitmap*) env->GetDirectBufferAddress(handle);
-    if (jniBitmap->_storedBitmapPixels == nullptr)
-    	return;
-    delete[] jniBitmap->_storedBitmapPixels;
-    jniBitmap->_storedBitmapPixels = nullptr;
-    delete jniBitmap;
-}
-
-/**restore java bitmap (from JNI data)*/
-jobject BitmapOperation::jniGetBitmapFromStoredBitmapData(
-	JNIEnv * env, jobject obj, jobject handle)
-{
-    JniBitmap* jniBitmap = (JniBitmap*) env->GetDirectBufferAddress(handle);
-    if (jniBitmap->_storedBitmapPixels == nullptr)
-	{
-    	LOGD("no bitmap data was stored. returning null...");
-    	return nullptr;
-	}
-    //
-    //creating a new bitmap to put the pixels into it - using Bitmap Bitmap.createBitmap (int width, int height, Bitmap.Config config) :
-    //
-    jclass bitmapCls = env->FindClass("android/graphics/Bitmap");
-    jmethodID createBitmapFunction = env->GetStaticMethodID(bitmapCls,
-	    "createBitmap",
-	    "(IILandroid/graphics/Bitmap$Config;)Landroid/graphics/Bitmap;");
-    jstring configName = env->NewStringUTF("ARGB_8888");
-    jclass bitmapConfigClass = env->FindClass("android/graphics/Bitmap$Config");
-    jmethodID valueOfBitmapConfigFunction = env->GetStaticMethodID(
-	    bitmapConfigClass, "valueOf",
-	    "(Ljava/lang/String;)Landroid/graphics/Bitmap$Config;");
-    jobject bitmapConfig = env->CallStaticObjectMethod(bitmapConfigClass,
-	    valueOfBitmapConfigFunction, configName);
-    jobject newBitmap = env->CallStaticObjectMethod(bitmapCls,
-	    createBitmapFunction, jniBitmap->_bitmapInfo.width,
-	    jniBitmap->_bitmapInfo.height, bitmapConfig);
-    //
-    // putting the pixels into the new bitmap:
-    //
-    int ret;
-    void* bitmapPixels;
-    if ((ret = AndroidBitmap_lockPixels(env, newBitmap, &bitmapPixels)) < 0)
-	{
-    	LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
-    	return nullptr;
+	uint32_t width = jniBitmap->_bitmapInfo.width;
+	for (uint32_t y = 0; y < jniBitmap->_bitmapInfo.height; y++) {
+		memcpy((uint8_t*) pixels + y * stride,
+			   jniBitmap->_storedBitmapPixels + y * width, sizeof(uint32_t) * width);
 	}
-    uint32_t* newBitmapPixels = (uint32_t*) bitmapPixels;
-    int pixelsCount = jniBitmap->_bitmapInfo.height
-	    * jniBitmap->_bitmapInfo.width;
-    memcpy(newBitmapPixels, jniBitmap->_storedBitmapPixels,
-	    sizeof(uint32_t) * pixelsCount);
-    AndroidBitmap_unlockPixels(env, newBitmap);
-    return newBitmap;
 }
@@ -1,10 +1,7 @@
 #ifndef _BITMAP_OPERATION_H_
 #define _BITMAP_OPERATION_H_
 
-#include <jni.h>
-#include <android/log.h>
 #include <stdio.h>
-#include <android/bitmap.h>
 #include <cstring>
 #include <unistd.h>
 #include "JniBitmap.h"
@@ -16,11 +13,66 @@ public:
 	static int32_t convertArgbToInt(ARGB argb);
 	static void convertIntToArgb(uint32_t pixel, ARGB* argb);
 
+	/** packed, owned copy of the pixels described by bitmapInfo */
+	static JniBitmap* storePixels(const void* pixels, AndroidBitmapInfo bitmapInfo);
+	/** copy the stored pixels into rows of stride bytes, the size must match */
+	static void copyPixels(const JniBitmap* jniBitmap, void* pixels, uint32_t stride);
+
+#ifdef __ANDROID__
+
+	/** look up the Bitmap class, createBitmap() and ARGB_8888 once, from JNI_OnLoad */
+	static void initJniCache(JNIEnv * env);
+
 	static jobject jniStoreBitmapData(
 		JNIEnv * env, jobject obj, jobject bitmap);
+	/** use the pixels of a mutable RGBA_8888 bitmap in place, null if it cannot be */
+	static jobject jniWrapBitmapData(
+		JNIEnv * env, jobject obj, jobject bitmap);
+	/** use the pixels of a CPU readable and writable RGBA_8888 HardwareBuffer in place */
+	static jobject jniWrapHardwareBuffer(
+		JNIEnv * env, jobject obj, jobject hardwareBuffer);
 	static void jniFreeBitmapData(
 		JNIEnv * env, jobject obj, jobject handle);
 	static jobject jniGetBitmapFromStoredBitmapData(
 		JNIEnv * env, jobject obj, jobject handle);
+	/** copy the stored pixels into a bitmap of the same size, false if it does not fit */
+	static jboolean jniCopyStoredBitmapData(
+		JNIEnv * env, jobject obj, jobject handle, jobject bitmap);
+	/** the same two for a JniBitmap the native side owns, rather than a handle */
+	static jobject newBitmapFrom(JNIEnv * env, JniBitmap* jniBitmap);
+	static jboolean copyIntoBitmap(JNIEnv * env, JniBitmap* jniBitmap, jobject bitmap);
+
+	/** wrapped pixels are only valid between these two, no-ops for an owned copy */
+	static bool lockPixels(JNIEnv * env, JniBitmap* jniBitmap);
+	static void unlockPixels(JNIEnv * env, JniBitmap* jniBitmap);
+#endif
 };
+
+#ifdef __ANDROID__
+
+class PixelLock
+{
+public:
+	PixelLock(JNIEnv * env, JniBitmap* jniBitmap) : _env(env), _jniBitmap(jniBitmap)
+	{
+		_locked = jniBitmap != NULL && BitmapOperation::lockPixels(env, jniBitmap);
+	}
+
+	~PixelLock()
+	{
+		if (_locked)
+			BitmapOperation::unlockPixels(_env, _jniBitmap);
+	}
+
+	bool isLocked() const
+	{
+		return _locked;
+	}
+
+private:
+	JNIEnv * _env;
+	JniBitmap* _jniBitmap;
+	bool _locked;
+};
+#endif
 #endif
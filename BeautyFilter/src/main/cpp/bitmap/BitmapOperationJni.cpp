@@ -0,0 +1,251 @@
+#include "BitmapOperation.h"
+#include "JniBitmap.h"
+#include "HardwareBufferCompat.h"
+
+#define  LOG_TAG    "BitmapOperation"
+#include "../BeautyLog.h"
+
+static jclass bitmapClass = nullptr;
+static jmethodID createBitmapFunction = nullptr;
+static jobject argb8888Config = nullptr;
+
+void BitmapOperation::initJniCache(JNIEnv * env)
+{
+	jclass bitmapCls = env->FindClass("android/graphics/Bitmap");
+	bitmapClass = (jclass) env->NewGlobalRef(bitmapCls);
+	createBitmapFunction = env->GetStaticMethodID(bitmapCls,
+		"createBitmap",
+		"(IILandroid/graphics/Bitmap$Config;)Landroid/graphics/Bitmap;");
+	jclass bitmapConfigClass = env->FindClass("android/graphics/Bitmap$Config");
+	jfieldID argb8888Field = env->GetStaticFieldID(bitmapConfigClass,
+		"ARGB_8888", "Landroid/graphics/Bitmap$Config;");
+	argb8888Config = env->NewGlobalRef(
+		env->GetStaticObjectField(bitmapConfigClass, argb8888Field));
+	env->DeleteLocalRef(bitmapCls);
+	env->DeleteLocalRef(bitmapConfigClass);
+}
+
+/**get the info of a bitmap the beauty can work on*/
+static bool getRgbaBitmapInfo(JNIEnv * env, jobject bitmap, AndroidBitmapInfo* bitmapInfo)
+{
+	int ret;
+	if ((ret = AndroidBitmap_getInfo(env, bitmap, bitmapInfo)) < 0)
+	{
+		LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+		return false;
+	}
+	if (bitmapInfo->format != ANDROID_BITMAP_FORMAT_RGBA_8888)
+	{
+		LOGE("Bitmap format is not RGBA_8888!");
+		return false;
+	}
+	return true;
+}
+
+/**store java bitmap as JNI data*/
+jobject BitmapOperation::jniStoreBitmapData(
+	JNIEnv * env, jobject obj, jobject bitmap)
+{
+    AndroidBitmapInfo bitmapInfo;
+    int ret;
+    if (!getRgbaBitmapInfo(env, bitmap, &bitmapInfo))
+    	return nullptr;
+
+    void* bitmapPixels;
+	if ((ret = AndroidBitmap_lockPixels(env, bitmap, &bitmapPixels)) < 0)
+	{
+		LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+		return nullptr;
+	}
+    JniBitmap *jniBitmap = storePixels(bitmapPixels, bitmapInfo);
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return env->NewDirectByteBuffer(jniBitmap, 0);
+}
+
+/**use the pixels of a java bitmap without copying them*/
+jobject BitmapOperation::jniWrapBitmapData(
+	JNIEnv * env, jobject obj, jobject bitmap)
+{
+	AndroidBitmapInfo bitmapInfo;
+	if (!getRgbaBitmapInfo(env, bitmap, &bitmapInfo))
+		return nullptr;
+	// the beauty walks packed rows
+	if (bitmapInfo.stride != bitmapInfo.width * sizeof(uint32_t))
+	{
+		LOGD("bitmap rows are padded, can not work in place");
+		return nullptr;
+	}
+	JniBitmap *jniBitmap = new JniBitmap();
+	jniBitmap->_bitmapInfo = bitmapInfo;
+	jniBitmap->_bitmapRef = env->NewGlobalRef(bitmap);
+	return env->NewDirectByteBuffer(jniBitmap, 0);
+}
+
+/**use the pixels of a HardwareBuffer without copying them*/
+jobject BitmapOperation::jniWrapHardwareBuffer(
+	JNIEnv * env, jobject obj, jobject hardwareBuffer)
+{
+	const HardwareBufferCompat* compat = HardwareBufferCompat::get();
+	if (compat == nullptr)
+	{
+		LOGE("AHardwareBuffer is not supported!");
+		return nullptr;
+	}
+	AHardwareBuffer* buffer = compat->fromHardwareBuffer(env, hardwareBuffer);
+	if (buffer == nullptr)
+		return nullptr;
+	AHardwareBuffer_Desc desc;
+	compat->describe(buffer, &desc);
+	const uint64_t cpuUsage = AHARDWAREBUFFER_USAGE_CPU_READ_OFTEN | AHARDWAREBUFFER_USAGE_CPU_WRITE_OFTEN;
+	if (desc.format != AHARDWAREBUFFER_FORMAT_R8G8B8A8_UNORM || desc.layers != 1
+		|| (desc.usage & cpuUsage) != cpuUsage)
+	{
+		LOGE("HardwareBuffer must be single layer RGBA_8888 with CPU read and write usage!");
+		return nullptr;
+	}
+	if (desc.stride != desc.width)
+	{
+		LOGD("HardwareBuffer rows are padded, can not work in place");
+		return nullptr;
+	}
+	compat->acquire(buffer);
+	JniBitmap *jniBitmap = new JniBitmap();
+	jniBitmap->_bitmapInfo.width = desc.width;
+	jniBitmap->_bitmapInfo.height = desc.height;
+	jniBitmap->_bitmapInfo.stride = desc.stride * sizeof(uint32_t);
+	jniBitmap->_bitmapInfo.format = ANDROID_BITMAP_FORMAT_RGBA_8888;
+	jniBitmap->_bitmapInfo.flags = 0;
+	jniBitmap->_hardwareBuffer = buffer;
+	return env->NewDirectByteBuffer(jniBitmap, 0);
+}
+
+bool BitmapOperation::lockPixels(JNIEnv * env, JniBitmap* jniBitmap)
+{
+	int ret;
+	void* pixels = nullptr;
+	if (jniBitmap->_bitmapRef != nullptr)
+	{
+		if ((ret = AndroidBitmap_lockPixels(env, jniBitmap->_bitmapRef, &pixels)) < 0)
+		{
+			LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+			return false;
+		}
+		jniBitmap->_storedBitmapPixels = (uint32_t*) pixels;
+	}
+	else if (jniBitmap->_hardwareBuffer != nullptr)
+	{
+		const uint64_t cpuUsage = AHARDWAREBUFFER_USAGE_CPU_READ_OFTEN | AHARDWAREBUFFER_USAGE_CPU_WRITE_OFTEN;
+		if ((ret = HardwareBufferCompat::get()->lock(jniBitmap->_hardwareBuffer, cpuUsage,
+													 -1, nullptr, &pixels)) != 0)
+		{
+			LOGE("AHardwareBuffer_lock() failed ! error=%d", ret);
+			return false;
+		}
+		jniBitmap->_storedBitmapPixels = (uint32_t*) pixels;
+	}
+	return jniBitmap->_storedBitmapPixels != nullptr;
+}
+
+void BitmapOperation::unlockPixels(JNIEnv * env, JniBitmap* jniBitmap)
+{
+	// a java heap bitmap may move once unlocked, forget the address
+	if (jniBitmap->_bitmapRef != nullptr)
+	{
+		AndroidBitmap_unlockPixels(env, jniBitmap->_bitmapRef);
+		jniBitmap->_storedBitmapPixels = nullptr;
+	}
+	else if (jniBitmap->_hardwareBuffer != nullptr)
+	{
+		HardwareBufferCompat::get()->unlock(jniBitmap->_hardwareBuffer, nullptr);
+		jniBitmap->_storedBitmapPixels = nullptr;
+	}
+}
+
+/**free bitmap*/
+void BitmapOperation::jniFreeBitmapData(
+	JNIEnv * env, jobject obj, jobject handle)
+{
+    JniBitmap* jniBitmap = (JniBitmap*) env->GetDirectBufferAddress(handle);
+    if (jniBitmap == nullptr)
+    	return;
+    if (jniBitmap->_bitmapRef != nullptr)
+    	env->DeleteGlobalRef(jniBitmap->_bitmapRef);
+    else if (jniBitmap->_hardwareBuffer != nullptr)
+    	HardwareBufferCompat::get()->release(jniBitmap->_hardwareBuffer);
+    else
+    	delete[] jniBitmap->_storedBitmapPixels;
+    jniBitmap->_storedBitmapPixels = nullptr;
+    delete jniBitmap;
+}
+
+/**restore java bitmap (from JNI data)*/
+jobject BitmapOperation::jniGetBitmapFromStoredBitmapData(
+	JNIEnv * env, jobject obj, jobject handle)
+{
+    return newBitmapFrom(env, (JniBitmap*) env->GetDirectBufferAddress(handle));
+}
+
+jobject BitmapOperation::newBitmapFrom(JNIEnv * env, JniBitmap* jniBitmap)
+{
+    PixelLock lock(env, jniBitmap);
+    if (!lock.isLocked())
+	{
+    	LOGD("no bitmap data was stored. returning null...");
+    	return nullptr;
+	}
+    //
+    //creating a new bitmap to put the pixels into it - using Bitmap Bitmap.createBitmap (int width, int height, Bitmap.Config config) :
+    //
+    jobject newBitmap = env->CallStaticObjectMethod(bitmapClass,
+	    createBitmapFunction, jniBitmap->_bitmapInfo.width,
+	    jniBitmap->_bitmapInfo.height, argb8888Config);
+    //
+    // putting the pixels into the new bitmap:
+    //
+    AndroidBitmapInfo bitmapInfo;
+    void* bitmapPixels;
+    if (!getRgbaBitmapInfo(env, newBitmap, &bitmapInfo))
+    	return nullptr;
+    int ret;
+    if ((ret = AndroidBitmap_lockPixels(env, newBitmap, &bitmapPixels)) < 0)
+	{
+    	LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+    	return nullptr;
+	}
+    copyPixels(jniBitmap, bitmapPixels, bitmapInfo.stride);
+    AndroidBitmap_unlockPixels(env, newBitmap);
+    return newBitmap;
+}
+
+/**put the stored pixels into an existing bitmap*/
+jboolean BitmapOperation::jniCopyStoredBitmapData(
+	JNIEnv * env, jobject obj, jobject handle, jobject bitmap)
+{
+	return copyIntoBitmap(env, (JniBitmap*) env->GetDirectBufferAddress(handle), bitmap);
+}
+
+jboolean BitmapOperation::copyIntoBitmap(JNIEnv * env, JniBitmap* jniBitmap, jobject bitmap)
+{
+	AndroidBitmapInfo bitmapInfo;
+	if (jniBitmap == nullptr || !getRgbaBitmapInfo(env, bitmap, &bitmapInfo))
+		return JNI_FALSE;
+	if (bitmapInfo.width != jniBitmap->_bitmapInfo.width
+		|| bitmapInfo.height != jniBitmap->_bitmapInfo.height)
+		return JNI_FALSE;
+	// the bitmap we work in place on already holds the result
+	if (jniBitmap->_bitmapRef != nullptr && env->IsSameObject(jniBitmap->_bitmapRef, bitmap))
+		return JNI_TRUE;
+	PixelLock lock(env, jniBitmap);
+	if (!lock.isLocked())
+		return JNI_FALSE;
+	int ret;
+	void* bitmapPixels;
+	if ((ret = AndroidBitmap_lockPixels(env, bitmap, &bitmapPixels)) < 0)
+	{
+		LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+		return JNI_FALSE;
+	}
+	copyPixels(jniBitmap, bitmapPixels, bitmapInfo.stride);
+	AndroidBitmap_unlockPixels(env, bitmap);
+	return JNI_TRUE;
+}
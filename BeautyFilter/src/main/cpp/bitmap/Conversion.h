@@ -2,6 +2,7 @@
 #define _CONVERSION_H_
 
 #include <stdio.h>
+#include <stdint.h>
 
 const float YCbCrYRF = 0.299F;
 const float YCbCrYGF = 0.587F;
@@ -0,0 +1,37 @@
+#include "HardwareBufferCompat.h"
+#include <dlfcn.h>
+
+template<typename T>
+static bool lookup(void* libraries[], int count, const char* name, T* function)
+{
+	for (int i = 0; i < count; i++) {
+		if (libraries[i] == nullptr)
+			continue;
+		*function = (T) dlsym(libraries[i], name);
+		if (*function != nullptr)
+			return true;
+	}
+	return false;
+}
+
+static HardwareBufferCompat* load()
+{
+	static HardwareBufferCompat compat;
+	void* libraries[] = {
+		dlopen("libandroid.so", RTLD_NOW),
+		dlopen("libnativewindow.so", RTLD_NOW)
+	};
+	bool found = lookup(libraries, 2, "AHardwareBuffer_fromHardwareBuffer", &compat.fromHardwareBuffer)
+			&& lookup(libraries, 2, "AHardwareBuffer_acquire", &compat.acquire)
+			&& lookup(libraries, 2, "AHardwareBuffer_release", &compat.release)
+			&& lookup(libraries, 2, "AHardwareBuffer_describe", &compat.describe)
+			&& lookup(libraries, 2, "AHardwareBuffer_lock", &compat.lock)
+			&& lookup(libraries, 2, "AHardwareBuffer_unlock", &compat.unlock);
+	return found ? &compat : nullptr;
+}
+
+const HardwareBufferCompat* HardwareBufferCompat::get()
+{
+	static const HardwareBufferCompat* compat = load();
+	return compat;
+}
@@ -0,0 +1,24 @@
+#ifndef _HARDWARE_BUFFER_COMPAT_H_
+#define _HARDWARE_BUFFER_COMPAT_H_
+
+#include <jni.h>
+#include <android/hardware_buffer.h>
+
+/**
+ * AHardwareBuffer functions looked up at runtime, the library still
+ * loads on API levels below 26 where they do not exist.
+ */
+struct HardwareBufferCompat
+{
+	AHardwareBuffer* (*fromHardwareBuffer)(JNIEnv* env, jobject hardwareBuffer);
+	void (*acquire)(AHardwareBuffer* buffer);
+	void (*release)(AHardwareBuffer* buffer);
+	void (*describe)(const AHardwareBuffer* buffer, AHardwareBuffer_Desc* desc);
+	int (*lock)(AHardwareBuffer* buffer, uint64_t usage, int32_t fence,
+				const ARect* rect, void** address);
+	int (*unlock)(AHardwareBuffer* buffer, int32_t* fence);
+
+	/** null when the device has no AHardwareBuffer support */
+	static const HardwareBufferCompat* get();
+};
+#endif
@@ -1,6 +1,23 @@
 #ifndef _JNIBITMAP_H_
 #define _JNIBITMAP_H_
+#ifdef __ANDROID__
+#include <jni.h>
 #include <android/bitmap.h>
+#include <android/hardware_buffer.h>
+#else
+#include <stdint.h>
+// host build: the same description of the pixels, without JNI or hardware buffers
+typedef struct
+{
+	uint32_t width;
+	uint32_t height;
+	uint32_t stride;
+	int32_t format;
+	uint32_t flags;
+} AndroidBitmapInfo;
+
+enum { ANDROID_BITMAP_FORMAT_RGBA_8888 = 1 };
+#endif
 
 typedef struct
 {
@@ -10,11 +27,31 @@ typedef struct
 class JniBitmap
 {
 public:
+    // owned copy, or the pixels of the wrapped buffer while it is locked
     uint32_t* _storedBitmapPixels;
     AndroidBitmapInfo _bitmapInfo;
+#ifdef __ANDROID__
+    // zero-copy: global ref to a caller-owned mutable Bitmap...
+    jobject _bitmapRef;
+    // ...or an acquired AHardwareBuffer, both worked on in place
+    AHardwareBuffer* _hardwareBuffer;
+#endif
     JniBitmap()
 	{
     	_storedBitmapPixels = NULL;
+#ifdef __ANDROID__
+    	_bitmapRef = NULL;
+    	_hardwareBuffer = NULL;
+#endif
+	}
+
+    bool isWrapped() const
+	{
+#ifdef __ANDROID__
+    	return _bitmapRef != NULL || _hardwareBuffer != NULL;
+#else
+    	return false;
+#endif
 	}
 };
 #endif
@@ -0,0 +1,54 @@
+#include "PixelKernels.h"
+#include "../bitmap/Conversion.h"
+
+static void scalarRgbToYCbCr(const uint8_t *from, uint8_t *to, int length) {
+    Conversion::RGBToYCbCr((uint8_t *) from, to, length);
+}
+
+static void scalarYCbCrToRgb(const uint8_t *from, uint8_t *to, int length) {
+    Conversion::YCbCrToRGB((uint8_t *) from, to, length);
+}
+
+static void scalarSkinMask(const uint32_t *pixels, uint8_t *mask, int length) {
+    for (int i = 0; i < length; i++) {
+        mask[i] = skinMaskOf(pixels[i]);
+    }
+}
+
+void scalarChannelLut(const uint32_t *from, uint32_t *to, int length, const uint8_t *lut) {
+    for (int i = 0; i < length; i++) {
+        to[i] = channelLutOf(from[i], lut);
+    }
+}
+
+static const PixelKernels SCALAR_KERNELS = {
+        "scalar",
+        scalarRgbToYCbCr,
+        scalarYCbCrToRgb,
+        scalarSkinMask,
+        scalarChannelLut
+};
+
+const PixelKernels &PixelKernels::scalar() {
+    return SCALAR_KERNELS;
+}
+
+std::vector<const PixelKernels *> PixelKernels::available() {
+    std::vector<const PixelKernels *> kernels;
+    kernels.push_back(&SCALAR_KERNELS);
+    const PixelKernels *candidates[] = {
+            getNeonPixelKernels(),
+            getSse41PixelKernels(),
+            getAvx2PixelKernels()
+    };
+    for (const PixelKernels *candidate : candidates) {
+        if (candidate != nullptr)
+            kernels.push_back(candidate);
+    }
+    return kernels;
+}
+
+const PixelKernels &PixelKernels::get() {
+    static const PixelKernels *best = available().back();
+    return *best;
+}
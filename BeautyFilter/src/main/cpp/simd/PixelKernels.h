@@ -0,0 +1,58 @@
+#ifndef PIXEL_KERNELS_H_
+#define PIXEL_KERNELS_H_
+
+#include <stdint.h>
+#include <vector>
+
+typedef void (*RgbToYCbCrKernel)(const uint8_t* from, uint8_t* to, int length);
+typedef void (*YCbCrToRgbKernel)(const uint8_t* from, uint8_t* to, int length);
+typedef void (*SkinMaskKernel)(const uint32_t* pixels, uint8_t* mask, int length);
+// lut must stay readable 3 bytes past entry 255, see WhiteningLut
+typedef void (*ChannelLutKernel)(const uint32_t* from, uint32_t* to, int length, const uint8_t* lut);
+
+/**
+ * Per-pixel kernels of SimpleBeauty. Every variant must produce exactly the
+ * same bytes as the scalar one, which is the reference implementation.
+ */
+struct PixelKernels
+{
+    const char* name;
+    RgbToYCbCrKernel rgbToYCbCr;
+    YCbCrToRgbKernel yCbCrToRgb;
+    SkinMaskKernel buildSkinMask;
+    /** maps red, green and blue through lut and keeps alpha, from may equal to */
+    ChannelLutKernel applyChannelLut;
+
+    /** the fastest variant supported by this CPU */
+    static const PixelKernels& get();
+    static const PixelKernels& scalar();
+    /** every variant supported by this CPU, scalar first */
+    static std::vector<const PixelKernels*> available();
+};
+
+// variants living in their own files, null when not built or not supported
+const PixelKernels* getNeonPixelKernels();
+const PixelKernels* getSse41PixelKernels();
+const PixelKernels* getAvx2PixelKernels();
+
+// lookups without a vector gather on the target fall back to this one
+void scalarChannelLut(const uint32_t* from, uint32_t* to, int length, const uint8_t* lut);
+
+/** scalar skin test, shared by the tails of the vector kernels */
+inline uint8_t skinMaskOf(uint32_t pixel) {
+    int red = (pixel >> 16) & 0xff;
+    int green = (pixel >> 8) & 0xff;
+    int blue = pixel & 0xff;
+    if ((blue > 95 && green > 40 && red > 20 &&
+         blue - red > 15 && blue - green > 15) ||
+        (blue > 200 && green > 210 && red > 170 &&
+         blue - red <= 15 && blue > red && green > red))
+        return 255;
+    return 0;
+}
+
+inline uint32_t channelLutOf(uint32_t pixel, const uint8_t* lut) {
+    return (pixel & 0xff000000) | (lut[(pixel >> 16) & 0xff] << 16)
+           | (lut[(pixel >> 8) & 0xff] << 8) | lut[pixel & 0xff];
+}
+#endif
@@ -0,0 +1,178 @@
+#include "PixelKernels.h"
+#include "../bitmap/Conversion.h"
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+
+#include <arm_neon.h>
+
+/*
+ * 8 pixels per step: vld4/vld3 split the channels, the fixed point math of
+ * Conversion runs in 32-bit lanes and the narrowing moves truncate to 8 bits
+ * exactly like the (uint8_t) casts of the reference.
+ */
+
+static inline int32x4_t widenLow(uint8x8_t channel) {
+    return vreinterpretq_s32_u32(vmovl_u16(vget_low_u16(vmovl_u8(channel))));
+}
+
+static inline int32x4_t widenHigh(uint8x8_t channel) {
+    return vreinterpretq_s32_u32(vmovl_u16(vget_high_u16(vmovl_u8(channel))));
+}
+
+static inline uint8x8_t narrow(int32x4_t low, int32x4_t high) {
+    return vmovn_u16(vreinterpretq_u16_s16(vcombine_s16(vmovn_s32(low), vmovn_s32(high))));
+}
+
+static inline int32x4_t fixedPoint(int32x4_t red, int32x4_t green, int32x4_t blue,
+                                   int redFactor, int greenFactor, int blueFactor) {
+    int32x4_t sum = vdupq_n_s32(HalfShiftValue);
+    sum = vmlaq_n_s32(sum, red, redFactor);
+    sum = vmlaq_n_s32(sum, green, greenFactor);
+    sum = vmlaq_n_s32(sum, blue, blueFactor);
+    return vshrq_n_s32(sum, Shift);
+}
+
+static void neonRgbToYCbCr(const uint8_t *from, uint8_t *to, int length) {
+    const int32x4_t offset128 = vdupq_n_s32(128);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+        uint8x8x4_t bgra = vld4_u8(from + (i << 2));
+        int32x4_t blue[2] = {widenLow(bgra.val[0]), widenHigh(bgra.val[0])};
+        int32x4_t green[2] = {widenLow(bgra.val[1]), widenHigh(bgra.val[1])};
+        int32x4_t red[2] = {widenLow(bgra.val[2]), widenHigh(bgra.val[2])};
+        int32x4_t y[2], cb[2], cr[2];
+        for (int h = 0; h < 2; h++) {
+            y[h] = fixedPoint(red[h], green[h], blue[h], YCbCrYRI, YCbCrYGI, YCbCrYBI);
+            cb[h] = vaddq_s32(offset128, fixedPoint(red[h], green[h], blue[h],
+                                                    YCbCrCbRI, YCbCrCbGI, YCbCrCbBI));
+            cr[h] = vaddq_s32(offset128, fixedPoint(red[h], green[h], blue[h],
+                                                    YCbCrCrRI, YCbCrCrGI, YCbCrCrBI));
+        }
+        uint8x8x3_t ycbcr;
+        ycbcr.val[0] = narrow(y[0], y[1]);
+        ycbcr.val[1] = narrow(cb[0], cb[1]);
+        ycbcr.val[2] = narrow(cr[0], cr[1]);
+        vst3_u8(to + i * 3, ycbcr);
+    }
+    Conversion::RGBToYCbCr((uint8_t *) from + (i << 2), to + i * 3, length - i);
+}
+
+static void neonYCbCrToRgb(const uint8_t *from, uint8_t *to, int length) {
+    const int32x4_t offset128 = vdupq_n_s32(128);
+    const int32x4_t zero = vdupq_n_s32(0);
+    const int32x4_t max = vdupq_n_s32(255);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+        uint8x8x3_t ycbcr = vld3_u8(from + i * 3);
+        int32x4_t y[2] = {widenLow(ycbcr.val[0]), widenHigh(ycbcr.val[0])};
+        int32x4_t cb[2] = {vsubq_s32(widenLow(ycbcr.val[1]), offset128),
+                           vsubq_s32(widenHigh(ycbcr.val[1]), offset128)};
+        int32x4_t cr[2] = {vsubq_s32(widenLow(ycbcr.val[2]), offset128),
+                           vsubq_s32(widenHigh(ycbcr.val[2]), offset128)};
+        int32x4_t red[2], green[2], blue[2];
+        for (int h = 0; h < 2; h++) {
+            int32x4_t half = vdupq_n_s32(HalfShiftValue);
+            red[h] = vaddq_s32(y[h], vshrq_n_s32(vmlaq_n_s32(half, cr[h], RGBRCrI), Shift));
+            green[h] = vaddq_s32(y[h], vshrq_n_s32(
+                    vmlaq_n_s32(vmlaq_n_s32(half, cb[h], RGBGCbI), cr[h], RGBGCrI), Shift));
+            blue[h] = vaddq_s32(y[h], vshrq_n_s32(vmlaq_n_s32(half, cb[h], RGBBCbI), Shift));
+            red[h] = vminq_s32(vmaxq_s32(red[h], zero), max);
+            green[h] = vminq_s32(vmaxq_s32(green[h], zero), max);
+            blue[h] = vminq_s32(vmaxq_s32(blue[h], zero), max);
+        }
+        uint8x8x4_t bgra;
+        bgra.val[0] = narrow(blue[0], blue[1]);
+        bgra.val[1] = narrow(green[0], green[1]);
+        bgra.val[2] = narrow(red[0], red[1]);
+        bgra.val[3] = vdup_n_u8(0xff);
+        vst4_u8(to + (i << 2), bgra);
+    }
+    Conversion::YCbCrToRGB((uint8_t *) from + i * 3, to + (i << 2), length - i);
+}
+
+static void neonSkinMask(const uint32_t *pixels, uint8_t *mask, int length) {
+    const int16x8_t c15 = vdupq_n_s16(15);
+    const int16x8_t zero = vdupq_n_s16(0);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+        // little endian 0xAARRGGBB: blue is the first byte in memory
+        uint8x8x4_t bgra = vld4_u8((const uint8_t *) (pixels + i));
+        int16x8_t blue = vreinterpretq_s16_u16(vmovl_u8(bgra.val[0]));
+        int16x8_t green = vreinterpretq_s16_u16(vmovl_u8(bgra.val[1]));
+        int16x8_t red = vreinterpretq_s16_u16(vmovl_u8(bgra.val[2]));
+        int16x8_t blueRed = vsubq_s16(blue, red);
+        int16x8_t blueGreen = vsubq_s16(blue, green);
+
+        uint16x8_t dark = vandq_u16(
+                vandq_u16(vcgtq_s16(blue, vdupq_n_s16(95)), vcgtq_s16(green, vdupq_n_s16(40))),
+                vandq_u16(vcgtq_s16(red, vdupq_n_s16(20)),
+                          vandq_u16(vcgtq_s16(blueRed, c15), vcgtq_s16(blueGreen, c15))));
+        uint16x8_t light = vandq_u16(
+                vandq_u16(vcgtq_s16(blue, vdupq_n_s16(200)), vcgtq_s16(green, vdupq_n_s16(210))),
+                vandq_u16(vcgtq_s16(red, vdupq_n_s16(170)),
+                          vandq_u16(vandq_u16(vcleq_s16(blueRed, c15), vcgtq_s16(blueRed, zero)),
+                                    vcgtq_s16(green, red))));
+        vst1_u8(mask + i, vmovn_u16(vorrq_u16(dark, light)));
+    }
+    for (; i < length; i++) {
+        mask[i] = skinMaskOf(pixels[i]);
+    }
+}
+
+#if defined(__aarch64__)
+
+static inline uint8x16_t lookup(const uint8x16x4_t table[4], uint8x16_t index) {
+    // tbl returns 0 for an index past its 64 bytes, so the four quarters can be or'ed
+    const uint8x16_t quarter = vdupq_n_u8(64);
+    uint8x16_t result = vqtbl4q_u8(table[0], index);
+    index = vsubq_u8(index, quarter);
+    result = vorrq_u8(result, vqtbl4q_u8(table[1], index));
+    index = vsubq_u8(index, quarter);
+    result = vorrq_u8(result, vqtbl4q_u8(table[2], index));
+    index = vsubq_u8(index, quarter);
+    return vorrq_u8(result, vqtbl4q_u8(table[3], index));
+}
+
+static void neonChannelLut(const uint32_t *from, uint32_t *to, int length, const uint8_t *lut) {
+    uint8x16x4_t table[4];
+    for (int q = 0; q < 4; q++) {
+        for (int k = 0; k < 4; k++) {
+            table[q].val[k] = vld1q_u8(lut + q * 64 + k * 16);
+        }
+    }
+    int i = 0;
+    for (; i + 16 <= length; i += 16) {
+        uint8x16x4_t bgra = vld4q_u8((const uint8_t *) (from + i));
+        bgra.val[0] = lookup(table, bgra.val[0]);
+        bgra.val[1] = lookup(table, bgra.val[1]);
+        bgra.val[2] = lookup(table, bgra.val[2]);
+        vst4q_u8((uint8_t *) (to + i), bgra);
+    }
+    scalarChannelLut(from + i, to + i, length - i, lut);
+}
+
+#define NEON_CHANNEL_LUT neonChannelLut
+#else
+// armeabi-v7a only has 32 byte tables, a 256 entry lookup is not worth it there
+#define NEON_CHANNEL_LUT scalarChannelLut
+#endif
+
+static const PixelKernels NEON_KERNELS = {
+        "neon",
+        neonRgbToYCbCr,
+        neonYCbCrToRgb,
+        neonSkinMask,
+        NEON_CHANNEL_LUT
+};
+
+const PixelKernels *getNeonPixelKernels() {
+    return &NEON_KERNELS;
+}
+
+#else
+
+const PixelKernels *getNeonPixelKernels() {
+    return nullptr;
+}
+
+#endif
@@ -0,0 +1,306 @@
+#include "PixelKernels.h"
+#include "../bitmap/Conversion.h"
+
+#if defined(__x86_64__) || defined(__i386__)
+
+#include <immintrin.h>
+#include <string.h>
+
+#define SSE41 __attribute__((target("sse4.1")))
+#define AVX2 __attribute__((target("avx2")))
+
+/*
+ * The kernels widen every channel to a 32-bit lane and evaluate exactly the
+ * fixed point expressions of Conversion, tails go through the scalar code.
+ * Cb and Cr are truncated to 8 bits like the (uint8_t) casts of the reference.
+ */
+
+// Y, Cb, Cr in the low three bytes of every 32-bit lane -> 12 packed bytes
+#define PACK_YCBCR_MASK 0, 1, 2, 4, 5, 6, 8, 9, 10, 12, 13, 14, -1, -1, -1, -1
+// 12 packed bytes -> one channel per 32-bit lane
+#define UNPACK_Y_MASK  0, -1, -1, -1, 3, -1, -1, -1, 6, -1, -1, -1, 9, -1, -1, -1
+#define UNPACK_CB_MASK 1, -1, -1, -1, 4, -1, -1, -1, 7, -1, -1, -1, 10, -1, -1, -1
+#define UNPACK_CR_MASK 2, -1, -1, -1, 5, -1, -1, -1, 8, -1, -1, -1, 11, -1, -1, -1
+
+SSE41 static inline void store12(uint8_t *to, __m128i packed) {
+    _mm_storel_epi64((__m128i *) to, packed);
+    int last = _mm_extract_epi32(packed, 2);
+    memcpy(to + 8, &last, 4);
+}
+
+SSE41 static void sse41RgbToYCbCr(const uint8_t *from, uint8_t *to, int length) {
+    const __m128i byteMask = _mm_set1_epi32(0xff);
+    const __m128i half = _mm_set1_epi32(HalfShiftValue);
+    const __m128i offset128 = _mm_set1_epi32(128);
+    const __m128i pack = _mm_setr_epi8(PACK_YCBCR_MASK);
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+        __m128i pixels = _mm_loadu_si128((const __m128i *) (from + (i << 2)));
+        __m128i blue = _mm_and_si128(pixels, byteMask);
+        __m128i green = _mm_and_si128(_mm_srli_epi32(pixels, 8), byteMask);
+        __m128i red = _mm_and_si128(_mm_srli_epi32(pixels, 16), byteMask);
+
+        __m128i y = _mm_add_epi32(_mm_add_epi32(
+                _mm_mullo_epi32(red, _mm_set1_epi32(YCbCrYRI)),
+                _mm_mullo_epi32(green, _mm_set1_epi32(YCbCrYGI))),
+                _mm_add_epi32(_mm_mullo_epi32(blue, _mm_set1_epi32(YCbCrYBI)), half));
+        __m128i cb = _mm_add_epi32(_mm_add_epi32(
+                _mm_mullo_epi32(red, _mm_set1_epi32(YCbCrCbRI)),
+                _mm_mullo_epi32(green, _mm_set1_epi32(YCbCrCbGI))),
+                _mm_add_epi32(_mm_mullo_epi32(blue, _mm_set1_epi32(YCbCrCbBI)), half));
+        __m128i cr = _mm_add_epi32(_mm_add_epi32(
+                _mm_mullo_epi32(red, _mm_set1_epi32(YCbCrCrRI)),
+                _mm_mullo_epi32(green, _mm_set1_epi32(YCbCrCrGI))),
+                _mm_add_epi32(_mm_mullo_epi32(blue, _mm_set1_epi32(YCbCrCrBI)), half));
+        y = _mm_and_si128(_mm_srai_epi32(y, Shift), byteMask);
+        cb = _mm_and_si128(_mm_add_epi32(_mm_srai_epi32(cb, Shift), offset128), byteMask);
+        cr = _mm_and_si128(_mm_add_epi32(_mm_srai_epi32(cr, Shift), offset128), byteMask);
+
+        __m128i ycbcr = _mm_or_si128(y, _mm_or_si128(_mm_slli_epi32(cb, 8), _mm_slli_epi32(cr, 16)));
+        store12(to + i * 3, _mm_shuffle_epi8(ycbcr, pack));
+    }
+    Conversion::RGBToYCbCr((uint8_t *) from + (i << 2), to + i * 3, length - i);
+}
+
+SSE41 static void sse41YCbCrToRgb(const uint8_t *from, uint8_t *to, int length) {
+    const __m128i half = _mm_set1_epi32(HalfShiftValue);
+    const __m128i offset128 = _mm_set1_epi32(128);
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i max = _mm_set1_epi32(255);
+    const __m128i alpha = _mm_set1_epi32((int) 0xff000000);
+    const __m128i unpackY = _mm_setr_epi8(UNPACK_Y_MASK);
+    const __m128i unpackCb = _mm_setr_epi8(UNPACK_CB_MASK);
+    const __m128i unpackCr = _mm_setr_epi8(UNPACK_CR_MASK);
+    int i = 0;
+    // a 16 byte load for 4 pixels reads 4 bytes ahead, keep it inside the plane
+    for (; i + 6 <= length; i += 4) {
+        __m128i packed = _mm_loadu_si128((const __m128i *) (from + i * 3));
+        __m128i y = _mm_shuffle_epi8(packed, unpackY);
+        __m128i cb = _mm_sub_epi32(_mm_shuffle_epi8(packed, unpackCb), offset128);
+        __m128i cr = _mm_sub_epi32(_mm_shuffle_epi8(packed, unpackCr), offset128);
+
+        __m128i red = _mm_add_epi32(y, _mm_srai_epi32(_mm_add_epi32(
+                _mm_mullo_epi32(cr, _mm_set1_epi32(RGBRCrI)), half), Shift));
+        __m128i green = _mm_add_epi32(y, _mm_srai_epi32(_mm_add_epi32(_mm_add_epi32(
+                _mm_mullo_epi32(cb, _mm_set1_epi32(RGBGCbI)),
+                _mm_mullo_epi32(cr, _mm_set1_epi32(RGBGCrI))), half), Shift));
+        __m128i blue = _mm_add_epi32(y, _mm_srai_epi32(_mm_add_epi32(
+                _mm_mullo_epi32(cb, _mm_set1_epi32(RGBBCbI)), half), Shift));
+        red = _mm_min_epi32(_mm_max_epi32(red, zero), max);
+        green = _mm_min_epi32(_mm_max_epi32(green, zero), max);
+        blue = _mm_min_epi32(_mm_max_epi32(blue, zero), max);
+
+        __m128i pixels = _mm_or_si128(_mm_or_si128(blue, alpha),
+                _mm_or_si128(_mm_slli_epi32(green, 8), _mm_slli_epi32(red, 16)));
+        _mm_storeu_si128((__m128i *) (to + (i << 2)), pixels);
+    }
+    Conversion::YCbCrToRGB((uint8_t *) from + i * 3, to + (i << 2), length - i);
+}
+
+SSE41 static void sse41SkinMask(const uint32_t *pixels, uint8_t *mask, int length) {
+    const __m128i byteMask = _mm_set1_epi32(0xff);
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i c15 = _mm_set1_epi32(15);
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+        __m128i p = _mm_loadu_si128((const __m128i *) (pixels + i));
+        __m128i blue = _mm_and_si128(p, byteMask);
+        __m128i green = _mm_and_si128(_mm_srli_epi32(p, 8), byteMask);
+        __m128i red = _mm_and_si128(_mm_srli_epi32(p, 16), byteMask);
+        __m128i blueRed = _mm_sub_epi32(blue, red);
+        __m128i blueGreen = _mm_sub_epi32(blue, green);
+
+        __m128i dark = _mm_and_si128(
+                _mm_and_si128(_mm_cmpgt_epi32(blue, _mm_set1_epi32(95)),
+                              _mm_cmpgt_epi32(green, _mm_set1_epi32(40))),
+                _mm_and_si128(_mm_cmpgt_epi32(red, _mm_set1_epi32(20)),
+                              _mm_and_si128(_mm_cmpgt_epi32(blueRed, c15),
+                                            _mm_cmpgt_epi32(blueGreen, c15))));
+        __m128i light = _mm_and_si128(
+                _mm_and_si128(_mm_cmpgt_epi32(blue, _mm_set1_epi32(200)),
+                              _mm_cmpgt_epi32(green, _mm_set1_epi32(210))),
+                _mm_and_si128(_mm_cmpgt_epi32(red, _mm_set1_epi32(170)),
+                              _mm_and_si128(_mm_andnot_si128(_mm_cmpgt_epi32(blueRed, c15),
+                                                             _mm_cmpgt_epi32(blueRed, zero)),
+                                            _mm_cmpgt_epi32(green, red))));
+        __m128i skin = _mm_packs_epi32(_mm_or_si128(dark, light), zero);
+        skin = _mm_packs_epi16(skin, zero);
+        int bytes = _mm_cvtsi128_si32(skin);
+        memcpy(mask + i, &bytes, 4);
+    }
+    for (; i < length; i++) {
+        mask[i] = skinMaskOf(pixels[i]);
+    }
+}
+
+AVX2 static void avx2RgbToYCbCr(const uint8_t *from, uint8_t *to, int length) {
+    const __m256i byteMask = _mm256_set1_epi32(0xff);
+    const __m256i half = _mm256_set1_epi32(HalfShiftValue);
+    const __m256i offset128 = _mm256_set1_epi32(128);
+    const __m256i pack = _mm256_setr_epi8(PACK_YCBCR_MASK, PACK_YCBCR_MASK);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+        __m256i pixels = _mm256_loadu_si256((const __m256i *) (from + (i << 2)));
+        __m256i blue = _mm256_and_si256(pixels, byteMask);
+        __m256i green = _mm256_and_si256(_mm256_srli_epi32(pixels, 8), byteMask);
+        __m256i red = _mm256_and_si256(_mm256_srli_epi32(pixels, 16), byteMask);
+
+        __m256i y = _mm256_add_epi32(_mm256_add_epi32(
+                _mm256_mullo_epi32(red, _mm256_set1_epi32(YCbCrYRI)),
+                _mm256_mullo_epi32(green, _mm256_set1_epi32(YCbCrYGI))),
+                _mm256_add_epi32(_mm256_mullo_epi32(blue, _mm256_set1_epi32(YCbCrYBI)), half));
+        __m256i cb = _mm256_add_epi32(_mm256_add_epi32(
+                _mm256_mullo_epi32(red, _mm256_set1_epi32(YCbCrCbRI)),
+                _mm256_mullo_epi32(green, _mm256_set1_epi32(YCbCrCbGI))),
+                _mm256_add_epi32(_mm256_mullo_epi32(blue, _mm256_set1_epi32(YCbCrCbBI)), half));
+        __m256i cr = _mm256_add_epi32(_mm256_add_epi32(
+                _mm256_mullo_epi32(red, _mm256_set1_epi32(YCbCrCrRI)),
+                _mm256_mullo_epi32(green, _mm256_set1_epi32(YCbCrCrGI))),
+                _mm256_add_epi32(_mm256_mullo_epi32(blue, _mm256_set1_epi32(YCbCrCrBI)), half));
+        y = _mm256_and_si256(_mm256_srai_epi32(y, Shift), byteMask);
+        cb = _mm256_and_si256(_mm256_add_epi32(_mm256_srai_epi32(cb, Shift), offset128), byteMask);
+        cr = _mm256_and_si256(_mm256_add_epi32(_mm256_srai_epi32(cr, Shift), offset128), byteMask);
+
+        __m256i ycbcr = _mm256_or_si256(y, _mm256_or_si256(_mm256_slli_epi32(cb, 8),
+                                                           _mm256_slli_epi32(cr, 16)));
+        ycbcr = _mm256_shuffle_epi8(ycbcr, pack);
+        uint8_t *out = to + i * 3;
+        _mm_storeu_si128((__m128i *) out, _mm256_castsi256_si128(ycbcr));
+        // the upper lane overwrites the 4 unused bytes of the lower one
+        store12(out + 12, _mm256_extracti128_si256(ycbcr, 1));
+    }
+    sse41RgbToYCbCr(from + (i << 2), to + i * 3, length - i);
+}
+
+AVX2 static void avx2YCbCrToRgb(const uint8_t *from, uint8_t *to, int length) {
+    const __m256i half = _mm256_set1_epi32(HalfShiftValue);
+    const __m256i offset128 = _mm256_set1_epi32(128);
+    const __m256i zero = _mm256_setzero_si256();
+    const __m256i max = _mm256_set1_epi32(255);
+    const __m256i alpha = _mm256_set1_epi32((int) 0xff000000);
+    const __m256i unpackY = _mm256_setr_epi8(UNPACK_Y_MASK, UNPACK_Y_MASK);
+    const __m256i unpackCb = _mm256_setr_epi8(UNPACK_CB_MASK, UNPACK_CB_MASK);
+    const __m256i unpackCr = _mm256_setr_epi8(UNPACK_CR_MASK, UNPACK_CR_MASK);
+    int i = 0;
+    for (; i + 10 <= length; i += 8) {
+        const uint8_t *in = from + i * 3;
+        __m256i packed = _mm256_inserti128_si256(
+                _mm256_castsi128_si256(_mm_loadu_si128((const __m128i *) in)),
+                _mm_loadu_si128((const __m128i *) (in + 12)), 1);
+        __m256i y = _mm256_shuffle_epi8(packed, unpackY);
+        __m256i cb = _mm256_sub_epi32(_mm256_shuffle_epi8(packed, unpackCb), offset128);
+        __m256i cr = _mm256_sub_epi32(_mm256_shuffle_epi8(packed, unpackCr), offset128);
+
+        __m256i red = _mm256_add_epi32(y, _mm256_srai_epi32(_mm256_add_epi32(
+                _mm256_mullo_epi32(cr, _mm256_set1_epi32(RGBRCrI)), half), Shift));
+        __m256i green = _mm256_add_epi32(y, _mm256_srai_epi32(_mm256_add_epi32(_mm256_add_epi32(
+                _mm256_mullo_epi32(cb, _mm256_set1_epi32(RGBGCbI)),
+                _mm256_mullo_epi32(cr, _mm256_set1_epi32(RGBGCrI))), half), Shift));
+        __m256i blue = _mm256_add_epi32(y, _mm256_srai_epi32(_mm256_add_epi32(
+                _mm256_mullo_epi32(cb, _mm256_set1_epi32(RGBBCbI)), half), Shift));
+        red = _mm256_min_epi32(_mm256_max_epi32(red, zero), max);
+        green = _mm256_min_epi32(_mm256_max_epi32(green, zero), max);
+        blue = _mm256_min_epi32(_mm256_max_epi32(blue, zero), max);
+
+        __m256i pixels = _mm256_or_si256(_mm256_or_si256(blue, alpha),
+                _mm256_or_si256(_mm256_slli_epi32(green, 8), _mm256_slli_epi32(red, 16)));
+        _mm256_storeu_si256((__m256i *) (to + (i << 2)), pixels);
+    }
+    sse41YCbCrToRgb(from + i * 3, to + (i << 2), length - i);
+}
+
+AVX2 static void avx2SkinMask(const uint32_t *pixels, uint8_t *mask, int length) {
+    const __m256i byteMask = _mm256_set1_epi32(0xff);
+    const __m256i zero = _mm256_setzero_si256();
+    const __m256i c15 = _mm256_set1_epi32(15);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+        __m256i p = _mm256_loadu_si256((const __m256i *) (pixels + i));
+        __m256i blue = _mm256_and_si256(p, byteMask);
+        __m256i green = _mm256_and_si256(_mm256_srli_epi32(p, 8), byteMask);
+        __m256i red = _mm256_and_si256(_mm256_srli_epi32(p, 16), byteMask);
+        __m256i blueRed = _mm256_sub_epi32(blue, red);
+        __m256i blueGreen = _mm256_sub_epi32(blue, green);
+
+        __m256i dark = _mm256_and_si256(
+                _mm256_and_si256(_mm256_cmpgt_epi32(blue, _mm256_set1_epi32(95)),
+                                 _mm256_cmpgt_epi32(green, _mm256_set1_epi32(40))),
+                _mm256_and_si256(_mm256_cmpgt_epi32(red, _mm256_set1_epi32(20)),
+                                 _mm256_and_si256(_mm256_cmpgt_epi32(blueRed, c15),
+                                                  _mm256_cmpgt_epi32(blueGreen, c15))));
+        __m256i light = _mm256_and_si256(
+                _mm256_and_si256(_mm256_cmpgt_epi32(blue, _mm256_set1_epi32(200)),
+                                 _mm256_cmpgt_epi32(green, _mm256_set1_epi32(210))),
+                _mm256_and_si256(_mm256_cmpgt_epi32(red, _mm256_set1_epi32(170)),
+                                 _mm256_and_si256(_mm256_andnot_si256(_mm256_cmpgt_epi32(blueRed, c15),
+                                                                      _mm256_cmpgt_epi32(blueRed, zero)),
+                                                  _mm256_cmpgt_epi32(green, red))));
+        __m256i skin = _mm256_or_si256(dark, light);
+        // packs work per 128-bit lane, bytes 0-3 and 16-19 hold the 8 results
+        skin = _mm256_packs_epi16(_mm256_packs_epi32(skin, zero), zero);
+        int low = _mm256_extract_epi32(skin, 0);
+        int high = _mm256_extract_epi32(skin, 4);
+        memcpy(mask + i, &low, 4);
+        memcpy(mask + i + 4, &high, 4);
+    }
+    sse41SkinMask(pixels + i, mask + i, length - i);
+}
+
+AVX2 static void avx2ChannelLut(const uint32_t *from, uint32_t *to, int length, const uint8_t *lut) {
+    const __m256i byteMask = _mm256_set1_epi32(0xff);
+    const __m256i alphaMask = _mm256_set1_epi32((int) 0xff000000);
+    const int *table = (const int *) lut;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+        __m256i p = _mm256_loadu_si256((const __m256i *) (from + i));
+        // byte-scaled gathers read 4 bytes from lut + index, the low one is the entry
+        __m256i blue = _mm256_i32gather_epi32(table, _mm256_and_si256(p, byteMask), 1);
+        __m256i green = _mm256_i32gather_epi32(
+                table, _mm256_and_si256(_mm256_srli_epi32(p, 8), byteMask), 1);
+        __m256i red = _mm256_i32gather_epi32(
+                table, _mm256_and_si256(_mm256_srli_epi32(p, 16), byteMask), 1);
+        __m256i pixels = _mm256_or_si256(
+                _mm256_or_si256(_mm256_and_si256(p, alphaMask), _mm256_and_si256(blue, byteMask)),
+                _mm256_or_si256(_mm256_slli_epi32(_mm256_and_si256(green, byteMask), 8),
+                                _mm256_slli_epi32(_mm256_and_si256(red, byteMask), 16)));
+        _mm256_storeu_si256((__m256i *) (to + i), pixels);
+    }
+    scalarChannelLut(from + i, to + i, length - i, lut);
+}
+
+// SSE has no gather, a 256 entry table lookup stays scalar there
+static const PixelKernels SSE41_KERNELS = {
+        "sse4.1",
+        sse41RgbToYCbCr,
+        sse41YCbCrToRgb,
+        sse41SkinMask,
+        scalarChannelLut
+};
+
+static const PixelKernels AVX2_KERNELS = {
+        "avx2",
+        avx2RgbToYCbCr,
+        avx2YCbCrToRgb,
+        avx2SkinMask,
+        avx2ChannelLut
+};
+
+const PixelKernels *getSse41PixelKernels() {
+    return __builtin_cpu_supports("sse4.1") ? &SSE41_KERNELS : nullptr;
+}
+
+const PixelKernels *getAvx2PixelKernels() {
+    return __builtin_cpu_supports("avx2") ? &AVX2_KERNELS : nullptr;
+}
+
+#else
+
+const PixelKernels *getSse41PixelKernels() {
+    return nullptr;
+}
+
+const PixelKernels *getAvx2PixelKernels() {
+    return nullptr;
+}
+
+#endif
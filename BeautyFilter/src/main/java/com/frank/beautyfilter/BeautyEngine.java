@@ -1,12 +1,20 @@
 package com.frank.beautyfilter;
 
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
 import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.helper.PrecompileFiltersTask;
 import com.frank.beautyfilter.helper.SavePictureTask;
+import com.frank.beautyfilter.recorder.SegmentConcatenator;
+import com.frank.beautyfilter.recorder.video.TextureVideoRecorder;
 import com.frank.beautyfilter.util.BeautyParams;
+import com.frank.beautyfilter.util.FrameProfiler;
 import com.frank.beautyfilter.widget.BeautyCameraView;
 import com.frank.beautyfilter.widget.base.BeautyBaseView;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * @author xufulong
@@ -15,15 +23,48 @@ import java.io.File;
  */
 public class BeautyEngine {
 
+    // registered once per process, it trims whichever view is current
+    private final static ComponentCallbacks2 TRIM_CALLBACKS = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (BeautyParams.beautyBaseView != null)
+                BeautyParams.beautyBaseView.trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration configuration) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    };
+
+    private static boolean sTrimRegistered;
+
     public BeautyEngine(BeautyBaseView baseView) {
         BeautyParams.context = baseView.getContext();
         BeautyParams.beautyBaseView = baseView;
+        PrecompileFiltersTask.execute();
+        if (!sTrimRegistered) {
+            sTrimRegistered = true;
+            baseView.getContext().getApplicationContext().registerComponentCallbacks(TRIM_CALLBACKS);
+        }
     }
 
     public void setFilter(BeautyFilterType type) {
         BeautyParams.beautyBaseView.setFilter(type);
     }
 
+    /**
+     * Prepare the filters of types, e.g. the neighbours of the current one in a carousel,
+     * so that switching to them does not stall the preview.
+     */
+    public void warmFilters(BeautyFilterType... types) {
+        BeautyParams.beautyBaseView.warmFilters(types);
+    }
+
     public void startRecord() {
         if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
             ((BeautyCameraView) BeautyParams.beautyBaseView).changeRecordingState(true);
@@ -36,6 +77,49 @@ public class BeautyEngine {
         }
     }
 
+    public void pauseRecord() {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            ((BeautyCameraView) BeautyParams.beautyBaseView).pauseRecording();
+        }
+    }
+
+    public void resumeRecord() {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            ((BeautyCameraView) BeautyParams.beautyBaseView).resumeRecording();
+        }
+    }
+
+    /**
+     * Record in segments of at most durationMs or bytes, 0 for no limit, joined into the
+     * movie once the recording stops. A crash loses the last segment only.
+     */
+    public void setRecordingSegments(long durationMs, long bytes,
+                                     SegmentConcatenator.OnRecordingSavedListener listener) {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            BeautyCameraView cameraView = (BeautyCameraView) BeautyParams.beautyBaseView;
+            cameraView.setRecordingSegments(durationMs, bytes);
+            cameraView.setOnRecordingSavedListener(listener);
+        }
+    }
+
+    /**
+     * Join what a segmented recording left when the app died during it into a file next to
+     * the movie, listener is told once it is written.
+     * @return the file, null when there is nothing to recover
+     */
+    public File recoverRecording(SegmentConcatenator.OnRecordingSavedListener listener) {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            return ((BeautyCameraView) BeautyParams.beautyBaseView).recoverRecording(listener);
+        }
+        // no camera, so no recording into the movie either
+        try {
+            return SegmentConcatenator.recover(new File(BeautyParams.videoPath, BeautyParams.videoName), listener);
+        } catch (IOException e) {
+            // logged, the segments left are kept where they are
+            return null;
+        }
+    }
+
     public void setBeautyLevel(int level) {
         if (BeautyParams.beautyBaseView instanceof BeautyCameraView && BeautyParams.beautyLevel != level) {
             BeautyParams.beautyLevel = level;
@@ -43,6 +127,36 @@ public class BeautyEngine {
         }
     }
 
+    /**
+     * Time the passes of the camera preview and of the recording, e.g. with a
+     * FrameStatsView over the preview, null stops it.
+     */
+    public void setFrameStatsListener(FrameProfiler.OnFrameStatsListener listener) {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            ((BeautyCameraView) BeautyParams.beautyBaseView).setFrameStatsListener(listener);
+        }
+    }
+
+    /**
+     * What the recording does with frames the encoder has no room for.
+     * @param policy TextureVideoRecorder#DROP_NEWEST, DROP_OLDEST or BLOCK
+     */
+    public void setRecorderDropPolicy(int policy, int maxQueuedFrames) {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            ((BeautyCameraView) BeautyParams.beautyBaseView).setRecorderDropPolicy(policy, maxQueuedFrames);
+        }
+    }
+
+    /**
+     * The frame counters of the current or last recording, null without a camera view.
+     */
+    public TextureVideoRecorder.Stats getRecorderStats() {
+        if (BeautyParams.beautyBaseView instanceof BeautyCameraView) {
+            return ((BeautyCameraView) BeautyParams.beautyBaseView).getRecorderStats();
+        }
+        return null;
+    }
+
     public void savePicture(File file, SavePictureTask.OnPictureSavedListener listener) {
         SavePictureTask task = new SavePictureTask(file, listener);
         BeautyParams.beautyBaseView.savePicture(task);
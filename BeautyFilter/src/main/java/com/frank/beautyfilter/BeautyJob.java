@@ -0,0 +1,90 @@
+package com.frank.beautyfilter;
+
+import android.os.SystemClock;
+
+/**
+ * Handle of a beauty operation submitted to {@link BeautyManager}.
+ * A job is superseded, and cancelled, by a later job of the same operation
+ * submitted before it has finished.
+ */
+public class BeautyJob {
+
+    public final static int OPERATION_SMOOTH = 1;
+    public final static int OPERATION_WHITE  = 2;
+
+    public final static int STATE_PENDING   = 0;
+    public final static int STATE_RUNNING   = 1;
+    public final static int STATE_DONE      = 2;
+    public final static int STATE_CANCELLED = 3;
+
+    private final BeautyManager mBeautyManager;
+
+    private final int mOperation;
+
+    private final float mLevel;
+
+    private final long mSubmitTime;
+
+    private volatile int mState = STATE_PENDING;
+
+    private volatile long mLatency = -1;
+
+    BeautyJob(BeautyManager manager, int operation, float level) {
+        mBeautyManager = manager;
+        mOperation = operation;
+        mLevel = level;
+        mSubmitTime = SystemClock.uptimeMillis();
+    }
+
+    public int getOperation() {
+        return mOperation;
+    }
+
+    public float getLevel() {
+        return mLevel;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public boolean isDone() {
+        return mState == STATE_DONE;
+    }
+
+    public boolean isCancelled() {
+        return mState == STATE_CANCELLED;
+    }
+
+    /**
+     * Time from submit to the result being in the bitmap, -1 until the job is done.
+     */
+    public long getLatencyMillis() {
+        return mLatency;
+    }
+
+    /**
+     * Drop the job if it has not run yet, or stop it between two native tiles.
+     * A running job merged with a live job of the other operation still completes,
+     * as does one whose last tile was already written: {@link #getState()} tells.
+     * A stopped job is undone, {@link BeautyManager#MSG_OPERATION_END} follows once the
+     * image is back at the levels before it, unless another job was submitted meanwhile.
+     * @return false when the job was finished or could not be stopped
+     */
+    public boolean cancel() {
+        return mBeautyManager.cancelJob(this);
+    }
+
+    void setState(int state) {
+        if (state == STATE_DONE) {
+            mLatency = SystemClock.uptimeMillis() - mSubmitTime;
+        }
+        mState = state;
+    }
+
+    @Override
+    public String toString() {
+        return (mOperation == OPERATION_SMOOTH ? "smooth " : "white ") + mLevel
+                + (mState == STATE_DONE ? ", done in " + mLatency + "ms" : ", state=" + mState);
+    }
+}
@@ -1,10 +1,20 @@
 package com.frank.beautyfilter;
 
 import android.graphics.Bitmap;
+import android.hardware.HardwareBuffer;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
+import androidx.annotation.RequiresApi;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author xufulong
@@ -19,13 +29,53 @@ public class BeautyManager {
 
     private BeautyListener mBeautyListener;
 
-    private static ByteBuffer mBitmapBuffer;
+    // the image of the editor, every method below except the batch ones works on it
+    private final BeautySession mSession = new BeautySession();
 
     public final static int MSG_OPERATION_END = 456;
 
-    static {
-        System.loadLibrary("BeautyManager");
-    }
+    // a job was rendered on the downscaled proxy, its full resolution pass follows
+    public final static int MSG_PREVIEW_READY = 457;
+
+    public final static long DEFAULT_MEMORY_BUDGET = 512L * 1024 * 1024;
+
+    private long mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    private BeautyJobListener mJobListener;
+
+    // jobs run one at a time, a drag of the slider only ever keeps the latest level queued
+    private final ExecutorService mJobExecutor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "BeautyJob"));
+
+    // guards the pending and running jobs, never held across a native run
+    private final Object mJobLock = new Object();
+
+    private BeautyJob mPendingSmooth;
+    private BeautyJob mPendingWhite;
+
+    // jobs of the native run in progress that nothing has superseded yet
+    private BeautyJob mRunningSmooth;
+    private BeautyJob mRunningWhite;
+
+    private long mRunningTicket;
+
+    private long mNextTicket = 1;
+
+    private boolean mDrainScheduled;
+
+    private volatile int mPreviewWidth;
+    private volatile int mPreviewHeight;
+
+    // photos processed at once by processBatch(), each of them is also parallel natively
+    private int mBatchParallelism = 2;
+
+    private ThreadPoolExecutor mBatchExecutor;
+
+    // copies of the image handed to the display, guarded by mResultLock: the one published
+    // and not taken yet, and the one the display gave back to be written next
+    private final Object mResultLock = new Object();
+    private Bitmap mResult;
+    private Bitmap mSpareResult;
 
     private BeautyManager() {}
 
@@ -41,44 +91,285 @@ public class BeautyManager {
         void onEnd();
     }
 
+    public interface BeautyJobListener {
+        /**
+         * Called on the job thread once a job is done or cancelled.
+         */
+        void onJobFinished(BeautyJob job);
+    }
+
+    public interface BatchListener {
+        /**
+         * Called on a batch thread for every photo, result is null when it failed.
+         */
+        void onPhotoDone(int index, Bitmap result);
+    }
+
+    /**
+     * Duration of every native stage of the last operation, in microseconds.
+     */
+    public static class StageTimings {
+        public final long rgbToYCbCr;
+        public final long skinMatrix;
+        public final long integral;
+        public final long skinSmooth;
+        public final long yCbCrToRgb;
+        public final long skinWhite;
+        public final long statistics;
+        public final int threadCount;
+
+        StageTimings(long[] timings) {
+            rgbToYCbCr = timings[0];
+            skinMatrix = timings[1];
+            integral = timings[2];
+            skinSmooth = timings[3];
+            yCbCrToRgb = timings[4];
+            skinWhite = timings[5];
+            statistics = timings[6];
+            threadCount = (int) timings[7];
+        }
+
+        @Override
+        public String toString() {
+            return "rgbToYCbCr=" + rgbToYCbCr + "us, skinMatrix=" + skinMatrix
+                    + "us, integral=" + integral + "us, skinSmooth=" + skinSmooth
+                    + "us, yCbCrToRgb=" + yCbCrToRgb + "us, skinWhite=" + skinWhite
+                    + "us, statistics=" + statistics + "us, threads=" + threadCount;
+        }
+    }
+
     public void setBeautyListener(BeautyListener listener) {
         mBeautyListener = listener;
     }
 
+    public void setBeautyJobListener(BeautyJobListener listener) {
+        mJobListener = listener;
+    }
+
     public void initBeauty() {
-        if (mBitmapBuffer == null) {
-            Log.e(TAG, "bitmap should be set first...");
+        synchronized (mSession) {
+            mSession.setMemoryBudget(mMemoryBudget);
+            if (!mSession.init()) {
+                return;
+            }
+            mSession.initPreview(mPreviewWidth, mPreviewHeight);
+        }
+    }
+
+    /**
+     * A session of its own for bitmap, independent of the image of the editor and of
+     * other sessions, so several photos can be processed on different threads at once.
+     * The bitmap is copied; init() the session before use and close() it afterwards.
+     * @return null when the bitmap can not be used
+     */
+    public BeautySession newSession(Bitmap bitmap) {
+        BeautySession session = new BeautySession();
+        session.setMemoryBudget(mMemoryBudget);
+        if (!session.setBitmap(bitmap)) {
+            session.close();
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Number of photos processBatch() works on at once, besides one on the calling thread
+     * when the queue is full. Each holds a native session, the memory budget is split between them.
+     */
+    public synchronized void setBatchParallelism(int parallelism) {
+        mBatchParallelism = Math.max(1, parallelism);
+        if (mBatchExecutor != null) {
+            mBatchExecutor.shutdown();
+            mBatchExecutor = null;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getBatchExecutor() {
+        if (mBatchExecutor == null) {
+            // a full queue makes the submitting thread process the photo itself, so a
+            // large batch never holds more sessions than the workers plus that thread
+            mBatchExecutor = new ThreadPoolExecutor(mBatchParallelism, mBatchParallelism,
+                    30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(mBatchParallelism),
+                    r -> new Thread(r, "BeautyBatch"), new ThreadPoolExecutor.CallerRunsPolicy());
+            mBatchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mBatchExecutor;
+    }
+
+    /**
+     * Apply the same levels to every photo, each in a session of its own on a bounded pool.
+     * Blocks until all of them are done, call it off the main thread. The photos are not
+     * modified, every result is a new bitmap handed to listener.
+     */
+    public void processBatch(List<Bitmap> photos, float smoothLevel, float whiteLevel,
+                             BatchListener listener) throws InterruptedException {
+        if (smoothLevel < 0 || smoothLevel > 10 || whiteLevel < 0 || whiteLevel > 5) {
+            Log.e(TAG, "skin smooth level must be in [0, 10], skin white level in [0, 5]");
+            return;
+        }
+        ThreadPoolExecutor executor = getBatchExecutor();
+        // the submitting thread runs a photo of its own whenever the queue is full
+        long budget = mMemoryBudget / (executor.getMaximumPoolSize() + 1);
+        CountDownLatch remaining = new CountDownLatch(photos.size());
+        for (int i = 0; i < photos.size(); i++) {
+            final int index = i;
+            final Bitmap photo = photos.get(i);
+            executor.execute(() -> {
+                Bitmap result = null;
+                try {
+                    result = processPhoto(photo, smoothLevel, whiteLevel, budget);
+                } finally {
+                    if (listener != null) {
+                        listener.onPhotoDone(index, result);
+                    }
+                    remaining.countDown();
+                }
+            });
+        }
+        remaining.await();
+    }
+
+    private Bitmap processPhoto(Bitmap photo, float smoothLevel, float whiteLevel, long budget) {
+        BeautySession session = newSession(photo);
+        if (session == null) {
+            return null;
+        }
+        try {
+            session.setMemoryBudget(budget);
+            if (!session.init()) {
+                return null;
+            }
+            session.startBeauty(smoothLevel, whiteLevel);
+            return session.getBitmap();
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Size of the surface showing the image. Submitted jobs are first rendered on a proxy
+     * downscaled to about this size, announced by {@link #MSG_PREVIEW_READY}, and then at
+     * full resolution.
+     */
+    public void setPreviewSize(int width, int height) {
+        if (width == mPreviewWidth && height == mPreviewHeight) {
             return;
         }
-        nativeInitBeauty(mBitmapBuffer);
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+        mJobExecutor.execute(() -> mSession.initPreview(mPreviewWidth, mPreviewHeight));
+    }
+
+    /**
+     * The last job rendered on the proxy, written into reuse when it fits.
+     * @return null without a proxy
+     */
+    public Bitmap getPreviewBitmap(Bitmap reuse) {
+        return mSession.getPreviewBitmap(reuse);
+    }
+
+    /**
+     * Run {@link #initBeauty()} on the job thread, jobs submitted afterwards wait for it.
+     */
+    public void initBeautyAsync() {
+        mJobExecutor.execute(this::initBeauty);
+    }
+
+    /**
+     * Native memory initBeauty() may use besides the bitmap, 0 for no limit.
+     * A bitmap over the budget is smoothed band by band, slower but several times smaller.
+     */
+    public void setMemoryBudget(long bytes) {
+        mMemoryBudget = bytes;
+    }
+
+    public boolean isLeanMode() {
+        return mSession.isLeanMode();
     }
 
     public void setBitmap(Bitmap bitmap, boolean recycle) {
         if (bitmap == null) {
             return;
         }
-        if (mBitmapBuffer != null) {
-            freeBitmap();
-        }
-        mBitmapBuffer = nativeSetBitmap(bitmap);
+        mSession.setBitmap(bitmap);
         if (recycle) {
             bitmap.recycle();
         }
+        publishResult();
     }
     
+    /**
+     * Work directly on the pixels of a caller-owned mutable ARGB_8888 bitmap: nothing is
+     * copied and every operation leaves its result in that bitmap.
+     * @return false when the bitmap can not be used in place and a copy was stored instead
+     */
+    public boolean setBitmapInPlace(Bitmap bitmap) {
+        return mSession.setBitmapInPlace(bitmap);
+    }
+
+    /**
+     * Work directly on a single layer RGBA_8888 buffer allocated with
+     * USAGE_CPU_READ_OFTEN | USAGE_CPU_WRITE_OFTEN, results are written into it.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean setHardwareBuffer(HardwareBuffer buffer) {
+        return mSession.setHardwareBuffer(buffer);
+    }
+
     public Bitmap getBitmap() {
-        if (mBitmapBuffer == null) {
-            return null;
+        return mSession.getBitmap();
+    }
+
+    /**
+     * Like {@link #getBitmap()}, but writes into reuse when it is a mutable ARGB_8888
+     * bitmap of the same size, so refreshing a preview allocates nothing.
+     * @return reuse, or a new bitmap when it could not be used
+     */
+    public Bitmap getBitmap(Bitmap reuse) {
+        return mSession.getBitmap(reuse);
+    }
+
+    /**
+     * The image as the last setBitmap() or operation left it, copied once that ended, so
+     * this never waits for a job running meanwhile. spare is written by a later copy.
+     * @return null when nothing was published since the last call
+     */
+    public Bitmap takeResult(Bitmap spare) {
+        synchronized (mResultLock) {
+            Bitmap result = mResult;
+            if (result != null) {
+                mResult = null;
+                if (spare != null) {
+                    mSpareResult = spare;
+                }
+            }
+            return result;
+        }
+    }
+
+    // copies the image on the calling thread, never the GL one, before the end is announced
+    private void publishResult() {
+        Bitmap reuse;
+        synchronized (mResultLock) {
+            reuse = mSpareResult;
+            mSpareResult = null;
+        }
+        Bitmap result = mSession.getBitmap(reuse);
+        synchronized (mResultLock) {
+            if (mResult != null && mSpareResult == null) {
+                // never taken, written again next time
+                mSpareResult = mResult;
+            }
+            mResult = result;
         }
-        return nativeGetBitmap(mBitmapBuffer);
     }
 
     public void freeBitmap() {
-        if (mBitmapBuffer == null) {
-            return;
+        mSession.freeBitmap();
+        synchronized (mResultLock) {
+            mResult = null;
+            mSpareResult = null;
         }
-        nativeFreeBitmap(mBitmapBuffer);
-        mBitmapBuffer = null;
     }
     
     public void setHandler(Handler handler) {
@@ -86,13 +377,14 @@ public class BeautyManager {
     }
 
     public void onStartSkinSmooth(float level) {
-        if (mBitmapBuffer == null)
+        if (!mSession.hasBitmap())
             return;
         if (level < 0 || level > 10) {
             Log.e(TAG, "skin smooth level must be in [0, 10]");
             return;
         }
-        nativeStartSkinSmooth(level);
+        mSession.startSkinSmooth(level);
+        publishResult();
         mHandler.sendEmptyMessage(MSG_OPERATION_END);
         if (mBeautyListener != null) {
             mBeautyListener.onEnd();
@@ -100,41 +392,255 @@ public class BeautyManager {
     }
 
     public void onStartSkinWhite(float level) {
-        if (mBitmapBuffer == null)
+        if (!mSession.hasBitmap())
             return;
         if (level < 0 || level > 5) {
             Log.e(TAG, "skin white level must be in [0, 5]");
             return;
         }
-        nativeStartSkinWhite(level);
+        mSession.startSkinWhite(level);
+        publishResult();
         mHandler.sendEmptyMessage(MSG_OPERATION_END);
         if (mBeautyListener != null) {
             mBeautyListener.onEnd();
         }
     }
 
-    public void unInitBeauty() {
-        nativeUnInitBeauty();
+    /**
+     * Apply both levels in a single native pass, whitening on top of the smoothed image.
+     */
+    public void onStartBeauty(float smoothLevel, float whiteLevel) {
+        if (!mSession.hasBitmap())
+            return;
+        if (smoothLevel < 0 || smoothLevel > 10 || whiteLevel < 0 || whiteLevel > 5) {
+            Log.e(TAG, "skin smooth level must be in [0, 10], skin white level in [0, 5]");
+            return;
+        }
+        mSession.startBeauty(smoothLevel, whiteLevel);
+        publishResult();
+        mHandler.sendEmptyMessage(MSG_OPERATION_END);
+        if (mBeautyListener != null) {
+            mBeautyListener.onEnd();
+        }
     }
 
-    public void onDestroy() {
-        freeBitmap();
-        unInitBeauty();
+    /**
+     * Smooth on the job thread, replacing a smooth job that has not finished yet.
+     * @return handle of the job, null when there is nothing to work on
+     */
+    public BeautyJob submitSkinSmooth(float level) {
+        if (!mSession.hasBitmap())
+            return null;
+        if (level < 0 || level > 10) {
+            Log.e(TAG, "skin smooth level must be in [0, 10]");
+            return null;
+        }
+        return submitJob(BeautyJob.OPERATION_SMOOTH, level);
+    }
+
+    /**
+     * Whiten on the job thread, replacing a white job that has not finished yet.
+     * @return handle of the job, null when there is nothing to work on
+     */
+    public BeautyJob submitSkinWhite(float level) {
+        if (!mSession.hasBitmap())
+            return null;
+        if (level < 0 || level > 5) {
+            Log.e(TAG, "skin white level must be in [0, 5]");
+            return null;
+        }
+        return submitJob(BeautyJob.OPERATION_WHITE, level);
+    }
+
+    private BeautyJob submitJob(int operation, float level) {
+        BeautyJob job = new BeautyJob(this, operation, level);
+        BeautyJob superseded;
+        synchronized (mJobLock) {
+            if (operation == BeautyJob.OPERATION_SMOOTH) {
+                superseded = mPendingSmooth;
+                mPendingSmooth = job;
+                mRunningSmooth = null;
+            } else {
+                superseded = mPendingWhite;
+                mPendingWhite = job;
+                mRunningWhite = null;
+            }
+            if (superseded != null) {
+                superseded.setState(BeautyJob.STATE_CANCELLED);
+            }
+            cancelRunningIfSuperseded();
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                mJobExecutor.execute(this::drainJobs);
+            }
+        }
+        if (superseded != null) {
+            notifyJobFinished(superseded);
+        }
+        return job;
+    }
+
+    // called with mJobLock held
+    private void cancelRunningIfSuperseded() {
+        if (mRunningTicket != 0 && mRunningSmooth == null && mRunningWhite == null) {
+            mSession.cancelJob(mRunningTicket);
+            mRunningTicket = 0;
+        }
     }
 
+    boolean cancelJob(BeautyJob job) {
+        synchronized (mJobLock) {
+            if (job == mPendingSmooth || job == mPendingWhite) {
+                if (job == mPendingSmooth) {
+                    mPendingSmooth = null;
+                } else {
+                    mPendingWhite = null;
+                }
+                job.setState(BeautyJob.STATE_CANCELLED);
+            } else if (job == mRunningSmooth || job == mRunningWhite) {
+                if (job == mRunningSmooth) {
+                    mRunningSmooth = null;
+                } else {
+                    mRunningWhite = null;
+                }
+                // the run also carries a live job of the other operation: let it finish
+                boolean cancelled = mRunningSmooth == null && mRunningWhite == null;
+                cancelRunningIfSuperseded();
+                return cancelled;
+            } else {
+                return false;
+            }
+        }
+        notifyJobFinished(job);
+        return true;
+    }
+
+    private void cancelAllJobs() {
+        BeautyJob smooth;
+        BeautyJob white;
+        synchronized (mJobLock) {
+            smooth = mPendingSmooth;
+            white = mPendingWhite;
+            mPendingSmooth = null;
+            mPendingWhite = null;
+            mRunningSmooth = null;
+            mRunningWhite = null;
+            cancelRunningIfSuperseded();
+        }
+        for (BeautyJob job : new BeautyJob[]{smooth, white}) {
+            if (job != null) {
+                job.setState(BeautyJob.STATE_CANCELLED);
+                notifyJobFinished(job);
+            }
+        }
+    }
+
+    // runs on the job thread: merges the latest pending levels into one native run until none is left
+    private void drainJobs() {
+        while (true) {
+            BeautyJob smooth;
+            BeautyJob white;
+            long ticket;
+            synchronized (mJobLock) {
+                smooth = mPendingSmooth;
+                white = mPendingWhite;
+                if (smooth == null && white == null) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                mPendingSmooth = null;
+                mPendingWhite = null;
+                mRunningSmooth = smooth;
+                mRunningWhite = white;
+                ticket = mNextTicket++;
+                mRunningTicket = ticket;
+                if (smooth != null) {
+                    smooth.setState(BeautyJob.STATE_RUNNING);
+                }
+                if (white != null) {
+                    white.setState(BeautyJob.STATE_RUNNING);
+                }
+            }
+            float smoothLevel = smooth != null ? smooth.getLevel() : Float.NaN;
+            float whiteLevel = white != null ? white.getLevel() : Float.NaN;
+            boolean previewed = mSession.runPreviewJob(smoothLevel, whiteLevel, ticket);
+            if (previewed && mHandler != null) {
+                mHandler.sendEmptyMessage(MSG_PREVIEW_READY);
+            }
+            // not under the session monitor, the proxy stays readable while this runs
+            boolean done = mSession.runJob(smoothLevel, whiteLevel, ticket);
+            synchronized (mJobLock) {
+                mRunningSmooth = null;
+                mRunningWhite = null;
+                mRunningTicket = 0;
+            }
+            finishJob(smooth, done);
+            finishJob(white, done);
+            if (done || restoreCancelled()) {
+                publishResult();
+                if (mHandler != null) {
+                    mHandler.sendEmptyMessage(MSG_OPERATION_END);
+                }
+                if (mBeautyListener != null) {
+                    mBeautyListener.onEnd();
+                }
+            }
+        }
+    }
 
-    private native ByteBuffer nativeSetBitmap(Bitmap bitmap);
+    /**
+     * A cancelled run leaves bands of the image at its levels: unless a job follows, which
+     * renders the whole image again, render the levels of the last full render over them.
+     * @return true when the image is whole again
+     */
+    private boolean restoreCancelled() {
+        long ticket;
+        synchronized (mJobLock) {
+            if (mPendingSmooth != null || mPendingWhite != null) {
+                return false;
+            }
+            // no job of its own, the next submit cancels it
+            ticket = mNextTicket++;
+            mRunningTicket = ticket;
+        }
+        boolean restored = mSession.restoreJob(ticket);
+        synchronized (mJobLock) {
+            if (mRunningTicket == ticket) {
+                mRunningTicket = 0;
+            }
+        }
+        return restored;
+    }
 
-    private native Bitmap nativeGetBitmap(ByteBuffer bitmapBuffer);
+    private void finishJob(BeautyJob job, boolean done) {
+        if (job == null) {
+            return;
+        }
+        job.setState(done ? BeautyJob.STATE_DONE : BeautyJob.STATE_CANCELLED);
+        notifyJobFinished(job);
+    }
 
-    private native void nativeFreeBitmap(ByteBuffer bitmapBuffer);
+    private void notifyJobFinished(BeautyJob job) {
+        BeautyJobListener listener = mJobListener;
+        if (listener != null) {
+            listener.onJobFinished(job);
+        }
+    }
 
-    private native void nativeInitBeauty(ByteBuffer bitmapBuffer);
+    public StageTimings getStageTimings() {
+        return mSession.getStageTimings();
+    }
 
-    private native void nativeStartSkinSmooth(float level);
+    public void unInitBeauty() {
+        cancelAllJobs();
+        mSession.unInit();
+    }
 
-    private native void nativeStartSkinWhite(float level);
+    public void onDestroy() {
+        cancelAllJobs();
+        freeBitmap();
+        unInitBeauty();
+    }
 
-    private native void nativeUnInitBeauty();
 
 }
@@ -0,0 +1,332 @@
+package com.frank.beautyfilter;
+
+import android.graphics.Bitmap;
+import android.hardware.HardwareBuffer;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * One image and the native beauty state built for it. Sessions are independent:
+ * different sessions may run on different threads at once, the calls on one session
+ * are serialized. Close a session to free its native memory.
+ */
+public class BeautySession implements Closeable {
+
+    private static final String TAG = BeautySession.class.getSimpleName();
+
+    static {
+        System.loadLibrary("BeautyManager");
+    }
+
+    // address of the native SimpleBeauty, 0 once closed
+    private long mNativeBeauty;
+
+    private ByteBuffer mBitmapBuffer;
+
+    private long mMemoryBudget = BeautyManager.DEFAULT_MEMORY_BUDGET;
+
+    // a proxy is ready for the current bitmap, guarded by mPreviewLock
+    private boolean mHasPreview;
+
+    // cancel() must not wait for a running job, only for close()
+    private final Object mCancelLock = new Object();
+
+    // the proxy is read while a full resolution job runs, under this lock rather than the session
+    private final Object mPreviewLock = new Object();
+
+    BeautySession() {
+        mNativeBeauty = nativeCreate();
+    }
+
+    public synchronized boolean hasBitmap() {
+        return mBitmapBuffer != null;
+    }
+
+    /**
+     * Store a copy of bitmap, dropping the previous image and everything built for it.
+     */
+    public synchronized boolean setBitmap(Bitmap bitmap) {
+        if (bitmap == null || mNativeBeauty == 0) {
+            return false;
+        }
+        freeBitmap();
+        mBitmapBuffer = nativeSetBitmap(bitmap);
+        return mBitmapBuffer != null;
+    }
+
+    /**
+     * Work directly on the pixels of a caller-owned mutable ARGB_8888 bitmap: nothing is
+     * copied and every operation leaves its result in that bitmap.
+     * @return false when the bitmap can not be used in place and a copy was stored instead
+     */
+    public synchronized boolean setBitmapInPlace(Bitmap bitmap) {
+        if (bitmap == null || mNativeBeauty == 0) {
+            return false;
+        }
+        freeBitmap();
+        if (bitmap.isMutable() && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            mBitmapBuffer = nativeWrapBitmap(bitmap);
+        }
+        if (mBitmapBuffer == null) {
+            mBitmapBuffer = nativeSetBitmap(bitmap);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Work directly on a single layer RGBA_8888 buffer allocated with
+     * USAGE_CPU_READ_OFTEN | USAGE_CPU_WRITE_OFTEN, results are written into it.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public synchronized boolean setHardwareBuffer(HardwareBuffer buffer) {
+        if (buffer == null || buffer.isClosed() || mNativeBeauty == 0) {
+            return false;
+        }
+        freeBitmap();
+        mBitmapBuffer = nativeWrapHardwareBuffer(buffer);
+        return mBitmapBuffer != null;
+    }
+
+    /**
+     * Free the image, and the native state built for it with it.
+     */
+    public synchronized void freeBitmap() {
+        if (mBitmapBuffer == null) {
+            return;
+        }
+        unInit();
+        nativeFreeBitmap(mBitmapBuffer);
+        mBitmapBuffer = null;
+    }
+
+    /**
+     * Native memory init() may use besides the bitmap, 0 for no limit.
+     * A bitmap over the budget is smoothed band by band, slower but several times smaller.
+     */
+    public synchronized void setMemoryBudget(long bytes) {
+        mMemoryBudget = bytes;
+    }
+
+    /**
+     * Prepare everything that only depends on the image, levels are fast to change afterwards.
+     */
+    public synchronized boolean init() {
+        if (mBitmapBuffer == null || mNativeBeauty == 0) {
+            Log.e(TAG, "bitmap should be set first...");
+            return false;
+        }
+        nativeSetMemoryBudget(mNativeBeauty, mMemoryBudget);
+        synchronized (mPreviewLock) {
+            // init drops the proxy built for the previous state
+            mHasPreview = false;
+            nativeInitBeauty(mNativeBeauty, mBitmapBuffer);
+        }
+        return true;
+    }
+
+    public synchronized void unInit() {
+        if (mNativeBeauty == 0) {
+            return;
+        }
+        synchronized (mPreviewLock) {
+            mHasPreview = false;
+            nativeUnInitBeauty(mNativeBeauty);
+        }
+    }
+
+    public synchronized boolean isLeanMode() {
+        return mNativeBeauty != 0 && nativeIsLeanMode(mNativeBeauty);
+    }
+
+    public synchronized void startSkinSmooth(float level) {
+        if (level < 0 || level > 10) {
+            Log.e(TAG, "skin smooth level must be in [0, 10]");
+            return;
+        }
+        if (mBitmapBuffer != null && mNativeBeauty != 0) {
+            nativeStartSkinSmooth(mNativeBeauty, mBitmapBuffer, level);
+        }
+    }
+
+    public synchronized void startSkinWhite(float level) {
+        if (level < 0 || level > 5) {
+            Log.e(TAG, "skin white level must be in [0, 5]");
+            return;
+        }
+        if (mBitmapBuffer != null && mNativeBeauty != 0) {
+            nativeStartSkinWhite(mNativeBeauty, mBitmapBuffer, level);
+        }
+    }
+
+    /**
+     * Apply both levels in a single native pass, whitening on top of the smoothed image.
+     */
+    public synchronized void startBeauty(float smoothLevel, float whiteLevel) {
+        if (smoothLevel < 0 || smoothLevel > 10 || whiteLevel < 0 || whiteLevel > 5) {
+            Log.e(TAG, "skin smooth level must be in [0, 10], skin white level in [0, 5]");
+            return;
+        }
+        if (mBitmapBuffer != null && mNativeBeauty != 0) {
+            nativeStartBeauty(mNativeBeauty, mBitmapBuffer, smoothLevel, whiteLevel);
+        }
+    }
+
+    /**
+     * A cancellable run of both levels, a NaN level is left as it is.
+     * @return false when it was cancelled before it rendered the whole image, or there
+     * was nothing to render
+     */
+    synchronized boolean runJob(float smoothLevel, float whiteLevel, long ticket) {
+        return mBitmapBuffer != null && mNativeBeauty != 0
+                && nativeRunBeautyJob(mNativeBeauty, mBitmapBuffer, smoothLevel, whiteLevel, ticket);
+    }
+
+    /**
+     * Render the levels of the last full render again over what a cancelled run left.
+     * @return false when it was cancelled in its turn
+     */
+    synchronized boolean restoreJob(long ticket) {
+        return mBitmapBuffer != null && mNativeBeauty != 0
+                && nativeRestoreBeautyJob(mNativeBeauty, mBitmapBuffer, ticket);
+    }
+
+    /** stop the run of ticket, from any thread */
+    void cancelJob(long ticket) {
+        synchronized (mCancelLock) {
+            if (mNativeBeauty != 0) {
+                nativeCancelJob(mNativeBeauty, ticket);
+            }
+        }
+    }
+
+    /**
+     * Build a proxy downscaled to about width x height to preview levels on.
+     */
+    synchronized boolean initPreview(int width, int height) {
+        synchronized (mPreviewLock) {
+            mHasPreview = mBitmapBuffer != null && mNativeBeauty != 0
+                    && nativeInitPreview(mNativeBeauty, width, height);
+            return mHasPreview;
+        }
+    }
+
+    boolean runPreviewJob(float smoothLevel, float whiteLevel, long ticket) {
+        synchronized (mPreviewLock) {
+            return mHasPreview && nativeRunPreviewJob(mNativeBeauty, smoothLevel, whiteLevel, ticket);
+        }
+    }
+
+    /**
+     * The last levels rendered on the proxy, written into reuse when it fits.
+     * Does not wait for a full resolution job running meanwhile.
+     * @return null without a proxy
+     */
+    public Bitmap getPreviewBitmap(Bitmap reuse) {
+        if (reuse != null && (reuse.isRecycled() || !reuse.isMutable()
+                || reuse.getConfig() != Bitmap.Config.ARGB_8888)) {
+            reuse = null;
+        }
+        synchronized (mPreviewLock) {
+            if (!mHasPreview) {
+                return null;
+            }
+            return nativeGetPreviewBitmap(mNativeBeauty, reuse);
+        }
+    }
+
+    public synchronized Bitmap getBitmap() {
+        if (mBitmapBuffer == null) {
+            return null;
+        }
+        return nativeGetBitmap(mBitmapBuffer);
+    }
+
+    /**
+     * Like {@link #getBitmap()}, but writes into reuse when it is a mutable ARGB_8888
+     * bitmap of the same size, so refreshing a preview allocates nothing.
+     * @return reuse, or a new bitmap when it could not be used
+     */
+    public synchronized Bitmap getBitmap(Bitmap reuse) {
+        if (mBitmapBuffer == null) {
+            return null;
+        }
+        if (reuse != null && !reuse.isRecycled() && reuse.isMutable()
+                && reuse.getConfig() == Bitmap.Config.ARGB_8888
+                && nativeCopyBitmap(mBitmapBuffer, reuse)) {
+            return reuse;
+        }
+        return nativeGetBitmap(mBitmapBuffer);
+    }
+
+    public synchronized BeautyManager.StageTimings getStageTimings() {
+        if (mNativeBeauty == 0) {
+            return null;
+        }
+        return new BeautyManager.StageTimings(nativeGetStageTimings(mNativeBeauty));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mNativeBeauty == 0) {
+            return;
+        }
+        freeBitmap();
+        long beauty = mNativeBeauty;
+        synchronized (mCancelLock) {
+            mNativeBeauty = 0;
+        }
+        nativeDestroy(beauty);
+    }
+
+
+    private native long nativeCreate();
+
+    private native void nativeDestroy(long beauty);
+
+    private native ByteBuffer nativeSetBitmap(Bitmap bitmap);
+
+    private native ByteBuffer nativeWrapBitmap(Bitmap bitmap);
+
+    private native ByteBuffer nativeWrapHardwareBuffer(Object hardwareBuffer);
+
+    private native Bitmap nativeGetBitmap(ByteBuffer bitmapBuffer);
+
+    private native boolean nativeCopyBitmap(ByteBuffer bitmapBuffer, Bitmap bitmap);
+
+    private native void nativeFreeBitmap(ByteBuffer bitmapBuffer);
+
+    private native void nativeInitBeauty(long beauty, ByteBuffer bitmapBuffer);
+
+    private native void nativeSetMemoryBudget(long beauty, long bytes);
+
+    private native boolean nativeIsLeanMode(long beauty);
+
+    private native void nativeStartSkinSmooth(long beauty, ByteBuffer bitmapBuffer, float level);
+
+    private native void nativeStartSkinWhite(long beauty, ByteBuffer bitmapBuffer, float level);
+
+    private native void nativeStartBeauty(long beauty, ByteBuffer bitmapBuffer, float smoothLevel, float whiteLevel);
+
+    private native boolean nativeRunBeautyJob(long beauty, ByteBuffer bitmapBuffer, float smoothLevel, float whiteLevel, long ticket);
+
+    private native boolean nativeRestoreBeautyJob(long beauty, ByteBuffer bitmapBuffer, long ticket);
+
+    private native void nativeCancelJob(long beauty, long ticket);
+
+    private native boolean nativeInitPreview(long beauty, int maxWidth, int maxHeight);
+
+    private native boolean nativeRunPreviewJob(long beauty, float smoothLevel, float whiteLevel, long ticket);
+
+    private native Bitmap nativeGetPreviewBitmap(long beauty, Bitmap reuse);
+
+    private native void nativeUnInitBeauty(long beauty);
+
+    private native long[] nativeGetStageTimings(long beauty);
+
+}
@@ -1,5 +1,6 @@
 package com.frank.beautyfilter.display;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.opengl.GLES30;
@@ -8,16 +9,18 @@ import android.opengl.GLSurfaceView.Renderer;
 
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
 import com.frank.beautyfilter.filter.factory.BeautyFilterFactory;
+import com.frank.beautyfilter.filter.factory.BeautyFilterPool;
 import com.frank.beautyfilter.filter.helper.BeautyFilterAdjuster;
 import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.helper.AsyncPixelReader;
 import com.frank.beautyfilter.helper.SavePictureTask;
+import com.frank.beautyfilter.util.FrameBufferPool;
 import com.frank.beautyfilter.util.OpenGLUtil;
 import com.frank.beautyfilter.util.TextureRotateUtil;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -33,6 +36,13 @@ public class BeautyBaseDisplay implements Renderer {
 
     protected GPUImageFilter mFilter;
 
+    // type mFilter was obtained from the pool as, null when it does not come from it
+    protected BeautyFilterType mFilterType;
+
+    protected final BeautyFilterPool mFilterPool = new BeautyFilterPool();
+
+    protected final AsyncPixelReader mPixelReader = new AsyncPixelReader();
+
     protected SavePictureTask mPictureTask;
 
     protected final FloatBuffer mVertexBuffer;
@@ -76,14 +86,14 @@ public class BeautyBaseDisplay implements Renderer {
         mGLSurfaceView.queueEvent(new Runnable() {
             @Override
             public void run() {
-                if (mFilter != null) {
-                    mFilter.destroy();
-                }
-                mFilter = null;
-                mFilter = BeautyFilterFactory.getFilter(filterType);
-                if (mFilter != null) {
-                    mFilter.init();
+                // an adjusted filter would come back with the values of its last use
+                if (mFilterAdjust != null && mFilterAdjust.canAdjust()) {
+                    mFilterPool.recycle(null, mFilter);
+                } else {
+                    mFilterPool.recycle(mFilterType, mFilter);
                 }
+                mFilter = mFilterPool.obtain(filterType);
+                mFilterType = filterType;
                 onFilterChanged();
                 mFilterAdjust = new BeautyFilterAdjuster(mFilter);
             }
@@ -91,6 +101,44 @@ public class BeautyBaseDisplay implements Renderer {
         mGLSurfaceView.requestRender();
     }
 
+    /**
+     * Build the filters of types ahead of their use, one GL event each so that frames are
+     * still drawn in between, a later switch to one of them is then instant.
+     */
+    public void warmFilters(BeautyFilterType... types) {
+        for (BeautyFilterType type : types) {
+            mGLSurfaceView.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    if (type != mFilterType)
+                        mFilterPool.warm(type);
+                }
+            });
+        }
+    }
+
+    /**
+     * Free what the GL thread keeps for reuse, as asked by ComponentCallbacks2#onTrimMemory.
+     */
+    public void trimMemory(int level) {
+        mGLSurfaceView.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                FrameBufferPool.trimMemory(level);
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+                    mFilterPool.clear();
+            }
+        });
+    }
+
+    /**
+     * The filters built so far belong to a context that is gone.
+     */
+    protected void onFilterContextCreated() {
+        mFilterPool.abandon();
+        mFilterType = null;
+    }
+
     protected void onFilterChanged() {
         if (mFilter != null) {
             mFilter.onInputSizeChanged(mImageWidth, mImageHeight);
@@ -110,20 +158,8 @@ public class BeautyBaseDisplay implements Renderer {
             public void run() {
                 int width = bitmap.getWidth();
                 int height = bitmap.getHeight();
-                int[] frameBuffers = new int[1];
-                int[] frameBufferTextures = new int[1];
-                GLES30.glGenFramebuffers(1, frameBuffers, 0);
-                GLES30.glGenTextures(1, frameBufferTextures, 0);
-                GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, frameBufferTextures[0]);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
-                GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height,
-                        0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffers[0]);
-                GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
-                        GLES30.GL_TEXTURE_2D, frameBufferTextures[0], 0);
+                FrameBufferPool.FrameBuffer frameBuffer = FrameBufferPool.obtain(width, height);
+                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer.frameBufferId);
                 int textureId;
                 if (newTexture) {
                     textureId = OpenGLUtil.loadTexture(bitmap, OpenGLUtil.NO_TEXTURE, true);
@@ -131,26 +167,24 @@ public class BeautyBaseDisplay implements Renderer {
                     textureId = mTextureId;
                 }
                 mFilter.onDrawFrame(textureId);
-                IntBuffer buffer = IntBuffer.allocate(width * height);
-                GLES30.glReadPixels(0 , 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, buffer);
-                Bitmap newBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                newBitmap.copyPixelsFromBuffer(buffer);
+                mPixelReader.read(frameBuffer, result -> onGetBitmapFromGLSurface(result));
                 if (newTexture) {
                     GLES30.glDeleteTextures(1, new int[]{textureId}, 0);
                 }
                 GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
                 GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
-                GLES30.glDeleteTextures(1, frameBufferTextures, 0);
-                GLES30.glDeleteFramebuffers(1, frameBuffers, 0);
+                FrameBufferPool.release(frameBuffer);
                 GLES30.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
                 mFilter.destroy();
                 mFilter.init();
                 mFilter.onOutputSizeChanged(mImageWidth, mImageHeight);
-                onGetBitmapFromGLSurface(newBitmap);
             }
         });
     }
 
+    /**
+     * The filtered bitmap, called on the thread of the pixel reader.
+     */
     protected void onGetBitmapFromGLSurface(Bitmap bitmap) {
 
     }
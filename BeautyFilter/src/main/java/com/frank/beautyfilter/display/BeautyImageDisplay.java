@@ -32,6 +32,17 @@ public class BeautyImageDisplay extends BeautyBaseDisplay {
 
     private Bitmap mOriginBitmap;
 
+    // refreshed in place after every beauty operation
+    private Bitmap mPreviewBitmap;
+
+    // proxy of the running operation, shown until its full resolution result is ready
+    private Bitmap mProxyBitmap;
+
+    private volatile boolean mShowProxy = false;
+
+    // a newer proxy or result may be published, the texture is replaced once it is
+    private volatile boolean mTextureStale = false;
+
     private boolean mIsSaving = false;
 
     private final BeautyManager mBeautyManager;
@@ -47,6 +58,9 @@ public class BeautyImageDisplay extends BeautyBaseDisplay {
 
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
+        OpenGLUtil.onContextCreated();
+        mPixelReader.release();
+        onFilterContextCreated();
         GLES30.glDisable(GL10.GL_DITHER);
         GLES30.glClearColor(0, 0, 0, 0);
         GLES30.glEnable(GLES30.GL_CULL_FACE);
@@ -60,6 +74,7 @@ public class BeautyImageDisplay extends BeautyBaseDisplay {
         GLES30.glViewport(0, 0, width, height);
         mSurfaceWidth = width;
         mSurfaceHeight = height;
+        mBeautyManager.setPreviewSize(width, height);
         adjustImageDisplaySize();
         onFilterChanged();
     }
@@ -68,8 +83,29 @@ public class BeautyImageDisplay extends BeautyBaseDisplay {
     public void onDrawFrame(GL10 gl10) {
         GLES30.glClearColor(0, 0, 0, 0);
         GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT | GLES30.GL_DEPTH_BUFFER_BIT);
-        if (mTextureId == OpenGLUtil.NO_TEXTURE) {
-            mTextureId = OpenGLUtil.loadTexture(mBeautyManager.getBitmap(), OpenGLUtil.NO_TEXTURE);
+        if (mTextureStale || mTextureId == OpenGLUtil.NO_TEXTURE) {
+            mTextureStale = false;
+            Bitmap bitmap = null;
+            if (mShowProxy) {
+                mProxyBitmap = mBeautyManager.getPreviewBitmap(mProxyBitmap);
+                bitmap = mProxyBitmap;
+            }
+            if (bitmap == null) {
+                // never waits for a running job: without a new result the current texture stays
+                Bitmap result = mBeautyManager.takeResult(mPreviewBitmap);
+                if (result != null) {
+                    mPreviewBitmap = result;
+                    bitmap = result;
+                } else if (mTextureId == OpenGLUtil.NO_TEXTURE) {
+                    bitmap = mPreviewBitmap;
+                }
+            }
+            if (bitmap != null) {
+                if (mTextureId != OpenGLUtil.NO_TEXTURE) {
+                    GLES30.glDeleteTextures(1, new int[]{mTextureId}, 0);
+                }
+                mTextureId = OpenGLUtil.loadTexture(bitmap, OpenGLUtil.NO_TEXTURE);
+            }
         }
         if (mFilter == null) {
             mGpuImageFilter.onDrawFrame(mTextureId, mVertexBuffer, mTextureBuffer);
@@ -90,7 +126,7 @@ public class BeautyImageDisplay extends BeautyBaseDisplay {
     }
 
     private void refreshDisplay() {
-        deleteTexture();
+        mTextureStale = true;
         mGLSurfaceView.requestRender();
     }
 
@@ -173,7 +209,12 @@ public class BeautyImageDisplay extends BeautyBaseDisplay {
         @Override
         public void handleMessage(@NonNull Message msg) {
             super.handleMessage(msg);
-            if (msg.what == BeautyManager.MSG_OPERATION_END) {
+            if (msg.what == BeautyManager.MSG_PREVIEW_READY) {
+                mShowProxy = true;
+                refreshDisplay();
+            } else if (msg.what == BeautyManager.MSG_OPERATION_END) {
+                // swap the proxy for the full resolution result, or for the image a cancel restored
+                mShowProxy = false;
                 refreshDisplay();
             }
         }
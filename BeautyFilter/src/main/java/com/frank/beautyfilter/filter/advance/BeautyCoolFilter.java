@@ -3,6 +3,7 @@ package com.frank.beautyfilter.filter.advance;
 import android.opengl.GLES30;
 
 import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.BeautyLutConvertible;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
 import com.frank.beautyfilter.util.OpenGLUtil;
 
@@ -13,7 +14,7 @@ import java.nio.ByteBuffer;
  * @date 2022/6/22 10:05 上午
  * @desc
  */
-public class BeautyCoolFilter extends GPUImageFilter {
+public class BeautyCoolFilter extends GPUImageFilter implements BeautyLutConvertible {
 
     private final int[] mToneCurveTexture = {-1};
     private int mToneCurveTextureUniformLocation;
@@ -22,6 +23,11 @@ public class BeautyCoolFilter extends GPUImageFilter {
         super(NORMAL_VERTEX_SHADER, OpenGLUtil.readShaderFromSource(R.raw.cool));
     }
 
+    @Override
+    public String getLutKey() {
+        return BeautyCoolFilter.class.getName();
+    }
+
     public void onDestroy() {
         super.onDestroy();
         GLES30.glDeleteTextures(1, mToneCurveTexture, 0);
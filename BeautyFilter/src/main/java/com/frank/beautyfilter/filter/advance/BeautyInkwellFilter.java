@@ -3,6 +3,7 @@ package com.frank.beautyfilter.filter.advance;
 import android.opengl.GLES30;
 
 import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.BeautyLutConvertible;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
 import com.frank.beautyfilter.util.BeautyParams;
 import com.frank.beautyfilter.util.OpenGLUtil;
@@ -12,7 +13,7 @@ import com.frank.beautyfilter.util.OpenGLUtil;
  * @date 2022/6/25 6:34 下午
  * @desc
  */
-public class BeautyInkwellFilter extends GPUImageFilter {
+public class BeautyInkwellFilter extends GPUImageFilter implements BeautyLutConvertible {
 
     private final int[] inputTextureHandles = {-1};
     private final int[] inputTextureUniformLocations = {-1};
@@ -22,6 +23,11 @@ public class BeautyInkwellFilter extends GPUImageFilter {
         super(NORMAL_VERTEX_SHADER, OpenGLUtil.readShaderFromSource(R.raw.inkwell));
     }
 
+    @Override
+    public String getLutKey() {
+        return BeautyInkwellFilter.class.getName();
+    }
+
     public void onDestroy() {
         super.onDestroy();
         GLES30.glDeleteTextures(1, inputTextureHandles, 0);
@@ -3,6 +3,7 @@ package com.frank.beautyfilter.filter.advance;
 import android.opengl.GLES30;
 
 import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.BeautyLutConvertible;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
 import com.frank.beautyfilter.util.BeautyParams;
 import com.frank.beautyfilter.util.OpenGLUtil;
@@ -14,7 +15,7 @@ import java.util.Arrays;
  * @date 2022/6/22 10:27 上午
  * @desc
  */
-public class BeautyPixarFilter extends GPUImageFilter {
+public class BeautyPixarFilter extends GPUImageFilter implements BeautyLutConvertible {
 
     private int strengthLocation;
     private final int[] inputTextureHandle = {-1};
@@ -24,6 +25,11 @@ public class BeautyPixarFilter extends GPUImageFilter {
         super(NORMAL_VERTEX_SHADER, OpenGLUtil.readShaderFromSource(R.raw.pixar));
     }
 
+    @Override
+    public String getLutKey() {
+        return BeautyPixarFilter.class.getName();
+    }
+
     public void onInit() {
         super.onInit();
         for (int i=0; i<inputTextureUniformLocation.length; i++) {
@@ -3,6 +3,7 @@ package com.frank.beautyfilter.filter.advance;
 import android.opengl.GLES30;
 
 import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.BeautyLutConvertible;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
 import com.frank.beautyfilter.util.OpenGLUtil;
 
@@ -13,7 +14,7 @@ import java.nio.ByteBuffer;
  * @date 2022/6/22 10:16 上午
  * @desc
  */
-public class BeautyRomanceFilter extends GPUImageFilter {
+public class BeautyRomanceFilter extends GPUImageFilter implements BeautyLutConvertible {
 
 
     private final int[] mToneCurveTexture = {-1};
@@ -23,6 +24,11 @@ public class BeautyRomanceFilter extends GPUImageFilter {
         super(NORMAL_VERTEX_SHADER, OpenGLUtil.readShaderFromSource(R.raw.romance));
     }
 
+    @Override
+    public String getLutKey() {
+        return BeautyRomanceFilter.class.getName();
+    }
+
     public void onDestroy() {
         super.onDestroy();
         GLES30.glDeleteTextures(1, mToneCurveTexture, 0);
@@ -2,10 +2,14 @@ package com.frank.beautyfilter.filter.base;
 
 import android.opengl.GLES30;
 
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageColorTransform;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFusedColorFilter;
+import com.frank.beautyfilter.util.FrameBufferPool;
 import com.frank.beautyfilter.util.OpenGLUtil;
 
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -15,12 +19,11 @@ import java.util.List;
  */
 public class BeautyAdjustFilter extends GPUImageFilter {
 
-    private int frameWidth = -1;
-    private int frameHeight = -1;
-
     protected List<GPUImageFilter> filters;
-    protected int[] frameBuffer;
-    protected int[] frameBufferTexture;
+    // what is drawn: runs of colour transforms fused into one pass, the other filters as they are
+    private List<GPUImageFilter> passes;
+    protected FrameBufferPool.FrameBuffer[] frameBuffers;
+    private final int[] targetFrameBuffer = new int[1];
 
     public BeautyAdjustFilter(List<GPUImageFilter> filters) {
         this.filters = filters;
@@ -28,69 +31,102 @@ public class BeautyAdjustFilter extends GPUImageFilter {
 
     @Override
     public void init() {
-        for (GPUImageFilter filter : filters) {
-            filter.init();
+        passes = fusePasses(filters);
+        if (passes == null) {
+            passes = filters;
+            for (GPUImageFilter filter : filters) {
+                filter.init();
+            }
+        }
+    }
+
+    /**
+     * Group consecutive colour transforms into fused passes and init them.
+     * @return null when a fused shader can not be built, nothing is left initialized then
+     */
+    private static List<GPUImageFilter> fusePasses(List<GPUImageFilter> filters) {
+        List<GPUImageFilter> passes = new ArrayList<>();
+        List<GPUImageColorTransform> transforms = new ArrayList<>();
+        for (int i = 0; i <= filters.size(); i++) {
+            GPUImageFilter filter = i < filters.size() ? filters.get(i) : null;
+            if (filter instanceof GPUImageColorTransform) {
+                transforms.add((GPUImageColorTransform) filter);
+                continue;
+            }
+            if (transforms.size() == 1) {
+                passes.add((GPUImageFilter) transforms.get(0));
+            } else if (transforms.size() > 1) {
+                GPUImageFusedColorFilter fused = new GPUImageFusedColorFilter(transforms);
+                if (!fused.tryInit()) {
+                    for (GPUImageFilter pass : passes) {
+                        pass.destroy();
+                    }
+                    return null;
+                }
+                passes.add(fused);
+            }
+            transforms = new ArrayList<>();
+            if (filter != null) {
+                passes.add(filter);
+            }
+        }
+        for (GPUImageFilter pass : passes) {
+            if (!pass.hasInitialized()) {
+                pass.init();
+            }
         }
+        return passes;
     }
 
     @Override
     public void onInputSizeChanged(int width, int height) {
         super.onInputSizeChanged(width, height);
 
-        int size = filters.size();
-        for (int i=0; i<size; i++) {
+        for (int i=0; i<filters.size(); i++) {
             filters.get(i).onInputSizeChanged(width, height);
         }
-        if (frameBuffer != null && (width != frameWidth || height != frameHeight || frameBuffer.length != size-1)) {
+        if (passes == null) {
+            passes = filters;
+        }
+        int size = passes.size();
+        for (GPUImageFilter pass : passes) {
+            if (!filters.contains(pass)) {
+                pass.onInputSizeChanged(width, height);
+            }
+        }
+        if (frameBuffers != null && (frameBuffers.length != size-1 || (size > 1
+                && (width != frameBuffers[0].width || height != frameBuffers[0].height)))) {
             destroyFrameBuffer();
-            frameWidth = width;
-            frameHeight = height;
         }
-        if (frameBuffer == null) {
-            frameBuffer = new int[size-1];
-            frameBufferTexture = new int[size-1];
-
+        if (frameBuffers == null) {
+            frameBuffers = new FrameBufferPool.FrameBuffer[size-1];
             for (int i=0; i<size-1; i++) {
-                GLES30.glGenFramebuffers(1, frameBuffer, i);
-                GLES30.glGenTextures(1, frameBufferTexture, i);
-                GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, frameBufferTexture[i]);
-
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
-                GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height,
-                        0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
-
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer[i]);
-                GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
-                        GLES30.GL_TEXTURE_2D, frameBufferTexture[i], 0);
-
-                GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+                frameBuffers[i] = FrameBufferPool.obtain(width, height);
             }
         }
     }
 
     private int drawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
-        if (frameBuffer == null || frameBufferTexture == null) {
+        if (frameBuffers == null) {
             return OpenGLUtil.NOT_INIT;
         }
 
+        // the last pass draws where the caller is drawing, the screen or a frame buffer
+        GLES30.glGetIntegerv(GLES30.GL_FRAMEBUFFER_BINDING, targetFrameBuffer, 0);
         int prevTextureId = textureId;
-        for (int i=0; i<filters.size(); i++) {
-            GPUImageFilter filter = filters.get(i);
-            boolean isLast = (i == filters.size() - 1);
+        for (int i=0; i<passes.size(); i++) {
+            GPUImageFilter filter = passes.get(i);
+            boolean isLast = (i == passes.size() - 1);
             if (isLast) {
                 GLES30.glViewport(0, 0, mOutputWidth, mOutputHeight);
                 filter.onDrawFrame(prevTextureId, vertexBuffer, textureBuffer);
             } else {
                 GLES30.glViewport(0, 0, mInputWidth, mInputHeight);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer[i]);
+                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffers[i].frameBufferId);
                 GLES30.glClearColor(0, 0, 0, 0);
                 filter.onDrawFrame(prevTextureId, mVertexBuffer, mTextureBuffer);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
-                prevTextureId = frameBufferTexture[i];
+                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, targetFrameBuffer[0]);
+                prevTextureId = frameBuffers[i].textureId;
             }
         }
         return OpenGLUtil.ON_DRAWN;
@@ -111,17 +147,23 @@ public class BeautyAdjustFilter extends GPUImageFilter {
         for (GPUImageFilter filter : filters) {
             filter.destroy();
         }
+        if (passes != null) {
+            for (GPUImageFilter pass : passes) {
+                if (!filters.contains(pass)) {
+                    pass.destroy();
+                }
+            }
+            passes = null;
+        }
         destroyFrameBuffer();
     }
 
     private void destroyFrameBuffer() {
-        if (frameBufferTexture != null) {
-            GLES30.glDeleteTextures(frameBufferTexture.length, frameBufferTexture, 0);
-            frameBufferTexture = null;
-        }
-        if (frameBuffer != null) {
-            GLES30.glDeleteFramebuffers(frameBuffer.length, frameBuffer, 0);
-            frameBuffer = null;
+        if (frameBuffers != null) {
+            for (FrameBufferPool.FrameBuffer buffer : frameBuffers) {
+                FrameBufferPool.release(buffer);
+            }
+            frameBuffers = null;
         }
     }
 
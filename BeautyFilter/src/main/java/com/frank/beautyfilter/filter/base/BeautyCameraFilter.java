@@ -6,6 +6,7 @@ import android.opengl.GLES30;
 import com.frank.beautyfilter.R;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
 import com.frank.beautyfilter.util.BeautyParams;
+import com.frank.beautyfilter.util.FrameBufferPool;
 import com.frank.beautyfilter.util.OpenGLUtil;
 
 import java.nio.FloatBuffer;
@@ -17,10 +18,7 @@ import java.nio.FloatBuffer;
  */
 public class BeautyCameraFilter extends GPUImageFilter {
 
-    private int frameWidth = -1;
-    private int frameHeight = -1;
-    private int[] frameBuffer = null;
-    private int[] frameBufferTexture = null;
+    private FrameBufferPool.FrameBuffer frameBuffer = null;
 
     private int paramLocation;
     private int stepOffsetLocation;
@@ -56,12 +54,7 @@ public class BeautyCameraFilter extends GPUImageFilter {
         }
         GLES30.glUseProgram(getProgramId());
         runPendingOnDrawTask();
-        vertexBuffer.position(0);
-        GLES30.glVertexAttribPointer(mAttributePosition, 2, GLES30.GL_FLOAT, false, 0, vertexBuffer);
-        GLES30.glEnableVertexAttribArray(mAttributePosition);
-        textureBuffer.position(0);
-        GLES30.glVertexAttribPointer(mAttributeTextureCoordinate, 2, GLES30.GL_FLOAT, false, 0, textureBuffer);
-        GLES30.glEnableVertexAttribArray(mAttributeTextureCoordinate);
+        int vertexArray = bindGeometry(vertexBuffer, textureBuffer);
         GLES30.glUniformMatrix4fv(textureTransformLocation, 1, false, textureTransformMatrix, 0);
 
         if (textureId != OpenGLUtil.NO_TEXTURE) {
@@ -71,8 +64,7 @@ public class BeautyCameraFilter extends GPUImageFilter {
         }
 
         GLES30.glDrawArrays(GLES30.GL_TRIANGLE_STRIP, 0, 4);
-        GLES30.glDisableVertexAttribArray(mAttributePosition);
-        GLES30.glDisableVertexAttribArray(mAttributeTextureCoordinate);
+        unbindGeometry(vertexArray);
         GLES30.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
         return OpenGLUtil.ON_DRAWN;
     }
@@ -86,15 +78,10 @@ public class BeautyCameraFilter extends GPUImageFilter {
         }
         GLES30.glUseProgram(getProgramId());
         runPendingOnDrawTask();
-        GLES30.glViewport(0, 0, frameWidth, frameHeight);
-        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer[0]);
-
-        mVertexBuffer.position(0);
-        GLES30.glVertexAttribPointer(mAttributePosition, 2, GLES30.GL_FLOAT, false, 0, mVertexBuffer);
-        GLES30.glEnableVertexAttribArray(mAttributePosition);
-        mTextureBuffer.position(0);
-        GLES30.glVertexAttribPointer(mAttributeTextureCoordinate, 2, GLES30.GL_FLOAT, false, 0, mTextureBuffer);
-        GLES30.glEnableVertexAttribArray(mAttributeTextureCoordinate);
+        GLES30.glViewport(0, 0, frameBuffer.width, frameBuffer.height);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer.frameBufferId);
+
+        int vertexArray = bindGeometry(mVertexBuffer, mTextureBuffer);
         GLES30.glUniformMatrix4fv(textureTransformLocation, 1, false, textureTransformMatrix, 0);
 
         if (textureId != OpenGLUtil.NO_TEXTURE) {
@@ -104,12 +91,11 @@ public class BeautyCameraFilter extends GPUImageFilter {
         }
 
         GLES30.glDrawArrays(GLES30.GL_TRIANGLE_STRIP, 0, 4);
-        GLES30.glDisableVertexAttribArray(mAttributePosition);
-        GLES30.glDisableVertexAttribArray(mAttributeTextureCoordinate);
+        unbindGeometry(vertexArray);
         GLES30.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
         GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
         GLES30.glViewport(0, 0, mOutputWidth, mOutputHeight);
-        return frameBufferTexture[0];
+        return frameBuffer.textureId;
     }
 
     @Override
@@ -125,29 +111,10 @@ public class BeautyCameraFilter extends GPUImageFilter {
     }
 
     public void initFrameBuffer(int width, int height) {
-        if (frameBuffer != null && (frameWidth != width || frameHeight != height))
+        if (frameBuffer != null && (frameBuffer.width != width || frameBuffer.height != height))
             destroyFrameBuffer();
-        if (frameBuffer == null) {
-            frameWidth = width;
-            frameHeight = height;
-            frameBuffer = new int[1];
-            frameBufferTexture = new int[1];
-
-            GLES30.glGenFramebuffers(1, frameBuffer, 0);
-            GLES30.glGenTextures(1, frameBufferTexture, 0);
-            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, frameBufferTexture[0]);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
-            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height,
-                    0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer[0]);
-            GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
-                    GLES30.GL_TEXTURE_2D, frameBufferTexture[0], 0);
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
-            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
-        }
+        if (frameBuffer == null)
+            frameBuffer = FrameBufferPool.obtain(width, height);
     }
 
     private void setTextSize(int width, int height) {
@@ -184,16 +151,10 @@ public class BeautyCameraFilter extends GPUImageFilter {
     }
 
     public void destroyFrameBuffer() {
-        if (frameBufferTexture != null) {
-            GLES30.glDeleteTextures(1, frameBufferTexture, 0);
-            frameBufferTexture = null;
-        }
         if (frameBuffer != null) {
-            GLES30.glDeleteFramebuffers(1, frameBuffer, 0);
+            FrameBufferPool.release(frameBuffer);
             frameBuffer = null;
         }
-        frameWidth = -1;
-        frameHeight = -1;
     }
 
 }
@@ -11,7 +11,7 @@ import com.frank.beautyfilter.util.OpenGLUtil;
  * @date 2022/6/20 12:16 上午
  * @desc
  */
-public class BeautyLookupFilter extends GPUImageFilter {
+public class BeautyLookupFilter extends GPUImageFilter implements BeautyLutConvertible {
 
     public static final String LOOKUP_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
@@ -55,6 +55,11 @@ public class BeautyLookupFilter extends GPUImageFilter {
         this.mLookupTable = table;
     }
 
+    @Override
+    public String getLutKey() {
+        return "lookup:" + mLookupTable;
+    }
+
     public int mLookupTextureUniform;
     public int mLookupSourceTexture = OpenGLUtil.NO_TEXTURE;
 
@@ -0,0 +1,210 @@
+package com.frank.beautyfilter.filter.base;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.util.FrameBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The lookup tables of {@link BeautyLutFilter}, 3D textures of 64 colours a side, shared
+ * by the filters of a context that ask for the same key and deleted when the last of them
+ * releases it. A table is baked by drawing its filters over a picture holding every colour
+ * of the lattice, laid out as the 64 slices of the cube in 8 rows of 8, then copying the
+ * slices into the texture.
+ */
+public final class BeautyLutCache {
+
+    public final static int LUT_SIZE = 64;
+    private final static int SLICES_PER_ROW = 8;
+    // side of the picture the slices are drawn in
+    private final static int LAYOUT_SIZE = LUT_SIZE * SLICES_PER_ROW;
+
+    private static class Lut {
+        private final int textureId;
+        private int references;
+
+        private Lut(int textureId) {
+            this.textureId = textureId;
+        }
+    }
+
+    private final static Map<EGLContext, Map<String, Lut>> CONTEXTS = new HashMap<>();
+
+    private BeautyLutCache() {
+    }
+
+    /**
+     * Whether the current context has 3D textures, an OpenGL ES 3 one.
+     */
+    public static boolean isSupported() {
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    /**
+     * The table of key in the current context, baked from sources the first time, which
+     * are drawn in order, then destroyed. Pair it with {@link #release(int)}.
+     * @param sources filters that are not initialised, none of them is drawn on a hit
+     * @return the 3D texture of the table
+     */
+    public static int acquire(String key, List<? extends GPUImageFilter> sources) {
+        synchronized (CONTEXTS) {
+            Lut lut = currentLuts().get(key);
+            if (lut != null) {
+                lut.references++;
+                return lut.textureId;
+            }
+        }
+        Lut lut = new Lut(bake(sources));
+        lut.references = 1;
+        synchronized (CONTEXTS) {
+            currentLuts().put(key, lut);
+        }
+        return lut.textureId;
+    }
+
+    /**
+     * Give back a table of the current context, the texture is deleted with its last user.
+     */
+    public static void release(int textureId) {
+        synchronized (CONTEXTS) {
+            Iterator<Lut> iterator = currentLuts().values().iterator();
+            while (true) {
+                if (!iterator.hasNext()) {
+                    return;
+                }
+                Lut lut = iterator.next();
+                if (lut.textureId == textureId) {
+                    if (--lut.references > 0) {
+                        return;
+                    }
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        GLES30.glDeleteTextures(1, new int[] {textureId}, 0);
+    }
+
+    /**
+     * A context was just created: the tables known under its handle belonged to a
+     * destroyed context that had the same one.
+     */
+    public static void onContextCreated() {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(EGL14.eglGetCurrentContext());
+        }
+    }
+
+    /**
+     * The tables of context go away with it.
+     */
+    public static void onContextReleased(EGLContext context) {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(context);
+        }
+    }
+
+    private static Map<String, Lut> currentLuts() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        Map<String, Lut> luts = CONTEXTS.get(context);
+        if (luts == null) {
+            luts = new HashMap<>();
+            CONTEXTS.put(context, luts);
+        }
+        return luts;
+    }
+
+    private static int bake(List<? extends GPUImageFilter> sources) {
+        int[] viewport = new int[4];
+        int[] frameBuffer = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_VIEWPORT, viewport, 0);
+        GLES30.glGetIntegerv(GLES30.GL_FRAMEBUFFER_BINDING, frameBuffer, 0);
+
+        int identityTexture = loadIdentity();
+        FrameBufferPool.FrameBuffer[] buffers = {
+                FrameBufferPool.obtain(LAYOUT_SIZE, LAYOUT_SIZE),
+                FrameBufferPool.obtain(LAYOUT_SIZE, LAYOUT_SIZE)
+        };
+        GLES30.glViewport(0, 0, LAYOUT_SIZE, LAYOUT_SIZE);
+        int textureId = identityTexture;
+        FrameBufferPool.FrameBuffer target = buffers[0];
+        for (int i = 0; i < sources.size(); i++) {
+            GPUImageFilter source = sources.get(i);
+            source.init();
+            source.onInputSizeChanged(LAYOUT_SIZE, LAYOUT_SIZE);
+            source.onOutputSizeChanged(LAYOUT_SIZE, LAYOUT_SIZE);
+            target = buffers[i % 2];
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, target.frameBufferId);
+            source.onDrawFrame(textureId);
+            source.destroy();
+            textureId = target.textureId;
+        }
+
+        int[] lut = new int[1];
+        GLES30.glGenTextures(1, lut, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, lut[0]);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_R, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexImage3D(GLES30.GL_TEXTURE_3D, 0, GLES30.GL_RGBA8, LUT_SIZE, LUT_SIZE, LUT_SIZE,
+                0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
+        // the slices are read from the buffer the last pass drew into
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, target.frameBufferId);
+        for (int slice = 0; slice < LUT_SIZE; slice++) {
+            GLES30.glCopyTexSubImage3D(GLES30.GL_TEXTURE_3D, 0, 0, 0, slice,
+                    (slice % SLICES_PER_ROW) * LUT_SIZE, (slice / SLICES_PER_ROW) * LUT_SIZE,
+                    LUT_SIZE, LUT_SIZE);
+        }
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer[0]);
+        GLES30.glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+        FrameBufferPool.release(buffers[0]);
+        FrameBufferPool.release(buffers[1]);
+        GLES30.glDeleteTextures(1, new int[] {identityTexture}, 0);
+        return lut[0];
+    }
+
+    /**
+     * The picture every table starts from: red and green go up along each slice, blue
+     * from one slice to the next.
+     */
+    private static int loadIdentity() {
+        byte[] levels = new byte[LUT_SIZE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            levels[i] = (byte) Math.round(i * 255.0f / (LUT_SIZE - 1));
+        }
+        ByteBuffer pixels = ByteBuffer.allocateDirect(LAYOUT_SIZE * LAYOUT_SIZE * 4);
+        for (int y = 0; y < LAYOUT_SIZE; y++) {
+            for (int x = 0; x < LAYOUT_SIZE; x++) {
+                pixels.put(levels[x % LUT_SIZE]);
+                pixels.put(levels[y % LUT_SIZE]);
+                pixels.put(levels[(y / LUT_SIZE) * SLICES_PER_ROW + x / LUT_SIZE]);
+                pixels.put((byte) 255);
+            }
+        }
+        pixels.position(0);
+        int[] textures = new int[1];
+        GLES30.glGenTextures(1, textures, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textures[0]);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_NEAREST);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_NEAREST);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, LAYOUT_SIZE, LAYOUT_SIZE,
+                0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, pixels);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        return textures[0];
+    }
+}
@@ -0,0 +1,15 @@
+package com.frank.beautyfilter.filter.base;
+
+/**
+ * A filter whose output pixel only depends on the colour of the input pixel, whatever its
+ * place and its neighbours, so running it over every colour once gives a lookup table that
+ * {@link BeautyLutFilter} can draw instead of it.
+ */
+public interface BeautyLutConvertible {
+
+    /**
+     * Names the table the filter gives, two filters with the same key must turn every
+     * colour into the same one.
+     */
+    String getLutKey();
+}
@@ -0,0 +1,89 @@
+package com.frank.beautyfilter.filter.base;
+
+import android.opengl.GLES30;
+
+import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.util.OpenGLUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws colour only filters through the table they make, one fetch of a 3D texture with
+ * trilinear filtering instead of their curves and 2D lookups. Several filters given
+ * together are baked into one table, so the chain costs a single pass.
+ * Needs an OpenGL ES 3 context.
+ */
+public class BeautyLutFilter extends GPUImageFilter implements BeautyLutConvertible {
+
+    private final List<GPUImageFilter> mSources = new ArrayList<>();
+    private final String mLutKey;
+
+    private int mLutTextureUniform;
+    private int mLutTexture = OpenGLUtil.NO_TEXTURE;
+
+    /**
+     * @param sources filters implementing {@link BeautyLutConvertible}, drawn in order,
+     *                a BeautyLutFilter among them brings its own sources
+     */
+    public BeautyLutFilter(GPUImageFilter... sources) {
+        super(OpenGLUtil.readShaderFromSource(R.raw.lut_3d_vertex),
+                OpenGLUtil.readShaderFromSource(R.raw.lut_3d));
+        StringBuilder key = new StringBuilder();
+        for (GPUImageFilter source : sources) {
+            if (!(source instanceof BeautyLutConvertible)) {
+                throw new IllegalArgumentException(source.getClass().getSimpleName() + " has no lookup table");
+            }
+            if (source instanceof BeautyLutFilter) {
+                mSources.addAll(((BeautyLutFilter) source).mSources);
+            } else {
+                mSources.add(source);
+            }
+            if (key.length() > 0) {
+                key.append('|');
+            }
+            key.append(((BeautyLutConvertible) source).getLutKey());
+        }
+        if (mSources.isEmpty()) {
+            throw new IllegalArgumentException("no filter to draw");
+        }
+        mLutKey = key.toString();
+    }
+
+    @Override
+    public String getLutKey() {
+        return mLutKey;
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        mLutTextureUniform = GLES30.glGetUniformLocation(getProgramId(), "lutTexture");
+        setInteger(mLutTextureUniform, 3);
+        mLutTexture = BeautyLutCache.acquire(mLutKey, mSources);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mLutTexture != OpenGLUtil.NO_TEXTURE) {
+            BeautyLutCache.release(mLutTexture);
+            mLutTexture = OpenGLUtil.NO_TEXTURE;
+        }
+    }
+
+    @Override
+    protected void onDrawArrayBefore() {
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE3);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, mLutTexture);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    protected void onDrawArrayAfter() {
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE3);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+}
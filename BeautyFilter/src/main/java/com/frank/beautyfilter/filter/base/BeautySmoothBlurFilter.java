@@ -0,0 +1,48 @@
+package com.frank.beautyfilter.filter.base;
+
+import android.opengl.GLES30;
+
+import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.util.OpenGLUtil;
+
+/**
+ * One direction of the separable blur of {@link BeautySmoothFilter}. The horizontal pass
+ * blurs the green of the frame, the vertical one the red its horizontal pass wrote, both
+ * keep the unblurred green for the upsample.
+ */
+public class BeautySmoothBlurFilter extends GPUImageFilter {
+
+    // distance between taps, in pixels of the frame, the kernel spans about 13 of them each way
+    private final static float TAP_SPREAD = 4.0f;
+
+    private final boolean horizontal;
+    private final float[] texelStep = new float[2];
+
+    private int texelStepLocation;
+    private int blurChannelLocation;
+
+    public BeautySmoothBlurFilter(boolean horizontal) {
+        super(NORMAL_VERTEX_SHADER, OpenGLUtil.readShaderFromSource(R.raw.smooth_blur));
+        this.horizontal = horizontal;
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        texelStepLocation = GLES30.glGetUniformLocation(getProgramId(), "texelStep");
+        blurChannelLocation = GLES30.glGetUniformLocation(getProgramId(), "blurChannel");
+        setFloatVec2(blurChannelLocation, horizontal ? new float[]{0.0f, 1.0f} : new float[]{1.0f, 0.0f});
+    }
+
+    /**
+     * width and height are those of the frame, whatever the resolution the pass draws at.
+     */
+    @Override
+    public void onInputSizeChanged(int width, int height) {
+        super.onInputSizeChanged(width, height);
+        texelStep[0] = horizontal ? TAP_SPREAD / width : 0.0f;
+        texelStep[1] = horizontal ? 0.0f : TAP_SPREAD / height;
+        setFloatVec2(texelStepLocation, texelStep);
+    }
+}
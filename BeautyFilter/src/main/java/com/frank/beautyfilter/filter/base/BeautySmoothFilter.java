@@ -0,0 +1,362 @@
+package com.frank.beautyfilter.filter.base;
+
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.frank.beautyfilter.R;
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.filter.helper.BeautyFilterParam;
+import com.frank.beautyfilter.util.BeautyParams;
+import com.frank.beautyfilter.util.FrameBufferPool;
+import com.frank.beautyfilter.util.FrameProfiler;
+import com.frank.beautyfilter.util.OpenGLUtil;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Skin smoothing of the live camera in passes: a separable gaussian of the green channel,
+ * at the resolution of the tier, then a full resolution pass that upsamples the blur with
+ * a joint bilateral filter and applies it as default_fragment does. Its input is the frame
+ * as a 2D texture, the one BeautyCameraFilter#onDrawToTexture draws.
+ * The tier starts from the GPU class and drops when the passes take too long: their GPU time
+ * as the FrameProfiler of the view measures it, or without timer queries the time between
+ * two glFinish() around them in a frame now and then. The interval between frames is not
+ * used, at 15 fps it is the camera that is slow, not the smoothing.
+ */
+public class BeautySmoothFilter extends GPUImageFilter {
+
+    private final static String TAG = BeautySmoothFilter.class.getSimpleName();
+
+    public final static int TIER_AUTO = 0;
+    // the value of a tier is how many times its blur is smaller than the frame
+    public final static int TIER_FULL = 1;
+    public final static int TIER_HALF = 2;
+    public final static int TIER_QUARTER = 4;
+
+    // the pass of the profiler of the view the smoothing is drawn in
+    public final static String PASS_NAME = "smooth";
+
+    // mean times of the passes that lower and raise the tier: a third of a frame at 30 fps,
+    // and low enough for the tier above, whose blur has up to 4 times the pixels
+    private final static long SLOW_PASS_NANOS = 11000000L;
+    private final static long FAST_PASS_NANOS = 4000000L;
+    // without timer queries one frame in SAMPLE_FRAMES is timed, a window is WINDOW_SAMPLES of them
+    private final static int SAMPLE_FRAMES = 30;
+    private final static int WINDOW_SAMPLES = 2;
+    private final static int FAST_WINDOWS_TO_RAISE = 5;
+
+    private final BeautySmoothBlurFilter horizontalBlur = new BeautySmoothBlurFilter(true);
+    private final BeautySmoothBlurFilter verticalBlur = new BeautySmoothBlurFilter(false);
+    private FrameBufferPool.FrameBuffer horizontalBuffer;
+    private FrameBufferPool.FrameBuffer verticalBuffer;
+    private FrameBufferPool.FrameBuffer outputBuffer;
+    private final float[] blurTexelSize = new float[2];
+
+    private int paramLocation;
+    private int blurTextureLocation;
+    private int blurTexelSizeLocation;
+    private boolean smoothing;
+
+    private int pinnedTier = TIER_AUTO;
+    private int tier;
+    // the best tier auto selection may go back to, lowered when a tier it went back to was too slow
+    private int ceilingTier;
+    private boolean raised;
+    // the profiler of the view times the passes on the GPU, no frame is sampled
+    private boolean gpuTimed;
+    // the next window mixes the tiers before and after a change
+    private boolean tierChanged;
+    private int sampleCountdown;
+    private long windowNanos;
+    private int windowSamples;
+    private int fastWindows;
+
+    public BeautySmoothFilter() {
+        super(NORMAL_VERTEX_SHADER, OpenGLUtil.readShaderFromSource(R.raw.smooth_compose));
+    }
+
+    public static int tierForGPUPower(int power) {
+        if (power >= 2)
+            return TIER_FULL;
+        else if (power == 1)
+            return TIER_HALF;
+        return TIER_QUARTER;
+    }
+
+    @Override
+    public void init() {
+        horizontalBlur.init();
+        verticalBlur.init();
+        super.init();
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        paramLocation = GLES30.glGetUniformLocation(getProgramId(), "params");
+        blurTextureLocation = GLES30.glGetUniformLocation(getProgramId(), "blurTexture");
+        blurTexelSizeLocation = GLES30.glGetUniformLocation(getProgramId(), "blurTexelSize");
+        setInteger(blurTextureLocation, 1);
+        ceilingTier = tierForGPUPower(BeautyFilterParam.mGPUPower);
+        tier = pinnedTier != TIER_AUTO ? pinnedTier : ceilingTier;
+        gpuTimed = false;
+        resetPassTime();
+        setBeautyLevel(BeautyParams.beautyLevel);
+    }
+
+    @Override
+    protected void onInitialized() {
+        if (mInputWidth > 0 && mInputHeight > 0) {
+            onInputSizeChanged(mInputWidth, mInputHeight);
+        }
+    }
+
+    /**
+     * Use tier whatever the frame time, or TIER_AUTO to select it again.
+     */
+    public void setTier(int tier) {
+        pinnedTier = tier;
+        if (tier != TIER_AUTO) {
+            this.tier = tier;
+        } else if (hasInitialized()) {
+            ceilingTier = tierForGPUPower(BeautyFilterParam.mGPUPower);
+            this.tier = ceilingTier;
+        }
+        resetPassTime();
+    }
+
+    public int getTier() {
+        return tier;
+    }
+
+    /**
+     * Whether the level asks for smoothing, at level 0 the filter has nothing to draw.
+     */
+    public boolean isSmoothing() {
+        return smoothing;
+    }
+
+    @Override
+    public void onInputSizeChanged(int width, int height) {
+        super.onInputSizeChanged(width, height);
+        horizontalBlur.onInputSizeChanged(width, height);
+        verticalBlur.onInputSizeChanged(width, height);
+    }
+
+    @Override
+    public int onDrawFrame(int textureId) {
+        return onDrawFrame(textureId, mVertexBuffer, mTextureBuffer);
+    }
+
+    @Override
+    public int onDrawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (!hasInitialized()) {
+            return OpenGLUtil.NOT_INIT;
+        }
+        long sampleStart = beginSample();
+        blur(textureId);
+        GLES30.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        int result = super.onDrawFrame(textureId, vertexBuffer, textureBuffer);
+        endSample(sampleStart);
+        return result;
+    }
+
+    /**
+     * Smooth into a frame buffer of the input size.
+     * @return the texture drawn to
+     */
+    public int onDrawToTexture(int textureId) {
+        if (!hasInitialized()) {
+            return OpenGLUtil.NOT_INIT;
+        }
+        if (outputBuffer != null && (outputBuffer.width != mInputWidth || outputBuffer.height != mInputHeight)) {
+            FrameBufferPool.release(outputBuffer);
+            outputBuffer = null;
+        }
+        if (outputBuffer == null) {
+            outputBuffer = FrameBufferPool.obtain(mInputWidth, mInputHeight);
+        }
+        long sampleStart = beginSample();
+        blur(textureId);
+        GLES30.glViewport(0, 0, mInputWidth, mInputHeight);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, outputBuffer.frameBufferId);
+        super.onDrawFrame(textureId, mVertexBuffer, mTextureBuffer);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        endSample(sampleStart);
+        GLES30.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        return outputBuffer.textureId;
+    }
+
+    private void blur(int textureId) {
+        int width = Math.max(1, mInputWidth / tier);
+        int height = Math.max(1, mInputHeight / tier);
+        if (horizontalBuffer != null && (horizontalBuffer.width != width || horizontalBuffer.height != height)) {
+            destroyBlurBuffers();
+        }
+        if (horizontalBuffer == null) {
+            horizontalBuffer = FrameBufferPool.obtain(width, height, GLES30.GL_RG8, GLES30.GL_RG, GLES30.GL_UNSIGNED_BYTE);
+            verticalBuffer = FrameBufferPool.obtain(width, height, GLES30.GL_RG8, GLES30.GL_RG, GLES30.GL_UNSIGNED_BYTE);
+            blurTexelSize[0] = 1.0f / width;
+            blurTexelSize[1] = 1.0f / height;
+            setFloatVec2(blurTexelSizeLocation, blurTexelSize);
+        }
+        GLES30.glViewport(0, 0, width, height);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, horizontalBuffer.frameBufferId);
+        horizontalBlur.onDrawFrame(textureId);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, verticalBuffer.frameBufferId);
+        verticalBlur.onDrawFrame(horizontalBuffer.textureId);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+    }
+
+    @Override
+    protected void onDrawArrayBefore() {
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, verticalBuffer.textureId);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    protected void onDrawArrayAfter() {
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    private void resetPassTime() {
+        sampleCountdown = SAMPLE_FRAMES;
+        windowNanos = 0;
+        windowSamples = 0;
+        fastWindows = 0;
+        raised = false;
+        tierChanged = false;
+    }
+
+    /**
+     * The stats of a window of the profiler of the view, on the render thread. With GPU
+     * times the tier follows the time of PASS_NAME.
+     */
+    public void onFrameStats(FrameProfiler.FrameStats stats) {
+        if (!stats.gpuTimed || pinnedTier != TIER_AUTO) {
+            return;
+        }
+        gpuTimed = true;
+        for (int i = 0; i < stats.passCount; i++) {
+            if (PASS_NAME.equals(stats.passNames[i])) {
+                if (stats.passNanos[i] > 0) {
+                    adjustTier(stats.passNanos[i]);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Without GPU times, wait for the GPU in the frames that are sampled so that only
+     * the passes are timed, not what was queued before them.
+     * @return the start of the sample, 0 when the frame is not sampled
+     */
+    private long beginSample() {
+        if (gpuTimed || pinnedTier != TIER_AUTO || --sampleCountdown > 0) {
+            return 0;
+        }
+        sampleCountdown = SAMPLE_FRAMES;
+        GLES30.glFinish();
+        return System.nanoTime();
+    }
+
+    private void endSample(long start) {
+        if (start == 0) {
+            return;
+        }
+        GLES30.glFinish();
+        windowNanos += System.nanoTime() - start;
+        if (++windowSamples < WINDOW_SAMPLES) {
+            return;
+        }
+        long mean = windowNanos / windowSamples;
+        windowNanos = 0;
+        windowSamples = 0;
+        adjustTier(mean);
+    }
+
+    /**
+     * Drop a tier after a slow window of the passes and go back up, no higher than the
+     * ceiling, after several fast ones in a row.
+     */
+    private void adjustTier(long mean) {
+        if (tierChanged) {
+            tierChanged = false;
+            return;
+        }
+        if (mean > SLOW_PASS_NANOS && tier < TIER_QUARTER) {
+            tier *= 2;
+            tierChanged = true;
+            if (raised) {
+                ceilingTier = tier;
+                raised = false;
+            }
+            fastWindows = 0;
+            Log.i(TAG, "smoothing takes " + mean / 1000000 + "ms, smoothing at 1/" + tier);
+        } else if (mean < FAST_PASS_NANOS && tier > ceilingTier) {
+            if (++fastWindows >= FAST_WINDOWS_TO_RAISE) {
+                tier /= 2;
+                tierChanged = true;
+                raised = true;
+                fastWindows = 0;
+            }
+        } else {
+            fastWindows = 0;
+        }
+    }
+
+    public void setBeautyLevel(int beautyLevel) {
+        smoothing = beautyLevel != 0;
+        switch (beautyLevel) {
+            case 0:
+                setFloat(paramLocation, 0.0f);
+                break;
+            case 1:
+                setFloat(paramLocation, 1.0f);
+                break;
+            case 2:
+                setFloat(paramLocation, 0.8f);
+                break;
+            case 3:
+                setFloat(paramLocation, 0.6f);
+                break;
+            case 4:
+                setFloat(paramLocation, 0.4f);
+                break;
+            case 5:
+                setFloat(paramLocation, 0.2f);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void onBeautyLevelChanged() {
+        setBeautyLevel(BeautyParams.beautyLevel);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        horizontalBlur.destroy();
+        verticalBlur.destroy();
+        destroyBlurBuffers();
+        if (outputBuffer != null) {
+            FrameBufferPool.release(outputBuffer);
+            outputBuffer = null;
+        }
+    }
+
+    private void destroyBlurBuffers() {
+        if (horizontalBuffer != null) {
+            FrameBufferPool.release(horizontalBuffer);
+            FrameBufferPool.release(verticalBuffer);
+            horizontalBuffer = null;
+            verticalBuffer = null;
+        }
+    }
+}
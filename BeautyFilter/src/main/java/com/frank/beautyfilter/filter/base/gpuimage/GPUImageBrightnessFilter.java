@@ -7,7 +7,7 @@ import android.opengl.GLES30;
  * @date 2022/6/18 11:21 下午
  * @desc
  */
-public class GPUImageBrightnessFilter extends GPUImageFilter {
+public class GPUImageBrightnessFilter extends GPUImageFilter implements GPUImageColorTransform {
 
     public final static String BRIGHTNESS_FRAGMENT_SHADER =
             "varying highp vec2 textureCoordinate;\n" +
@@ -20,6 +20,7 @@ public class GPUImageBrightnessFilter extends GPUImageFilter {
 
     private float mBrightness;
     private int mBrightnessLocation;
+    private int mTransformLocation;
 
     public GPUImageBrightnessFilter() {
         this(0.0f);
@@ -44,7 +45,29 @@ public class GPUImageBrightnessFilter extends GPUImageFilter {
 
     public void setBrightness(final float brightness) {
         mBrightness = brightness;
-        setFloat(mBrightnessLocation, mBrightness);
+        if (hasInitialized()) {
+            setFloat(mBrightnessLocation, mBrightness);
+        }
+    }
+
+    @Override
+    public String getTransformUniforms(String prefix) {
+        return "uniform lowp float " + prefix + "brightness;\n";
+    }
+
+    @Override
+    public String getTransformCode(String prefix) {
+        return "color.rgb += vec3(" + prefix + "brightness);\n";
+    }
+
+    @Override
+    public void onTransformInit(int programId, String prefix) {
+        mTransformLocation = GLES30.glGetUniformLocation(programId, prefix + "brightness");
+    }
+
+    @Override
+    public void onTransformDraw() {
+        GLES30.glUniform1f(mTransformLocation, mBrightness);
     }
 
 }
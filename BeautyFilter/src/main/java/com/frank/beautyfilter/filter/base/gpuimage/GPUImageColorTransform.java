@@ -0,0 +1,30 @@
+package com.frank.beautyfilter.filter.base.gpuimage;
+
+/**
+ * A filter whose output pixel only depends on the input pixel at the same place,
+ * so several of them can run in one fragment shader instead of one pass each.
+ * The uniforms of a transform are named with the prefix it is given, which keeps
+ * two transforms of the same kind apart in a fused shader.
+ */
+public interface GPUImageColorTransform {
+
+    /**
+     * Declarations of the uniforms the transform reads, e.g. "uniform lowp float " + prefix + "brightness;\n".
+     */
+    String getTransformUniforms(String prefix);
+
+    /**
+     * GLSL statements reading and updating "highp vec4 color", the colour of the pixel.
+     */
+    String getTransformCode(String prefix);
+
+    /**
+     * Look up the uniforms in the fused program.
+     */
+    void onTransformInit(int programId, String prefix);
+
+    /**
+     * Upload the current values of the uniforms, the fused program is in use.
+     */
+    void onTransformDraw();
+}
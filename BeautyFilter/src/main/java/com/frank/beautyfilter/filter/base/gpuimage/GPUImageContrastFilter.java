@@ -7,7 +7,7 @@ import android.opengl.GLES30;
  * @date 2022/6/18 11:48 下午
  * @desc
  */
-public class GPUImageContrastFilter extends GPUImageFilter {
+public class GPUImageContrastFilter extends GPUImageFilter implements GPUImageColorTransform {
 
     public final static String CONTRAST_FRAGMENT_SHADER =
             "varying highp vec2 textureCoordinate;\n" +
@@ -20,6 +20,7 @@ public class GPUImageContrastFilter extends GPUImageFilter {
 
     private float mContrast;
     private int mContrastLocation;
+    private int mTransformLocation;
 
     public GPUImageContrastFilter() {
         this(1.0f);
@@ -44,7 +45,29 @@ public class GPUImageContrastFilter extends GPUImageFilter {
 
     public void setContrast(final float contrast) {
         mContrast = contrast;
-        setFloat(mContrastLocation, contrast);
+        if (hasInitialized()) {
+            setFloat(mContrastLocation, contrast);
+        }
+    }
+
+    @Override
+    public String getTransformUniforms(String prefix) {
+        return "uniform lowp float " + prefix + "contrast;\n";
+    }
+
+    @Override
+    public String getTransformCode(String prefix) {
+        return "color.rgb = (color.rgb - vec3(0.5)) * " + prefix + "contrast + vec3(0.5);\n";
+    }
+
+    @Override
+    public void onTransformInit(int programId, String prefix) {
+        mTransformLocation = GLES30.glGetUniformLocation(programId, prefix + "contrast");
+    }
+
+    @Override
+    public void onTransformDraw() {
+        GLES30.glUniform1f(mTransformLocation, mContrast);
     }
 
 }
@@ -7,7 +7,7 @@ import android.opengl.GLES30;
  * @date 2022/6/19 12:45 上午
  * @desc
  */
-public class GPUImageExposureFilter extends GPUImageFilter {
+public class GPUImageExposureFilter extends GPUImageFilter implements GPUImageColorTransform {
 
     public final static String EXPOSURE_FRAGMENT_SHADER =
             "varying highp vec2 textureCoordinate;\n" +
@@ -20,6 +20,7 @@ public class GPUImageExposureFilter extends GPUImageFilter {
 
     private float mExposure;
     private int mExposureLocation;
+    private int mTransformLocation;
 
     public GPUImageExposureFilter() {
         this(0.0f);
@@ -44,7 +45,29 @@ public class GPUImageExposureFilter extends GPUImageFilter {
 
     public void setExposure(final float exposure) {
         mExposure = exposure;
-        setFloat(mExposureLocation, mExposure);
+        if (hasInitialized()) {
+            setFloat(mExposureLocation, mExposure);
+        }
+    }
+
+    @Override
+    public String getTransformUniforms(String prefix) {
+        return "uniform highp float " + prefix + "exposure;\n";
+    }
+
+    @Override
+    public String getTransformCode(String prefix) {
+        return "color.rgb *= pow(2.0, " + prefix + "exposure);\n";
+    }
+
+    @Override
+    public void onTransformInit(int programId, String prefix) {
+        mTransformLocation = GLES30.glGetUniformLocation(programId, prefix + "exposure");
+    }
+
+    @Override
+    public void onTransformDraw() {
+        GLES30.glUniform1f(mTransformLocation, mExposure);
     }
 
 }
@@ -4,13 +4,15 @@ import android.graphics.PointF;
 import android.opengl.GLES30;
 
 import com.frank.beautyfilter.util.OpenGLUtil;
+import com.frank.beautyfilter.util.ProgramCache;
 import com.frank.beautyfilter.util.Rotation;
 import com.frank.beautyfilter.util.TextureRotateUtil;
+import com.frank.beautyfilter.util.VertexArrayCache;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 /**
  * @author xufulong
@@ -37,7 +39,9 @@ public class GPUImageFilter {
 
     private final String mVertexShader;
     private final String mFragmentShader;
-    private final LinkedList<Runnable> mRunnableDraw;
+    private final ArrayDeque<Runnable> mRunnableDraw;
+    private final UniformState mUniforms = new UniformState();
+    private ProgramCache.Program mProgram;
 
     protected int mProgramId;
     protected int mInputWidth;
@@ -48,6 +52,8 @@ public class GPUImageFilter {
     protected int mAttributePosition;
     protected int mAttributeTextureCoordinate;
     protected boolean mHasInitialized;
+    // the attributes are where the vertex arrays of VertexArrayCache point
+    private boolean mFitsVertexArrays;
     protected FloatBuffer mVertexBuffer;
     protected FloatBuffer mTextureBuffer;
 
@@ -56,7 +62,7 @@ public class GPUImageFilter {
     }
 
     public GPUImageFilter(String vertexShader, String fragmentShader) {
-        mRunnableDraw = new LinkedList<>();
+        mRunnableDraw = new ArrayDeque<>();
         mVertexShader = vertexShader;
         mFragmentShader = fragmentShader;
 
@@ -74,9 +80,13 @@ public class GPUImageFilter {
 
     protected void onInit() {
         mProgramId = OpenGLUtil.loadProgram(mVertexShader, mFragmentShader);
+        mProgram = ProgramCache.lookup(mProgramId);
         mAttributePosition = GLES30.glGetAttribLocation(mProgramId, "position");
         mUniformTexture = GLES30.glGetUniformLocation(mProgramId, "inputImageTexture");
         mAttributeTextureCoordinate = GLES30.glGetAttribLocation(mProgramId, "inputTextureCoordinate");
+        mFitsVertexArrays = mAttributePosition == VertexArrayCache.ATTRIBUTE_POSITION
+                && (mAttributeTextureCoordinate == VertexArrayCache.ATTRIBUTE_TEXTURE_COORDINATE
+                || mAttributeTextureCoordinate < 0);
     }
 
     protected void onInitialized() {
@@ -95,7 +105,8 @@ public class GPUImageFilter {
 
     public void destroy() {
         mHasInitialized = false;
-        GLES30.glDeleteProgram(mProgramId);
+        OpenGLUtil.releaseProgram(mProgramId);
+        mProgram = null;
         onDestroy();
     }
 
@@ -105,9 +116,65 @@ public class GPUImageFilter {
     }
 
     protected void runPendingOnDrawTask() {
-        while (!mRunnableDraw.isEmpty()) {
-            mRunnableDraw.removeFirst().run();
+        while (true) {
+            Runnable runnable;
+            synchronized (mRunnableDraw) {
+                runnable = mRunnableDraw.pollFirst();
+            }
+            if (runnable == null)
+                break;
+            runnable.run();
         }
+        uploadUniforms();
+    }
+
+    /**
+     * Upload the uniform values set since the last draw, the program is in use.
+     */
+    protected void uploadUniforms() {
+        mUniforms.upload(mProgram != null && mProgram.claimUniforms(this));
+    }
+
+    /**
+     * Run the work queued for the next draw now, texture uploads included,
+     * so that the first frame drawn with the filter does not wait for it.
+     */
+    public void runPendingOnDraw() {
+        if (!mHasInitialized)
+            return;
+        GLES30.glUseProgram(mProgramId);
+        runPendingOnDrawTask();
+        GLES30.glUseProgram(0);
+    }
+
+    /**
+     * Feed the quad to the attributes, through its vertex array when the context has them.
+     * @return the vertex array bound, 0 when the attributes read the buffers themselves
+     */
+    protected int bindGeometry(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (mFitsVertexArrays) {
+            int vertexArray = VertexArrayCache.obtain(vertexBuffer, textureBuffer);
+            if (vertexArray != 0) {
+                GLES30.glBindVertexArray(vertexArray);
+                return vertexArray;
+            }
+        }
+        vertexBuffer.position(0);
+        GLES30.glVertexAttribPointer(mAttributePosition, 2, GLES30.GL_FLOAT, false, 0, vertexBuffer);
+        GLES30.glEnableVertexAttribArray(mAttributePosition);
+        textureBuffer.position(0);
+        GLES30.glVertexAttribPointer(mAttributeTextureCoordinate, 2, GLES30.GL_FLOAT, false, 0, textureBuffer);
+        GLES30.glEnableVertexAttribArray(mAttributeTextureCoordinate);
+        return 0;
+    }
+
+    protected void unbindGeometry(int vertexArray) {
+        if (vertexArray != 0) {
+            GLES30.glBindVertexArray(0);
+            return;
+        }
+        GLES30.glDisableVertexAttribArray(mAttributePosition);
+        GLES30.glDisableVertexAttribArray(mAttributeTextureCoordinate);
     }
 
     protected void onDrawArrayBefore() {
@@ -128,12 +195,7 @@ public class GPUImageFilter {
 
         GLES30.glUseProgram(mProgramId);
         runPendingOnDrawTask();
-        vertexBuffer.position(0);
-        GLES30.glVertexAttribPointer(mAttributePosition, 2, GLES30.GL_FLOAT, false, 0, vertexBuffer);
-        GLES30.glEnableVertexAttribArray(mAttributePosition);
-        textureBuffer.position(0);
-        GLES30.glVertexAttribPointer(mAttributeTextureCoordinate, 2, GLES30.GL_FLOAT, false, 0, textureBuffer);
-        GLES30.glEnableVertexAttribArray(mAttributeTextureCoordinate);
+        int vertexArray = bindGeometry(vertexBuffer, textureBuffer);
 
         if (textureId != OpenGLUtil.NO_TEXTURE) {
             GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
@@ -142,9 +204,9 @@ public class GPUImageFilter {
         }
 
         onDrawArrayBefore();
+        uploadUniforms();
         GLES30.glDrawArrays(GLES30.GL_TRIANGLE_STRIP, 0, 4);
-        GLES30.glDisableVertexAttribArray(mAttributePosition);
-        GLES30.glDisableVertexAttribArray(mAttributeTextureCoordinate);
+        unbindGeometry(vertexArray);
         GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
         onDrawArrayAfter();
         return OpenGLUtil.ON_DRAWN;
@@ -173,32 +235,27 @@ public class GPUImageFilter {
     }
 
     public void setInteger(final int location, final int intVal) {
-        runOnDraw(() -> GLES30.glUniform1i(location, intVal));
+        mUniforms.setInt(location, intVal);
     }
 
     public void setFloat(final int location, final float floatVal) {
-        runOnDraw(() -> GLES30.glUniform1f(location, floatVal));
+        mUniforms.setFloat(location, floatVal);
     }
 
     public void setFloatVec2(final int location, final float[] floatArray) {
-        runOnDraw(() -> GLES30.glUniform2fv(location, 1, FloatBuffer.wrap(floatArray)));
+        mUniforms.setVec2(location, floatArray);
     }
 
     public void setFloatVec3(final int location, final float[] floatArray) {
-        runOnDraw(() -> GLES30.glUniform3fv(location, 1, FloatBuffer.wrap(floatArray)));
+        mUniforms.setVec3(location, floatArray);
     }
 
     public void setFloatArray(final int location, final float[] floatArray) {
-        runOnDraw(() -> GLES30.glUniform1fv(location, 1, FloatBuffer.wrap(floatArray)));
+        mUniforms.setFloatArray(location, floatArray);
     }
 
     protected void setPoint(final int location, final PointF pointF) {
-        runOnDraw(() -> {
-            float[] vec2 = new float[2];
-            vec2[0] = pointF.x;
-            vec2[1] = pointF.y;
-            GLES30.glUniform2fv(location, 1, vec2, 0);
-        });
+        mUniforms.setVec2(location, pointF.x, pointF.y);
     }
 
     public void onOutputSizeChanged(final int width, final int height) {
@@ -0,0 +1,78 @@
+package com.frank.beautyfilter.filter.base.gpuimage;
+
+import java.util.List;
+
+/**
+ * Runs a chain of colour transforms in a single pass: the fragment shader is generated
+ * from their snippets, so the chain costs one read and one write of the frame.
+ * The program is shared by the filters with the same chain through the program cache.
+ */
+public class GPUImageFusedColorFilter extends GPUImageFilter {
+
+    private final List<GPUImageColorTransform> mTransforms;
+
+    public GPUImageFusedColorFilter(List<GPUImageColorTransform> transforms) {
+        super(NORMAL_VERTEX_SHADER, generateFragmentShader(transforms));
+        mTransforms = transforms;
+    }
+
+    private static String prefixOf(int index) {
+        return "s" + index + "_";
+    }
+
+    /**
+     * Every transform gets a block of its own, and the colour is clamped after it as the
+     * 8-bit frame buffer between two separate passes would do, so the result matches them.
+     */
+    private static String generateFragmentShader(List<GPUImageColorTransform> transforms) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("precision highp float;\n")
+                .append("varying highp vec2 textureCoordinate;\n")
+                .append("uniform sampler2D inputImageTexture;\n");
+        for (int i = 0; i < transforms.size(); i++) {
+            builder.append(transforms.get(i).getTransformUniforms(prefixOf(i)));
+        }
+        builder.append("void main() {\n")
+                .append("highp vec4 color = texture2D(inputImageTexture, textureCoordinate);\n");
+        for (int i = 0; i < transforms.size(); i++) {
+            builder.append("{\n")
+                    .append(transforms.get(i).getTransformCode(prefixOf(i)))
+                    .append("}\n")
+                    .append("color = clamp(color, 0.0, 1.0);\n");
+        }
+        builder.append("gl_FragColor = color;\n")
+                .append("}");
+        return builder.toString();
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        if (mProgramId == 0) {
+            return;
+        }
+        for (int i = 0; i < mTransforms.size(); i++) {
+            mTransforms.get(i).onTransformInit(mProgramId, prefixOf(i));
+        }
+    }
+
+    /**
+     * Compile, or reuse, the fused program.
+     * @return false when the generated shader does not build and the chain has to run pass by pass
+     */
+    public boolean tryInit() {
+        init();
+        if (mProgramId == 0) {
+            mHasInitialized = false;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void onDrawArrayBefore() {
+        for (int i = 0; i < mTransforms.size(); i++) {
+            mTransforms.get(i).onTransformDraw();
+        }
+    }
+}
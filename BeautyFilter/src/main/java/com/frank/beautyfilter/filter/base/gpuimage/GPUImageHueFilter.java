@@ -7,7 +7,7 @@ import android.opengl.GLES30;
  * @date 2022/6/19 12:52 上午
  * @desc
  */
-public class GPUImageHueFilter extends GPUImageFilter {
+public class GPUImageHueFilter extends GPUImageFilter implements GPUImageColorTransform {
 
     public final static String HUE_FRAGMENT_SHADER =
             "precision highp float;\n" +
@@ -41,6 +41,8 @@ public class GPUImageHueFilter extends GPUImageFilter {
 
     private float mHue;
     private int mHueLocation;
+    private float mHueAdjust;
+    private int mTransformLocation;
 
     public GPUImageHueFilter() {
         this(0.0f);
@@ -66,6 +68,37 @@ public class GPUImageHueFilter extends GPUImageFilter {
     public void setHue(final float hue) {
         mHue = hue;
         float hueAdjust = (float) ((mHue % 360.0f) * Math.PI / 180.0f);
-        setFloat(mHueLocation, hueAdjust);
+        mHueAdjust = hueAdjust;
+        if (hasInitialized()) {
+            setFloat(mHueLocation, hueAdjust);
+        }
+    }
+
+    @Override
+    public String getTransformUniforms(String prefix) {
+        return "uniform highp float " + prefix + "hueAdjust;\n";
+    }
+
+    @Override
+    public String getTransformCode(String prefix) {
+        return "highp float Y = dot(color, vec4(0.299, 0.587, 0.114, 0.0));\n" +
+                "highp float I = dot(color, vec4(0.595716, -0.274453, -0.321263, 0.0));\n" +
+                "highp float Q = dot(color, vec4(0.211456, -0.522591, 0.31135, 0.0));\n" +
+                "highp float hue = atan(Q, I) - " + prefix + "hueAdjust;\n" +
+                "highp float chroma = sqrt(I*I + Q*Q);\n" +
+                "highp vec4 yIQ = vec4(Y, chroma * cos(hue), chroma * sin(hue), 0.0);\n" +
+                "color.rgb = vec3(dot(yIQ, vec4(1.0, 0.9563, 0.6210, 0.0)),\n" +
+                "        dot(yIQ, vec4(1.0, -0.2721, -0.6474, 0.0)),\n" +
+                "        dot(yIQ, vec4(1.0, -1.1070, 1.7046, 0.0)));\n";
+    }
+
+    @Override
+    public void onTransformInit(int programId, String prefix) {
+        mTransformLocation = GLES30.glGetUniformLocation(programId, prefix + "hueAdjust");
+    }
+
+    @Override
+    public void onTransformDraw() {
+        GLES30.glUniform1f(mTransformLocation, mHueAdjust);
     }
 }
@@ -7,7 +7,7 @@ import android.opengl.GLES30;
  * @date 2022/6/19 11:36 下午
  * @desc
  */
-public class GPUImageSaturationFilter extends GPUImageFilter {
+public class GPUImageSaturationFilter extends GPUImageFilter implements GPUImageColorTransform {
 
     public final static String SATURATION_FRAGMENT_SHADER =
             "varying highp vec2 textureCoordinate;\n" +
@@ -23,6 +23,7 @@ public class GPUImageSaturationFilter extends GPUImageFilter {
 
     private float mSaturation;
     private int mSaturationLocation;
+    private int mTransformLocation;
 
     public GPUImageSaturationFilter() {
         this(1.0f);
@@ -47,7 +48,29 @@ public class GPUImageSaturationFilter extends GPUImageFilter {
 
     public void setSaturation(final float saturation) {
         mSaturation = saturation;
-        setFloat(mSaturationLocation, mSaturation);
+        if (hasInitialized()) {
+            setFloat(mSaturationLocation, mSaturation);
+        }
+    }
+
+    @Override
+    public String getTransformUniforms(String prefix) {
+        return "uniform lowp float " + prefix + "saturation;\n";
+    }
+
+    @Override
+    public String getTransformCode(String prefix) {
+        return "color.rgb = mix(vec3(dot(color.rgb, vec3(0.2125, 0.7154, 0.0721))), color.rgb, " + prefix + "saturation);\n";
+    }
+
+    @Override
+    public void onTransformInit(int programId, String prefix) {
+        mTransformLocation = GLES30.glGetUniformLocation(programId, prefix + "saturation");
+    }
+
+    @Override
+    public void onTransformDraw() {
+        GLES30.glUniform1f(mTransformLocation, mSaturation);
     }
 
 }
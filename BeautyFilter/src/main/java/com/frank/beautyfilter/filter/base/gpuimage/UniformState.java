@@ -0,0 +1,150 @@
+package com.frank.beautyfilter.filter.base.gpuimage;
+
+import android.opengl.GLES30;
+
+/**
+ * The uniform values a filter was given, uploaded when it draws. A setter only copies its
+ * value into the slot of the location and marks it dirty, so once every location has been
+ * set the setters allocate nothing, however often they are called.
+ */
+final class UniformState {
+
+    private final static int TYPE_INT = 0;
+    private final static int TYPE_FLOAT = 1;
+    private final static int TYPE_VEC2 = 2;
+    private final static int TYPE_VEC3 = 3;
+    private final static int TYPE_FLOAT_ARRAY = 4;
+
+    private int[] mLocations = new int[4];
+    private int[] mTypes = new int[4];
+    private int[] mInts = new int[4];
+    private float[][] mFloats = new float[4][];
+    private boolean[] mDirty = new boolean[4];
+    private int mSize;
+    private boolean mAnyDirty;
+
+    synchronized void setInt(int location, int value) {
+        int slot = slotOf(location, TYPE_INT, 0);
+        if (slot >= 0) {
+            mInts[slot] = value;
+            markDirty(slot);
+        }
+    }
+
+    synchronized void setFloat(int location, float value) {
+        int slot = slotOf(location, TYPE_FLOAT, 1);
+        if (slot >= 0) {
+            mFloats[slot][0] = value;
+            markDirty(slot);
+        }
+    }
+
+    synchronized void setVec2(int location, float x, float y) {
+        int slot = slotOf(location, TYPE_VEC2, 2);
+        if (slot >= 0) {
+            mFloats[slot][0] = x;
+            mFloats[slot][1] = y;
+            markDirty(slot);
+        }
+    }
+
+    synchronized void setVec2(int location, float[] values) {
+        setVec2(location, values[0], values[1]);
+    }
+
+    synchronized void setVec3(int location, float[] values) {
+        int slot = slotOf(location, TYPE_VEC3, 3);
+        if (slot >= 0) {
+            System.arraycopy(values, 0, mFloats[slot], 0, 3);
+            markDirty(slot);
+        }
+    }
+
+    synchronized void setFloatArray(int location, float[] values) {
+        int slot = slotOf(location, TYPE_FLOAT_ARRAY, 1);
+        if (slot >= 0) {
+            mFloats[slot][0] = values[0];
+            markDirty(slot);
+        }
+    }
+
+    /**
+     * Upload the values set since the last upload, or all of them when the program
+     * may hold the values of another filter.
+     */
+    synchronized void upload(boolean all) {
+        if (!mAnyDirty && !all) {
+            return;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (!mDirty[i] && !all) {
+                continue;
+            }
+            mDirty[i] = false;
+            float[] values = mFloats[i];
+            switch (mTypes[i]) {
+                case TYPE_INT:
+                    GLES30.glUniform1i(mLocations[i], mInts[i]);
+                    break;
+                case TYPE_FLOAT:
+                    GLES30.glUniform1f(mLocations[i], values[0]);
+                    break;
+                case TYPE_VEC2:
+                    GLES30.glUniform2fv(mLocations[i], 1, values, 0);
+                    break;
+                case TYPE_VEC3:
+                    GLES30.glUniform3fv(mLocations[i], 1, values, 0);
+                    break;
+                case TYPE_FLOAT_ARRAY:
+                    GLES30.glUniform1fv(mLocations[i], 1, values, 0);
+                    break;
+                default:
+                    break;
+            }
+        }
+        mAnyDirty = false;
+    }
+
+    private void markDirty(int slot) {
+        mDirty[slot] = true;
+        mAnyDirty = true;
+    }
+
+    private int slotOf(int location, int type, int floats) {
+        if (location < 0) {
+            return -1;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mLocations[i] == location) {
+                if (mTypes[i] != type) {
+                    mTypes[i] = type;
+                    mFloats[i] = floats > 0 ? new float[floats] : null;
+                }
+                return i;
+            }
+        }
+        if (mSize == mLocations.length) {
+            int capacity = mSize * 2;
+            mLocations = copyOf(mLocations, capacity);
+            mTypes = copyOf(mTypes, capacity);
+            mInts = copyOf(mInts, capacity);
+            float[][] floatValues = new float[capacity][];
+            System.arraycopy(mFloats, 0, floatValues, 0, mSize);
+            mFloats = floatValues;
+            boolean[] dirty = new boolean[capacity];
+            System.arraycopy(mDirty, 0, dirty, 0, mSize);
+            mDirty = dirty;
+        }
+        mLocations[mSize] = location;
+        mTypes[mSize] = type;
+        mFloats[mSize] = floats > 0 ? new float[floats] : null;
+        mDirty[mSize] = false;
+        return mSize++;
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+}
@@ -18,6 +18,9 @@ import com.frank.beautyfilter.filter.advance.BeautySunriseFilter;
 import com.frank.beautyfilter.filter.advance.BeautyTenderFilter;
 import com.frank.beautyfilter.filter.advance.BeautyWarmFilter;
 import com.frank.beautyfilter.filter.advance.BeautyWhiteCatFilter;
+import com.frank.beautyfilter.filter.base.BeautyLutCache;
+import com.frank.beautyfilter.filter.base.BeautyLutConvertible;
+import com.frank.beautyfilter.filter.base.BeautyLutFilter;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageBrightnessFilter;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageContrastFilter;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageExposureFilter;
@@ -38,6 +41,41 @@ public class BeautyFilterFactory {
 
     public static GPUImageFilter getFilter(BeautyFilterType type) {
         filterType = type;
+        return createFilter(type);
+    }
+
+    /**
+     * A new filter of type, without making it the current type. Colour only filters are
+     * drawn through a lookup table when the current context allows it.
+     */
+    public static GPUImageFilter createFilter(BeautyFilterType type) {
+        GPUImageFilter filter = newFilter(type);
+        if (filter instanceof BeautyLutConvertible && BeautyLutCache.isSupported()) {
+            return new BeautyLutFilter(filter);
+        }
+        return filter;
+    }
+
+    /**
+     * One filter drawing types in order through a single lookup table.
+     * @return null when one of the types is not a colour only filter, or the current
+     * context has no 3D textures
+     */
+    public static GPUImageFilter createLutFilter(BeautyFilterType... types) {
+        if (!BeautyLutCache.isSupported()) {
+            return null;
+        }
+        GPUImageFilter[] sources = new GPUImageFilter[types.length];
+        for (int i = 0; i < types.length; i++) {
+            sources[i] = newFilter(types[i]);
+            if (!(sources[i] instanceof BeautyLutConvertible)) {
+                return null;
+            }
+        }
+        return new BeautyLutFilter(sources);
+    }
+
+    private static GPUImageFilter newFilter(BeautyFilterType type) {
         switch (type) {
             case BRIGHTNESS:
                 return new GPUImageBrightnessFilter();
@@ -96,4 +134,8 @@ public class BeautyFilterFactory {
         return filterType;
     }
 
+    static void setFilterType(BeautyFilterType type) {
+        filterType = type;
+    }
+
 }
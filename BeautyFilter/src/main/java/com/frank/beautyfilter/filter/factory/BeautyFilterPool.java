@@ -0,0 +1,130 @@
+package com.frank.beautyfilter.filter.factory;
+
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.util.OpenGLUtil;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Initialised filters of one GL context, kept once they are switched away from so that
+ * switching back, or to a filter warmed up in advance, neither decodes nor uploads anything.
+ * The pool is bounded by the memory of the textures its filters hold, the least recently
+ * used filter goes first. It is only used on the GL thread of its context.
+ */
+public class BeautyFilterPool {
+
+    public final static long DEFAULT_TEXTURE_BUDGET = 16 * 1024 * 1024;
+
+    private static class Entry {
+        private final GPUImageFilter filter;
+        private final long textureBytes;
+
+        private Entry(GPUImageFilter filter, long textureBytes) {
+            this.filter = filter;
+            this.textureBytes = textureBytes;
+        }
+    }
+
+    // in access order, the first entry is the least recently used
+    private final LinkedHashMap<BeautyFilterType, Entry> mFilters = new LinkedHashMap<>(16, 0.75f, true);
+
+    // texture memory of each type, measured when a filter of the type is built
+    private final Map<BeautyFilterType, Long> mTextureCosts = new EnumMap<>(BeautyFilterType.class);
+
+    private final long mTextureBudget;
+
+    private long mTextureBytes;
+
+    public BeautyFilterPool() {
+        this(DEFAULT_TEXTURE_BUDGET);
+    }
+
+    public BeautyFilterPool(long textureBudget) {
+        mTextureBudget = textureBudget;
+    }
+
+    /**
+     * An initialised filter of type, taken out of the pool or built, which becomes the
+     * current type of {@link BeautyFilterFactory}. Hand it back with {@link #recycle}.
+     * @return null for a type without filter
+     */
+    public GPUImageFilter obtain(BeautyFilterType type) {
+        BeautyFilterFactory.setFilterType(type);
+        Entry entry = mFilters.remove(type);
+        if (entry != null) {
+            mTextureBytes -= entry.textureBytes;
+            return entry.filter;
+        }
+        return build(type);
+    }
+
+    /**
+     * Keep a filter obtained from the pool for later, instead of destroying it.
+     */
+    public void recycle(BeautyFilterType type, GPUImageFilter filter) {
+        if (filter == null)
+            return;
+        if (type == null || mFilters.containsKey(type)) {
+            filter.destroy();
+            return;
+        }
+        Long cost = mTextureCosts.get(type);
+        Entry entry = new Entry(filter, cost != null ? cost : 0);
+        mFilters.put(type, entry);
+        mTextureBytes += entry.textureBytes;
+        trimToBudget();
+    }
+
+    /**
+     * Build a filter of type into the pool ahead of its use, when the pool has none.
+     */
+    public void warm(BeautyFilterType type) {
+        if (type == null || mFilters.containsKey(type))
+            return;
+        recycle(type, build(type));
+    }
+
+    /**
+     * Destroy the pooled filters, in the context they were built in.
+     */
+    public void clear() {
+        for (Entry entry : mFilters.values()) {
+            entry.filter.destroy();
+        }
+        abandon();
+    }
+
+    /**
+     * The context of the pooled filters is gone, forget them without any GL call.
+     */
+    public void abandon() {
+        mFilters.clear();
+        mTextureBytes = 0;
+    }
+
+    private GPUImageFilter build(BeautyFilterType type) {
+        GPUImageFilter filter = BeautyFilterFactory.createFilter(type);
+        if (filter == null)
+            return null;
+        long loaded = OpenGLUtil.getTextureBytesLoaded();
+        filter.init();
+        filter.runPendingOnDraw();
+        mTextureCosts.put(type, OpenGLUtil.getTextureBytesLoaded() - loaded);
+        return filter;
+    }
+
+    private void trimToBudget() {
+        Iterator<Entry> iterator = mFilters.values().iterator();
+        while (mTextureBytes > mTextureBudget && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            mTextureBytes -= entry.textureBytes;
+            entry.filter.destroy();
+        }
+    }
+
+}
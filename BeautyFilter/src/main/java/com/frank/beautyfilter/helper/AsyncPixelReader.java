@@ -0,0 +1,314 @@
+package com.frank.beautyfilter.helper;
+
+import android.graphics.Bitmap;
+import android.graphics.ColorSpace;
+import android.graphics.PixelFormat;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.media.ImageReader;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.frank.beautyfilter.recorder.gles.EglCore;
+import com.frank.beautyfilter.util.FrameBufferPool;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads frame buffers back into bitmaps without holding the GL thread. The GL thread only
+ * queues the copy: into one of two pixel buffers, guarded by a fence, or from API 29 into
+ * the HardwareBuffer of an ImageReader. A thread of the reader, with a context shared with
+ * the one of the GL thread, waits for the copy and fills the bitmap straight from the
+ * mapped memory, so the pixels are never copied into a heap buffer first.
+ * Contexts without OpenGL ES 3 are read synchronously.
+ */
+public class AsyncPixelReader {
+
+    private final static String TAG = AsyncPixelReader.class.getSimpleName();
+
+    private final static int PIXEL_BUFFERS = 2;
+    private final static long FENCE_TIMEOUT_NANOS = 100000000L;
+    private final static int FENCE_TIMEOUTS = 20;
+
+    /**
+     * Called on the thread of the reader, with null when the pixels could not be read.
+     */
+    public interface OnPixelsReadListener {
+        void onPixelsRead(Bitmap bitmap);
+    }
+
+    private static class PixelBuffer {
+        private int bufferId;
+        private int capacity;
+        // queued for the reader thread and not mapped yet
+        private boolean busy;
+    }
+
+    /**
+     * The reader thread, current on a context shared with the one reads come from.
+     */
+    private static class ReaderThread extends HandlerThread {
+        private final EGLContext sharedContext;
+        private EglCore eglCore;
+        private EGLSurface eglSurface;
+
+        private ReaderThread(EGLContext sharedContext) {
+            super(TAG);
+            this.sharedContext = sharedContext;
+        }
+
+        @Override
+        protected void onLooperPrepared() {
+            eglCore = new EglCore(sharedContext, EglCore.FLAG_TRY_GLES3);
+            eglSurface = eglCore.createOffsetScreenSurface(1, 1);
+            eglCore.makeCurrent(eglSurface);
+        }
+
+        private void finish(PixelBuffer[] pixelBuffers) {
+            for (PixelBuffer pixelBuffer : pixelBuffers) {
+                if (pixelBuffer.bufferId != 0) {
+                    GLES30.glDeleteBuffers(1, new int[]{pixelBuffer.bufferId}, 0);
+                }
+            }
+            eglCore.releaseSurface(eglSurface);
+            eglCore.release();
+            quitSafely();
+        }
+    }
+
+    private PixelBuffer[] mPixelBuffers = newPixelBuffers();
+    private ReaderThread mThread;
+    private Handler mHandler;
+
+    private static PixelBuffer[] newPixelBuffers() {
+        PixelBuffer[] pixelBuffers = new PixelBuffer[PIXEL_BUFFERS];
+        for (int i = 0; i < PIXEL_BUFFERS; i++) {
+            pixelBuffers[i] = new PixelBuffer();
+        }
+        return pixelBuffers;
+    }
+
+    /**
+     * Read the frame buffer, called on the GL thread. The copy is queued when this returns,
+     * so the frame buffer may be drawn to or released right away.
+     * Rows come bottom first, as glReadPixels gives them.
+     */
+    public void read(FrameBufferPool.FrameBuffer frameBuffer, OnPixelsReadListener listener) {
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) {
+            listener.onPixelsRead(readNow(frameBuffer));
+            return;
+        }
+        start(EGL14.eglGetCurrentContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && readToHardwareBuffer(frameBuffer, listener)) {
+            return;
+        }
+        PixelBuffer pixelBuffer = obtainPixelBuffer();
+        if (pixelBuffer == null) {
+            // both are still on their way, this read has to wait for its pixels
+            listener.onPixelsRead(readNow(frameBuffer));
+            return;
+        }
+        int width = frameBuffer.width;
+        int height = frameBuffer.height;
+        int size = width * height * 4;
+        if (pixelBuffer.bufferId == 0) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            pixelBuffer.bufferId = buffers[0];
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer.bufferId);
+        if (pixelBuffer.capacity < size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            pixelBuffer.capacity = size;
+        }
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer.frameBufferId);
+        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // the fence has to reach the GPU before the reader thread waits for it
+        GLES30.glFlush();
+        mHandler.post(() -> listener.onPixelsRead(mapPixelBuffer(pixelBuffer, fence, width, height)));
+    }
+
+    /**
+     * Stop the reader thread once the reads queued are done, called when the context the
+     * reads come from goes away. A later read starts a new one.
+     */
+    public void release() {
+        if (mHandler == null) {
+            return;
+        }
+        final ReaderThread thread = mThread;
+        final PixelBuffer[] pixelBuffers;
+        synchronized (this) {
+            // the buffers belong to the old context, the next thread makes its own
+            pixelBuffers = mPixelBuffers;
+            mPixelBuffers = newPixelBuffers();
+        }
+        mHandler.post(() -> thread.finish(pixelBuffers));
+        mHandler = null;
+        mThread = null;
+    }
+
+    private void start(EGLContext sharedContext) {
+        if (mHandler != null) {
+            return;
+        }
+        mThread = new ReaderThread(sharedContext);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    private PixelBuffer obtainPixelBuffer() {
+        synchronized (this) {
+            for (PixelBuffer pixelBuffer : mPixelBuffers) {
+                if (!pixelBuffer.busy) {
+                    pixelBuffer.busy = true;
+                    return pixelBuffer;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * On the reader thread: wait for the fence, then copy the mapped pixels into a bitmap.
+     */
+    private Bitmap mapPixelBuffer(PixelBuffer pixelBuffer, long fence, int width, int height) {
+        try {
+            if (!waitFence(fence)) {
+                return null;
+            }
+            int size = width * height * 4;
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer.bufferId);
+            Buffer pixels = GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+            Bitmap bitmap = null;
+            if (pixels != null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                bitmap.copyPixelsFromBuffer(pixels);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            return bitmap;
+        } finally {
+            synchronized (this) {
+                pixelBuffer.busy = false;
+            }
+        }
+    }
+
+    private static boolean waitFence(long fence) {
+        try {
+            for (int i = 0; i < FENCE_TIMEOUTS; i++) {
+                int status = GLES30.glClientWaitSync(fence, 0, FENCE_TIMEOUT_NANOS);
+                if (status == GLES30.GL_ALREADY_SIGNALED || status == GLES30.GL_CONDITION_SATISFIED) {
+                    return true;
+                }
+                if (status != GLES30.GL_TIMEOUT_EXPIRED) {
+                    break;
+                }
+            }
+            Log.e(TAG, "pixels never arrived");
+            return false;
+        } finally {
+            GLES30.glDeleteSync(fence);
+        }
+    }
+
+    /**
+     * Blit the frame buffer into a window surface of an ImageReader; the reader thread wraps
+     * the HardwareBuffer it receives, which needs no map at all.
+     * @return false when the surface can not be made, read through a pixel buffer then
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private boolean readToHardwareBuffer(FrameBufferPool.FrameBuffer frameBuffer, OnPixelsReadListener listener) {
+        int width = frameBuffer.width;
+        int height = frameBuffer.height;
+        EGLDisplay display = EGL14.eglGetCurrentDisplay();
+        EGLContext context = EGL14.eglGetCurrentContext();
+        EGLConfig config = configOf(display, context);
+        if (config == null) {
+            return false;
+        }
+        ImageReader imageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 1,
+                HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE);
+        EGLSurface surface = EGL14.eglCreateWindowSurface(display, config, imageReader.getSurface(),
+                new int[]{EGL14.EGL_NONE}, 0);
+        if (surface == null || surface == EGL14.EGL_NO_SURFACE) {
+            imageReader.close();
+            return false;
+        }
+        imageReader.setOnImageAvailableListener(reader -> {
+            Bitmap bitmap = null;
+            Image image = reader.acquireNextImage();
+            if (image != null) {
+                HardwareBuffer hardwareBuffer = image.getHardwareBuffer();
+                Bitmap wrapped = Bitmap.wrapHardwareBuffer(hardwareBuffer, ColorSpace.get(ColorSpace.Named.SRGB));
+                if (wrapped != null) {
+                    bitmap = wrapped.copy(Bitmap.Config.ARGB_8888, false);
+                    wrapped.recycle();
+                }
+                hardwareBuffer.close();
+                image.close();
+            }
+            EGL14.eglDestroySurface(display, surface);
+            reader.close();
+            listener.onPixelsRead(bitmap);
+        }, mHandler);
+
+        EGLSurface drawSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW);
+        EGLSurface readSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_READ);
+        EGL14.eglMakeCurrent(display, surface, surface, context);
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, frameBuffer.frameBufferId);
+        GLES30.glBindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, 0);
+        // upside down, the first row of the image is the bottom one as with glReadPixels
+        GLES30.glBlitFramebuffer(0, 0, width, height, 0, height, width, 0,
+                GLES30.GL_COLOR_BUFFER_BIT, GLES30.GL_NEAREST);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        EGL14.eglSwapBuffers(display, surface);
+        EGL14.eglMakeCurrent(display, drawSurface, readSurface, context);
+        return true;
+    }
+
+    private static EGLConfig configOf(EGLDisplay display, EGLContext context) {
+        int[] value = new int[1];
+        if (!EGL14.eglQueryContext(display, context, EGL14.EGL_CONFIG_ID, value, 0)) {
+            return null;
+        }
+        int[] attributes = {EGL14.EGL_CONFIG_ID, value[0], EGL14.EGL_NONE};
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(display, attributes, 0, configs, 0, 1, count, 0) || count[0] < 1) {
+            return null;
+        }
+        return configs[0];
+    }
+
+    /**
+     * The synchronous way, for contexts without pixel buffers.
+     */
+    private static Bitmap readNow(FrameBufferPool.FrameBuffer frameBuffer) {
+        int width = frameBuffer.width;
+        int height = frameBuffer.height;
+        ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer.frameBufferId);
+        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, pixels);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(pixels);
+        return bitmap;
+    }
+}
@@ -0,0 +1,81 @@
+package com.frank.beautyfilter.helper;
+
+import android.opengl.EGLSurface;
+import android.util.Log;
+
+import com.frank.beautyfilter.filter.advance.BeautyBeautifulFilter;
+import com.frank.beautyfilter.filter.base.BeautyCameraFilter;
+import com.frank.beautyfilter.filter.base.BeautySmoothFilter;
+import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
+import com.frank.beautyfilter.filter.factory.BeautyFilterFactory;
+import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.recorder.gles.EglCore;
+import com.frank.beautyfilter.util.ProgramCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Builds the program of every filter once, in an offscreen context of its own, so that
+ * their binaries are on disk before the user switches to them. Programs the disk cache
+ * already has are only loaded, which makes the task cheap after the first launch.
+ */
+public class PrecompileFiltersTask {
+
+    private final static String TAG = PrecompileFiltersTask.class.getSimpleName();
+
+    private final static AtomicBoolean sStarted = new AtomicBoolean();
+
+    private static List<GPUImageFilter> allFilters() {
+        List<GPUImageFilter> filters = new ArrayList<>();
+        filters.add(new BeautyCameraFilter());
+        filters.add(new BeautyBeautifulFilter());
+        filters.add(new BeautySmoothFilter());
+        for (BeautyFilterType type : BeautyFilterType.values()) {
+            GPUImageFilter filter = BeautyFilterFactory.createFilter(type);
+            if (filter != null) {
+                filters.add(filter);
+            }
+        }
+        return filters;
+    }
+
+    private static void precompile() {
+        EglCore eglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+        EGLSurface surface = eglCore.createOffsetScreenSurface(1, 1);
+        try {
+            eglCore.makeCurrent(surface);
+            if (!ProgramCache.isPersistent()) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            for (GPUImageFilter filter : allFilters()) {
+                filter.init();
+                filter.destroy();
+            }
+            Log.i(TAG, "filters precompiled in " + (System.currentTimeMillis() - start) + "ms");
+        } finally {
+            eglCore.releaseSurface(surface);
+            eglCore.release();
+        }
+    }
+
+    /**
+     * Start the task, only the first call of a process does anything.
+     */
+    public static void execute() {
+        if (!sStarted.compareAndSet(false, true))
+            return;
+        Thread thread = new Thread(() -> {
+            try {
+                precompile();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "precompile failed: " + e);
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+}
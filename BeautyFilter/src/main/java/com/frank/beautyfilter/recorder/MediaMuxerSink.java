@@ -0,0 +1,45 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+final class MediaMuxerSink implements MuxerSink {
+
+    private final MediaMuxer mMediaMuxer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    MediaMuxerSink(File file) throws IOException {
+        mMediaMuxer = new MediaMuxer(file.toString(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMediaMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) {
+        mBufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        mMediaMuxer.writeSampleData(trackIndex, data, mBufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+    }
+}
@@ -0,0 +1,441 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * The muxer shared by the encoders of a recording, each on a thread of its own. It starts
+ * once every track is added, or ended without a format, and interleaves the samples by
+ * time: a sample more than MAX_TRACK_WRITE_AHEAD_US ahead of what another track has output
+ * is copied and held until that track catches up, so an encoder never waits for another.
+ * <p>
+ * Audio is stamped with System.nanoTime(), the clock of the camera frames is up to the
+ * device: alignAudioClock() moves the audio track to it with the first frame.
+ * <p>
+ * A segmented recording starts a segment at the first video key frame past its limits and
+ * joins them with {@link SegmentConcatenator} once released. Pausing drops the samples
+ * until resume(), the movie goes on from where it was paused. The video of the movie, of
+ * every segment and after a resume starts at a key frame, the frames before it are dropped.
+ * <p>
+ * Nothing here needs a device but alignAudioClock(): the files are written through a
+ * {@link MuxerSink} and the samples described by {@link SampleInfo}.
+ */
+public class MuxerCoordinator {
+
+    private final static String TAG = MuxerCoordinator.class.getSimpleName();
+
+    public final static int TRACK_VIDEO = 0;
+    public final static int TRACK_AUDIO = 1;
+    private final static int TRACK_COUNT = 2;
+
+    private final static long MAX_TRACK_WRITE_AHEAD_US = 500000;
+    // past it the oldest held sample is written whatever the other tracks, about 2s of audio and video
+    private final static int MAX_HELD_SAMPLES = 150;
+    // a frame timestamp within it of a clock is taken to be on that clock
+    private final static long MAX_CLOCK_DISTANCE_NANOS = 1000000000L;
+    // between the last sample before a pause and the first after it, about a frame
+    private final static long RESUME_GAP_US = 33333;
+
+    private static class Track {
+        // in the muxer of the current segment
+        int index = -1;
+        MediaFormat format;
+        boolean ended;
+        // of the last sample the encoder output, before the offset
+        long timeUs = Long.MIN_VALUE;
+        long offsetUs;
+        // of the last sample written, in the movie
+        long writtenUs = Long.MIN_VALUE;
+        final ArrayDeque<Sample> held = new ArrayDeque<>();
+    }
+
+    private static class Sample {
+        ByteBuffer data;
+        final SampleInfo info = new SampleInfo();
+    }
+
+    private final File mOutputFile;
+    private final long mSegmentDurationUs;
+    private final long mSegmentBytes;
+    private final SegmentConcatenator.OnRecordingSavedListener mListener;
+    private final MuxerSink.Factory mSinkFactory;
+    private final ArrayList<SegmentConcatenator.Segment> mSegments = new ArrayList<>();
+    private MuxerSink mMediaMuxer;
+    private long mSegmentBytesWritten;
+    private boolean mKeyFrameWanted;
+    // the video frames are dropped until a key frame, which nothing before can be decoded from
+    private boolean mKeyFrameNeeded = true;
+    private boolean mPaused;
+    // the next sample written sets how far the movie is behind the clock of the samples
+    private boolean mResumed;
+    private long mPauseShiftUs;
+    private final Track[] mTracks = new Track[TRACK_COUNT];
+    private final ArrayDeque<Sample> mSamplePool = new ArrayDeque<>();
+    private final SampleInfo mInputInfo = new SampleInfo();
+    private final SampleInfo mWriteInfo = new SampleInfo();
+    private int mHeldSamples;
+    private boolean mStarted;
+    private boolean mClockAligned;
+    private boolean mReleased;
+
+    public MuxerCoordinator(File outputFile) throws IOException {
+        this(outputFile, 0, 0, null);
+    }
+
+    /**
+     * Without either limit the recording goes straight to outputFile.
+     * @param segmentDurationUs the duration past which a segment is started, 0 for no limit
+     * @param segmentBytes the size past which a segment is started, 0 for no limit
+     * @param listener told once outputFile is written, and once what an earlier recording
+     *                 into it left is recovered, may be null
+     */
+    public MuxerCoordinator(File outputFile, long segmentDurationUs, long segmentBytes,
+                            SegmentConcatenator.OnRecordingSavedListener listener) throws IOException {
+        this(outputFile, segmentDurationUs, segmentBytes, listener, MediaMuxerSink::new);
+    }
+
+    MuxerCoordinator(File outputFile, long segmentDurationUs, long segmentBytes,
+                     SegmentConcatenator.OnRecordingSavedListener listener,
+                     MuxerSink.Factory sinkFactory) throws IOException {
+        mOutputFile = outputFile;
+        mSegmentDurationUs = segmentDurationUs;
+        mSegmentBytes = segmentBytes;
+        mListener = listener;
+        mSinkFactory = sinkFactory;
+        // those of a recording into the file that never stopped, which these would overwrite
+        SegmentConcatenator.recover(outputFile, listener);
+        File file = outputFile;
+        if (isSegmented()) {
+            file = SegmentConcatenator.segmentFile(outputFile, 0);
+            mSegments.add(new SegmentConcatenator.Segment(file));
+        }
+        mMediaMuxer = sinkFactory.create(file);
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            mTracks[i] = new Track();
+        }
+    }
+
+    public synchronized void addTrack(int track, MediaFormat format) {
+        if (mReleased) {
+            // an encoder still running after the recording stopped
+            return;
+        }
+        if (mStarted) {
+            Log.e(TAG, "format has changed!");
+            return;
+        }
+        mTracks[track].format = format;
+        mTracks[track].index = mMediaMuxer.addTrack(format);
+        startIfReady();
+    }
+
+    /**
+     * No sample of the track follows. A track ended before its format is left out of the file.
+     * Once released, as when the audio thread ends after the recording stopped, nothing is done.
+     */
+    public synchronized void endTrack(int track) {
+        if (mReleased) {
+            return;
+        }
+        mTracks[track].ended = true;
+        if (!mStarted) {
+            startIfReady();
+        } else {
+            writeHeldSamples(false);
+        }
+    }
+
+    /**
+     * Move the audio track to the clock of the camera frames, with the first frame encoded.
+     * @param frameTimestampNanos the timestamp of the frame
+     * @param frameNanoTime System.nanoTime() when the frame was rendered
+     */
+    public synchronized void alignAudioClock(long frameTimestampNanos, long frameNanoTime) {
+        if (mClockAligned || mStarted) {
+            return;
+        }
+        mClockAligned = true;
+        long bootOffsetNanos = SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+        long offsetNanos;
+        if (Math.abs(frameTimestampNanos - frameNanoTime) < MAX_CLOCK_DISTANCE_NANOS) {
+            offsetNanos = 0;
+        } else if (Math.abs(frameTimestampNanos - frameNanoTime - bootOffsetNanos) < MAX_CLOCK_DISTANCE_NANOS) {
+            offsetNanos = bootOffsetNanos;
+        } else {
+            // a clock of its own, the frame is taken as captured when it was rendered
+            offsetNanos = frameTimestampNanos - frameNanoTime;
+        }
+        mTracks[TRACK_AUDIO].offsetUs = offsetNanos / 1000;
+    }
+
+    /**
+     * Drop the samples until resume(), those held are written first.
+     */
+    public synchronized void pause() {
+        writeHeldSamples(true);
+        mPaused = true;
+    }
+
+    public synchronized void resume() {
+        if (!mPaused) {
+            return;
+        }
+        mPaused = false;
+        mResumed = true;
+        mKeyFrameWanted = true;
+        mKeyFrameNeeded = true;
+    }
+
+    /**
+     * Whether the video encoder should be asked for a key frame, to start a segment or
+     * after a pause. Cleared by the call.
+     */
+    public synchronized boolean takeKeyFrameRequest() {
+        boolean wanted = mKeyFrameWanted;
+        mKeyFrameWanted = false;
+        return wanted;
+    }
+
+    /**
+     * Write a sample the encoder output, data is positioned at the offset of info and
+     * limited to its size. Never waits: a sample that has to wait for another track is copied.
+     */
+    public synchronized void writeSampleData(int track, ByteBuffer data, SampleInfo info) {
+        Track t = mTracks[track];
+        if (t.ended || mReleased || mPaused) {
+            return;
+        }
+        t.timeUs = Math.max(t.timeUs, info.presentationTimeUs);
+        if (mStarted && t.held.isEmpty() && canWrite(track, info.presentationTimeUs)) {
+            write(track, data, info.offset, info.size, info.presentationTimeUs + t.offsetUs, info.flags);
+        } else {
+            hold(t, data, info);
+        }
+        writeHeldSamples(false);
+    }
+
+    /**
+     * {@link #writeSampleData(int, ByteBuffer, SampleInfo)} of what an encoder output.
+     */
+    public synchronized void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        mInputInfo.set(info);
+        writeSampleData(track, data, mInputInfo);
+    }
+
+    /**
+     * Write what is held and stop the muxer, once the encoders are done with it. The
+     * segments are joined in the background.
+     */
+    public synchronized void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        if (mStarted) {
+            writeHeldSamples(true);
+            mSamplePool.clear();
+            if (isSegmented()) {
+                SegmentConcatenator.finish(mMediaMuxer);
+                SegmentConcatenator.concatenate(mSegments, mOutputFile, mListener);
+                return;
+            }
+        }
+        boolean saved = false;
+        if (mStarted) {
+            try {
+                mMediaMuxer.stop();
+                saved = true;
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "stop muxer error", e);
+            }
+        }
+        mMediaMuxer.release();
+        if (!mStarted && isSegmented()) {
+            mSegments.get(0).file.delete();
+        }
+        if (mListener != null) {
+            mListener.onRecordingSaved(mOutputFile, saved);
+        }
+    }
+
+    private boolean isSegmented() {
+        return mSegmentDurationUs > 0 || mSegmentBytes > 0;
+    }
+
+    /**
+     * Write a sample to the segment, on the clock of the samples. Starts the next segment
+     * first when it is a key frame past the limits of this one.
+     */
+    private void write(int track, ByteBuffer data, int offset, int size, long timeUs, int flags) {
+        Track t = mTracks[track];
+        if (track == TRACK_VIDEO && mKeyFrameNeeded) {
+            if ((flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+                // output before the key frame asked for came out
+                return;
+            }
+            mKeyFrameNeeded = false;
+        }
+        if (mResumed) {
+            long writtenUs = Long.MIN_VALUE;
+            for (Track other : mTracks) {
+                writtenUs = Math.max(writtenUs, other.writtenUs);
+            }
+            if (writtenUs != Long.MIN_VALUE) {
+                mPauseShiftUs = timeUs - writtenUs - RESUME_GAP_US;
+            }
+            mResumed = false;
+        }
+        long movieTimeUs = timeUs - mPauseShiftUs;
+        if (movieTimeUs <= t.writtenUs) {
+            // from before the pause, behind what is written already
+            return;
+        }
+        mWriteInfo.set(offset, size, movieTimeUs, flags);
+        if (track == TRACK_VIDEO && isSegmented() && isSegmentFull(movieTimeUs)) {
+            if (mWriteInfo.isKeyFrame()) {
+                startSegment();
+            } else {
+                mKeyFrameWanted = true;
+            }
+        }
+        if (isSegmented()) {
+            SegmentConcatenator.Segment segment = mSegments.get(mSegments.size() - 1);
+            if (segment.startTimeUs[track] == Long.MIN_VALUE) {
+                segment.startTimeUs[track] = movieTimeUs;
+            }
+        }
+        mMediaMuxer.writeSampleData(t.index, data, mWriteInfo);
+        t.writtenUs = movieTimeUs;
+        mSegmentBytesWritten += size;
+    }
+
+    private boolean isSegmentFull(long movieTimeUs) {
+        long startUs = mSegments.get(mSegments.size() - 1).startTimeUs[TRACK_VIDEO];
+        return (mSegmentBytes > 0 && mSegmentBytesWritten >= mSegmentBytes)
+                || (mSegmentDurationUs > 0 && startUs != Long.MIN_VALUE && movieTimeUs - startUs >= mSegmentDurationUs);
+    }
+
+    /**
+     * Go on in a new muxer, the one of the finished segment is stopped in the background.
+     */
+    private void startSegment() {
+        File file = SegmentConcatenator.segmentFile(mOutputFile, mSegments.size());
+        MuxerSink muxer;
+        try {
+            muxer = mSinkFactory.create(file);
+        } catch (IOException e) {
+            Log.e(TAG, "new segment error, going on in " + mSegments.size(), e);
+            return;
+        }
+        for (Track track : mTracks) {
+            // a track without any sample to come would keep the segment from finishing
+            if (track.index >= 0 && (!track.ended || !track.held.isEmpty())) {
+                track.index = muxer.addTrack(track.format);
+            } else {
+                track.index = -1;
+            }
+        }
+        muxer.start();
+        SegmentConcatenator.finish(mMediaMuxer);
+        mMediaMuxer = muxer;
+        mSegments.add(new SegmentConcatenator.Segment(file));
+        mSegmentBytesWritten = 0;
+        mKeyFrameWanted = false;
+    }
+
+    private void startIfReady() {
+        boolean added = false;
+        for (Track track : mTracks) {
+            if (track.index < 0 && !track.ended) {
+                return;
+            }
+            added |= track.index >= 0;
+        }
+        if (!added) {
+            return;
+        }
+        mMediaMuxer.start();
+        mStarted = true;
+        writeHeldSamples(false);
+    }
+
+    /**
+     * Whether the sample is no further ahead than the write-ahead of what every other
+     * running track has output, on the muxer clock.
+     */
+    private boolean canWrite(int track, long timeUs) {
+        long time = timeUs + mTracks[track].offsetUs;
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            Track other = mTracks[i];
+            if (i == track || other.ended) {
+                continue;
+            }
+            if (other.timeUs == Long.MIN_VALUE || time - (other.timeUs + other.offsetUs) > MAX_TRACK_WRITE_AHEAD_US) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void hold(Track track, ByteBuffer data, SampleInfo info) {
+        Sample sample = mSamplePool.pollFirst();
+        if (sample == null) {
+            sample = new Sample();
+        }
+        int size = data.remaining();
+        if (sample.data == null || sample.data.capacity() < size) {
+            sample.data = ByteBuffer.allocateDirect(size);
+        }
+        int position = data.position();
+        sample.data.clear();
+        sample.data.put(data);
+        sample.data.flip();
+        data.position(position);
+        sample.info.set(0, size, info.presentationTimeUs, info.flags);
+        track.held.addLast(sample);
+        mHeldSamples++;
+    }
+
+    /**
+     * Write the held samples that may be, earliest first, or all of them with force.
+     * Past MAX_HELD_SAMPLES the earliest is written anyway.
+     */
+    private void writeHeldSamples(boolean force) {
+        if (!mStarted) {
+            return;
+        }
+        while (mHeldSamples > 0) {
+            int earliest = -1;
+            long earliestTime = Long.MAX_VALUE;
+            boolean overflow = force || mHeldSamples > MAX_HELD_SAMPLES;
+            for (int i = 0; i < TRACK_COUNT; i++) {
+                Sample head = mTracks[i].held.peekFirst();
+                if (head == null || mTracks[i].index < 0) {
+                    continue;
+                }
+                long time = head.info.presentationTimeUs + mTracks[i].offsetUs;
+                if (time < earliestTime && (overflow || canWrite(i, head.info.presentationTimeUs))) {
+                    earliest = i;
+                    earliestTime = time;
+                }
+            }
+            if (earliest < 0) {
+                return;
+            }
+            Track track = mTracks[earliest];
+            Sample sample = track.held.pollFirst();
+            mHeldSamples--;
+            write(earliest, sample.data, 0, sample.info.size, earliestTime, sample.info.flags);
+            mSamplePool.addLast(sample);
+        }
+    }
+
+}
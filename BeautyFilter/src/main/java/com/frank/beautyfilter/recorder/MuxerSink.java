@@ -0,0 +1,27 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * What MuxerCoordinator writes a file through, a MediaMuxer of MPEG-4 on the device.
+ */
+public interface MuxerSink {
+
+    interface Factory {
+        MuxerSink create(File file) throws IOException;
+    }
+
+    int addTrack(MediaFormat format);
+
+    void start();
+
+    void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,30 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaCodec;
+
+/**
+ * Where a sample is in its buffer, when it is presented and its MediaCodec flags, what
+ * MediaCodec.BufferInfo tells, in a class of its own so the muxing runs off the device too.
+ */
+public final class SampleInfo {
+
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    public void set(MediaCodec.BufferInfo info) {
+        set(info.offset, info.size, info.presentationTimeUs, info.flags);
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+}
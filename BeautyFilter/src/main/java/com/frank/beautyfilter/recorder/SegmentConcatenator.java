@@ -0,0 +1,289 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The segments of a recording: files of their own next to the movie, each finished as the
+ * next one starts so that a crash loses the last one only. Finishing them and joining them
+ * into the movie runs in order on a thread of its own, off the encoders. The join is a
+ * stream copy, samples go from a MediaExtractor of each segment to the muxer of the movie
+ * as they are.
+ */
+public final class SegmentConcatenator {
+
+    private final static String TAG = SegmentConcatenator.class.getSimpleName();
+
+    private final static String SEGMENT_SUFFIX = ".seg";
+    private final static String RECOVERED_SUFFIX = ".recovered";
+    private final static int DEFAULT_MAX_SAMPLE_SIZE = 1024 * 1024;
+    // between segments whose times are unknown, about a frame
+    private final static long SEGMENT_GAP_US = 33333;
+
+    private final static ExecutorService DEFAULT_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        // idle most of the time, it keeps nothing from exiting
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile Executor sExecutor = DEFAULT_EXECUTOR;
+
+    public interface OnRecordingSavedListener {
+        /**
+         * Called on a thread of the recorder once the movie is written, or has failed to be.
+         */
+        void onRecordingSaved(File file, boolean success);
+    }
+
+    public final static class Segment {
+        public final File file;
+        // the time of the first sample of each track in the movie, Long.MIN_VALUE unknown
+        final long[] startTimeUs = {Long.MIN_VALUE, Long.MIN_VALUE};
+
+        public Segment(File file) {
+            this.file = file;
+        }
+    }
+
+    private SegmentConcatenator() {}
+
+    /**
+     * Run the finishing and joining on executor instead, in order, e.g. to hold them back in a test.
+     * @return the executor used until now
+     */
+    static Executor setExecutor(Executor executor) {
+        Executor previous = sExecutor;
+        sExecutor = executor != null ? executor : DEFAULT_EXECUTOR;
+        return previous;
+    }
+
+    public static File segmentFile(File outputFile, int index) {
+        return new File(outputFile.getParentFile(), outputFile.getName() + "." + index + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * The segments a recording into outputFile left, e.g. when the process died before
+     * joining them. recover() joins them, the last one is skipped if it was not finished.
+     */
+    public static List<Segment> findSegments(File outputFile) {
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            File file = segmentFile(outputFile, i);
+            if (!file.exists())
+                return segments;
+            segments.add(new Segment(file));
+        }
+    }
+
+    /**
+     * Move the segments a recording into outputFile left out of the way of the next one
+     * and join them in the background into a file of their own next to it, e.g.
+     * movie.recovered.mp4 for movie.mp4. They are kept if they can not be joined.
+     * @return the file they are joined into, null when there was nothing to recover
+     * @throws IOException when a segment could not be moved, the next recording would overwrite it
+     */
+    public static synchronized File recover(File outputFile, OnRecordingSavedListener listener) throws IOException {
+        List<Segment> leftovers = findSegments(outputFile);
+        if (leftovers.isEmpty())
+            return null;
+        File recoveredFile = recoveredFile(outputFile);
+        List<Segment> segments = new ArrayList<>();
+        IOException error = null;
+        for (Segment leftover : leftovers) {
+            File file = segmentFile(recoveredFile, segments.size());
+            if (!leftover.file.renameTo(file)) {
+                error = new IOException("can not move " + leftover.file + " to " + file);
+                break;
+            }
+            segments.add(new Segment(file));
+        }
+        if (!segments.isEmpty()) {
+            concatenate(segments, recoveredFile, listener);
+        }
+        if (error != null) {
+            Log.e(TAG, "recover error", error);
+            throw error;
+        }
+        return recoveredFile;
+    }
+
+    // the first of movie.recovered.mp4, movie.recovered.2.mp4... neither written nor being written
+    private static File recoveredFile(File outputFile) {
+        String name = outputFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; ; i++) {
+            File file = new File(outputFile.getParentFile(),
+                    base + RECOVERED_SUFFIX + (i > 1 ? "." + i : "") + extension);
+            if (!file.exists() && !segmentFile(file, 0).exists())
+                return file;
+        }
+    }
+
+    /**
+     * Stop and release the muxer of a segment in the background.
+     */
+    static void finish(MuxerSink muxer) {
+        sExecutor.execute(() -> {
+            try {
+                muxer.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "stop segment error", e);
+            }
+            muxer.release();
+        });
+    }
+
+    /**
+     * Join the segments into outputFile in the background, after the segments finishing,
+     * and delete them once it is written.
+     */
+    public static void concatenate(List<Segment> segments, File outputFile, OnRecordingSavedListener listener) {
+        List<Segment> copy = new ArrayList<>(segments);
+        sExecutor.execute(() -> {
+            boolean success = concatenateNow(copy, outputFile);
+            if (success) {
+                for (Segment segment : copy) {
+                    segment.file.delete();
+                }
+            }
+            if (listener != null) {
+                listener.onRecordingSaved(outputFile, success);
+            }
+        });
+    }
+
+    private static boolean concatenateNow(List<Segment> segments, File outputFile) {
+        if (segments.isEmpty())
+            return false;
+        if (segments.size() == 1) {
+            // the movie as it is, if it was finished
+            if (!isReadable(segments.get(0).file))
+                return false;
+            outputFile.delete();
+            return segments.get(0).file.renameTo(outputFile);
+        }
+        MediaMuxer muxer = null;
+        boolean started = false;
+        try {
+            muxer = new MediaMuxer(outputFile.toString(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int[] muxerTracks = {-1, -1};
+            long[] lastTimeUs = {Long.MIN_VALUE, Long.MIN_VALUE};
+            ByteBuffer buffer = null;
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long originUs = Long.MAX_VALUE;
+            for (long startUs : segments.get(0).startTimeUs) {
+                if (startUs != Long.MIN_VALUE)
+                    originUs = Math.min(originUs, startUs);
+            }
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.get(s);
+                MediaExtractor extractor = new MediaExtractor();
+                try {
+                    extractor.setDataSource(segment.file.toString());
+                } catch (IOException e) {
+                    // not finished, what the process was writing when it died
+                    Log.w(TAG, "skip segment " + segment.file, e);
+                    extractor.release();
+                    continue;
+                }
+                int trackCount = extractor.getTrackCount();
+                int[] tracks = new int[trackCount];
+                int maxSampleSize = DEFAULT_MAX_SAMPLE_SIZE;
+                for (int i = 0; i < trackCount; i++) {
+                    MediaFormat format = extractor.getTrackFormat(i);
+                    String mime = format.getString(MediaFormat.KEY_MIME);
+                    tracks[i] = mime != null && mime.startsWith("audio/")
+                            ? MuxerCoordinator.TRACK_AUDIO : MuxerCoordinator.TRACK_VIDEO;
+                    if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                        maxSampleSize = Math.max(maxSampleSize, format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+                    }
+                    if (!started && muxerTracks[tracks[i]] < 0) {
+                        muxerTracks[tracks[i]] = muxer.addTrack(format);
+                    }
+                    if (muxerTracks[tracks[i]] >= 0) {
+                        extractor.selectTrack(i);
+                    }
+                }
+                if (!started) {
+                    muxer.start();
+                    started = true;
+                }
+                if (buffer == null || buffer.capacity() < maxSampleSize) {
+                    buffer = ByteBuffer.allocateDirect(maxSampleSize);
+                }
+                // the times of each segment start at 0, they are moved to where it started in the movie
+                long[] baseUs = new long[2];
+                long[] firstUs = {Long.MIN_VALUE, Long.MIN_VALUE};
+                long endUs = Math.max(lastTimeUs[0], lastTimeUs[1]);
+                for (int t = 0; t < 2; t++) {
+                    if (segment.startTimeUs[t] != Long.MIN_VALUE && originUs != Long.MAX_VALUE) {
+                        baseUs[t] = segment.startTimeUs[t] - originUs;
+                    } else {
+                        baseUs[t] = s == 0 ? 0 : endUs + SEGMENT_GAP_US;
+                    }
+                }
+                while (true) {
+                    int index = extractor.getSampleTrackIndex();
+                    if (index < 0)
+                        break;
+                    int track = tracks[index];
+                    int size = extractor.readSampleData(buffer, 0);
+                    if (size < 0)
+                        break;
+                    long sampleTimeUs = extractor.getSampleTime();
+                    if (firstUs[track] == Long.MIN_VALUE) {
+                        firstUs[track] = sampleTimeUs;
+                    }
+                    long timeUs = Math.max(baseUs[track] + sampleTimeUs - firstUs[track], lastTimeUs[track] + 1);
+                    lastTimeUs[track] = timeUs;
+                    int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    info.set(0, size, timeUs, flags);
+                    muxer.writeSampleData(muxerTracks[track], buffer, info);
+                    extractor.advance();
+                }
+                extractor.release();
+            }
+            if (!started)
+                return false;
+            muxer.stop();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "concatenate error", e);
+            return false;
+        } finally {
+            if (muxer != null) {
+                muxer.release();
+            }
+        }
+    }
+
+    private static boolean isReadable(File file) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.toString());
+            return extractor.getTrackCount() > 0;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "unreadable segment " + file, e);
+            return false;
+        } finally {
+            extractor.release();
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.frank.beautyfilter.recorder.audio;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import com.frank.beautyfilter.recorder.MuxerCoordinator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Microphone capture encoded to AAC, the audio track of a recording. A thread of its own
+ * reads the microphone into the input of the encoder and polls its output into the muxer,
+ * which holds samples ahead of the video rather than waiting for it.
+ * The presentation times are those of System.nanoTime() when the samples were captured.
+ */
+public class AudioRecorderCore implements Runnable {
+
+    private final static String TAG = AudioRecorderCore.class.getSimpleName();
+
+    private final static String MIME_TYPE = "audio/mp4a-latm";
+    private final static int SAMPLE_RATE = 44100;
+    private final static int CHANNEL_COUNT = 1;
+    private final static int BIT_RATE = 64000;
+    // 16 bit mono, a read is an AAC frame of samples
+    private final static int BYTES_PER_SAMPLE = 2;
+    private final static int SAMPLES_PER_FRAME = 1024;
+    private final static int TIMEOUT_USEC = 10000;
+    // how far the times counted from the samples may drift from the capture times
+    private final static long MAX_DRIFT_NANOS = 20000000L;
+    private final static long STOP_TIMEOUT_MS = 2000;
+
+    private final MuxerCoordinator mMuxer;
+    private final AudioRecord mAudioRecord;
+    private final MediaCodec mAudioEncoder;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private AudioTimestamp mTimestamp;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    // touched on the audio thread only
+    private long mSamplesRead;
+    private long mBaseNanos;
+    private long mLastTimeUs;
+
+    public AudioRecorderCore(MuxerCoordinator muxer) throws IOException {
+        mMuxer = muxer;
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        // room for a few frames, the thread may be late to read while it drains the encoder
+        int bufferSize = Math.max(minBufferSize, SAMPLES_PER_FRAME * BYTES_PER_SAMPLE * 8);
+        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.CAMCORDER, SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+        if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            // no RECORD_AUDIO permission, or the microphone is taken
+            mAudioRecord.release();
+            throw new IOException("microphone unavailable");
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mTimestamp = new AudioTimestamp();
+        }
+
+        MediaFormat mediaFormat = MediaFormat.createAudioFormat(MIME_TYPE, SAMPLE_RATE, CHANNEL_COUNT);
+        mediaFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, SAMPLES_PER_FRAME * BYTES_PER_SAMPLE);
+        try {
+            mAudioEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
+            mAudioEncoder.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mAudioEncoder.start();
+        } catch (IOException | RuntimeException e) {
+            mAudioRecord.release();
+            throw e;
+        }
+    }
+
+    public void start() {
+        mRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop capturing and wait for the encoder to output the end of the stream.
+     */
+    public void stop() {
+        mRunning = false;
+        if (mThread == null) {
+            return;
+        }
+        try {
+            mThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive()) {
+            Log.w(TAG, "no end of stream after " + STOP_TIMEOUT_MS + "ms");
+        }
+        mThread = null;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        try {
+            mAudioRecord.startRecording();
+            // the arrays are deprecated from LOLLIPOP on, the buffers are asked for one by one there
+            boolean bufferArray = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
+            ByteBuffer[] inputBuffers = bufferArray ? mAudioEncoder.getInputBuffers() : null;
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    int index = mAudioEncoder.dequeueInputBuffer(TIMEOUT_USEC);
+                    if (index >= 0) {
+                        ByteBuffer input = bufferArray ? inputBuffers[index] : mAudioEncoder.getInputBuffer(index);
+                        inputDone = !mRunning;
+                        int size = 0;
+                        if (!inputDone) {
+                            input.clear();
+                            size = mAudioRecord.read(input, Math.min(input.capacity(), SAMPLES_PER_FRAME * BYTES_PER_SAMPLE));
+                            if (size < 0) {
+                                Log.e(TAG, "read error " + size);
+                                size = 0;
+                                inputDone = true;
+                            }
+                        }
+                        mAudioEncoder.queueInputBuffer(index, 0, size, presentationTimeUs(size / BYTES_PER_SAMPLE),
+                                inputDone ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                    }
+                }
+                if (drainEncoder(inputDone)) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "audio recording error", e);
+        } finally {
+            // the video goes on alone
+            mMuxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+            release();
+        }
+    }
+
+    /**
+     * Give the muxer what the encoder has output so far.
+     * @param endOfStream the end of stream is queued, wait for the encoder to output it
+     * @return true at the end of the stream
+     */
+    private boolean drainEncoder(boolean endOfStream) {
+        boolean bufferArray = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
+        ByteBuffer[] outputBuffers = bufferArray ? mAudioEncoder.getOutputBuffers() : null;
+        while (true) {
+            int encodeStatus = mAudioEncoder.dequeueOutputBuffer(mBufferInfo, endOfStream ? TIMEOUT_USEC : 0);
+            if (encodeStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return false;
+            } else if (encodeStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                if (bufferArray) {
+                    outputBuffers = mAudioEncoder.getOutputBuffers();
+                }
+            } else if (encodeStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mMuxer.addTrack(MuxerCoordinator.TRACK_AUDIO, mAudioEncoder.getOutputFormat());
+            } else if (encodeStatus < 0) {
+                Log.e(TAG, "error encodeStatus=" + encodeStatus);
+            } else {
+                ByteBuffer data = bufferArray ? outputBuffers[encodeStatus]
+                        : mAudioEncoder.getOutputBuffer(encodeStatus);
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // in the format already, given to the muxer with the track
+                    mBufferInfo.size = 0;
+                }
+                if (mBufferInfo.size != 0) {
+                    data.position(mBufferInfo.offset);
+                    data.limit(mBufferInfo.offset + mBufferInfo.size);
+                    mMuxer.writeSampleData(MuxerCoordinator.TRACK_AUDIO, data, mBufferInfo);
+                }
+                mAudioEncoder.releaseOutputBuffer(encodeStatus, false);
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The time of the first of the samples just read. It is counted from the samples read,
+     * which keeps the frames evenly spaced, and moved to the capture time when it drifts.
+     */
+    private long presentationTimeUs(int samples) {
+        long countedNanos = mBaseNanos + mSamplesRead * 1000000000L / SAMPLE_RATE;
+        long captureNanos = captureTimeNanos(samples);
+        if (mSamplesRead == 0 || Math.abs(captureNanos - countedNanos) > MAX_DRIFT_NANOS) {
+            mBaseNanos = captureNanos - mSamplesRead * 1000000000L / SAMPLE_RATE;
+            countedNanos = captureNanos;
+        }
+        mSamplesRead += samples;
+        // the encoder takes increasing times only
+        mLastTimeUs = Math.max(countedNanos / 1000, mLastTimeUs + 1);
+        return mLastTimeUs;
+    }
+
+    private long captureTimeNanos(int samples) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && mAudioRecord.getTimestamp(mTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+            return mTimestamp.nanoTime + (mSamplesRead - mTimestamp.framePosition) * 1000000000L / SAMPLE_RATE;
+        }
+        // the read returns about when its last sample is captured
+        return System.nanoTime() - samples * 1000000000L / SAMPLE_RATE;
+    }
+
+    private void release() {
+        try {
+            mAudioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "stop audio record error", e);
+        }
+        mAudioRecord.release();
+        try {
+            mAudioEncoder.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "stop audio encoder error", e);
+        }
+        mAudioEncoder.release();
+    }
+
+}
@@ -10,6 +10,8 @@ import android.opengl.EGLSurface;
 import android.util.Log;
 import android.view.Surface;
 
+import com.frank.beautyfilter.util.OpenGLUtil;
+
 /**
  * Core EGL state (display, context, config).
  * <p>
@@ -102,6 +104,7 @@ public final class EglCore {
 
     public void release() {
         if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
+            OpenGLUtil.onContextReleased(mEGLContext);
             EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
             EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
             EGL14.eglReleaseThread();
@@ -0,0 +1,147 @@
+package com.frank.beautyfilter.recorder.video;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.frank.beautyfilter.recorder.MuxerCoordinator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Surface input encoding with MediaCodec in asynchronous mode. The codec calls back on a
+ * thread of its own, which writes each output buffer to the muxer as soon as it is ready,
+ * so the thread feeding the input surface never polls nor waits for the encoder but at
+ * the end of the stream.
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+public class AsyncVideoRecorderCore extends MediaCodec.Callback implements VideoEncoderCore {
+
+    private final static String TAG = AsyncVideoRecorderCore.class.getSimpleName();
+
+    private final static int FRAME_RATE = 30;
+    private final static int IFRAME_INTERVAL = 5;
+    private final static String MIME_TYPE = "video/avc";
+    // how long the end of the stream may take to come out of the encoder
+    private final static long END_OF_STREAM_TIMEOUT_MS = 3000;
+
+    private final HandlerThread mCallbackThread;
+    private final Surface mInputSurface;
+    private MediaCodec mVideoEncoder;
+    private final MuxerCoordinator mMuxer;
+    private final CountDownLatch mEndOfStream = new CountDownLatch(1);
+
+    public AsyncVideoRecorderCore(int width, int height, int bitrate, MuxerCoordinator muxer) throws IOException {
+        mMuxer = muxer;
+        MediaFormat mediaFormat = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
+
+        mCallbackThread = new HandlerThread(TAG);
+        mCallbackThread.start();
+        mVideoEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        mVideoEncoder.setCallback(this, new Handler(mCallbackThread.getLooper()));
+        mVideoEncoder.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mVideoEncoder.createInputSurface();
+        mVideoEncoder.start();
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * Nothing to do for a frame, the callbacks drain the encoder. The end of the stream
+     * waits for the encoder to output the last frame.
+     */
+    @Override
+    public void drainEncoder(boolean endOfStream) {
+        if (!endOfStream) {
+            return;
+        }
+        mVideoEncoder.signalEndOfInputStream();
+        try {
+            if (!mEndOfStream.await(END_OF_STREAM_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "no end of stream after " + END_OF_STREAM_TIMEOUT_MS + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void requestKeyFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mVideoEncoder.setParameters(params);
+    }
+
+    @Override
+    public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+        // the input is the surface
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        mMuxer.addTrack(MuxerCoordinator.TRACK_VIDEO, format);
+    }
+
+    @Override
+    public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+        ByteBuffer data = codec.getOutputBuffer(index);
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // in the format already, given to the muxer with the track
+            info.size = 0;
+        }
+        if (info.size != 0 && data != null) {
+            data.position(info.offset);
+            data.limit(info.offset + info.size);
+            mMuxer.writeSampleData(MuxerCoordinator.TRACK_VIDEO, data, info);
+        }
+        codec.releaseOutputBuffer(index, false);
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mMuxer.endTrack(MuxerCoordinator.TRACK_VIDEO);
+            mEndOfStream.countDown();
+        }
+    }
+
+    @Override
+    public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+        Log.e(TAG, "encoder error", e);
+        // nothing more will come out
+        mMuxer.endTrack(MuxerCoordinator.TRACK_VIDEO);
+        mEndOfStream.countDown();
+    }
+
+    @Override
+    public void release() {
+        if (mVideoEncoder != null) {
+            mVideoEncoder.stop();
+            mVideoEncoder.release();
+            mVideoEncoder = null;
+        }
+        // let a callback that was running finish before the muxer goes
+        mCallbackThread.quitSafely();
+        try {
+            mCallbackThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -1,31 +1,41 @@
 package com.frank.beautyfilter.recorder.video;
 
-import android.graphics.SurfaceTexture;
 import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.frank.beautyfilter.filter.base.BeautyCameraFilter;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
-import com.frank.beautyfilter.filter.factory.BeautyFilterFactory;
-import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.recorder.MuxerCoordinator;
+import com.frank.beautyfilter.recorder.SegmentConcatenator;
+import com.frank.beautyfilter.recorder.audio.AudioRecorderCore;
 import com.frank.beautyfilter.recorder.gles.EglCore;
+import com.frank.beautyfilter.util.FrameAllocationTracker;
+import com.frank.beautyfilter.util.FrameBufferPool;
+import com.frank.beautyfilter.util.FrameProfiler;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
 
 /**
- * Encode a movie from frames rendered from an external texture image.
+ * Encode a movie from frames the view has already rendered.
  * <p>
  * The object wraps an encoder running on a dedicated thread.  The various control messages
  * may be sent from arbitrary threads (typically the app UI thread).  The encoder thread
- * manages both sides of the encoder (feeding and draining); the only external input is
- * the GL texture.
+ * feeds the encoder, and drains it too where MediaCodec has no callbacks, from M on its
+ * output is written by the callback thread of AsyncVideoRecorderCore; the only external input is
+ * the pooled frame buffer each frame was rendered into, which the encoder thread copies
+ * to the input surface of the encoder once a fence says the rendering is done. The sound,
+ * if the microphone is there, is recorded by AudioRecorderCore on a thread of its own and
+ * both tracks go to a MuxerCoordinator, which may write them in segments joined at the end.
+ * A paused recording keeps its thread and EGL context, it only stops taking frames.
  * <p>
  * The design is complicated slightly by the need to create an EGL context that shares state
  * with a view that gets restarted if (say) the device orientation changes.  When the view
@@ -37,9 +47,10 @@ import java.nio.FloatBuffer;
  * <li>create TextureMovieEncoder object
  * <li>create an EncoderConfig
  * <li>call TextureMovieEncoder#startRecording() with the config
- * <li>call TextureMovieEncoder#setTextureId() with the texture object that receives frames
- * <li>for each frame, after latching it with SurfaceTexture#updateTexImage(),
- *     call TextureMovieEncoder#frameAvailable().
+ * <li>for each frame, render it into a buffer of FrameBufferPool and call
+ *     TextureMovieEncoder#frameAvailable() with it
+ * <li>call TextureMovieEncoder#recycleFrames() every frame on the same thread, it gives
+ *     the buffers the encoder thread is done with back to the pool
  * </ul>
  */
 public class TextureVideoRecorder implements Runnable {
@@ -49,50 +60,138 @@ public class TextureVideoRecorder implements Runnable {
     private final static int MSG_START_RECORDING       = 0;
     private final static int MSG_STOP_RECORDING        = 1;
     private final static int MSG_FRAME_AVAILABLE       = 2;
-    private final static int MSG_SET_TEXTURE_ID        = 3;
-    private final static int MSG_UPDATE_SHARED_CONTEXT = 4;
-    private final static int MSG_QUIT_RECORDING        = 5;
+    private final static int MSG_UPDATE_SHARED_CONTEXT = 3;
+    private final static int MSG_QUIT_RECORDING        = 4;
+    private final static int MSG_PAUSE_RECORDING       = 5;
+    private final static int MSG_RESUME_RECORDING      = 6;
+
+    // what frameAvailable() does when the encoder thread has maxQueuedFrames to draw already
+    public final static int DROP_NEWEST = 0;
+    public final static int DROP_OLDEST = 1;
+    public final static int BLOCK = 2;
+    public final static int DEFAULT_MAX_QUEUED_FRAMES = 3;
+    // how long BLOCK waits for room, the frame is dropped after it
+    private final static long BLOCK_TIMEOUT_NANOS = 100000000L;
 
-    private int mTextureId;
     private EglCore mEglCore;
-    private BeautyCameraFilter mInput;
+    private GPUImageFilter mCopyFilter;
     private WindowEglSurface mWindowSurface;
-    private VideoRecorderCore mVideoRecorder;
+    private VideoEncoderCore mVideoRecorder;
+    private MuxerCoordinator mMuxer;
+    private AudioRecorderCore mAudioRecorder;
+    private boolean mAudioClockAligned;
+    private volatile boolean mPaused;
+    private volatile SegmentConcatenator.OnRecordingSavedListener mSavedListener;
 
     // access by multiple threads
     private volatile RecorderHandler mHandler;
 
     private boolean mReady;
     private boolean mRunning;
-    private GPUImageFilter mFilter;
-    private FloatBuffer glVertexBuffer;
-    private FloatBuffer glTextureBuffer;
 
     // guard ready/running
     private final Object mReadyFence = new Object();
 
-    private int mPreviewWidth = -1;
-    private int mPreviewHeight = -1;
     private int mVideoWidth = -1;
     private int mVideoHeight = -1;
 
-    private BeautyFilterType type = BeautyFilterType.NONE;
+    // frames handed to the recorder thread come back here once drawn, so that a steady
+    // recording allocates nothing per frame, all guarded by the pool
+    private final ArrayDeque<Frame> mFramePool = new ArrayDeque<>();
+    // handed over and not taken by the encoder thread yet, oldest first
+    private final ArrayDeque<Frame> mQueuedFrames = new ArrayDeque<>();
+    private final ArrayDeque<Frame> mDrawnFrames = new ArrayDeque<>();
+    private int mDropPolicy = DROP_NEWEST;
+    private int mMaxQueuedFrames = DEFAULT_MAX_QUEUED_FRAMES;
+    private long mLastTimestamp;
+    private long mSubmittedFrames;
+    private long mEncodedFrames;
+    private long mDroppedFrames;
+    private long mQueueLatencySum;
+    private long mMaxQueueLatency;
+
+    private final FrameAllocationTracker mAllocationTracker = new FrameAllocationTracker(TAG);
+    private final FrameProfiler mProfiler = new FrameProfiler("recorder");
+
+    private static class Frame {
+        FrameBufferPool.FrameBuffer buffer;
+        long timestamp;
+        long queuedNanos;
+        // taken off the queue by DROP_OLDEST, the encoder thread only hands it back
+        boolean dropped;
+        // signalled once the view has rendered the buffer, and once the encoder thread has read it
+        long renderedFence;
+        long drawnFence;
+    }
 
     public TextureVideoRecorder() {}
 
+    /**
+     * The counters of the current, or last, recording.
+     */
+    public final static class Stats {
+        // frames given to frameAvailable(), each of them is encoded, dropped or still queued
+        public final long submittedFrames;
+        public final long encodedFrames;
+        public final long droppedFrames;
+        public final int queuedFrames;
+        // from frameAvailable() to the encoder thread drawing the frame
+        public final long meanQueueLatencyNanos;
+        public final long maxQueueLatencyNanos;
+
+        private Stats(long submittedFrames, long encodedFrames, long droppedFrames, int queuedFrames,
+                      long meanQueueLatencyNanos, long maxQueueLatencyNanos) {
+            this.submittedFrames = submittedFrames;
+            this.encodedFrames = encodedFrames;
+            this.droppedFrames = droppedFrames;
+            this.queuedFrames = queuedFrames;
+            this.meanQueueLatencyNanos = meanQueueLatencyNanos;
+            this.maxQueueLatencyNanos = maxQueueLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "submitted=" + submittedFrames + " encoded=" + encodedFrames
+                    + " dropped=" + droppedFrames + " queued=" + queuedFrames
+                    + " latency=" + meanQueueLatencyNanos / 1000 + "us max=" + maxQueueLatencyNanos / 1000 + "us";
+        }
+    }
+
     public static class RecorderConfig {
         final int mWidth;
         final int mHeight;
         final int mBitrate;
         final File mOutputFile;
         final EGLContext mEglContext;
+        final boolean mRecordAudio;
+        long mSegmentDurationMs;
+        long mSegmentBytes;
 
         public RecorderConfig(int width, int height, int bitrate, File outputFile, EGLContext eglContext) {
+            this(width, height, bitrate, outputFile, eglContext, true);
+        }
+
+        /**
+         * @param recordAudio record the microphone too, the movie is silent without the permission
+         */
+        public RecorderConfig(int width, int height, int bitrate, File outputFile, EGLContext eglContext,
+                              boolean recordAudio) {
             this.mWidth = width;
             this.mHeight = height;
             this.mBitrate = bitrate;
             this.mOutputFile = outputFile;
             this.mEglContext = eglContext;
+            this.mRecordAudio = recordAudio;
+        }
+
+        /**
+         * Record in segments, each finished as the next starts at the first key frame past
+         * either limit, so that a crash loses the last one only. 0 is no limit, both 0 no
+         * segments. They are joined into the output file once the recording stops.
+         */
+        public void setSegmentLimits(long durationMs, long bytes) {
+            this.mSegmentDurationMs = durationMs;
+            this.mSegmentBytes = bytes;
         }
 
     }
@@ -103,6 +202,15 @@ public class TextureVideoRecorder implements Runnable {
                 return;
             }
             mRunning = true;
+            mPaused = false;
+            synchronized (mFramePool) {
+                mLastTimestamp = 0;
+                mSubmittedFrames = 0;
+                mEncodedFrames = 0;
+                mDroppedFrames = 0;
+                mQueueLatencySum = 0;
+                mMaxQueueLatency = 0;
+            }
             new Thread(this, TAG).start();
             while (!mReady) {
                 try {
@@ -120,6 +228,38 @@ public class TextureVideoRecorder implements Runnable {
         mHandler.sendMessage(mHandler.obtainMessage(MSG_QUIT_RECORDING));
     }
 
+    /**
+     * Stop taking frames and sound until resumeRecording(), the movie goes on without a gap.
+     */
+    public void pauseRecording() {
+        synchronized (mReadyFence) {
+            if (!mReady)
+                return;
+            mPaused = true;
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_PAUSE_RECORDING));
+        }
+    }
+
+    public void resumeRecording() {
+        synchronized (mReadyFence) {
+            if (!mReady)
+                return;
+            mPaused = false;
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_RESUME_RECORDING));
+        }
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Told on a thread of the recorder once the movie of a recording is written.
+     */
+    public void setOnRecordingSavedListener(SegmentConcatenator.OnRecordingSavedListener listener) {
+        mSavedListener = listener;
+    }
+
     public boolean isRecording() {
         synchronized (mReadyFence) {
             return mRunning;
@@ -130,26 +270,120 @@ public class TextureVideoRecorder implements Runnable {
         mHandler.sendMessage(mHandler.obtainMessage(MSG_UPDATE_SHARED_CONTEXT, eglContext));
     }
 
-    public void frameAvailable(SurfaceTexture surfaceTexture) {
-        synchronized (mReadyFence) {
-            if (!mReady)
-                return;
+    /**
+     * What frameAvailable() does when maxQueuedFrames wait for the encoder thread already:
+     * drop the new frame, drop the oldest waiting one, or wait for room.
+     */
+    public void setDropPolicy(int policy, int maxQueuedFrames) {
+        synchronized (mFramePool) {
+            mDropPolicy = policy;
+            mMaxQueuedFrames = Math.max(1, maxQueuedFrames);
         }
-        float[] transform = new float[16];
-        surfaceTexture.getTransformMatrix(transform);
-        long timestamp = surfaceTexture.getTimestamp();
-        if (timestamp == 0) {
-            return;
+    }
+
+    public Stats getStats() {
+        synchronized (mFramePool) {
+            return new Stats(mSubmittedFrames, mEncodedFrames, mDroppedFrames, mQueuedFrames.size(),
+                    mEncodedFrames > 0 ? mQueueLatencySum / mEncodedFrames : 0, mMaxQueueLatency);
         }
-        mHandler.sendMessage(mHandler.obtainMessage(MSG_FRAME_AVAILABLE, (int) (timestamp >> 32), (int) timestamp, transform));
     }
 
-    public void setTextureId(int id) {
+    /**
+     * Record the frame just rendered into buffer, on the thread of the context it was
+     * rendered in, which shares its textures with the recorder. The buffer is retained
+     * until the encoder thread has copied it.
+     * @return false when the frame is not recorded: not recording, no room for it or a
+     * timestamp that does not follow the previous one
+     */
+    public boolean frameAvailable(FrameBufferPool.FrameBuffer buffer, long timestamp) {
         synchronized (mReadyFence) {
             if (!mReady)
+                return false;
+        }
+        if (timestamp == 0 || mPaused) {
+            return false;
+        }
+        Frame frame;
+        synchronized (mFramePool) {
+            mSubmittedFrames++;
+            // the encoder takes increasing presentation times only
+            if (timestamp <= mLastTimestamp || !makeRoom()) {
+                mDroppedFrames++;
+                return false;
+            }
+            mLastTimestamp = timestamp;
+            frame = mFramePool.pollFirst();
+            if (frame == null) {
+                frame = new Frame();
+            }
+            frame.dropped = false;
+            frame.queuedNanos = System.nanoTime();
+            mQueuedFrames.addLast(frame);
+        }
+        frame.buffer = FrameBufferPool.retain(buffer);
+        frame.timestamp = timestamp;
+        frame.renderedFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // the fence has to reach the GPU before the encoder thread waits for it
+        GLES30.glFlush();
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_FRAME_AVAILABLE, frame));
+        return true;
+    }
+
+    /**
+     * Give the buffers the encoder thread is done with back to the pool, on the thread
+     * frameAvailable() is called on. Writes to them wait for the copies of the encoder thread.
+     */
+    public void recycleFrames() {
+        while (true) {
+            Frame frame;
+            synchronized (mFramePool) {
+                frame = mDrawnFrames.pollFirst();
+            }
+            if (frame == null) {
                 return;
+            }
+            if (frame.drawnFence != 0) {
+                GLES30.glWaitSync(frame.drawnFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+                GLES30.glDeleteSync(frame.drawnFence);
+                frame.drawnFence = 0;
+            }
+            FrameBufferPool.release(frame.buffer);
+            frame.buffer = null;
+            synchronized (mFramePool) {
+                mFramePool.addLast(frame);
+            }
         }
-        mHandler.sendMessage(mHandler.obtainMessage(MSG_SET_TEXTURE_ID, id, 0, null));
+    }
+
+    /**
+     * Apply the drop policy until a frame fits in the queue, the pool is locked.
+     * @return false when the new frame has to be dropped
+     */
+    private boolean makeRoom() {
+        long deadline = 0;
+        while (mQueuedFrames.size() >= mMaxQueuedFrames) {
+            if (mDropPolicy == DROP_OLDEST) {
+                Frame oldest = mQueuedFrames.pollFirst();
+                oldest.dropped = true;
+                mDroppedFrames++;
+            } else if (mDropPolicy == BLOCK) {
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + BLOCK_TIMEOUT_NANOS;
+                } else if (now >= deadline) {
+                    return false;
+                }
+                try {
+                    mFramePool.wait((deadline - now) / 1000000 + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -191,16 +425,17 @@ public class TextureVideoRecorder implements Runnable {
                     recorder.handlerStopRecording();
                     break;
                 case MSG_FRAME_AVAILABLE:
-                    long timestamp = (((long) msg.arg1) << 32) |
-                            (((long) msg.arg2) & 0xffffffffL);
-                    recorder.handleFrameAvailable((float[]) obj, timestamp);
-                    break;
-                case MSG_SET_TEXTURE_ID:
-                    recorder.handleSetTexture(msg.arg1);
+                    recorder.handleFrameAvailable((Frame) obj);
                     break;
                 case MSG_UPDATE_SHARED_CONTEXT:
                     recorder.handleUpdateSharedContext((EGLContext)obj);
                     break;
+                case MSG_PAUSE_RECORDING:
+                    recorder.handlePauseRecording(true);
+                    break;
+                case MSG_RESUME_RECORDING:
+                    recorder.handlePauseRecording(false);
+                    break;
                 case MSG_QUIT_RECORDING:
                     Looper.myLooper().quit();
                     break;
@@ -216,106 +451,159 @@ public class TextureVideoRecorder implements Runnable {
                 config.mWidth,
                 config.mHeight,
                 config.mBitrate,
-                config.mOutputFile);
+                config.mOutputFile,
+                config.mRecordAudio,
+                config.mSegmentDurationMs,
+                config.mSegmentBytes);
+    }
+
+    private void handlePauseRecording(boolean pause) {
+        // the recording may have stopped meanwhile
+        if (mMuxer == null) {
+            return;
+        }
+        if (pause) {
+            mMuxer.pause();
+        } else {
+            mMuxer.resume();
+        }
     }
 
     private void handlerStopRecording() {
+        if (mAudioRecorder != null) {
+            mAudioRecorder.stop();
+            mAudioRecorder = null;
+        }
         mVideoRecorder.drainEncoder(true);
         releaseRecorder();
     }
 
-    private void handleFrameAvailable(float[] transform, long timestamp) {
-        mVideoRecorder.drainEncoder(false);
-        mInput.setTextureTransformMatrix(transform);
-        if (mFilter == null) {
-            mInput.onDrawFrame(mTextureId, glVertexBuffer, glTextureBuffer);
-        } else {
-            mFilter.onDrawFrame(mTextureId, glVertexBuffer, glTextureBuffer);
+    /**
+     * Copy the frame the view rendered to the encoder, the view has already run the filters.
+     */
+    private void handleFrameAvailable(Frame frame) {
+        boolean dropped;
+        synchronized (mFramePool) {
+            dropped = frame.dropped;
+            if (!dropped) {
+                // frames are queued and handled in the same order, dropped ones leave the queue
+                mQueuedFrames.pollFirst();
+                long latency = System.nanoTime() - frame.queuedNanos;
+                mQueueLatencySum += latency;
+                mMaxQueueLatency = Math.max(mMaxQueueLatency, latency);
+                mFramePool.notifyAll();
+            }
+        }
+        if (dropped) {
+            GLES30.glDeleteSync(frame.renderedFence);
+            frame.renderedFence = 0;
+            synchronized (mFramePool) {
+                mDrawnFrames.addLast(frame);
+            }
+            return;
+        }
+        if (!mAudioClockAligned) {
+            mMuxer.alignAudioClock(frame.timestamp, frame.queuedNanos);
+            mAudioClockAligned = true;
         }
-        mWindowSurface.setPresentationTime(timestamp);
+        if (mMuxer.takeKeyFrameRequest()) {
+            mVideoRecorder.requestKeyFrame();
+        }
+        mAllocationTracker.beginFrame();
+        mProfiler.beginFrame();
+        mVideoRecorder.drainEncoder(false);
+        GLES30.glWaitSync(frame.renderedFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+        GLES30.glDeleteSync(frame.renderedFence);
+        frame.renderedFence = 0;
+        mProfiler.beginPass("encode");
+        mCopyFilter.onDrawFrame(frame.buffer.textureId);
+        mProfiler.endPass();
+        frame.drawnFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mWindowSurface.setPresentationTime(frame.timestamp);
         mWindowSurface.swapBuffers();
-    }
-
-    private void handleSetTexture(int id) {
-        mTextureId = id;
+        synchronized (mFramePool) {
+            mEncodedFrames++;
+            mDrawnFrames.addLast(frame);
+        }
+        mProfiler.endFrame();
+        mAllocationTracker.endFrame();
     }
 
     private void handleUpdateSharedContext(EGLContext eglContext) {
         mWindowSurface.releaseEglSurface();
-        mInput.destroy();
+        mCopyFilter.destroy();
+        mProfiler.release();
         mEglCore.release();
 
-        mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE);
+        mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
         mWindowSurface.recreate(mEglCore);
         mWindowSurface.makeCurrent();
-
-        mInput = new BeautyCameraFilter();
-        mInput.init();
-        mFilter = BeautyFilterFactory.getFilter(type);
-        if (mFilter != null) {
-            mFilter.init();
-            mFilter.onOutputSizeChanged(mVideoWidth, mVideoHeight);
-            mFilter.onInputSizeChanged(mPreviewWidth, mPreviewHeight);
-        }
+        mCopyFilter.init();
+        GLES30.glViewport(0, 0, mVideoWidth, mVideoHeight);
+        mAllocationTracker.reset();
     }
 
-    private void prepareRecorder(EGLContext eglContext, int width, int height, int bitrate, File file) {
+    private void prepareRecorder(EGLContext eglContext, int width, int height, int bitrate, File file,
+                                 boolean recordAudio, long segmentDurationMs, long segmentBytes) {
         try {
-            mVideoRecorder = new VideoRecorderCore(width, height, bitrate, file);
+            mMuxer = new MuxerCoordinator(file, segmentDurationMs * 1000, segmentBytes, mSavedListener);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mVideoRecorder = new AsyncVideoRecorderCore(width, height, bitrate, mMuxer);
+            } else {
+                mVideoRecorder = new VideoRecorderCore(width, height, bitrate, mMuxer);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        mAudioClockAligned = false;
+        if (recordAudio) {
+            try {
+                mAudioRecorder = new AudioRecorderCore(mMuxer);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "recording without sound", e);
+            }
+        }
+        if (mAudioRecorder != null) {
+            mAudioRecorder.start();
+        } else {
+            mMuxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        }
         mVideoWidth = width;
         mVideoHeight = height;
-        mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE);
+        mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
         mWindowSurface = new WindowEglSurface(mEglCore, mVideoRecorder.getInputSurface(), true);
         mWindowSurface.makeCurrent();
 
-        mInput = new BeautyCameraFilter();
-        mInput.init();
-        mFilter = BeautyFilterFactory.getFilter(type);
-        if (mFilter != null) {
-            mFilter.init();
-            mFilter.onOutputSizeChanged(mVideoWidth, mVideoHeight);
-            mFilter.onInputSizeChanged(mPreviewWidth, mPreviewHeight);
-        }
+        mCopyFilter = new GPUImageFilter();
+        mCopyFilter.init();
+        GLES30.glViewport(0, 0, mVideoWidth, mVideoHeight);
+        mAllocationTracker.reset();
     }
 
     private void releaseRecorder() {
         mVideoRecorder.release();
+        mMuxer.release();
+        mMuxer = null;
         if (mWindowSurface != null) {
             mWindowSurface.release();
             mWindowSurface = null;
         }
-        if (mInput != null) {
-            mInput.destroy();
-            mInput = null;
-        }
-        if (mFilter != null) {
-            mFilter.destroy();
-            mFilter = null;
-            type = BeautyFilterType.NONE;
+        if (mCopyFilter != null) {
+            mCopyFilter.destroy();
+            mCopyFilter = null;
         }
+        mProfiler.release();
         if (mEglCore != null) {
             mEglCore.release();
             mEglCore = null;
         }
     }
-    public void setFilter(BeautyFilterType type) {
-        this.type = type;
-    }
-
-    public void setPreviewSize(int width, int height){
-        mPreviewWidth = width;
-        mPreviewHeight = height;
-    }
-
-    public void setTextureBuffer(FloatBuffer glTextureBuffer) {
-        this.glTextureBuffer = glTextureBuffer;
-    }
 
-    public void setVertexBuffer(FloatBuffer gLVertexBuffer) {
-        this.glVertexBuffer = gLVertexBuffer;
+    /**
+     * Profile the draws of the recorder thread, null stops it.
+     */
+    public void setFrameStatsListener(FrameProfiler.OnFrameStatsListener listener) {
+        mProfiler.setListener(listener);
     }
 
 }
@@ -0,0 +1,26 @@
+package com.frank.beautyfilter.recorder.video;
+
+import android.view.Surface;
+
+/**
+ * A surface input video encoder writing to a muxer. Frames are fed to the input surface
+ * with their presentation time stamp, drainEncoder() is called before each swapBuffers()
+ * and with endOfStream once the last frame is in.
+ */
+public interface VideoEncoderCore {
+
+    Surface getInputSurface();
+
+    /**
+     * Write what the encoder has output so far to the muxer.
+     * @param endOfStream no frame follows: wait for the encoder to output all of them
+     */
+    void drainEncoder(boolean endOfStream);
+
+    /**
+     * Ask for the next frame to be a key frame, to start a segment or after a pause.
+     */
+    void requestKeyFrame();
+
+    void release();
+}
@@ -3,11 +3,13 @@ package com.frank.beautyfilter.recorder.video;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
 import android.view.Surface;
 
-import java.io.File;
+import com.frank.beautyfilter.recorder.MuxerCoordinator;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -20,8 +22,10 @@ import java.nio.ByteBuffer;
  * <p>
  * This class is not thread-safe, with one exception: it is valid to use the input surface
  * on one thread, and drain the output on a different thread.
+ * <p>
+ * It polls the encoder, {@link AsyncVideoRecorderCore} is used where callbacks exist.
  */
-public class VideoRecorderCore {
+public class VideoRecorderCore implements VideoEncoderCore {
 
     private final static String TAG = VideoRecorderCore.class.getSimpleName();
 
@@ -30,14 +34,13 @@ public class VideoRecorderCore {
     private final static String MIME_TYPE = "video/avc";
     private final static int TIMEOUT_USEC = 10000;
 
-    private int mTrackIndex;
-    private boolean mMuxerStarted;
     private final Surface mInputSurface;
-    private MediaMuxer mMediaMuxer;
+    private final MuxerCoordinator mMuxer;
     private MediaCodec mVideoEncoder;
     private final MediaCodec.BufferInfo mBufferInfo;
 
-    public VideoRecorderCore(int width, int height, int bitrate, File outputFile) throws IOException {
+    public VideoRecorderCore(int width, int height, int bitrate, MuxerCoordinator muxer) throws IOException {
+        mMuxer = muxer;
         mBufferInfo = new MediaCodec.BufferInfo();
         MediaFormat mediaFormat = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
         mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
@@ -49,22 +52,22 @@ public class VideoRecorderCore {
         mVideoEncoder.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mInputSurface = mVideoEncoder.createInputSurface();
         mVideoEncoder.start();
-
-        mMediaMuxer = new MediaMuxer(outputFile.toString(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        mTrackIndex = -1;
-        mMuxerStarted = false;
     }
 
+    @Override
     public Surface getInputSurface() {
         return mInputSurface;
     }
 
+    @Override
     public void drainEncoder(boolean endOfStream) {
         if (endOfStream) {
             mVideoEncoder.signalEndOfInputStream();
         }
 
-        ByteBuffer[] outputBuffers = mVideoEncoder.getOutputBuffers();
+        // the array is deprecated from LOLLIPOP on, the buffers are asked for one by one there
+        boolean bufferArray = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
+        ByteBuffer[] outputBuffers = bufferArray ? mVideoEncoder.getOutputBuffers() : null;
         while (true) {
             int encodeStatus = mVideoEncoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
             if (encodeStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
@@ -72,50 +75,52 @@ public class VideoRecorderCore {
                     break;
                 }
             } else if (encodeStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                outputBuffers = mVideoEncoder.getOutputBuffers();
-            } else if (encodeStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                if (mMuxerStarted) {
-                    throw new RuntimeException("format has changed!");
+                if (bufferArray) {
+                    outputBuffers = mVideoEncoder.getOutputBuffers();
                 }
+            } else if (encodeStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 MediaFormat newFormat = mVideoEncoder.getOutputFormat();
-                mTrackIndex = mMediaMuxer.addTrack(newFormat);
-                mMediaMuxer.start();
-                mMuxerStarted = true;
+                mMuxer.addTrack(MuxerCoordinator.TRACK_VIDEO, newFormat);
             } else if (encodeStatus < 0) {
                 Log.e(TAG, "error encodeStatus=" + encodeStatus);
             } else {
-                ByteBuffer data = outputBuffers[encodeStatus];
+                ByteBuffer data = bufferArray ? outputBuffers[encodeStatus]
+                        : mVideoEncoder.getOutputBuffer(encodeStatus);
                 if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
                     mBufferInfo.size = 0;
                 }
                 if (mBufferInfo.size != 0) {
-                    if (!mMuxerStarted) {
-                        throw new RuntimeException("muxer hasn't started");
-                    }
                     data.position(mBufferInfo.offset);
                     data.limit(mBufferInfo.offset + mBufferInfo.size);
-                    mMediaMuxer.writeSampleData(mTrackIndex, data, mBufferInfo);
+                    mMuxer.writeSampleData(MuxerCoordinator.TRACK_VIDEO, data, mBufferInfo);
                 }
                 mVideoEncoder.releaseOutputBuffer(encodeStatus, false);
                 // end of stream
                 if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    mMuxer.endTrack(MuxerCoordinator.TRACK_VIDEO);
                     break;
                 }
             }
         }
     }
 
+    @Override
+    public void requestKeyFrame() {
+        // before KITKAT the encoder makes them at its interval only
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            mVideoEncoder.setParameters(params);
+        }
+    }
+
+    @Override
     public void release() {
         if (mVideoEncoder != null) {
             mVideoEncoder.stop();
             mVideoEncoder.release();
             mVideoEncoder = null;
         }
-        if (mMediaMuxer != null) {
-            mMediaMuxer.stop();
-            mMediaMuxer.release();
-            mMediaMuxer = null;
-        }
     }
 
 }
@@ -0,0 +1,80 @@
+package com.frank.beautyfilter.util;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Debug check that a render loop allocates nothing once it runs steadily: the objects the
+ * calling thread allocates between beginFrame() and endFrame() are counted, and a frame
+ * that allocated after the warm-up is reported, or fails the assertion in strict mode.
+ * Disabled it costs a volatile read per call.
+ */
+public final class FrameAllocationTracker {
+
+    private final static String TAG = FrameAllocationTracker.class.getSimpleName();
+
+    // frames after a reset that may still allocate, e.g. the first draw of a filter
+    private final static int WARM_UP_FRAMES = 30;
+
+    private static volatile boolean sEnabled;
+    private static volatile boolean sStrict;
+
+    private final String mName;
+    private int mFrames;
+    private int mStartCount;
+    private long mAllocatingFrames;
+
+    public FrameAllocationTracker(String name) {
+        mName = name;
+    }
+
+    /**
+     * Start, or stop, counting the allocations of the tracked loops, e.g. in a debug build.
+     * @param strict throw an AssertionError for a frame that allocated instead of logging it
+     */
+    public static void setEnabled(boolean enabled, boolean strict) {
+        sStrict = strict;
+        if (enabled == sEnabled)
+            return;
+        if (enabled) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        sEnabled = enabled;
+    }
+
+    /**
+     * The loop is set up again, the next frames are part of the warm-up.
+     */
+    public void reset() {
+        mFrames = 0;
+    }
+
+    public void beginFrame() {
+        if (!sEnabled)
+            return;
+        mStartCount = Debug.getThreadAllocCount();
+    }
+
+    public void endFrame() {
+        if (!sEnabled)
+            return;
+        int allocations = Debug.getThreadAllocCount() - mStartCount;
+        if (++mFrames <= WARM_UP_FRAMES || allocations <= 0)
+            return;
+        mAllocatingFrames++;
+        String message = mName + ": " + allocations + " allocations in frame " + mFrames;
+        if (sStrict)
+            throw new AssertionError(message);
+        Log.w(TAG, message);
+    }
+
+    /**
+     * Frames past the warm-up that allocated.
+     */
+    public long getAllocatingFrames() {
+        return mAllocatingFrames;
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.frank.beautyfilter.util;
+
+import android.content.ComponentCallbacks2;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Frame buffers with a texture attached, shared by the filters and the capture paths of a
+ * context. A released frame buffer is kept for the next request of the same size and format,
+ * the kept ones are deleted, least recently released first, once the resident bytes of the
+ * context exceed the budget. Calls are made on the thread the context is current on, and
+ * a request or release that finds a kept buffer allocates nothing, as it happens every frame.
+ */
+public final class FrameBufferPool {
+
+    public final static long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    public final static class FrameBuffer {
+        public final int width;
+        public final int height;
+        public final int internalFormat;
+        public final int frameBufferId;
+        public final int textureId;
+        private final int format;
+        private final int type;
+        private final long bytes;
+        private int references;
+        private ContextBuffers owner;
+
+        private FrameBuffer(int width, int height, int internalFormat, int format, int type,
+                            int frameBufferId, int textureId) {
+            this.width = width;
+            this.height = height;
+            this.internalFormat = internalFormat;
+            this.format = format;
+            this.type = type;
+            this.frameBufferId = frameBufferId;
+            this.textureId = textureId;
+            this.bytes = (long) width * height * bytesPerPixel(internalFormat);
+        }
+
+        private boolean matches(int width, int height, int internalFormat, int format, int type) {
+            return this.width == width && this.height == height
+                    && this.internalFormat == internalFormat && this.format == format && this.type == type;
+        }
+    }
+
+    public final static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long bytesResident;
+        public final long bytesInUse;
+
+        private Stats(long hits, long misses, long bytesResident, long bytesInUse) {
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesResident = bytesResident;
+            this.bytesInUse = bytesInUse;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses
+                    + " resident=" + bytesResident + " inUse=" + bytesInUse;
+        }
+    }
+
+    private static class ContextBuffers {
+        // released buffers, the first one was released the longest ago
+        private final ArrayList<FrameBuffer> free = new ArrayList<>();
+        private long bytesResident;
+        private long bytesInUse;
+    }
+
+    private final static Map<EGLContext, ContextBuffers> CONTEXTS = new HashMap<>();
+
+    private static long sBudget = DEFAULT_BUDGET;
+    private static long sHits;
+    private static long sMisses;
+    // the names of a buffer being deleted, guarded by CONTEXTS
+    private final static int[] sNames = new int[1];
+
+    private FrameBufferPool() {
+    }
+
+    /**
+     * A RGBA8 frame buffer of width x height, its content is undefined.
+     */
+    public static FrameBuffer obtain(int width, int height) {
+        return obtain(width, height, GLES30.GL_RGBA, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE);
+    }
+
+    /**
+     * A frame buffer whose texture has these parameters of glTexImage2D, referenced once.
+     * Pair it with {@link #release(FrameBuffer)}.
+     */
+    public static FrameBuffer obtain(int width, int height, int internalFormat, int format, int type) {
+        ContextBuffers buffers;
+        synchronized (CONTEXTS) {
+            buffers = currentBuffers();
+            // the most recently released first
+            for (int i = buffers.free.size() - 1; i >= 0; i--) {
+                FrameBuffer buffer = buffers.free.get(i);
+                if (buffer.matches(width, height, internalFormat, format, type)) {
+                    buffers.free.remove(i);
+                    buffer.references = 1;
+                    buffers.bytesInUse += buffer.bytes;
+                    sHits++;
+                    return buffer;
+                }
+            }
+            sMisses++;
+        }
+        FrameBuffer buffer = create(width, height, internalFormat, format, type);
+        synchronized (CONTEXTS) {
+            buffer.owner = buffers;
+            buffer.references = 1;
+            buffers.bytesResident += buffer.bytes;
+            buffers.bytesInUse += buffer.bytes;
+            trimToSize(buffers, sBudget);
+        }
+        return buffer;
+    }
+
+    /**
+     * One more owner of buffer, each owner releases it once.
+     */
+    public static FrameBuffer retain(FrameBuffer buffer) {
+        synchronized (CONTEXTS) {
+            buffer.references++;
+            return buffer;
+        }
+    }
+
+    /**
+     * Drop a reference, the last one hands the buffer back to the pool of the current context.
+     */
+    public static void release(FrameBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (CONTEXTS) {
+            if (buffer.references <= 0 || --buffer.references > 0) {
+                return;
+            }
+            ContextBuffers buffers = buffer.owner;
+            buffers.bytesInUse -= buffer.bytes;
+            if (CONTEXTS.get(EGL14.eglGetCurrentContext()) != buffers) {
+                // its context is gone, and its names with it
+                return;
+            }
+            buffers.free.add(buffer);
+            trimToSize(buffers, sBudget);
+        }
+    }
+
+    /**
+     * Bytes a context may keep, in use and free ones together, before free buffers are deleted.
+     */
+    public static void setBudget(long bytes) {
+        synchronized (CONTEXTS) {
+            sBudget = bytes;
+        }
+    }
+
+    /**
+     * Give memory back as in ComponentCallbacks2#onTrimMemory, for the current context:
+     * from TRIM_MEMORY_RUNNING_LOW on every free buffer is deleted, below half of them.
+     */
+    public static void trimMemory(int level) {
+        synchronized (CONTEXTS) {
+            ContextBuffers buffers = CONTEXTS.get(EGL14.eglGetCurrentContext());
+            if (buffers == null) {
+                return;
+            }
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                trimToSize(buffers, 0);
+            } else {
+                long free = buffers.bytesResident - buffers.bytesInUse;
+                trimToSize(buffers, buffers.bytesResident - free / 2);
+            }
+        }
+    }
+
+    public static Stats getStats() {
+        synchronized (CONTEXTS) {
+            long resident = 0;
+            long inUse = 0;
+            for (ContextBuffers buffers : CONTEXTS.values()) {
+                resident += buffers.bytesResident;
+                inUse += buffers.bytesInUse;
+            }
+            return new Stats(sHits, sMisses, resident, inUse);
+        }
+    }
+
+    /**
+     * A context was just created: the buffers known under its handle belonged to a
+     * destroyed context that had the same one.
+     */
+    public static void onContextCreated() {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(EGL14.eglGetCurrentContext());
+        }
+    }
+
+    /**
+     * The buffers of context go away with it.
+     */
+    public static void onContextReleased(EGLContext context) {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(context);
+        }
+    }
+
+    private static ContextBuffers currentBuffers() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        ContextBuffers buffers = CONTEXTS.get(context);
+        if (buffers == null) {
+            buffers = new ContextBuffers();
+            CONTEXTS.put(context, buffers);
+        }
+        return buffers;
+    }
+
+    /**
+     * Delete the free buffers released the longest ago until the context keeps no more than
+     * bytes, CONTEXTS is locked. Nothing is done within the budget.
+     */
+    private static void trimToSize(ContextBuffers buffers, long bytes) {
+        if (buffers.bytesResident <= bytes) {
+            return;
+        }
+        int count = 0;
+        int size = buffers.free.size();
+        while (buffers.bytesResident > bytes && count < size) {
+            FrameBuffer buffer = buffers.free.get(count++);
+            buffers.bytesResident -= buffer.bytes;
+            sNames[0] = buffer.frameBufferId;
+            GLES30.glDeleteFramebuffers(1, sNames, 0);
+            sNames[0] = buffer.textureId;
+            GLES30.glDeleteTextures(1, sNames, 0);
+        }
+        if (count > 0) {
+            buffers.free.subList(0, count).clear();
+        }
+    }
+
+    private static FrameBuffer create(int width, int height, int internalFormat, int format, int type) {
+        int[] frameBuffers = new int[1];
+        int[] textures = new int[1];
+        GLES30.glGenFramebuffers(1, frameBuffers, 0);
+        GLES30.glGenTextures(1, textures, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textures[0]);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, internalFormat, width, height,
+                0, format, type, null);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffers[0]);
+        GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
+                GLES30.GL_TEXTURE_2D, textures[0], 0);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        return new FrameBuffer(width, height, internalFormat, format, type, frameBuffers[0], textures[0]);
+    }
+
+    private static int bytesPerPixel(int internalFormat) {
+        switch (internalFormat) {
+            case GLES30.GL_R8:
+                return 1;
+            case GLES30.GL_RG8:
+                return 2;
+            case GLES30.GL_RGBA16F:
+                return 8;
+            case GLES30.GL_RGBA32F:
+                return 16;
+            default:
+                return 4;
+        }
+    }
+
+}
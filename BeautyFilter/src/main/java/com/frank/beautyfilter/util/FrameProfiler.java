@@ -0,0 +1,297 @@
+package com.frank.beautyfilter.util;
+
+import android.opengl.GLES30;
+
+/**
+ * Where the time of a render loop goes. Each pass between beginPass() and endPass() is
+ * timed on the GPU with EXT_disjoint_timer_query when the context has it, otherwise by the
+ * time the thread spent issuing it, which only bounds the GPU time from below. The interval
+ * between frames is tracked to count the frames the loop missed. The stats of a window of
+ * frames go to the listener on the render thread.
+ * Without a listener it costs a volatile read per call.
+ */
+public final class FrameProfiler {
+
+    public interface OnFrameStatsListener {
+        /**
+         * Called on the render thread, stats is filled again for the next window:
+         * copy what is kept and do not block.
+         */
+        void onFrameStats(FrameStats stats);
+    }
+
+    public final static int MAX_PASSES = 8;
+    public final static long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 30;
+
+    private final static int WINDOW_FRAMES = 30;
+    // frames a timer query has to be answered, a later answer is dropped
+    private final static int QUERY_FRAMES = 3;
+    // longer gaps are pauses of the loop, not missed frames
+    private final static long MAX_INTERVAL_NANOS = 1000000000L;
+    // from GL_EXT_disjoint_timer_query, core GLES30 has the functions but not the enums
+    private final static int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private final static int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /**
+     * The stats of a window of frames, filled in by the profiler.
+     */
+    public final static class FrameStats {
+        // the loop the stats are of, e.g. "preview"
+        public final String name;
+        // the passes in the order they first ran, passCount of them
+        public final String[] passNames = new String[MAX_PASSES];
+        // mean time of each pass in the frames it ran
+        public final long[] passNanos = new long[MAX_PASSES];
+        public int passCount;
+        // false when the times are those of the CPU issuing the passes
+        public boolean gpuTimed;
+        public int frames;
+        public long meanIntervalNanos;
+        public long maxIntervalNanos;
+        public long droppedFrames;
+        public long totalDroppedFrames;
+
+        FrameStats(String name) {
+            this.name = name;
+        }
+    }
+
+    private final FrameStats mStats;
+    private volatile OnFrameStatsListener mListener;
+    private volatile long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    // set up on the render thread when a listener is first seen
+    private boolean mActive;
+    private boolean mGpuTimed;
+    private final int[][] mQueries = new int[QUERY_FRAMES][MAX_PASSES];
+    private final int[][] mQueryPasses = new int[QUERY_FRAMES][MAX_PASSES];
+    private final int[] mQueryCounts = new int[QUERY_FRAMES];
+    private final int[] mQueryResult = new int[1];
+    private int mQuerySlot;
+
+    private final String[] mPassNames = new String[MAX_PASSES];
+    private final long[] mPassSums = new long[MAX_PASSES];
+    private final int[] mPassSamples = new int[MAX_PASSES];
+    private int mPassCount;
+    // the pass open in this frame, -1 for none
+    private int mPass = -1;
+    private long mPassStart;
+
+    private long mLastFrameNanos;
+    private long mIntervalSum;
+    private int mIntervals;
+    private long mMaxInterval;
+    private long mDropped;
+    private long mTotalDropped;
+    private int mFrames;
+
+    public FrameProfiler(String name) {
+        mStats = new FrameStats(name);
+    }
+
+    /**
+     * Start profiling with a listener, stop with null. Any thread.
+     */
+    public void setListener(OnFrameStatsListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * The interval the loop is meant to run at, longer ones count as missed frames.
+     */
+    public void setFrameInterval(long nanos) {
+        mFrameIntervalNanos = nanos;
+    }
+
+    public void beginFrame() {
+        if (mListener == null) {
+            if (mActive)
+                release();
+            return;
+        }
+        if (!mActive)
+            activate();
+        long now = System.nanoTime();
+        if (mLastFrameNanos != 0) {
+            long interval = now - mLastFrameNanos;
+            if (interval < MAX_INTERVAL_NANOS) {
+                mIntervalSum += interval;
+                mIntervals++;
+                mMaxInterval = Math.max(mMaxInterval, interval);
+                long expected = mFrameIntervalNanos;
+                if (interval * 2 > expected * 3) {
+                    mDropped += (interval + expected / 2) / expected - 1;
+                }
+            }
+        }
+        mLastFrameNanos = now;
+        if (mGpuTimed) {
+            mQuerySlot = (mQuerySlot + 1) % QUERY_FRAMES;
+            collectQueries(mQuerySlot);
+        }
+    }
+
+    /**
+     * Time what the loop issues until endPass().
+     * @param name a constant, passes are told apart by reference
+     */
+    public void beginPass(String name) {
+        if (!mActive)
+            return;
+        if (mPass >= 0)
+            endPass();
+        int pass = indexOfPass(name);
+        if (pass < 0)
+            return;
+        mPass = pass;
+        if (mGpuTimed) {
+            int count = mQueryCounts[mQuerySlot];
+            if (count == MAX_PASSES) {
+                mPass = -1;
+                return;
+            }
+            mQueryPasses[mQuerySlot][count] = pass;
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[mQuerySlot][count]);
+        } else {
+            mPassStart = System.nanoTime();
+        }
+    }
+
+    public void endPass() {
+        if (!mActive || mPass < 0)
+            return;
+        if (mGpuTimed) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            mQueryCounts[mQuerySlot]++;
+        } else {
+            mPassSums[mPass] += System.nanoTime() - mPassStart;
+            mPassSamples[mPass]++;
+        }
+        mPass = -1;
+    }
+
+    public void endFrame() {
+        if (!mActive)
+            return;
+        if (mPass >= 0)
+            endPass();
+        if (++mFrames < WINDOW_FRAMES)
+            return;
+        OnFrameStatsListener listener = mListener;
+        if (listener != null) {
+            fillStats();
+            listener.onFrameStats(mStats);
+        }
+        resetWindow();
+    }
+
+    /**
+     * Delete the timer queries, the context they were made in is current.
+     */
+    public void release() {
+        if (mGpuTimed) {
+            for (int[] queries : mQueries) {
+                GLES30.glDeleteQueries(MAX_PASSES, queries, 0);
+            }
+        }
+        onContextLost();
+    }
+
+    /**
+     * The context went away with the queries, they are made again in the next one.
+     */
+    public void onContextLost() {
+        mActive = false;
+        mGpuTimed = false;
+        mPass = -1;
+        for (int i = 0; i < QUERY_FRAMES; i++) {
+            mQueryCounts[i] = 0;
+        }
+        mLastFrameNanos = 0;
+        mPassCount = 0;
+        mTotalDropped = 0;
+        resetWindow();
+    }
+
+    private void activate() {
+        mActive = true;
+        String extensions = GLES30.glGetString(GLES30.GL_EXTENSIONS);
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        // the extension reuses the query functions of OpenGL ES 3
+        mGpuTimed = extensions != null && extensions.contains("GL_EXT_disjoint_timer_query")
+                && version != null && version.startsWith("OpenGL ES 3");
+        if (mGpuTimed) {
+            for (int[] queries : mQueries) {
+                GLES30.glGenQueries(MAX_PASSES, queries, 0);
+            }
+            // clear a disjoint event from before the first query
+            GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        }
+    }
+
+    private int indexOfPass(String name) {
+        for (int i = 0; i < mPassCount; i++) {
+            if (mPassNames[i] == name)
+                return i;
+        }
+        if (mPassCount == MAX_PASSES)
+            return -1;
+        mPassNames[mPassCount] = name;
+        return mPassCount++;
+    }
+
+    /**
+     * Read the answers to the queries of slot, issued QUERY_FRAMES frames ago. The
+     * slot is reused by this frame either way.
+     */
+    private void collectQueries(int slot) {
+        int count = mQueryCounts[slot];
+        mQueryCounts[slot] = 0;
+        if (count == 0)
+            return;
+        GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        if (mQueryResult[0] != 0) {
+            // the GPU changed clocks or was preempted, the times are meaningless
+            return;
+        }
+        int[] queries = mQueries[slot];
+        for (int i = 0; i < count; i++) {
+            GLES30.glGetQueryObjectuiv(queries[i], GLES30.GL_QUERY_RESULT_AVAILABLE, mQueryResult, 0);
+            if (mQueryResult[0] == 0)
+                continue;
+            GLES30.glGetQueryObjectuiv(queries[i], GLES30.GL_QUERY_RESULT, mQueryResult, 0);
+            int pass = mQueryPasses[slot][i];
+            mPassSums[pass] += mQueryResult[0] & 0xFFFFFFFFL;
+            mPassSamples[pass]++;
+        }
+    }
+
+    private void fillStats() {
+        FrameStats stats = mStats;
+        stats.passCount = mPassCount;
+        for (int i = 0; i < mPassCount; i++) {
+            stats.passNames[i] = mPassNames[i];
+            stats.passNanos[i] = mPassSamples[i] > 0 ? mPassSums[i] / mPassSamples[i] : 0;
+        }
+        stats.gpuTimed = mGpuTimed;
+        stats.frames = mFrames;
+        stats.meanIntervalNanos = mIntervals > 0 ? mIntervalSum / mIntervals : 0;
+        stats.maxIntervalNanos = mMaxInterval;
+        stats.droppedFrames = mDropped;
+        mTotalDropped += mDropped;
+        stats.totalDroppedFrames = mTotalDropped;
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < MAX_PASSES; i++) {
+            mPassSums[i] = 0;
+            mPassSamples[i] = 0;
+        }
+        mIntervalSum = 0;
+        mIntervals = 0;
+        mMaxInterval = 0;
+        mDropped = 0;
+        mFrames = 0;
+    }
+
+}
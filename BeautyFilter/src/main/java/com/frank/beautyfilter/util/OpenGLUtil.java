@@ -4,11 +4,14 @@ import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.opengl.EGLContext;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES30;
 import android.opengl.GLUtils;
 import android.util.Log;
 
+import com.frank.beautyfilter.filter.base.BeautyLutCache;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,6 +32,26 @@ public class OpenGLUtil {
     public static final int NO_SHADER  = 0;
     public static final int NO_TEXTURE = -1;
 
+    // bytes of the textures created on each thread, see getTextureBytesLoaded()
+    private final static ThreadLocal<long[]> sTextureBytes = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Bytes of all the textures the load methods created on this thread, the difference
+     * of two calls is what the code in between allocated.
+     */
+    public static long getTextureBytesLoaded() {
+        return sTextureBytes.get()[0];
+    }
+
+    private static void countTexture(int width, int height) {
+        sTextureBytes.get()[0] += (long) width * height * 4;
+    }
+
     private static void bindTexture(int[] textures) {
         GLES30.glGenTextures(1, textures, 0);
         GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textures[0]);
@@ -49,6 +72,7 @@ public class OpenGLUtil {
         if (textureId == NO_TEXTURE) {
             bindTexture(textures);
             GLUtils.texImage2D(GLES30.GL_TEXTURE_2D, 0, bitmap, 0);
+            countTexture(bitmap.getWidth(), bitmap.getHeight());
         } else {
             GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textureId);
             GLUtils.texSubImage2D(GLES30.GL_TEXTURE_2D, 0, 0, 0, bitmap);
@@ -71,6 +95,7 @@ public class OpenGLUtil {
             bindTexture(textures);
             GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height,
                     0, GLES30.GL_RGBA, type, data);
+            countTexture(width, height);
         } else {
             GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textureId);
             GLES30.glTexSubImage2D(GLES30.GL_TEXTURE_2D, 0, 0, 0, width, height,
@@ -108,6 +133,7 @@ public class OpenGLUtil {
         GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S,     GLES30.GL_CLAMP_TO_EDGE);
         GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T,     GLES30.GL_CLAMP_TO_EDGE);
         GLUtils.texImage2D(GLES30.GL_TEXTURE_2D, 0, bitmap, 0);
+        countTexture(bitmap.getWidth(), bitmap.getHeight());
         bitmap.recycle();
         return textures[0];
     }
@@ -125,7 +151,19 @@ public class OpenGLUtil {
         return shader;
     }
 
+    /**
+     * A linked program of these sources from {@link ProgramCache}, give it back with
+     * {@link #releaseProgram(int)} instead of deleting it.
+     */
     public static int loadProgram(final String vertexSource, final String fragmentSource) {
+        return ProgramCache.acquire(vertexSource, fragmentSource);
+    }
+
+    public static void releaseProgram(final int programId) {
+        ProgramCache.release(programId);
+    }
+
+    static int compileProgram(final String vertexSource, final String fragmentSource, boolean retrievable) {
         int vertexShader   = loadShader(vertexSource, GLES30.GL_VERTEX_SHADER);
         int fragmentShader = loadShader(fragmentSource, GLES30.GL_FRAGMENT_SHADER);
         if (vertexShader == NO_SHADER || fragmentShader == NO_SHADER) {
@@ -134,12 +172,20 @@ public class OpenGLUtil {
         int programId = GLES30.glCreateProgram();
         GLES30.glAttachShader(programId, vertexShader);
         GLES30.glAttachShader(programId, fragmentShader);
+        // fixed locations, so that one vertex array fits every program
+        GLES30.glBindAttribLocation(programId, VertexArrayCache.ATTRIBUTE_POSITION, "position");
+        GLES30.glBindAttribLocation(programId, VertexArrayCache.ATTRIBUTE_TEXTURE_COORDINATE,
+                "inputTextureCoordinate");
+        if (retrievable) {
+            GLES30.glProgramParameteri(programId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES30.GL_TRUE);
+        }
         GLES30.glLinkProgram(programId);
         int[] linked = new int[1];
         GLES30.glGetProgramiv(programId, GLES30.GL_LINK_STATUS, linked, 0);
         if (linked[0] <= 0) {
-            programId = 0;
             Log.e("OpenGlUtil", "program link error=" + GLES30.glGetProgramInfoLog(programId));
+            GLES30.glDeleteProgram(programId);
+            programId = 0;
         }
         GLES30.glDeleteShader(vertexShader);
         GLES30.glDeleteShader(fragmentShader);
@@ -183,6 +229,27 @@ public class OpenGLUtil {
         return builder.toString();
     }
 
+    /**
+     * A context was just made current for the first time: forget what every per-context
+     * cache knows under its handle, it belonged to a destroyed context that had the same one.
+     */
+    public static void onContextCreated() {
+        ProgramCache.onContextCreated();
+        FrameBufferPool.onContextCreated();
+        VertexArrayCache.onContextCreated();
+        BeautyLutCache.onContextCreated();
+    }
+
+    /**
+     * context is about to be destroyed, every per-context cache drops what it holds for it.
+     */
+    public static void onContextReleased(EGLContext context) {
+        ProgramCache.onContextReleased(context);
+        FrameBufferPool.onContextReleased(context);
+        VertexArrayCache.onContextReleased(context);
+        BeautyLutCache.onContextReleased(context);
+    }
+
     public static void checkGLError(String operator) {
         int error = GLES30.glGetError();
         if (error != GLES30.GL_NO_ERROR) {
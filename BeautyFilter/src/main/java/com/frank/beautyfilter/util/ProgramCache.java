@@ -0,0 +1,290 @@
+package com.frank.beautyfilter.util;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Linked programs, keyed by a hash of their sources.
+ * In memory a program stays compiled for as long as its EGL context lives, so switching
+ * back to a filter is a lookup. On disk the binaries of the driver are kept in the cache
+ * directory, one directory per GL renderer and version, so a program is compiled from
+ * source once per driver instead of once per launch.
+ */
+public final class ProgramCache {
+
+    private final static String TAG = ProgramCache.class.getSimpleName();
+
+    private final static String DIRECTORY = "programs";
+
+    // part of the key, raised when programs are linked differently so older binaries are not loaded
+    private final static int LINK_VERSION = 2;
+
+    public final static class Program {
+        private final int programId;
+        private int references;
+        // the last one to set uniforms of the program
+        private Object uniformOwner;
+
+        private Program(int programId) {
+            this.programId = programId;
+        }
+
+        /**
+         * Make owner the one whose uniform values the program holds, called on the GL thread
+         * before setting them.
+         * @return true when somebody else set them last, so owner has to set all of its own again
+         */
+        public boolean claimUniforms(Object owner) {
+            if (uniformOwner == owner) {
+                return false;
+            }
+            uniformOwner = owner;
+            return true;
+        }
+    }
+
+    private static class ContextPrograms {
+        private final Map<String, Program> bySource = new HashMap<>();
+        private final Map<Integer, Program> byId = new HashMap<>();
+        // null when the context can not hand out program binaries
+        private File directory;
+    }
+
+    private final static Map<EGLContext, ContextPrograms> CONTEXTS = new HashMap<>();
+
+    // binaries are written off the GL thread
+    private final static ExecutorService WRITER = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "ProgramCache"));
+
+    private ProgramCache() {
+    }
+
+    /**
+     * The program of these sources in the current context, compiled only when neither
+     * memory nor disk has it. Every acquire is paired with a {@link #release(int)}.
+     * @return 0 when the sources do not build
+     */
+    public static int acquire(String vertexSource, String fragmentSource) {
+        String key = hash(LINK_VERSION + "\0" + vertexSource + '\0' + fragmentSource);
+        ContextPrograms programs;
+        synchronized (CONTEXTS) {
+            programs = currentPrograms();
+            Program program = programs.bySource.get(key);
+            if (program != null) {
+                program.references++;
+                return program.programId;
+            }
+        }
+        int programId = loadBinary(programs.directory, key);
+        if (programId == 0) {
+            programId = OpenGLUtil.compileProgram(vertexSource, fragmentSource, programs.directory != null);
+            if (programId != 0) {
+                storeBinary(programs.directory, key, programId);
+            }
+        }
+        if (programId == 0) {
+            return 0;
+        }
+        synchronized (CONTEXTS) {
+            Program program = new Program(programId);
+            program.references = 1;
+            programs.bySource.put(key, program);
+            programs.byId.put(programId, program);
+        }
+        return programId;
+    }
+
+    /**
+     * Drop a reference, the program itself stays compiled for the next acquire.
+     */
+    public static void release(int programId) {
+        if (programId == 0) {
+            return;
+        }
+        synchronized (CONTEXTS) {
+            ContextPrograms programs = CONTEXTS.get(EGL14.eglGetCurrentContext());
+            Program program = programs != null ? programs.byId.get(programId) : null;
+            if (program != null && program.references > 0) {
+                program.references--;
+            }
+        }
+    }
+
+    /**
+     * The entry of a program acquired in the current context, null for any other id.
+     */
+    public static Program lookup(int programId) {
+        synchronized (CONTEXTS) {
+            ContextPrograms programs = CONTEXTS.get(EGL14.eglGetCurrentContext());
+            return programs != null ? programs.byId.get(programId) : null;
+        }
+    }
+
+    /**
+     * Whether programs built in the current context are also kept on disk.
+     */
+    public static boolean isPersistent() {
+        synchronized (CONTEXTS) {
+            return currentPrograms().directory != null;
+        }
+    }
+
+    /**
+     * A context was just created: whatever is known under its handle belonged to a
+     * destroyed context that had the same one.
+     */
+    public static void onContextCreated() {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(EGL14.eglGetCurrentContext());
+        }
+    }
+
+    /**
+     * The programs of context go away with it.
+     */
+    public static void onContextReleased(EGLContext context) {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(context);
+        }
+    }
+
+    private static ContextPrograms currentPrograms() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        ContextPrograms programs = CONTEXTS.get(context);
+        if (programs == null) {
+            programs = new ContextPrograms();
+            programs.directory = binaryDirectory();
+            CONTEXTS.put(context, programs);
+        }
+        return programs;
+    }
+
+    private static File binaryDirectory() {
+        if (BeautyParams.context == null) {
+            return null;
+        }
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) {
+            return null;
+        }
+        int[] formats = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        if (formats[0] <= 0) {
+            return null;
+        }
+        // a driver update may not read the binaries of the previous one
+        String driver = GLES30.glGetString(GLES30.GL_RENDERER) + '\n' + version;
+        File directory = new File(BeautyParams.context.getCacheDir(), DIRECTORY + File.separator + hash(driver));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return null;
+        }
+        return directory;
+    }
+
+    private static int loadBinary(File directory, String key) {
+        if (directory == null) {
+            return 0;
+        }
+        File file = new File(directory, key);
+        if (!file.exists()) {
+            return 0;
+        }
+        int format;
+        ByteBuffer binary;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            format = input.readInt();
+            byte[] data = new byte[input.readInt()];
+            input.readFully(data);
+            binary = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+            binary.put(data).position(0);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "unable to read " + file + ": " + e);
+            file.delete();
+            return 0;
+        }
+        int programId = GLES30.glCreateProgram();
+        GLES30.glProgramBinary(programId, format, binary, binary.capacity());
+        int[] linked = new int[1];
+        GLES30.glGetProgramiv(programId, GLES30.GL_LINK_STATUS, linked, 0);
+        if (linked[0] <= 0) {
+            // rejected by the driver, build it from source again
+            GLES30.glDeleteProgram(programId);
+            file.delete();
+            return 0;
+        }
+        return programId;
+    }
+
+    private static void storeBinary(File directory, String key, int programId) {
+        if (directory == null) {
+            return;
+        }
+        int[] length = new int[1];
+        GLES30.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] written = new int[1];
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(programId, length[0], written, 0, format, 0, binary);
+        if (GLES30.glGetError() != GLES30.GL_NO_ERROR || written[0] <= 0) {
+            return;
+        }
+        byte[] data = new byte[written[0]];
+        binary.position(0);
+        binary.get(data);
+        WRITER.execute(() -> {
+            File file = new File(directory, key);
+            File temporary = new File(directory, key + ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                output.writeInt(format[0]);
+                output.writeInt(data.length);
+                output.write(data);
+            } catch (IOException e) {
+                Log.e(TAG, "unable to write " + file + ": " + e);
+                temporary.delete();
+                return;
+            }
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+            }
+        });
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(text.getBytes(Charset.forName("UTF-8")));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(text.hashCode()) + Integer.toHexString(text.length());
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.frank.beautyfilter.util;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Vertex arrays of the quads filters are drawn with. The quads of a context share one
+ * vertex buffer, each distinct pair of position and texture coordinates (a rotation, a
+ * flip, a crop of TextureRotateUtil) gets a slot in it and a vertex array pointing there,
+ * so a draw binds one object instead of handing the driver client memory to copy.
+ * Programs are linked with the attributes at the locations below for the arrays to fit.
+ */
+public final class VertexArrayCache {
+
+    public final static int ATTRIBUTE_POSITION = 0;
+    public final static int ATTRIBUTE_TEXTURE_COORDINATE = 1;
+
+    // 4 vertices of 2 floats, the positions then the texture coordinates
+    private final static int QUAD_FLOATS = 16;
+    private final static int QUAD_BYTES = QUAD_FLOATS * 4;
+    private final static int MAX_QUADS = 32;
+
+    private static class ContextQuads {
+        // false for a context without vertex arrays, every lookup then fails
+        private boolean supported;
+        private int buffer;
+        private int size;
+        private int lastHit = -1;
+        private long clock;
+        private final float[][] quads = new float[MAX_QUADS][QUAD_FLOATS];
+        private final int[] vertexArrays = new int[MAX_QUADS];
+        private final long[] lastUse = new long[MAX_QUADS];
+        private final FloatBuffer upload = ByteBuffer.allocateDirect(QUAD_BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    private final static Map<EGLContext, ContextQuads> CONTEXTS = new HashMap<>();
+
+    private VertexArrayCache() {
+    }
+
+    /**
+     * The vertex array of this quad in the current context, its 4 vertices of 2 floats
+     * are read from index 0 of each buffer.
+     * @return 0 when the context has no vertex arrays, draw from the buffers then
+     */
+    public static int obtain(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (vertexBuffer.capacity() < QUAD_FLOATS / 2 || textureBuffer.capacity() < QUAD_FLOATS / 2) {
+            return 0;
+        }
+        synchronized (CONTEXTS) {
+            ContextQuads quads = currentQuads();
+            if (!quads.supported) {
+                return 0;
+            }
+            quads.clock++;
+            if (quads.lastHit >= 0 && matches(quads.quads[quads.lastHit], vertexBuffer, textureBuffer)) {
+                quads.lastUse[quads.lastHit] = quads.clock;
+                return quads.vertexArrays[quads.lastHit];
+            }
+            for (int i = 0; i < quads.size; i++) {
+                if (matches(quads.quads[i], vertexBuffer, textureBuffer)) {
+                    quads.lastHit = i;
+                    quads.lastUse[i] = quads.clock;
+                    return quads.vertexArrays[i];
+                }
+            }
+            int slot = quads.size < MAX_QUADS ? quads.size++ : leastRecentlyUsed(quads);
+            store(quads, slot, vertexBuffer, textureBuffer);
+            quads.lastHit = slot;
+            quads.lastUse[slot] = quads.clock;
+            return quads.vertexArrays[slot];
+        }
+    }
+
+    /**
+     * A context was just created: the arrays known under its handle belonged to a
+     * destroyed context that had the same one.
+     */
+    public static void onContextCreated() {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(EGL14.eglGetCurrentContext());
+        }
+    }
+
+    /**
+     * The arrays of context go away with it.
+     */
+    public static void onContextReleased(EGLContext context) {
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(context);
+        }
+    }
+
+    private static ContextQuads currentQuads() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        ContextQuads quads = CONTEXTS.get(context);
+        if (quads == null) {
+            quads = new ContextQuads();
+            String version = GLES30.glGetString(GLES30.GL_VERSION);
+            quads.supported = version != null && version.startsWith("OpenGL ES 3");
+            if (quads.supported) {
+                int[] buffers = new int[1];
+                GLES30.glGenBuffers(1, buffers, 0);
+                quads.buffer = buffers[0];
+                GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, quads.buffer);
+                GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, MAX_QUADS * QUAD_BYTES, null, GLES30.GL_STATIC_DRAW);
+                GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+            }
+            CONTEXTS.put(context, quads);
+        }
+        return quads;
+    }
+
+    private static boolean matches(float[] quad, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        for (int i = 0; i < QUAD_FLOATS / 2; i++) {
+            if (quad[i] != vertexBuffer.get(i) || quad[QUAD_FLOATS / 2 + i] != textureBuffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int leastRecentlyUsed(ContextQuads quads) {
+        int slot = 0;
+        for (int i = 1; i < quads.size; i++) {
+            if (quads.lastUse[i] < quads.lastUse[slot]) {
+                slot = i;
+            }
+        }
+        return slot;
+    }
+
+    private static void store(ContextQuads quads, int slot, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        float[] quad = quads.quads[slot];
+        for (int i = 0; i < QUAD_FLOATS / 2; i++) {
+            quad[i] = vertexBuffer.get(i);
+            quad[QUAD_FLOATS / 2 + i] = textureBuffer.get(i);
+        }
+        quads.upload.clear();
+        quads.upload.put(quad).position(0);
+        int offset = slot * QUAD_BYTES;
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, quads.buffer);
+        GLES30.glBufferSubData(GLES30.GL_ARRAY_BUFFER, offset, QUAD_BYTES, quads.upload);
+        if (quads.vertexArrays[slot] == 0) {
+            int[] vertexArrays = new int[1];
+            GLES30.glGenVertexArrays(1, vertexArrays, 0);
+            quads.vertexArrays[slot] = vertexArrays[0];
+            GLES30.glBindVertexArray(vertexArrays[0]);
+            GLES30.glEnableVertexAttribArray(ATTRIBUTE_POSITION);
+            GLES30.glVertexAttribPointer(ATTRIBUTE_POSITION, 2, GLES30.GL_FLOAT, false, 0, offset);
+            GLES30.glEnableVertexAttribArray(ATTRIBUTE_TEXTURE_COORDINATE);
+            GLES30.glVertexAttribPointer(ATTRIBUTE_TEXTURE_COORDINATE, 2, GLES30.GL_FLOAT, false, 0,
+                    offset + QUAD_BYTES / 2);
+            GLES30.glBindVertexArray(0);
+        }
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    }
+
+}
@@ -14,21 +14,27 @@ import com.frank.beautyfilter.camera.CameraEngine;
 import com.frank.beautyfilter.camera.CameraPrivateInfo;
 import com.frank.beautyfilter.filter.advance.BeautyBeautifulFilter;
 import com.frank.beautyfilter.filter.base.BeautyCameraFilter;
+import com.frank.beautyfilter.filter.base.BeautySmoothFilter;
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
-import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.filter.helper.BeautyFilterParam;
+import com.frank.beautyfilter.helper.AsyncPixelReader;
 import com.frank.beautyfilter.helper.SavePictureTask;
+import com.frank.beautyfilter.recorder.SegmentConcatenator;
 import com.frank.beautyfilter.recorder.video.TextureVideoRecorder;
 import com.frank.beautyfilter.util.BeautyParams;
+import com.frank.beautyfilter.util.FrameAllocationTracker;
+import com.frank.beautyfilter.util.FrameBufferPool;
+import com.frank.beautyfilter.util.FrameProfiler;
 import com.frank.beautyfilter.util.OpenGLUtil;
 import com.frank.beautyfilter.util.Rotation;
 import com.frank.beautyfilter.util.TextureRotateUtil;
 import com.frank.beautyfilter.widget.base.BeautyBaseView;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -40,13 +46,20 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class BeautyCameraView extends BeautyBaseView {
 
+    private final static String TAG = BeautyCameraView.class.getSimpleName();
+
     private final File outputFile;
     private int recordingStatus;
     protected boolean recordEnable;
+    private long segmentDurationMs;
+    private long segmentBytes;
 
     private SurfaceTexture surfaceTexture;
     private BeautyCameraFilter cameraFilter;
+    private BeautySmoothFilter smoothFilter;
     private BeautyBeautifulFilter beautyFilter;
+    // copies the frame rendered for the recorder to the screen
+    private GPUImageFilter copyFilter;
 
     private final static int RECORDING_OFF = 0;
     private final static int RECORDING_ON = 1;
@@ -55,6 +68,12 @@ public class BeautyCameraView extends BeautyBaseView {
     private final CameraEngine cameraEngine;
     private final TextureVideoRecorder videoRecorder;
 
+    private final float[] textureTransform = new float[16];
+    private final FrameAllocationTracker allocationTracker = new FrameAllocationTracker(TAG);
+    private final FrameProfiler profiler = new FrameProfiler("preview");
+    // the stats of the preview also select the tier of smoothFilter, so the profiler always runs
+    private volatile FrameProfiler.OnFrameStatsListener frameStatsListener;
+
     public BeautyCameraView(Context context) {
         this(context, null);
     }
@@ -68,6 +87,13 @@ public class BeautyCameraView extends BeautyBaseView {
         cameraEngine = new CameraEngine();
         videoRecorder = new TextureVideoRecorder();
         outputFile = new File(BeautyParams.videoPath, BeautyParams.videoName);
+        profiler.setListener(stats -> {
+            if (smoothFilter != null)
+                smoothFilter.onFrameStats(stats);
+            FrameProfiler.OnFrameStatsListener listener = frameStatsListener;
+            if (listener != null)
+                listener.onFrameStats(stats);
+        });
     }
 
     @Override
@@ -80,9 +106,8 @@ public class BeautyCameraView extends BeautyBaseView {
                 queueEvent(new Runnable() {
                     @Override
                     public void run() {
-                        final Bitmap photo = drawPhoto(bitmap, cameraEngine.getCameraInfo().isFront);
+                        drawPhoto(bitmap, cameraEngine.getCameraInfo().isFront, task::execute);
                         GLES30.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
-                        task.execute(photo);
                     }
                 });
                 cameraEngine.startPreview();
@@ -102,6 +127,7 @@ public class BeautyCameraView extends BeautyBaseView {
             mImageHeight = info.previewHeight;
         }
         cameraFilter.onInputSizeChanged(mImageWidth, mImageHeight);
+        smoothFilter.onInputSizeChanged(mImageWidth, mImageHeight);
         adjustSize(info.orientation, info.isFront, true);
         if (surfaceTexture != null)
             cameraEngine.startPreview(surfaceTexture);
@@ -123,9 +149,19 @@ public class BeautyCameraView extends BeautyBaseView {
             recordingStatus = RECORDING_RESUME;
         else
             recordingStatus = RECORDING_OFF;
+        BeautyFilterParam.initFilterParam(gl10);
+        profiler.onContextLost();
         if (cameraFilter == null)
             cameraFilter = new BeautyCameraFilter();
         cameraFilter.init();
+        // the camera filter only converts the frame, smoothing is done by the passes of smoothFilter
+        cameraFilter.setBeautyLevel(0);
+        if (smoothFilter == null)
+            smoothFilter = new BeautySmoothFilter();
+        smoothFilter.init();
+        if (copyFilter == null)
+            copyFilter = new GPUImageFilter();
+        copyFilter.init();
         if (mTextureId == OpenGLUtil.NO_TEXTURE) {
             mTextureId = OpenGLUtil.getExternalOESTextureId();
             if (mTextureId != OpenGLUtil.NO_TEXTURE) {
@@ -146,25 +182,29 @@ public class BeautyCameraView extends BeautyBaseView {
         super.onDrawFrame(gl10);
         if (surfaceTexture == null)
             return;
+        allocationTracker.beginFrame();
+        profiler.beginFrame();
+        videoRecorder.recycleFrames();
         surfaceTexture.updateTexImage();
         if (recordEnable) {
             switch (recordingStatus) {
                 case RECORDING_OFF:
                     CameraPrivateInfo info = cameraEngine.getCameraInfo();
-                    videoRecorder.setPreviewSize(info.previewWidth, info.pictureHeight);
-                    videoRecorder.setTextureBuffer(mTextureBuffer);
-                    videoRecorder.setVertexBuffer(mVertexBuffer);
-                    videoRecorder.startRecording(new TextureVideoRecorder.RecorderConfig(
+                    TextureVideoRecorder.RecorderConfig config = new TextureVideoRecorder.RecorderConfig(
                             info.previewWidth,
                             info.pictureHeight,
                             1000000,
                             outputFile,
-                            EGL14.eglGetCurrentContext()));
+                            EGL14.eglGetCurrentContext());
+                    config.setSegmentLimits(segmentDurationMs, segmentBytes);
+                    videoRecorder.startRecording(config);
                     recordingStatus = RECORDING_ON;
+                    allocationTracker.reset();
                     break;
                 case RECORDING_RESUME:
                     videoRecorder.updateSharedContext(EGL14.eglGetCurrentContext());
                     recordingStatus = RECORDING_ON;
+                    allocationTracker.reset();
                     break;
                 case RECORDING_ON:
                     break;
@@ -177,6 +217,7 @@ public class BeautyCameraView extends BeautyBaseView {
                 case RECORDING_RESUME:
                     videoRecorder.stopRecording();
                     recordingStatus = RECORDING_OFF;
+                    allocationTracker.reset();
                     break;
                 case RECORDING_OFF:
                     break;
@@ -184,31 +225,72 @@ public class BeautyCameraView extends BeautyBaseView {
                     throw new RuntimeException("unknown status " + recordingStatus);
             }
         }
-        float[] mtx = new float[16];
-        surfaceTexture.getTransformMatrix(mtx);
-        cameraFilter.setTextureTransformMatrix(mtx);
-        int id = mTextureId;
-        if (mFilter == null) {
+        surfaceTexture.getTransformMatrix(textureTransform);
+        cameraFilter.setTextureTransformMatrix(textureTransform);
+        boolean smoothing = smoothFilter.isSmoothing();
+        if (recordingStatus == RECORDING_ON && !videoRecorder.isPaused()) {
+            drawRecordedFrame(smoothing);
+        } else if (mFilter == null && !smoothing) {
+            profiler.beginPass("camera");
             cameraFilter.onDrawFrame(mTextureId, mVertexBuffer, mTextureBuffer);
         } else {
-            id = cameraFilter.onDrawToTexture(mTextureId);
-            mFilter.onDrawFrame(id, mVertexBuffer, mTextureBuffer);
+            cameraFilter.initFrameBuffer(mImageWidth, mImageHeight);
+            profiler.beginPass("camera");
+            int frameId = cameraFilter.onDrawToTexture(mTextureId);
+            if (mFilter == null) {
+                profiler.beginPass(BeautySmoothFilter.PASS_NAME);
+                smoothFilter.onDrawFrame(frameId, mVertexBuffer, mTextureBuffer);
+            } else {
+                int id = frameId;
+                if (smoothing) {
+                    profiler.beginPass(BeautySmoothFilter.PASS_NAME);
+                    id = smoothFilter.onDrawToTexture(frameId);
+                }
+                profiler.beginPass("filter");
+                mFilter.onDrawFrame(id, mVertexBuffer, mTextureBuffer);
+            }
         }
-        videoRecorder.setTextureId(id);
-        videoRecorder.frameAvailable(surfaceTexture);
+        profiler.endPass();
+        profiler.endFrame();
+        allocationTracker.endFrame();
     }
 
-    @Override
-    public void setFilter(BeautyFilterType type) {
-        super.setFilter(type);
-        videoRecorder.setFilter(type);
+    /**
+     * Render the frame once into a pooled buffer, which the recorder encodes from, then
+     * copy it to the screen: the filters do not run a second time for the recording.
+     */
+    private void drawRecordedFrame(boolean smoothing) {
+        cameraFilter.initFrameBuffer(mImageWidth, mImageHeight);
+        profiler.beginPass("camera");
+        int id = cameraFilter.onDrawToTexture(mTextureId);
+        if (smoothing) {
+            profiler.beginPass(BeautySmoothFilter.PASS_NAME);
+            id = smoothFilter.onDrawToTexture(id);
+        }
+        FrameBufferPool.FrameBuffer frame = FrameBufferPool.obtain(mSurfaceWidth, mSurfaceHeight);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frame.frameBufferId);
+        GLES30.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+        GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT);
+        profiler.beginPass("filter");
+        if (mFilter != null)
+            mFilter.onDrawFrame(id, mVertexBuffer, mTextureBuffer);
+        else
+            copyFilter.onDrawFrame(id, mVertexBuffer, mTextureBuffer);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        profiler.endPass();
+        videoRecorder.frameAvailable(frame, surfaceTexture.getTimestamp());
+        profiler.beginPass("present");
+        copyFilter.onDrawFrame(frame.textureId);
+        FrameBufferPool.release(frame);
     }
 
     @Override
     protected void onFilterChanged(GPUImageFilter filter) {
         super.onFilterChanged(filter);
+        allocationTracker.reset();
         cameraFilter.onOutputSizeChanged(mSurfaceWidth, mSurfaceHeight);
-        if (mFilter != null)
+        smoothFilter.onOutputSizeChanged(mSurfaceWidth, mSurfaceHeight);
+        if (mFilter != null || smoothFilter.isSmoothing())
             cameraFilter.initFrameBuffer(mImageWidth, mImageHeight);
         else
             cameraFilter.destroyFrameBuffer();
@@ -218,17 +300,56 @@ public class BeautyCameraView extends BeautyBaseView {
         recordEnable = isRecording;
     }
 
+    public void pauseRecording() {
+        videoRecorder.pauseRecording();
+    }
+
+    public void resumeRecording() {
+        videoRecorder.resumeRecording();
+    }
+
+    /**
+     * Record the next recordings in segments, 0 for no limit.
+     * @see TextureVideoRecorder.RecorderConfig#setSegmentLimits(long, long)
+     */
+    public void setRecordingSegments(long durationMs, long bytes) {
+        segmentDurationMs = durationMs;
+        segmentBytes = bytes;
+    }
+
+    public void setOnRecordingSavedListener(SegmentConcatenator.OnRecordingSavedListener listener) {
+        videoRecorder.setOnRecordingSavedListener(listener);
+    }
+
+    /**
+     * Join the segments a recording left when it never stopped, e.g. the process died,
+     * into a file next to the movie. The next recording does it too before it starts.
+     * @return the file they are joined into, null when there is nothing to recover or a recording runs
+     */
+    public File recoverRecording(SegmentConcatenator.OnRecordingSavedListener listener) {
+        if (videoRecorder.isRecording())
+            return null;
+        try {
+            return SegmentConcatenator.recover(outputFile, listener);
+        } catch (IOException e) {
+            // logged, the segments left are kept where they are
+            return null;
+        }
+    }
+
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         super.surfaceDestroyed(holder);
         cameraEngine.releaseCamera();
     }
 
-    private Bitmap drawPhoto(Bitmap bitmap, boolean isRotated) {
+    /**
+     * Draw the photo with the beauty and the current filter, listener gets the result
+     * from the thread of the pixel reader.
+     */
+    private void drawPhoto(Bitmap bitmap, boolean isRotated, AsyncPixelReader.OnPixelsReadListener listener) {
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
-        int[] mFrameBuffers = new int[1];
-        int[] mFrameBufferTextures = new int[1];
         if (beautyFilter == null)
             beautyFilter = new BeautyBeautifulFilter();
         beautyFilter.init();
@@ -239,22 +360,8 @@ public class BeautyCameraView extends BeautyBaseView {
             mFilter.onInputSizeChanged(width, height);
             mFilter.onOutputSizeChanged(width, height);
         }
-        GLES30.glGenFramebuffers(1, mFrameBuffers, 0);
-        GLES30.glGenTextures(1, mFrameBufferTextures, 0);
-        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, mFrameBufferTextures[0]);
-        GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height, 0,
-                GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
-        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
-        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
-        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
-        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFrameBuffers[0]);
-        GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
-                GLES30.GL_TEXTURE_2D, mFrameBufferTextures[0], 0);
+        FrameBufferPool.FrameBuffer frameBuffer = FrameBufferPool.obtain(width, height);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer.frameBufferId);
 
         GLES30.glViewport(0, 0, width, height);
         int textureId = OpenGLUtil.loadTexture(bitmap, OpenGLUtil.NO_TEXTURE, true);
@@ -276,17 +383,13 @@ public class BeautyCameraView extends BeautyBaseView {
             beautyFilter.onDrawFrame(textureId, glVertexBuffer, glTextureBuffer);
         } else {
             beautyFilter.onDrawFrame(textureId);
-            mFilter.onDrawFrame(mFrameBufferTextures[0], glVertexBuffer, glTextureBuffer);
+            mFilter.onDrawFrame(frameBuffer.textureId, glVertexBuffer, glTextureBuffer);
         }
-        IntBuffer ib = IntBuffer.allocate(width * height);
-        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, ib);
-        Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        result.copyPixelsFromBuffer(ib);
+        mPixelReader.read(frameBuffer, listener);
 
         GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
         GLES30.glDeleteTextures(1, new int[]{textureId}, 0);
-        GLES30.glDeleteFramebuffers(mFrameBuffers.length, mFrameBuffers, 0);
-        GLES30.glDeleteTextures(mFrameBufferTextures.length, mFrameBufferTextures, 0);
+        FrameBufferPool.release(frameBuffer);
 
         beautyFilter.destroy();
         beautyFilter = null;
@@ -294,11 +397,38 @@ public class BeautyCameraView extends BeautyBaseView {
             mFilter.onOutputSizeChanged(mSurfaceWidth, mSurfaceHeight);
             mFilter.onInputSizeChanged(mImageWidth, mImageHeight);
         }
-        return result;
     }
 
     public void onBeautyLevelChanged() {
-        cameraFilter.onBeautyLevelChanged();
+        smoothFilter.onBeautyLevelChanged();
+    }
+
+    /**
+     * Pin the resolution of the smoothing blur, BeautySmoothFilter.TIER_AUTO lets the time of its passes select it.
+     */
+    public void setSmoothTier(int tier) {
+        smoothFilter.setTier(tier);
+    }
+
+    /**
+     * Report the passes of the preview and of the recorder, null stops it. The preview is
+     * profiled either way, its smoothing tier is selected from it.
+     * @see com.frank.beautyfilter.widget.FrameStatsView
+     */
+    public void setFrameStatsListener(FrameProfiler.OnFrameStatsListener listener) {
+        frameStatsListener = listener;
+        videoRecorder.setFrameStatsListener(listener);
+    }
+
+    /**
+     * @param policy TextureVideoRecorder#DROP_NEWEST, DROP_OLDEST or BLOCK
+     */
+    public void setRecorderDropPolicy(int policy, int maxQueuedFrames) {
+        videoRecorder.setDropPolicy(policy, maxQueuedFrames);
+    }
+
+    public TextureVideoRecorder.Stats getRecorderStats() {
+        return videoRecorder.getStats();
     }
 
     public void switchCamera() {
@@ -16,12 +16,12 @@ import com.frank.beautyfilter.filter.helper.BeautyFilterAdjuster;
 import com.frank.beautyfilter.filter.helper.BeautyFilterParam;
 import com.frank.beautyfilter.filter.helper.BeautyFilterType;
 import com.frank.beautyfilter.helper.SavePictureTask;
+import com.frank.beautyfilter.util.FrameBufferPool;
 import com.frank.beautyfilter.util.OpenGLUtil;
 import com.frank.beautyfilter.util.TextureRotateUtil;
 import com.frank.beautyfilter.widget.base.BeautyBaseView;
 
 import java.io.File;
-import java.nio.IntBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -35,6 +35,17 @@ public class BeautyImageView extends BeautyBaseView {
 
     private Bitmap mOriginBitmap;
 
+    // refreshed in place after every beauty operation
+    private Bitmap mPreviewBitmap;
+
+    // proxy of the running operation, shown until its full resolution result is ready
+    private Bitmap mProxyBitmap;
+
+    private volatile boolean mShowProxy = false;
+
+    // a newer proxy or result may be published, the texture is replaced once it is
+    private volatile boolean mTextureStale = false;
+
     private boolean mIsSaving = false;
 
     private SavePictureTask mPictureTask;
@@ -53,10 +64,7 @@ public class BeautyImageView extends BeautyBaseView {
 
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
-        GLES30.glDisable(GL10.GL_DITHER);
-        GLES30.glClearColor(0, 0, 0, 0);
-        GLES30.glEnable(GLES30.GL_CULL_FACE);
-        GLES30.glEnable(GLES30.GL_DEPTH_TEST);
+        super.onSurfaceCreated(gl10, eglConfig);
         BeautyFilterParam.initFilterParam(gl10);
         mFilter.init();
     }
@@ -66,6 +74,7 @@ public class BeautyImageView extends BeautyBaseView {
         GLES30.glViewport(0, 0, width, height);
         mSurfaceWidth = width;
         mSurfaceHeight = height;
+        mBeautyManager.setPreviewSize(width, height);
         adjustImageDisplaySize();
     }
 
@@ -73,8 +82,29 @@ public class BeautyImageView extends BeautyBaseView {
     public void onDrawFrame(GL10 gl10) {
         GLES30.glClearColor(0, 0, 0, 0);
         GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT | GLES30.GL_DEPTH_BUFFER_BIT);
-        if (mTextureId == OpenGLUtil.NO_TEXTURE) {
-            mTextureId = OpenGLUtil.loadTexture(mBeautyManager.getBitmap(), OpenGLUtil.NO_TEXTURE);
+        if (mTextureStale || mTextureId == OpenGLUtil.NO_TEXTURE) {
+            mTextureStale = false;
+            Bitmap bitmap = null;
+            if (mShowProxy) {
+                mProxyBitmap = mBeautyManager.getPreviewBitmap(mProxyBitmap);
+                bitmap = mProxyBitmap;
+            }
+            if (bitmap == null) {
+                // never waits for a running job: without a new result the current texture stays
+                Bitmap result = mBeautyManager.takeResult(mPreviewBitmap);
+                if (result != null) {
+                    mPreviewBitmap = result;
+                    bitmap = result;
+                } else if (mTextureId == OpenGLUtil.NO_TEXTURE) {
+                    bitmap = mPreviewBitmap;
+                }
+            }
+            if (bitmap != null) {
+                if (mTextureId != OpenGLUtil.NO_TEXTURE) {
+                    GLES30.glDeleteTextures(1, new int[]{mTextureId}, 0);
+                }
+                mTextureId = OpenGLUtil.loadTexture(bitmap, OpenGLUtil.NO_TEXTURE);
+            }
         }
         mFilter.onDrawFrame(mTextureId, mVertexBuffer, mTextureBuffer);
     }
@@ -104,7 +134,7 @@ public class BeautyImageView extends BeautyBaseView {
     }
 
     private void refreshDisplay() {
-        deleteTextures();
+        mTextureStale = true;
         this.requestRender();
     }
 
@@ -195,20 +225,8 @@ public class BeautyImageView extends BeautyBaseView {
             public void run() {
                 int width = bitmap.getWidth();
                 int height = bitmap.getHeight();
-                int[] frameBuffers = new int[1];
-                int[] frameBufferTextures = new int[1];
-                GLES30.glGenFramebuffers(1, frameBuffers, 0);
-                GLES30.glGenTextures(1, frameBufferTextures, 0);
-                GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, frameBufferTextures[0]);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
-                GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
-                GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height,
-                        0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffers[0]);
-                GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
-                        GLES30.GL_TEXTURE_2D, frameBufferTextures[0], 0);
+                FrameBufferPool.FrameBuffer frameBuffer = FrameBufferPool.obtain(width, height);
+                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, frameBuffer.frameBufferId);
                 int textureId;
                 if (newTexture) {
                     textureId = OpenGLUtil.loadTexture(bitmap, OpenGLUtil.NO_TEXTURE, true);
@@ -216,17 +234,17 @@ public class BeautyImageView extends BeautyBaseView {
                     textureId = mTextureId;
                 }
                 mFilter.onDrawFrame(textureId);
-                IntBuffer buffer = IntBuffer.allocate(width * height);
-                GLES30.glReadPixels(0 , 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, buffer);
-                Bitmap newBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                newBitmap.copyPixelsFromBuffer(buffer);
+                mPixelReader.read(frameBuffer, result -> {
+                    if (result != null) {
+                        post(() -> onGetBitmapFromGL(result));
+                    }
+                });
                 if (newTexture) {
                     GLES30.glDeleteTextures(1, new int[]{textureId}, 0);
                 }
                 GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
                 GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
-                GLES30.glDeleteTextures(1, frameBufferTextures, 0);
-                GLES30.glDeleteFramebuffers(1, frameBuffers, 0);
+                FrameBufferPool.release(frameBuffer);
                 GLES30.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
                 mFilter.destroy();
                 mFilter.init();
@@ -240,7 +258,12 @@ public class BeautyImageView extends BeautyBaseView {
         @Override
         public void handleMessage(@NonNull Message msg) {
             super.handleMessage(msg);
-            if (msg.what == BeautyManager.MSG_OPERATION_END) {
+            if (msg.what == BeautyManager.MSG_PREVIEW_READY) {
+                mShowProxy = true;
+                refreshDisplay();
+            } else if (msg.what == BeautyManager.MSG_OPERATION_END) {
+                // swap the proxy for the full resolution result, or for the image a cancel restored
+                mShowProxy = false;
                 refreshDisplay();
             }
         }
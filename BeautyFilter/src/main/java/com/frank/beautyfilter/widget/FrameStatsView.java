@@ -0,0 +1,125 @@
+package com.frank.beautyfilter.widget;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.frank.beautyfilter.util.FrameProfiler;
+
+/**
+ * An overlay of the stats of {@link FrameProfiler}, a block of lines per render loop.
+ * Lay it over the preview and make it the listener of the loops, e.g. with
+ * BeautyEngine#setFrameStatsListener.
+ */
+public class FrameStatsView extends View implements FrameProfiler.OnFrameStatsListener {
+
+    private final static int MAX_LOOPS = 4;
+    private final static float TEXT_SIZE_DP = 11.0f;
+
+    // copies of the last stats of each loop, written on the render threads
+    private static class Snapshot {
+        private String name;
+        private final String[] passNames = new String[FrameProfiler.MAX_PASSES];
+        private final long[] passNanos = new long[FrameProfiler.MAX_PASSES];
+        private int passCount;
+        private boolean gpuTimed;
+        private long meanIntervalNanos;
+        private long maxIntervalNanos;
+        private long droppedFrames;
+        private long totalDroppedFrames;
+    }
+
+    private final Snapshot[] mSnapshots = new Snapshot[MAX_LOOPS];
+    private int mLoops;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final StringBuilder mLine = new StringBuilder();
+
+    public FrameStatsView(Context context) {
+        this(context, null);
+    }
+
+    public FrameStatsView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        for (int i = 0; i < MAX_LOOPS; i++) {
+            mSnapshots[i] = new Snapshot();
+        }
+        mPaint.setColor(0xFFFFFFFF);
+        mPaint.setTypeface(Typeface.MONOSPACE);
+        mPaint.setTextSize(TEXT_SIZE_DP * getResources().getDisplayMetrics().scaledDensity);
+        mPaint.setShadowLayer(2.0f, 1.0f, 1.0f, 0xFF000000);
+    }
+
+    @Override
+    public void onFrameStats(FrameProfiler.FrameStats stats) {
+        synchronized (mSnapshots) {
+            Snapshot snapshot = null;
+            for (int i = 0; i < mLoops; i++) {
+                if (mSnapshots[i].name.equals(stats.name)) {
+                    snapshot = mSnapshots[i];
+                    break;
+                }
+            }
+            if (snapshot == null) {
+                if (mLoops == MAX_LOOPS)
+                    return;
+                snapshot = mSnapshots[mLoops++];
+                snapshot.name = stats.name;
+            }
+            snapshot.passCount = stats.passCount;
+            System.arraycopy(stats.passNames, 0, snapshot.passNames, 0, stats.passCount);
+            System.arraycopy(stats.passNanos, 0, snapshot.passNanos, 0, stats.passCount);
+            snapshot.gpuTimed = stats.gpuTimed;
+            snapshot.meanIntervalNanos = stats.meanIntervalNanos;
+            snapshot.maxIntervalNanos = stats.maxIntervalNanos;
+            snapshot.droppedFrames = stats.droppedFrames;
+            snapshot.totalDroppedFrames = stats.totalDroppedFrames;
+        }
+        postInvalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float lineHeight = mPaint.getFontSpacing();
+        float x = lineHeight / 2;
+        float y = lineHeight;
+        synchronized (mSnapshots) {
+            for (int i = 0; i < mLoops; i++) {
+                Snapshot snapshot = mSnapshots[i];
+                mLine.setLength(0);
+                mLine.append(snapshot.name).append(' ');
+                if (snapshot.meanIntervalNanos > 0) {
+                    appendHundredths(mLine, 100000000000L / snapshot.meanIntervalNanos);
+                } else {
+                    mLine.append('-');
+                }
+                mLine.append(" fps, max ");
+                appendHundredths(mLine, snapshot.maxIntervalNanos / 10000);
+                mLine.append(" ms, dropped ").append(snapshot.droppedFrames)
+                        .append(" (").append(snapshot.totalDroppedFrames).append(')');
+                canvas.drawText(mLine.toString(), x, y, mPaint);
+                y += lineHeight;
+                for (int pass = 0; pass < snapshot.passCount; pass++) {
+                    mLine.setLength(0);
+                    mLine.append("  ").append(snapshot.passNames[pass]).append(' ');
+                    appendHundredths(mLine, snapshot.passNanos[pass] / 10000);
+                    mLine.append(snapshot.gpuTimed ? " ms gpu" : " ms cpu");
+                    canvas.drawText(mLine.toString(), x, y, mPaint);
+                    y += lineHeight;
+                }
+            }
+        }
+    }
+
+    private static void appendHundredths(StringBuilder builder, long hundredths) {
+        builder.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10)
+            builder.append('0');
+        builder.append(fraction);
+    }
+
+}
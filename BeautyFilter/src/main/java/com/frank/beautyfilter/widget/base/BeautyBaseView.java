@@ -1,14 +1,17 @@
 package com.frank.beautyfilter.widget.base;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 
 import com.frank.beautyfilter.filter.base.gpuimage.GPUImageFilter;
-import com.frank.beautyfilter.filter.factory.BeautyFilterFactory;
+import com.frank.beautyfilter.filter.factory.BeautyFilterPool;
 import com.frank.beautyfilter.filter.helper.BeautyFilterType;
+import com.frank.beautyfilter.helper.AsyncPixelReader;
 import com.frank.beautyfilter.helper.SavePictureTask;
+import com.frank.beautyfilter.util.FrameBufferPool;
 import com.frank.beautyfilter.util.OpenGLUtil;
 import com.frank.beautyfilter.util.Rotation;
 import com.frank.beautyfilter.util.TextureRotateUtil;
@@ -29,6 +32,13 @@ public abstract class BeautyBaseView extends GLSurfaceView implements GLSurfaceV
 
     protected GPUImageFilter mFilter;
 
+    // type mFilter was obtained from the pool as, null when it does not come from it
+    protected BeautyFilterType mFilterType;
+
+    protected final BeautyFilterPool mFilterPool = new BeautyFilterPool();
+
+    protected final AsyncPixelReader mPixelReader = new AsyncPixelReader();
+
     protected int mTextureId = OpenGLUtil.NO_TEXTURE;
 
     protected FloatBuffer mVertexBuffer;
@@ -63,6 +73,9 @@ public abstract class BeautyBaseView extends GLSurfaceView implements GLSurfaceV
 
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
+        OpenGLUtil.onContextCreated();
+        mPixelReader.release();
+        onFilterContextCreated();
         GLES30.glDisable(GL10.GL_DITHER);
         GLES30.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
         GLES30.glEnable(GL10.GL_CULL_FACE);
@@ -77,6 +90,28 @@ public abstract class BeautyBaseView extends GLSurfaceView implements GLSurfaceV
         onFilterChanged(null);
     }
 
+    /**
+     * Free what the GL thread keeps for reuse, as asked by ComponentCallbacks2#onTrimMemory.
+     */
+    public void trimMemory(int level) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                FrameBufferPool.trimMemory(level);
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+                    mFilterPool.clear();
+            }
+        });
+    }
+
+    /**
+     * The filters built so far belong to a context that is gone.
+     */
+    protected void onFilterContextCreated() {
+        mFilterPool.abandon();
+        mFilterType = null;
+    }
+
     protected void onFilterChanged(GPUImageFilter filter) {
         if (mFilter != null) {
             mFilter.onInputSizeChanged(mImageWidth, mImageHeight);
@@ -150,18 +185,31 @@ public abstract class BeautyBaseView extends GLSurfaceView implements GLSurfaceV
         queueEvent(new Runnable() {
             @Override
             public void run() {
-                if (mFilter != null)
-                    mFilter.destroy();
-                mFilter = null;
-                mFilter = BeautyFilterFactory.getFilter(type);
-                if (mFilter != null)
-                    mFilter.init();
+                mFilterPool.recycle(mFilterType, mFilter);
+                mFilter = mFilterPool.obtain(type);
+                mFilterType = type;
                 onFilterChanged(mFilter);
             }
         });
         requestRender();
     }
 
+    /**
+     * Build the filters of types ahead of their use, one GL event each so that frames are
+     * still drawn in between, a later switch to one of them is then instant.
+     */
+    public void warmFilters(BeautyFilterType... types) {
+        for (BeautyFilterType type : types) {
+            queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    if (type != mFilterType)
+                        mFilterPool.warm(type);
+                }
+            });
+        }
+    }
+
     public enum ScaleType {
         CENTER_INSIDE,
         CENTER_CROP,
@@ -0,0 +1,20 @@
+#version 300 es
+precision mediump float;
+
+in highp vec2 textureCoordinate;
+
+uniform sampler2D inputImageTexture;
+// the colour every lattice point of the cube turns into
+uniform mediump sampler3D lutTexture;
+
+out vec4 fragColor;
+
+// the lattice points sit at the centres of the texels of the 64 wide cube
+const float SCALE = 63.0 / 64.0;
+const float OFFSET = 0.5 / 64.0;
+
+void main(){
+    vec4 color = texture(inputImageTexture, textureCoordinate);
+    // trilinear filtering interpolates between the 8 lattice points around the colour
+    fragColor = vec4(texture(lutTexture, color.rgb * SCALE + OFFSET).rgb, color.a);
+}
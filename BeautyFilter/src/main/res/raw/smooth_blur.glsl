@@ -0,0 +1,30 @@
+precision mediump float;
+
+varying highp vec2 textureCoordinate;
+
+uniform sampler2D inputImageTexture;
+uniform highp vec2 texelStep;
+// picks the channel to blur: green of the frame, then red of the first pass
+uniform vec2 blurChannel;
+
+// 9 tap gaussian in 5 fetches, linear filtering merges the outer taps in pairs
+const float WEIGHT_0 = 0.2270270270;
+const float WEIGHT_1 = 0.3162162162;
+const float WEIGHT_2 = 0.0702702703;
+const float OFFSET_1 = 1.3846153846;
+const float OFFSET_2 = 3.2307692308;
+
+void main(){
+    vec2 center = texture2D(inputImageTexture, textureCoordinate).rg;
+    highp vec2 offset1 = texelStep * OFFSET_1;
+    highp vec2 offset2 = texelStep * OFFSET_2;
+
+    float sampleColor = dot(center, blurChannel) * WEIGHT_0;
+    sampleColor += dot(texture2D(inputImageTexture, textureCoordinate + offset1).rg, blurChannel) * WEIGHT_1;
+    sampleColor += dot(texture2D(inputImageTexture, textureCoordinate - offset1).rg, blurChannel) * WEIGHT_1;
+    sampleColor += dot(texture2D(inputImageTexture, textureCoordinate + offset2).rg, blurChannel) * WEIGHT_2;
+    sampleColor += dot(texture2D(inputImageTexture, textureCoordinate - offset2).rg, blurChannel) * WEIGHT_2;
+
+    // green keeps the unblurred value, the guide of the upsample
+    gl_FragColor = vec4(sampleColor, center.g, 0.0, 1.0);
+}
@@ -0,0 +1,63 @@
+precision mediump float;
+
+varying highp vec2 textureCoordinate;
+
+uniform sampler2D inputImageTexture;
+// red: blurred green, green: green before the blur, at the resolution of the tier
+uniform sampler2D blurTexture;
+uniform highp vec2 blurTexelSize;
+uniform mediump float params;
+
+const highp vec3 W = vec3(0.299,0.587,0.114);
+// how fast a blurred texel loses weight as its guide moves away from the pixel
+const float RANGE = 100.0;
+
+float hardLight(float color)
+{
+	if(color <= 0.5)
+		color = color * color * 2.0;
+	else
+		color = 1.0 - ((1.0 - color)*(1.0 - color) * 2.0);
+	return color;
+}
+
+// joint bilateral upsample: of the 4 blurred texels around the pixel, those whose guide
+// is close to the pixel count most, so the low resolution does not smear edges
+float upsampleBlur(float green)
+{
+    highp vec2 coordinate = textureCoordinate / blurTexelSize - 0.5;
+    highp vec2 base = floor(coordinate);
+    vec2 f = coordinate - base;
+    highp vec2 corner = (base + 0.5) * blurTexelSize;
+    vec2 sample00 = texture2D(blurTexture, corner).rg;
+    vec2 sample10 = texture2D(blurTexture, corner + vec2(blurTexelSize.x, 0.0)).rg;
+    vec2 sample01 = texture2D(blurTexture, corner + vec2(0.0, blurTexelSize.y)).rg;
+    vec2 sample11 = texture2D(blurTexture, corner + blurTexelSize).rg;
+
+    vec4 weight = vec4((1.0 - f.x) * (1.0 - f.y), f.x * (1.0 - f.y), (1.0 - f.x) * f.y, f.x * f.y);
+    vec4 distance = vec4(sample00.g, sample10.g, sample01.g, sample11.g) - green;
+    weight *= exp(-distance * distance * RANGE) + 0.001;
+    return dot(weight, vec4(sample00.r, sample10.r, sample01.r, sample11.r)) / dot(weight, vec4(1.0));
+}
+
+void main(){
+
+    vec3 centralColor = texture2D(inputImageTexture, textureCoordinate).rgb;
+
+    // the same share of the centre as the 20 tap kernel of default_fragment
+    float sampleColor = (centralColor.g * 20.0 + upsampleBlur(centralColor.g) * 28.0) / 48.0;
+
+    float highPass = centralColor.g - sampleColor + 0.5;
+
+    for(int i = 0; i < 5;i++)
+    {
+        highPass = hardLight(highPass);
+    }
+    float luminance = dot(centralColor, W);
+
+    float alpha = pow(luminance, params);
+
+    vec3 smoothColor = centralColor + (centralColor-vec3(highPass))*alpha*0.1;
+
+    gl_FragColor = vec4(mix(smoothColor.rgb, max(smoothColor, centralColor), alpha), 1.0);
+}
@@ -0,0 +1,120 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A muxer that keeps what is written to it instead of writing a file.
+ */
+final class FakeMuxerSink implements MuxerSink {
+
+    static final class Written {
+        final int trackIndex;
+        final long timeUs;
+        final int flags;
+        final int size;
+
+        Written(int trackIndex, SampleInfo info) {
+            this.trackIndex = trackIndex;
+            this.timeUs = info.presentationTimeUs;
+            this.flags = info.flags;
+            this.size = info.size;
+        }
+
+        boolean isKeyFrame() {
+            return (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        }
+    }
+
+    /** every sink it created, in order */
+    static final class Factory implements MuxerSink.Factory {
+        final List<FakeMuxerSink> sinks = new ArrayList<>();
+
+        @Override
+        public synchronized MuxerSink create(File file) {
+            FakeMuxerSink sink = new FakeMuxerSink(file);
+            sinks.add(sink);
+            return sink;
+        }
+
+        synchronized FakeMuxerSink get(int index) {
+            return sinks.get(index);
+        }
+
+        synchronized int size() {
+            return sinks.size();
+        }
+    }
+
+    final File file;
+    final List<Written> written = new ArrayList<>();
+    int trackCount;
+    boolean started;
+    boolean stopped;
+    private final CountDownLatch mReleased = new CountDownLatch(1);
+
+    FakeMuxerSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        if (started) {
+            throw new IllegalStateException("muxer started");
+        }
+        return trackCount++;
+    }
+
+    @Override
+    public void start() {
+        started = true;
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) {
+        if (!started || stopped) {
+            throw new IllegalStateException("muxer not started");
+        }
+        if (trackIndex < 0 || trackIndex >= trackCount) {
+            throw new IllegalArgumentException("no track " + trackIndex);
+        }
+        if (data.remaining() < info.size) {
+            throw new IllegalArgumentException("sample of " + info.size + " bytes in " + data.remaining());
+        }
+        written.add(new Written(trackIndex, info));
+    }
+
+    @Override
+    public void stop() {
+        if (!started) {
+            throw new IllegalStateException("muxer not started");
+        }
+        stopped = true;
+    }
+
+    @Override
+    public void release() {
+        mReleased.countDown();
+    }
+
+    boolean awaitRelease() throws InterruptedException {
+        return mReleased.await(2, TimeUnit.SECONDS);
+    }
+
+    List<Written> track(int trackIndex) {
+        List<Written> samples = new ArrayList<>();
+        for (Written sample : written) {
+            if (sample.trackIndex == trackIndex) {
+                samples.add(sample);
+            }
+        }
+        return samples;
+    }
+}
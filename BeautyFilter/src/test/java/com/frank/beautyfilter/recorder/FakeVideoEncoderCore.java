@@ -0,0 +1,82 @@
+package com.frank.beautyfilter.recorder;
+
+import android.media.MediaCodec;
+import android.view.Surface;
+
+import com.frank.beautyfilter.recorder.video.VideoEncoderCore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * An encoder without a codec: its format comes out with the first drain, a queued frame at
+ * the drain after it, as a key frame at the key frame interval or when one was asked for.
+ */
+final class FakeVideoEncoderCore implements VideoEncoderCore {
+
+    static final int FRAME_SIZE = 1000;
+
+    private final MuxerCoordinator mMuxer;
+    private final int mKeyFrameInterval;
+    private final ArrayDeque<Long> mQueued = new ArrayDeque<>();
+    private final ByteBuffer mData = ByteBuffer.allocate(FRAME_SIZE);
+    private final SampleInfo mInfo = new SampleInfo();
+    private boolean mFormatOutput;
+    private boolean mKeyFrameRequested;
+    private int mFrameCount;
+
+    FakeVideoEncoderCore(MuxerCoordinator muxer, int keyFrameInterval) {
+        mMuxer = muxer;
+        mKeyFrameInterval = keyFrameInterval;
+    }
+
+    void queueFrame(long timeUs) {
+        mQueued.addLast(timeUs);
+    }
+
+    /**
+     * What TextureVideoRecorder does for a frame: ask for a key frame when the muxer
+     * wants one, queue the frame and drain.
+     */
+    void recordFrame(long timeUs) {
+        if (mMuxer.takeKeyFrameRequest()) {
+            requestKeyFrame();
+        }
+        queueFrame(timeUs);
+        drainEncoder(false);
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return null;
+    }
+
+    @Override
+    public void drainEncoder(boolean endOfStream) {
+        if (!mFormatOutput) {
+            mFormatOutput = true;
+            mMuxer.addTrack(MuxerCoordinator.TRACK_VIDEO, null);
+        }
+        while (!mQueued.isEmpty()) {
+            boolean keyFrame = mKeyFrameRequested || mFrameCount % mKeyFrameInterval == 0;
+            mKeyFrameRequested = false;
+            mFrameCount++;
+            mData.clear();
+            mInfo.set(0, FRAME_SIZE, mQueued.pollFirst(), keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            mMuxer.writeSampleData(MuxerCoordinator.TRACK_VIDEO, mData, mInfo);
+        }
+        if (endOfStream) {
+            mMuxer.endTrack(MuxerCoordinator.TRACK_VIDEO);
+        }
+    }
+
+    @Override
+    public void requestKeyFrame() {
+        mKeyFrameRequested = true;
+    }
+
+    @Override
+    public void release() {
+        mQueued.clear();
+    }
+}
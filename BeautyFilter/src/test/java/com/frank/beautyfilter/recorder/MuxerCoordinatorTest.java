@@ -0,0 +1,360 @@
+package com.frank.beautyfilter.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class MuxerCoordinatorTest {
+
+    private static final long FRAME_US = 33333;
+    // an AAC frame of 1024 samples at 44.1kHz
+    private static final long AUDIO_FRAME_US = 23220;
+    private static final int AUDIO_SIZE = 200;
+    private static final long WRITE_AHEAD_US = 500000;
+    private static final int MAX_HELD_SAMPLES = 150;
+    private static final long RESUME_GAP_US = 33333;
+
+    private File mDir;
+    private File mOutputFile;
+    private FakeMuxerSink.Factory mSinks;
+    private final ByteBuffer mAudioData = ByteBuffer.allocate(AUDIO_SIZE);
+    private final SampleInfo mAudioInfo = new SampleInfo();
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("muxer").toFile();
+        mOutputFile = new File(mDir, "movie.mp4");
+        mSinks = new FakeMuxerSink.Factory();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private MuxerCoordinator newMuxer(long segmentDurationUs) throws IOException {
+        return new MuxerCoordinator(mOutputFile, segmentDurationUs, 0, null, mSinks);
+    }
+
+    private void writeAudio(MuxerCoordinator muxer, long timeUs) {
+        mAudioData.clear();
+        mAudioInfo.set(0, AUDIO_SIZE, timeUs, 0);
+        muxer.writeSampleData(MuxerCoordinator.TRACK_AUDIO, mAudioData, mAudioInfo);
+    }
+
+    @Test
+    public void startsOnceEveryTrackIsAdded() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 30);
+        encoder.recordFrame(0);
+        encoder.recordFrame(FRAME_US);
+        FakeMuxerSink sink = mSinks.get(0);
+        assertFalse(sink.started);
+
+        muxer.addTrack(MuxerCoordinator.TRACK_AUDIO, null);
+        assertTrue(sink.started);
+        assertEquals(2, sink.trackCount);
+        // nothing is known of the audio yet, the video waits for it
+        assertEquals(0, sink.written.size());
+
+        writeAudio(muxer, 0);
+        assertEquals(3, sink.written.size());
+        assertTimesIncreasing(sink.track(MuxerCoordinator.TRACK_VIDEO));
+        assertEquals(FRAME_US, sink.written.get(2).timeUs);
+    }
+
+    @Test
+    public void writesTheFramesInOrder() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 30);
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        // a burst of frames drained at once, as the polling core does
+        for (int i = 0; i < 10; i++) {
+            encoder.queueFrame(i * FRAME_US);
+        }
+        encoder.drainEncoder(false);
+        for (int i = 10; i < 90; i++) {
+            encoder.recordFrame(i * FRAME_US);
+        }
+
+        List<FakeMuxerSink.Written> written = mSinks.get(0).written;
+        assertEquals(90, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(i * FRAME_US, written.get(i).timeUs);
+            assertEquals(FakeVideoEncoderCore.FRAME_SIZE, written.get(i).size);
+            assertEquals(i % 30 == 0, written.get(i).isKeyFrame());
+        }
+    }
+
+    @Test
+    public void interleavesBurstsWithinTheWriteAhead() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 30);
+        muxer.addTrack(MuxerCoordinator.TRACK_AUDIO, null);
+        long videoUs = 0;
+        long audioUs = 0;
+        int samples = 0;
+        // each encoder outputs a second at a time, the video first
+        for (int second = 1; second <= 3; second++) {
+            for (; videoUs < second * 1000000L; videoUs += FRAME_US) {
+                encoder.queueFrame(videoUs);
+                samples++;
+            }
+            encoder.drainEncoder(false);
+            for (; audioUs < second * 1000000L; audioUs += AUDIO_FRAME_US) {
+                writeAudio(muxer, audioUs);
+                samples++;
+            }
+        }
+        encoder.drainEncoder(true);
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+
+        List<FakeMuxerSink.Written> written = mSinks.get(0).written;
+        assertEquals(samples, written.size());
+        assertTimesIncreasing(mSinks.get(0).track(MuxerCoordinator.TRACK_VIDEO));
+        assertTimesIncreasing(mSinks.get(0).track(MuxerCoordinator.TRACK_AUDIO));
+        // no sample is written further ahead of a sample of the other track written after it
+        for (int i = 0; i < written.size(); i++) {
+            for (int j = i + 1; j < written.size(); j++) {
+                if (written.get(i).trackIndex != written.get(j).trackIndex) {
+                    assertTrue("sample " + i + " ahead of sample " + j,
+                            written.get(i).timeUs - written.get(j).timeUs <= WRITE_AHEAD_US);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void holdsNoMoreThanTheBound() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 30);
+        muxer.addTrack(MuxerCoordinator.TRACK_AUDIO, null);
+        int frames = MAX_HELD_SAMPLES + 50;
+        // the audio never outputs a sample: past the bound the earliest frames go anyway
+        for (int i = 0; i < frames; i++) {
+            encoder.recordFrame(i * FRAME_US);
+        }
+        FakeMuxerSink sink = mSinks.get(0);
+        assertEquals(frames - MAX_HELD_SAMPLES, sink.written.size());
+        for (int i = 0; i < sink.written.size(); i++) {
+            assertEquals(i * FRAME_US, sink.written.get(i).timeUs);
+        }
+
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        assertEquals(frames, sink.written.size());
+        assertTimesIncreasing(sink.written);
+    }
+
+    @Test
+    public void endOfStreamFinishesTheFile() throws IOException, InterruptedException {
+        final boolean[] saved = new boolean[2];
+        MuxerCoordinator muxer = new MuxerCoordinator(mOutputFile, 0, 0, (file, success) -> {
+            saved[0] = true;
+            saved[1] = success;
+        }, mSinks);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 30);
+        // no microphone: the audio ends before its format, the file has the video only
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        for (int i = 0; i < 10; i++) {
+            encoder.recordFrame(i * FRAME_US);
+        }
+        FakeMuxerSink sink = mSinks.get(0);
+        assertEquals(1, sink.trackCount);
+        assertEquals(10, sink.written.size());
+
+        encoder.queueFrame(10 * FRAME_US);
+        encoder.drainEncoder(true);
+        // after the end of the stream
+        encoder.recordFrame(11 * FRAME_US);
+        assertEquals(11, sink.written.size());
+
+        muxer.release();
+        assertTrue(sink.stopped);
+        assertTrue(sink.awaitRelease());
+        assertTrue(saved[0]);
+        assertTrue(saved[1]);
+        // once released nothing more reaches the file
+        encoder.recordFrame(12 * FRAME_US);
+        muxer.release();
+        assertEquals(11, sink.written.size());
+    }
+
+    @Test
+    public void releaseBeforeStartFails() throws IOException, InterruptedException {
+        final boolean[] saved = {false, true};
+        MuxerCoordinator muxer = new MuxerCoordinator(mOutputFile, 0, 0, (file, success) -> {
+            saved[0] = true;
+            saved[1] = success;
+        }, mSinks);
+        muxer.release();
+        FakeMuxerSink sink = mSinks.get(0);
+        assertFalse(sink.started);
+        assertFalse(sink.stopped);
+        assertTrue(sink.awaitRelease());
+        assertTrue(saved[0]);
+        assertFalse(saved[1]);
+    }
+
+    @Test
+    public void endTrackAfterRelease() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 30);
+        encoder.recordFrame(0);
+        encoder.recordFrame(FRAME_US);
+        // stopped before the microphone output its format, the audio thread ends after it
+        muxer.release();
+        muxer.addTrack(MuxerCoordinator.TRACK_AUDIO, null);
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        writeAudio(muxer, 0);
+
+        FakeMuxerSink sink = mSinks.get(0);
+        assertEquals(1, sink.trackCount);
+        assertFalse(sink.started);
+        assertEquals(0, sink.written.size());
+    }
+
+    @Test
+    public void resumeGoesOnFromThePause() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 1000);
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        long timeUs = 0;
+        for (int i = 0; i < 30; i++, timeUs += FRAME_US) {
+            encoder.recordFrame(timeUs);
+        }
+        long pausedUs = timeUs - FRAME_US;
+        muxer.pause();
+        for (int i = 0; i < 60; i++, timeUs += FRAME_US) {
+            encoder.recordFrame(timeUs);
+        }
+        muxer.resume();
+        for (int i = 0; i < 30; i++, timeUs += FRAME_US) {
+            encoder.recordFrame(timeUs);
+        }
+
+        List<FakeMuxerSink.Written> written = mSinks.get(0).written;
+        assertEquals(60, written.size());
+        assertTimesIncreasing(written);
+        FakeMuxerSink.Written first = written.get(30);
+        assertEquals(pausedUs + RESUME_GAP_US, first.timeUs);
+        // the encoder is asked for a key frame to go on with
+        assertTrue(first.isKeyFrame());
+        for (int i = 30; i < 60; i++) {
+            assertEquals(pausedUs + RESUME_GAP_US + (i - 30) * FRAME_US, written.get(i).timeUs);
+        }
+    }
+
+    @Test
+    public void resumeStartsAtKeyFrame() throws IOException {
+        MuxerCoordinator muxer = newMuxer(0);
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, 1000);
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        long timeUs = 0;
+        for (int i = 0; i < 10; i++, timeUs += FRAME_US) {
+            encoder.recordFrame(timeUs);
+        }
+        muxer.pause();
+        muxer.resume();
+        // in the encoder before the key frame was asked for
+        for (int i = 0; i < 3; i++, timeUs += FRAME_US) {
+            encoder.queueFrame(timeUs);
+            encoder.drainEncoder(false);
+        }
+        for (int i = 0; i < 10; i++, timeUs += FRAME_US) {
+            encoder.recordFrame(timeUs);
+        }
+
+        List<FakeMuxerSink.Written> written = mSinks.get(0).written;
+        assertEquals(20, written.size());
+        assertTimesIncreasing(written);
+        FakeMuxerSink.Written first = written.get(10);
+        assertTrue(first.isKeyFrame());
+        assertEquals(written.get(9).timeUs + RESUME_GAP_US, first.timeUs);
+        for (int i = 10; i < 20; i++) {
+            assertEquals(first.timeUs + (i - 10) * FRAME_US, written.get(i).timeUs);
+        }
+    }
+
+    @Test
+    public void segmentsStartAtKeyFrames() throws IOException, InterruptedException {
+        MuxerCoordinator muxer = newMuxer(1000000);
+        // no key frame but the first unless one is asked for
+        FakeVideoEncoderCore encoder = new FakeVideoEncoderCore(muxer, Integer.MAX_VALUE);
+        muxer.endTrack(MuxerCoordinator.TRACK_AUDIO);
+        int frames = 90;
+        for (int i = 0; i < frames; i++) {
+            encoder.recordFrame(i * FRAME_US);
+        }
+
+        assertEquals(3, mSinks.size());
+        int total = 0;
+        long lastUs = Long.MIN_VALUE;
+        for (int s = 0; s < mSinks.size(); s++) {
+            FakeMuxerSink sink = mSinks.get(s);
+            assertEquals(SegmentConcatenator.segmentFile(mOutputFile, s), sink.file);
+            assertTrue(sink.written.get(0).isKeyFrame());
+            assertTrue(sink.written.get(0).timeUs > lastUs);
+            long durationUs = sink.written.get(sink.written.size() - 1).timeUs - sink.written.get(0).timeUs;
+            if (s < mSinks.size() - 1) {
+                // the key frame is asked for at the limit and comes a frame later
+                assertTrue(durationUs >= 1000000 && durationUs <= 1000000 + 2 * FRAME_US);
+                // finished in the background as the next one starts
+                assertTrue(sink.awaitRelease());
+                assertTrue(sink.stopped);
+            }
+            lastUs = sink.written.get(sink.written.size() - 1).timeUs;
+            total += sink.written.size();
+        }
+        assertEquals(frames, total);
+    }
+
+    @Test
+    public void leftoverSegmentsAreMovedAside() throws IOException {
+        // a recording into the movie that never stopped
+        for (int i = 0; i < 2; i++) {
+            Files.write(SegmentConcatenator.segmentFile(mOutputFile, i).toPath(), new byte[]{(byte) i});
+        }
+        // the join needs a device, it is queued and never run
+        List<Runnable> queued = new ArrayList<>();
+        Executor executor = SegmentConcatenator.setExecutor(queued::add);
+        try {
+            newMuxer(1000000);
+        } finally {
+            SegmentConcatenator.setExecutor(executor);
+        }
+        assertEquals(1, queued.size());
+
+        File recoveredFile = new File(mDir, "movie.recovered.mp4");
+        for (int i = 0; i < 2; i++) {
+            assertFalse(SegmentConcatenator.segmentFile(mOutputFile, i).exists());
+            File moved = SegmentConcatenator.segmentFile(recoveredFile, i);
+            assertTrue(moved.exists());
+            assertEquals(i, Files.readAllBytes(moved.toPath())[0]);
+        }
+        assertEquals(SegmentConcatenator.segmentFile(mOutputFile, 0), mSinks.get(0).file);
+    }
+
+    private static void assertTimesIncreasing(List<FakeMuxerSink.Written> samples) {
+        for (int i = 1; i < samples.size(); i++) {
+            assertTrue("sample " + i, samples.get(i).timeUs > samples.get(i - 1).timeUs);
+        }
+    }
+}
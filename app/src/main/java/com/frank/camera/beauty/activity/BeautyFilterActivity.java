@@ -25,7 +25,9 @@ import android.widget.RelativeLayout;
 import com.frank.beautyfilter.BeautyEngine;
 import com.frank.beautyfilter.filter.helper.BeautyFilterType;
 import com.frank.beautyfilter.util.BeautyParams;
+import com.frank.beautyfilter.util.FrameAllocationTracker;
 import com.frank.beautyfilter.widget.BeautyCameraView;
+import com.frank.camera.BuildConfig;
 import com.frank.camera.R;
 import com.frank.camera.beauty.adapter.FilterAdapter;
 
@@ -40,6 +42,7 @@ public class BeautyFilterActivity extends AppCompatActivity implements View.OnCl
     private LinearLayout mFilterLayout;
 
     private BeautyEngine mBeautyEngine;
+    private FilterAdapter mFilterAdapter;
     private BeautyCameraView mCameraView;
 
     private boolean isRecording = false;
@@ -50,7 +53,8 @@ public class BeautyFilterActivity extends AppCompatActivity implements View.OnCl
     private final static int MODE_VIDEO   = 2;
     private int mBeautyMode = MODE_PICTURE;
 
-    private final String[] permissions = {Manifest.permission.WRITE_EXTERNAL_STORAGE};
+    private final String[] permissions = {Manifest.permission.WRITE_EXTERNAL_STORAGE,
+            Manifest.permission.RECORD_AUDIO};
 
     private final static BeautyFilterType[] types = new BeautyFilterType[] {
             BeautyFilterType.NONE,
@@ -79,6 +83,8 @@ public class BeautyFilterActivity extends AppCompatActivity implements View.OnCl
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.activity_beauty_camera);
+        // report the preview frames that allocate once the camera runs steadily
+        FrameAllocationTracker.setEnabled(BuildConfig.DEBUG, false);
         mBeautyEngine = new BeautyEngine(findViewById(R.id.glsurfaceview_camera));
         initView();
     }
@@ -100,7 +106,7 @@ public class BeautyFilterActivity extends AppCompatActivity implements View.OnCl
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         layoutManager.setOrientation(LinearLayoutManager.HORIZONTAL);
         mFilterListView.setLayoutManager(layoutManager);
-        FilterAdapter mFilterAdapter = new FilterAdapter(this);
+        mFilterAdapter = new FilterAdapter(this);
         mFilterAdapter.setFilterTypes(types);
         mFilterListView.setAdapter(mFilterAdapter);
         mFilterAdapter.setOnFilterChangeListener(mOnFilterChangeListener);
@@ -165,6 +171,7 @@ public class BeautyFilterActivity extends AppCompatActivity implements View.OnCl
         @Override
         public void onFilterChanged(BeautyFilterType filterType, int position) {
             mBeautyEngine.setFilter(filterType);
+            mBeautyEngine.warmFilters(mFilterAdapter.getNeighbourTypes(position));
         }
 
     };
@@ -225,6 +232,7 @@ public class BeautyFilterActivity extends AppCompatActivity implements View.OnCl
     private void showFilter() {
         mFilterLayout.setVisibility(View.VISIBLE);
         findViewById(R.id.btn_camera_shutter).setClickable(false);
+        mBeautyEngine.warmFilters(mFilterAdapter.getNeighbourTypes(mFilterAdapter.getLastSelected()));
     }
 
     private void hideFilter() {
@@ -117,6 +117,20 @@ public class FilterAdapter extends RecyclerView.Adapter<FilterAdapter.FilterHold
         return lastSelected;
     }
 
+    /**
+     * Types of the filters on both sides of position, the ones the user is likely to pick next.
+     */
+    public BeautyFilterType[] getNeighbourTypes(int position) {
+        List<BeautyFilterType> neighbours = new ArrayList<>(2);
+        for (int i = position - 1; i <= position + 1; i += 2) {
+            if (filterInfoList != null && i >= 0 && i < filterInfoList.size()
+                    && filterInfoList.get(i).getFilterType() != BeautyFilterType.NONE) {
+                neighbours.add(filterInfoList.get(i).getFilterType());
+            }
+        }
+        return neighbours.toArray(new BeautyFilterType[0]);
+    }
+
     @SuppressLint("NotifyDataSetChanged")
     public void setFilterList(List<FilterInfo> filterList) {
         this.filterInfoList = filterList;
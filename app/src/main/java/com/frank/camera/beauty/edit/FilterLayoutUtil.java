@@ -54,6 +54,7 @@ public class FilterLayoutUtil {
         initFilterInfos();
         mAdapter.setFilterList(filterList);
         mAdapter.setOnFilterChangeListener(onFilterChangeListener);
+        mBeautyDisplay.warmFilters(mAdapter.getNeighbourTypes(position));
 
         view.findViewById(R.id.btn_camera_closefilter).setVisibility(View.GONE);
     }
@@ -93,6 +94,7 @@ public class FilterLayoutUtil {
                     mAdapter.notifyItemChanged(i);
                 }
             }
+            mBeautyDisplay.warmFilters(mAdapter.getNeighbourTypes(FilterLayoutUtil.this.position));
         }
 
     };
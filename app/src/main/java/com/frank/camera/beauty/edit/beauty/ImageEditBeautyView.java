@@ -83,13 +83,7 @@ public class ImageEditBeautyView extends ImageEditFragment {
     }
 
     private void init() {
-        new Thread(new Runnable() {
-
-            @Override
-            public void run() {
-                mBeautyManager.initBeauty();
-            }
-        }).start();
+        mBeautyManager.initBeautyAsync();
     }
 
     @Override
@@ -108,21 +102,11 @@ public class ImageEditBeautyView extends ImageEditFragment {
             = new BubbleSeekBar.OnBubbleSeekBarChangeListener() {
 
         @Override
-        public void onStopTrackingTouch(final SeekBar seekBar) {
-            new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    float level = seekBar.getProgress() / 10.0f;
-                    if (level < 0)
-                        level = 0;
-                    mBeautyManager.onStartSkinSmooth(level);
-                    if (seekBar.getProgress() != 0)
-                        mIsSmoothed = true;
-                    else
-                        mIsSmoothed = false;
-                }
-            }).start();
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            if (seekBar.getProgress() != 0)
+                mIsSmoothed = true;
+            else
+                mIsSmoothed = false;
         }
 
         @Override
@@ -133,6 +117,13 @@ public class ImageEditBeautyView extends ImageEditFragment {
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress,
                                       boolean fromUser) {
+            if (!fromUser)
+                return;
+            // superseded levels are dropped, so dragging never queues up work
+            float level = progress / 10.0f;
+            if (level < 0)
+                level = 0;
+            mBeautyManager.submitSkinSmooth(level);
         }
     };
 
@@ -141,10 +132,6 @@ public class ImageEditBeautyView extends ImageEditFragment {
 
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
-            float level = seekBar.getProgress() / 20.0f;
-            if (level < 1)
-                level = 1;
-            mBeautyManager.onStartSkinWhite(level);
             if (seekBar.getProgress() != 0)
                 mIsWhiten = true;
             else
@@ -159,6 +146,12 @@ public class ImageEditBeautyView extends ImageEditFragment {
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress,
                                       boolean fromUser) {
+            if (!fromUser)
+                return;
+            float level = progress / 20.0f;
+            if (level < 1)
+                level = 1;
+            mBeautyManager.submitSkinWhite(level);
         }
     };
 